@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.resource.limit.AIMDLimit;
+import zur13.checkpoint.resource.limit.AdaptiveLimit;
+import zur13.checkpoint.resource.limit.GradientLimit;
+
+public class AdaptiveLimitTest {
+	protected static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+	protected static final long SLOW = TimeUnit.MILLISECONDS.toNanos(50);
+
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(10); // 10 seconds max per method tested
+
+	@Test
+	public void testAIMD() {
+		AdaptiveLimit limit = new AIMDLimit(2, 32, 4, 10, TimeUnit.MILLISECONDS, 0.5);
+		for (int i = 0; i < 100; i++) {
+			limit.onSample(FAST, limit.getLimit());
+		}
+		assertTrue("Limit did not grow to the max bound: " + limit, limit.getLimit() == 32);
+		limit.onSample(SLOW, limit.getLimit());
+		assertTrue("Limit was not cut on overload: " + limit, limit.getLimit() == 16);
+		for (int i = 0; i < 100; i++) {
+			limit.onSample(SLOW, limit.getLimit());
+		}
+		assertTrue("Limit did not drop to the min bound: " + limit, limit.getLimit() == 2);
+		limit.onSample(FAST, 0);
+		assertTrue("Limit grows while it is not used: " + limit, limit.getLimit() == 2);
+	}
+
+	@Test
+	public void testGradient() {
+		AdaptiveLimit limit = new GradientLimit(1, 64, 4);
+		for (int i = 0; i < 200; i++) {
+			limit.onSample(FAST, limit.getLimit());
+		}
+		assertTrue("Limit did not grow on steady latency: " + limit, limit.getLimit() == 64);
+		for (int i = 0; i < 50; i++) {
+			limit.onSample(SLOW, limit.getLimit());
+		}
+		assertTrue("Limit did not drop on growing latency: " + limit, limit.getLimit() < 16);
+	}
+
+	@Test
+	public void testCheckpoint() throws InterruptedException {
+		ACheckpoint cp = CheckpointBuilder.newInst().setName("CheckpointAdaptive").useUnsafeDataStorage()
+				.setFlyweightPasses(true).setAdaptiveLimit(() -> new AIMDLimit(1, 8, 2, 20, TimeUnit.MILLISECONDS, 0.5))
+				.build();
+		Pass p1 = cp.tryGetPass("a");
+		Pass p2 = cp.tryGetPass("a");
+		assertTrue("Initial limit ignored", p1 != null && p2 != null && p1 != p2 && cp.tryGetPass("a") == null);
+		p1.close();
+		// limit grows to 3 after the fast pass
+		p1 = cp.tryGetPass("a");
+		Pass p3 = cp.tryGetPass("a");
+		assertTrue("Limit did not grow", p1 != null && p3 != null && cp.tryGetPass("a") == null);
+		Thread.sleep(30);
+		p1.close();
+		// limit drops to 1 after the slow pass
+		p2.close();
+		p3.close();
+		p1 = cp.tryGetPass("a");
+		assertTrue("Limit did not drop", p1 != null && cp.tryGetPass("a") == null);
+		p1.close();
+		try (Pass rw = cp.tryGetPassRW("a")) {
+			assertTrue("Passes were not returned", rw != null);
+		}
+	}
+
+	@Test
+	public void testRollbackIsNotSampled() {
+		final AdaptiveLimit limit = new AIMDLimit(1, 8, 2, 20, TimeUnit.MILLISECONDS, 0.5);
+		ACheckpoint cp = CheckpointBuilder.newInst().setName("CheckpointAdaptiveRollback").setGlobalPassesLimit(1)
+				.setAdaptiveLimit(() -> limit).build();
+		try (Pass held = cp.tryGetPass("b")) {
+			for (int i = 0; i < 100; i++) {
+				assertTrue("Global limit ignored", cp.tryGetPass("a") == null);
+			}
+			cp.acquireAsync("a").cancel(false);
+			assertTrue("Passes rolled back on global limit were sampled: " + limit, limit.getLimit() == 2);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+
+/**
+ * Checks that pass request and return cycle of the hot resource id allocates no memory in flyweight passes mode with
+ * both unsafe and default data storage. Uses per thread allocation
+ * counter of the HotSpot JVM (same counter JMH -prof gc reads).
+ */
+public class AllocationFreeTest {
+	protected static final int WARMUP_ITERATIONS = 200000;
+	protected static final int ITERATIONS = 100000;
+
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(30); // 30 seconds max per method tested
+
+	@Test
+	public void testGetPassUninterruptiblyAllocationFree() {
+		ACheckpoint cp = CheckpointBuilder.newInst().setName("CheckpointFlyweight").setMaxPassesPerResource(4)
+				.setGlobalPassesLimit(100).useUnsafeDataStorage().setFlyweightPasses(true).build();
+		assertAllocationFree(cp);
+	}
+
+	@Test
+	public void testDefaultStorageAllocationFree() {
+		ACheckpoint cp = CheckpointBuilder.newInst().setName("CheckpointFlyweight").setMaxPassesPerResource(4)
+				.setGlobalPassesLimit(100).setFlyweightPasses(true).build();
+		assertAllocationFree(cp);
+	}
+
+	protected void assertAllocationFree(ACheckpoint cp) {
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long tid = Thread.currentThread().getId();
+
+		cycle(cp, WARMUP_ITERATIONS);
+		long before = mx.getThreadAllocatedBytes(tid);
+		cycle(cp, ITERATIONS);
+		long allocated = mx.getThreadAllocatedBytes(tid) - before;
+
+		// allow a few bytes for the allocation counter itself, pass allocation would take megabytes here
+		assertTrue("Pass request allocated " + allocated + " bytes", allocated < 1024);
+	}
+
+	protected void cycle(ACheckpoint cp, int iterations) {
+		for (int i = 0; i < iterations; i++) {
+			try (Pass p = cp.getPassUninterruptibly("device")) {
+				assertTrue(p.isReadOnly());
+			}
+			try (Pass p = cp.getPassRWUninterruptibly("device")) {
+				assertTrue(!p.isReadOnly());
+			}
+		}
+	}
+}
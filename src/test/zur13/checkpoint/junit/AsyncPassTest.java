@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+
+public class AsyncPassTest {
+	protected static final int WAITERS = 10000;
+
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(10); // 10 seconds max per method tested
+
+	ACheckpoint cp = CheckpointBuilder.newInst().setName("CheckpointAsync").setMaxPassesPerResource(1).build();
+
+	@Test
+	public void testQueuedWithoutThreads() {
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger violations = new AtomicInteger();
+		List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+		int threads = Thread.activeCount();
+		Pass held = cp.tryGetPassRW("a");
+		for (int i = 0; i < WAITERS; i++) {
+			futures.add(cp.acquireRWAsync("a").thenAccept(p -> {
+				if ( active.incrementAndGet() != 1 ) {
+					violations.incrementAndGet();
+				}
+				active.decrementAndGet();
+				p.close();
+			}));
+		}
+		assertTrue("Async applicants take threads", Thread.activeCount() <= threads);
+		for (CompletableFuture<Void> f : futures) {
+			assertTrue("Pass granted while RW pass is active", !f.isDone());
+		}
+		held.close();
+		for (CompletableFuture<Void> f : futures) {
+			f.join();
+		}
+		assertTrue("RW pass given twice", violations.get() == 0);
+		try (Pass p = cp.tryGetPassRW("a")) {
+			assertTrue("Pass was not returned", p != null);
+		}
+	}
+
+	@Test
+	public void testCancel() {
+		Pass held = cp.tryGetPassRW("a");
+		CompletableFuture<Pass> f = cp.acquireRWAsync("a");
+		assertTrue(f.cancel(false));
+		held.close();
+		try (Pass p = cp.tryGetPassRW("a")) {
+			assertTrue("Pass was granted to the cancelled applicant", p != null);
+		}
+	}
+
+	@Test
+	public void testGlobalLimit() {
+		ACheckpoint limited = CheckpointBuilder.newInst().setName("CheckpointAsyncLimited").setGlobalPassesLimit(1)
+				.build();
+		Pass held = limited.tryGetPassRW("a");
+		CompletableFuture<Pass> f = limited.acquireRWAsync("b");
+		assertTrue("Global limit ignored", !f.isDone());
+		held.close();
+		Pass p = f.join();
+		assertTrue("Global limit ignored", limited.tryGetPass("c") == null);
+		p.close();
+		try (Pass pc = limited.tryGetPass("c")) {
+			assertTrue("Global permit was not returned", pc != null);
+		}
+	}
+
+	@Test
+	public void testSemaphoreResourceData() {
+		ACheckpoint semaphore = CheckpointBuilder.newInst().setName("CheckpointAsyncSemaphore")
+				.setMaxPassesPerResource(1).useSemaphoreResourceData().build();
+		Pass held = semaphore.tryGetPassRW("a");
+		CompletableFuture<Pass> f = semaphore.acquireRWAsync("a");
+		CompletableFuture<Pass> cancelled = semaphore.acquireRWAsync("a");
+		assertTrue(cancelled.cancel(false));
+		assertTrue("Pass granted while RW pass is active", !f.isDone());
+		held.close();
+		f.join().close();
+		try (Pass p = semaphore.tryGetPassRW("a", 1, TimeUnit.SECONDS)) {
+			assertTrue("Pass was not returned or granted to the cancelled applicant", p != null);
+		} catch (InterruptedException e) {
+			fail("Test interrupted");
+		}
+	}
+
+	@Test
+	public void testReentrantCheckpoint() {
+		ACheckpoint reentrant = CheckpointBuilder.newInst().setName("CheckpointAsyncReentrant")
+				.setMaxPassesPerResource(1).setReentrant(true).build();
+		Pass held = reentrant.tryGetPassRW("a");
+		CompletableFuture<Pass> f = reentrant.acquireRWAsync("a");
+		assertTrue("Async pass reentered the pass of the thread", !f.isDone());
+		try (Pass nested = reentrant.tryGetPassRW("a")) {
+			assertTrue("Thread pass is not reentrant", nested == held);
+		}
+		held.close();
+		Pass async = f.join();
+		try (Pass p = reentrant.tryGetPassRW("a")) {
+			assertTrue("Async pass reentered by the thread", p == null);
+		}
+		// async pass is closed by the thread which did not request it
+		CompletableFuture.runAsync(() -> async.close()).join();
+		try (Pass p = reentrant.tryGetPassRW("a")) {
+			assertTrue("Async pass was not returned", p != null);
+		}
+	}
+
+	@Test
+	public void testWithPassAsync() {
+		final CompletableFuture<String> work = new CompletableFuture<String>();
+		CompletableFuture<String> result = cp.withPassRWAsync("a", p -> work);
+		assertTrue("Pass closed before action completed", cp.tryGetPass("a") == null);
+		work.complete("done");
+		assertTrue("done".equals(result.join()));
+		try (Pass p = cp.tryGetPassRW("a")) {
+			assertTrue("Pass was not closed after action completed", p != null);
+		}
+	}
+
+	@Test
+	public void testWithPassAsyncCancel() {
+		final AtomicInteger runs = new AtomicInteger();
+		Pass held = cp.tryGetPassRW("a");
+		CompletableFuture<String> result = cp.withPassRWAsync("a", p -> {
+			runs.incrementAndGet();
+			return CompletableFuture.completedFuture("done");
+		});
+		assertTrue(result.cancel(false));
+		held.close();
+		assertTrue("Action ran after cancellation", runs.get() == 0);
+		try (Pass p = cp.tryGetPassRW("a")) {
+			assertTrue("Pass was granted to the cancelled applicant", p != null);
+		}
+	}
+}
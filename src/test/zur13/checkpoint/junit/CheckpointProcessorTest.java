@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.PassMode;
+import zur13.checkpoint.flow.CheckpointProcessor;
+import zur13.checkpoint.flow.PassedElement;
+
+public class CheckpointProcessorTest {
+	protected static final int MAX_PENDING = 4;
+
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(10); // 10 seconds max per method tested
+
+	ACheckpoint cp = CheckpointBuilder.newInst().setName("CheckpointFlow").setMaxPassesPerResource(1).build();
+
+	/**
+	 * Publisher driven by the test thread which counts elements requested by the processor.
+	 */
+	static class TestPublisher implements Flow.Publisher<String> {
+		final AtomicLong requested = new AtomicLong();
+		volatile boolean cancelled;
+		Flow.Subscriber<? super String> subscriber;
+
+		@Override
+		public void subscribe(Flow.Subscriber<? super String> subscriber) {
+			this.subscriber = subscriber;
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+					requested.addAndGet(n);
+				}
+
+				@Override
+				public void cancel() {
+					cancelled = true;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Subscriber which keeps received elements and requests everything at once.
+	 */
+	static class TestSubscriber implements Flow.Subscriber<PassedElement<String>> {
+		final List<PassedElement<String>> received = new CopyOnWriteArrayList<PassedElement<String>>();
+		volatile boolean completed;
+		volatile Throwable error;
+		Flow.Subscription subscription;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		@Override
+		public void onNext(PassedElement<String> item) {
+			received.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+		}
+	}
+
+	@Test
+	public void testPassAvailabilityBackpressure() {
+		TestPublisher pub = new TestPublisher();
+		CheckpointProcessor<String> proc = new CheckpointProcessor<String>(cp, s -> s.substring(0, 1), PassMode.RW,
+				MAX_PENDING);
+		TestSubscriber sub = new TestSubscriber();
+		proc.subscribe(sub);
+		pub.subscribe(proc);
+		assertTrue("Unbounded request to upstream", pub.requested.get() == MAX_PENDING);
+
+		for (int i = 0; i < MAX_PENDING; i++) {
+			pub.subscriber.onNext("a" + i);
+		}
+		assertTrue("Element emitted without the pass", sub.received.size() == 1);
+		assertTrue("Elements waiting for the pass were requested from upstream",
+				pub.requested.get() == MAX_PENDING + 1);
+
+		pub.subscriber.onNext("b0");
+		assertTrue("Element blocked by the other resource", sub.received.size() == 2);
+		sub.received.remove(1).close();
+
+		for (int i = 1; i < MAX_PENDING - 1; i++) {
+			sub.received.remove(0).close();
+			assertTrue("Element not emitted after the pass was closed",
+					sub.received.size() == 1 && sub.received.get(0).getElement().equals("a" + i));
+		}
+		pub.subscriber.onComplete();
+		assertTrue("Completed before all elements emitted", !sub.completed);
+		sub.received.remove(0).close();
+		assertTrue("Stream not completed", sub.completed && sub.received.size() == 1);
+		sub.received.get(0).close();
+		try (Pass pa = cp.tryGetPassRW("a"); Pass pb = cp.tryGetPassRW("b")) {
+			assertTrue("Passes were not returned", pa != null && pb != null);
+		}
+	}
+
+	@Test
+	public void testCancelClosesPasses() {
+		TestPublisher pub = new TestPublisher();
+		CheckpointProcessor<String> proc = new CheckpointProcessor<String>(cp, s -> s, PassMode.RW, MAX_PENDING);
+		TestSubscriber sub = new TestSubscriber();
+		proc.subscribe(sub);
+		pub.subscribe(proc);
+		Pass held = cp.tryGetPassRW("a");
+		pub.subscriber.onNext("a");
+		assertTrue(proc.getWaitingCount() == 1);
+		sub.subscription.cancel();
+		assertTrue("Upstream was not cancelled", pub.cancelled);
+		held.close();
+		assertTrue("Element emitted after cancel", sub.received.isEmpty());
+		try (Pass p = cp.tryGetPassRW("a")) {
+			assertTrue("Pass was granted to the cancelled element", p != null);
+		}
+	}
+
+	@Test
+	public void testReentrantCheckpoint() {
+		ACheckpoint reentrant = CheckpointBuilder.newInst().setName("CheckpointFlowReentrant")
+				.setMaxPassesPerResource(1).setReentrant(true).build();
+		TestPublisher pub = new TestPublisher();
+		CheckpointProcessor<String> proc = new CheckpointProcessor<String>(reentrant, s -> s.substring(0, 1),
+				PassMode.RW, MAX_PENDING);
+		TestSubscriber sub = new TestSubscriber();
+		proc.subscribe(sub);
+		pub.subscribe(proc);
+		pub.subscriber.onNext("a0");
+		pub.subscriber.onNext("a1");
+		assertTrue("Async passes of the element reentered", sub.received.size() == 1 && sub.error == null);
+		sub.received.remove(0).close();
+		assertTrue("Element not emitted after the pass was closed",
+				sub.received.size() == 1 && sub.received.get(0).getElement().equals("a1"));
+		sub.received.remove(0).close();
+		try (Pass p = reentrant.tryGetPassRW("a")) {
+			assertTrue("Pass was not returned", p != null);
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.cluster.ClusterPass;
+import zur13.checkpoint.cluster.ConsistentHashRing;
+import zur13.checkpoint.cluster.DistributedCheckpoint;
+import zur13.checkpoint.cluster.InMemoryNetwork;
+import zur13.checkpoint.cluster.NodeUnavailableException;
+
+public class DistributedCheckpointTest {
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(10); // 10 seconds max per method tested
+
+	protected List<String> nodes = Arrays.asList("node1", "node2", "node3");
+	protected ConsistentHashRing ring = new ConsistentHashRing(nodes);
+	protected InMemoryNetwork network = new InMemoryNetwork();
+	protected List<DistributedCheckpoint> cps = new ArrayList<DistributedCheckpoint>();
+
+	{
+		for (String node : nodes) {
+			cps.add(new DistributedCheckpoint(network.getTransport(node), ring, 4, 2));
+		}
+	}
+
+	@After
+	public void close() {
+		for (DistributedCheckpoint cp : cps) {
+			cp.close();
+		}
+	}
+
+	/**
+	 * Gets id of the resource owned by the given node.
+	 */
+	protected String ownedBy(String node) {
+		for (int i = 0;; i++) {
+			if ( ring.getOwner("dev" + i).equals(node) ) {
+				return "dev" + i;
+			}
+		}
+	}
+
+	@Test
+	public void testRing() {
+		int[] owned = new int[nodes.size()];
+		for (int i = 0; i < 3000; i++) {
+			owned[nodes.indexOf(ring.getOwner("dev" + i))]++;
+		}
+		for (int cnt : owned) {
+			assertTrue("Uneven partitioning " + Arrays.toString(owned), cnt > 500);
+		}
+		ConsistentHashRing same = new ConsistentHashRing(Arrays.asList("node3", "node1", "node2"));
+		for (int i = 0; i < 100; i++) {
+			assertTrue("Ring depends on node order", same.getOwner("dev" + i).equals(ring.getOwner("dev" + i)));
+		}
+	}
+
+	@Test
+	public void testLocalLeases() {
+		String id = ownedBy("node2");
+		DistributedCheckpoint cp = cps.get(0);
+		for (int i = 0; i < 1000; i++) {
+			ClusterPass p = cp.tryGetPass(id);
+			assertTrue("Pass not given", p != null);
+			p.close();
+		}
+		assertTrue("Acquisitions left the node: " + network.getMessages(), network.getMessages() == 1);
+		assertTrue("Lease block not cached", cp.getLeasedPermits(id) == 2);
+	}
+
+	@Test
+	public void testClusterLimit() {
+		String id = ownedBy("node3");
+		List<ClusterPass> passes = new ArrayList<ClusterPass>();
+		for (DistributedCheckpoint cp : cps) {
+			ClusterPass p = cp.tryGetPass(id);
+			assertTrue("Pass not given on " + cp.getNode(), p != null);
+			passes.add(p);
+		}
+		passes.add(cps.get(0).tryGetPass(id));
+		assertTrue("Leased permit not used", passes.get(3) != null);
+		for (DistributedCheckpoint cp : cps) {
+			assertTrue("Cluster limit ignored on " + cp.getNode(), cp.tryGetPass(id) == null);
+		}
+
+		passes.remove(0).close();
+		assertTrue("Cached permit not recalled", cps.get(1).tryGetPass(id) != null);
+		assertTrue("Cluster limit ignored after recall", cps.get(2).tryGetPass(id) == null);
+	}
+
+	@Test
+	public void testRWExclusive() throws InterruptedException {
+		final String id = ownedBy("node1");
+		final DistributedCheckpoint cp2 = cps.get(1);
+		ClusterPass ro = cps.get(2).tryGetPass(id);
+		assertTrue("RW pass given while RO pass active", cp2.tryGetPassRW(id) == null);
+
+		CompletableFuture<ClusterPass> rw = CompletableFuture.supplyAsync(() -> {
+			try {
+				return cp2.getPassRW(id);
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		Thread.sleep(50);
+		assertTrue("RW pass given while RO pass active", !rw.isDone());
+		ro.close();
+		ClusterPass p = rw.join();
+		assertTrue("RW pass not given", p != null && !p.isReadOnly());
+		for (DistributedCheckpoint cp : cps) {
+			assertTrue("Pass given while RW pass active", cp.tryGetPass(id) == null);
+		}
+		p.close();
+		assertTrue("RO pass not given after RW pass", cps.get(0).tryGetPass(id, 1, TimeUnit.SECONDS) != null);
+	}
+
+	@Test
+	public void testRWUnderROLoad() throws InterruptedException {
+		final String id = ownedBy("node1");
+		final AtomicInteger stop = new AtomicInteger();
+		final AtomicInteger readers = new AtomicInteger();
+		List<CompletableFuture<Void>> workers = new ArrayList<CompletableFuture<Void>>();
+		for (int t = 0; t < 4; t++) {
+			final DistributedCheckpoint cp = cps.get(1 + t % 2);
+			workers.add(CompletableFuture.runAsync(() -> {
+				while (stop.get() == 0) {
+					try (ClusterPass p = cp.getPassUninterruptibly(id)) {
+						readers.incrementAndGet();
+						Thread.yield();
+					}
+				}
+			}));
+		}
+		try {
+			while (readers.get() < 100) {
+				Thread.sleep(1);
+			}
+			for (DistributedCheckpoint cp : Arrays.asList(cps.get(0), cps.get(1))) {
+				try (ClusterPass p = cp.tryGetPassRW(id, 2, TimeUnit.SECONDS)) {
+					assertTrue("RW pass starved by RO passes of the other nodes on " + cp.getNode(), p != null);
+				}
+			}
+			int before = readers.get();
+			Thread.sleep(50);
+			assertTrue("RO passes not given after RW pass", readers.get() > before);
+		} finally {
+			stop.set(1);
+			CompletableFuture.allOf(workers.toArray(new CompletableFuture[0])).join();
+		}
+	}
+
+	@Test
+	public void testConcurrentLimit() throws InterruptedException {
+		final String id = ownedBy("node2");
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger maxActive = new AtomicInteger();
+		List<CompletableFuture<Void>> workers = new ArrayList<CompletableFuture<Void>>();
+		for (int t = 0; t < 6; t++) {
+			final DistributedCheckpoint cp = cps.get(t % cps.size());
+			workers.add(CompletableFuture.runAsync(() -> {
+				for (int i = 0; i < 300; i++) {
+					try (ClusterPass p = cp.getPassUninterruptibly(id)) {
+						maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+						active.decrementAndGet();
+					}
+				}
+			}));
+		}
+		CompletableFuture.allOf(workers.toArray(new CompletableFuture[0])).join();
+		assertTrue("Cluster limit exceeded: " + maxActive, maxActive.get() <= 4);
+	}
+
+	@Test
+	public void testOwnerUnavailable() {
+		String id = ownedBy("node3");
+		network.setAvailable("node3", false);
+		try {
+			cps.get(0).tryGetPass(id);
+			assertTrue("Pass given without owner", false);
+		} catch (NodeUnavailableException e) {
+			// expected
+		}
+		network.setAvailable("node3", true);
+		assertTrue("Pass not given after owner is back", cps.get(0).tryGetPass(id) != null);
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.SimpleCheckpoint;
+import zur13.checkpoint.resource.AResourceData;
+import zur13.checkpoint.resource.ResourceDataFactory;
+import zur13.checkpoint.resource.storage.AResourceDataStorage;
+import zur13.checkpoint.resource.storage.ResourceDataStorageUnsafe;
+
+public class GlobalAdmissionTest {
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(10); // 10 seconds max per method tested
+
+	AResourceDataStorage ads = new ResourceDataStorageUnsafe(new ResourceDataFactory(1, false), 1);
+	SimpleCheckpoint cp = new SimpleCheckpoint(ads, 1);
+
+	@Test
+	public void testResourceNotHeldWhileWaitingGlobal() throws InterruptedException {
+		final AtomicReference<Pass> granted = new AtomicReference<Pass>();
+		Thread t;
+		try (Pass pa = cp.getPassRW("a")) {
+			t = new Thread() {
+				@Override
+				public void run() {
+					granted.set(cp.getPassRWUninterruptibly("b"));
+				}
+			};
+			t.start();
+			Thread.sleep(200);
+
+			AResourceData ad = ads.get("b");
+			Pass p = ad.tryGetPassRW(cp);
+			assertTrue("Resource pass is held while waiting for the global permit", p != null);
+			ad.returnPass(p);
+		}
+		t.join();
+		assertTrue("Waiting applicant was not admitted", granted.get() != null);
+		granted.get().close();
+	}
+
+	@Test
+	public void testFailedTryDoesNotLeakGlobalPermit() {
+		try (Pass pa = cp.tryGetPass("a")) {
+			assertTrue(pa != null);
+			assertTrue("Global limit ignored", cp.tryGetPass("b") == null);
+			assertTrue("Failed request returned global permit it did not take", cp.tryGetPass("c") == null);
+		}
+		try (Pass pa = cp.tryGetPass("a")) {
+			assertTrue("Global permit was not returned", pa != null);
+		}
+	}
+
+	@Test
+	public void testSingleDeadline() throws InterruptedException {
+		try (Pass pa = cp.getPassRW("a")) {
+			long start = System.nanoTime();
+			assertTrue("Global limit ignored", cp.tryGetPassRW("b", 300, TimeUnit.MILLISECONDS) == null);
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			assertTrue("Timeout is not precise: " + elapsed, elapsed >= 290 && elapsed < 550);
+		}
+	}
+
+	@Test
+	public void testInterruptWhileWaiting() throws InterruptedException {
+		final AtomicReference<Throwable> result = new AtomicReference<Throwable>();
+		try (Pass pa = cp.getPassRW("a")) {
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Pass p = cp.getPassRW("a");
+						result.set(new AssertionError("Pass granted to interrupted applicant " + p));
+					} catch (Throwable e) {
+						result.set(e);
+					}
+				}
+			};
+			t.start();
+			Thread.sleep(200);
+			t.interrupt();
+			t.join();
+		}
+		assertTrue("InterruptedException expected: " + result.get(), result.get() instanceof InterruptedException);
+		try (Pass pa = cp.tryGetPassRW("a")) {
+			assertTrue("Resource is not usable after interrupted request", pa != null);
+		}
+	}
+}
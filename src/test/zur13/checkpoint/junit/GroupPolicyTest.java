@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.MultiPass;
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.PassMode;
+import zur13.checkpoint.SimpleCheckpoint;
+import zur13.checkpoint.resource.GroupPolicy;
+
+public class GroupPolicyTest {
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(10); // 10 seconds max per method tested
+
+	/* resource ids are "site/device", devices without site are out of any group */
+	protected GroupPolicy sites = new GroupPolicy() {
+		@Override
+		public Object getGroupId(Object resourceId) {
+			String id = resourceId.toString();
+			int slash = id.indexOf('/');
+			return slash < 0 ? null : id.substring(0, slash);
+		}
+
+		@Override
+		public int getGroupLimit(Object groupId) {
+			return 2;
+		}
+	};
+
+	protected SimpleCheckpoint cp = (SimpleCheckpoint) CheckpointBuilder.newInst().setName("GroupPolicy")
+			.setMaxPassesPerResource(4).setGlobalPassesLimit(4).setGroupPolicy(sites).build();
+
+	@Test
+	public void testGroupLimit() {
+		Pass p1 = cp.tryGetPass("siteA/dev1");
+		Pass p2 = cp.tryGetPass("siteA/dev2");
+		assertTrue("Passes within group limit not given", p1 != null && p2 != null);
+		assertTrue("Group limit ignored", cp.tryGetPass("siteA/dev3") == null && cp.tryGetPass("siteA/dev1") == null);
+		assertTrue("Group active passes", cp.getGroupActivePasses("siteA") == 2);
+
+		Pass p3 = cp.tryGetPass("siteB/dev1");
+		Pass p4 = cp.tryGetPass("dev1");
+		assertTrue("Other group blocked by busy group", p3 != null && p4 != null);
+		assertTrue("Global limit ignored", cp.tryGetPass("siteB/dev2") == null && cp.tryGetPass("dev2") == null);
+		assertTrue("Group permit leaked on global limit", cp.getGroupActivePasses("siteB") == 1);
+
+		for (Pass p : new Pass[] { p1, p2, p3, p4 }) {
+			p.close();
+		}
+		assertTrue("Group permits not returned",
+				cp.getGroupActivePasses("siteA") == 0 && cp.getGroupActivePasses("siteB") == 0);
+	}
+
+	@Test
+	public void testWaitForGroup() throws InterruptedException {
+		final Pass p1 = cp.tryGetPass("siteA/dev1");
+		final Pass p2 = cp.tryGetPassRW("siteA/dev2");
+		assertTrue("Timed out pass given", cp.tryGetPass("siteA/dev3", 50, TimeUnit.MILLISECONDS) == null);
+		assertTrue("Group permit leaked on timeout", cp.getGroupActivePasses("siteA") == 2);
+
+		CompletableFuture<Pass> async = cp.acquireAsync("siteA/dev4");
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				p1.close();
+				p2.close();
+			}
+		};
+		t.start();
+		Pass p3 = cp.tryGetPass("siteA/dev3", 5, TimeUnit.SECONDS);
+		Pass p4 = async.join();
+		assertTrue("Waiting passes not given", p3 != null && p4 != null);
+		p3.close();
+		p4.close();
+		t.join();
+		assertTrue("Group permits not returned", cp.getGroupActivePasses("siteA") == 0);
+	}
+
+	@Test
+	public void testMultiPass() {
+		MultiPass mp = cp.tryGetPasses(Arrays.asList("siteA/dev1", "siteA/dev2", "siteB/dev1"), PassMode.RO);
+		assertTrue("Composite pass not given", mp != null);
+		assertTrue("Composite pass takes single permit of every group",
+				cp.getGroupActivePasses("siteA") == 1 && cp.getGroupActivePasses("siteB") == 1);
+		mp.close();
+		assertTrue("Group permits not returned",
+				cp.getGroupActivePasses("siteA") == 0 && cp.getGroupActivePasses("siteB") == 0);
+	}
+
+	@Test
+	public void testPolicySeesRequestedIds() {
+		// all resource ids share a single stripe, policy should see the requested ids anyway
+		SimpleCheckpoint striped = (SimpleCheckpoint) CheckpointBuilder.newInst().setName("GroupPolicyStriped")
+				.setMaxPassesPerResource(8).useStripedStorage(1).setGroupPolicy(sites).build();
+		Pass p1 = striped.tryGetPass("siteA/dev1");
+		Pass p2 = striped.tryGetPass("siteA/dev2");
+		assertTrue("Passes within group limit not given", p1 != null && p2 != null);
+		assertTrue("Group limit of the striped resource ignored", striped.tryGetPass("siteA/dev3") == null);
+		MultiPass mp = striped.tryGetPasses(Arrays.asList("siteB/dev1", "siteB/dev2"), PassMode.RO);
+		assertTrue("Composite pass not given", mp != null);
+		assertTrue("Group permits of the striped resources",
+				striped.getGroupActivePasses("siteA") == 2 && striped.getGroupActivePasses("siteB") == 1);
+		p1.close();
+		p2.close();
+		mp.close();
+		assertTrue("Group permits not returned",
+				striped.getGroupActivePasses("siteA") == 0 && striped.getGroupActivePasses("siteB") == 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWeightExceedsGroupLimit() {
+		cp.tryGetPass("siteA/dev1", 3);
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.HierarchicalCheckpoint;
+import zur13.checkpoint.HierarchicalPass;
+import zur13.checkpoint.IntentionMode;
+import zur13.checkpoint.resource.IntentionLock;
+
+public class HierarchicalCheckpointTest {
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(10); // 10 seconds max per method tested
+
+	protected HierarchicalCheckpoint cp = new HierarchicalCheckpoint();
+
+	@Test
+	public void testPortPass() throws InterruptedException {
+		try (HierarchicalPass p = cp.getPassRW("chassis1", "card1", "port1")) {
+			assertTrue("Path lost", p.getPath().size() == 3 && !p.isReadOnly());
+			assertTrue("Sibling port blocked", release(cp.tryGetPass(IntentionMode.X, "chassis1", "card1", "port2")));
+			assertTrue("Card S pass granted over port X pass",
+					cp.tryGetPass(IntentionMode.S, "chassis1", "card1") == null);
+			assertTrue("Same port granted twice",
+					cp.tryGetPass(IntentionMode.S, "chassis1", "card1", "port1") == null);
+			assertTrue("Other card blocked", release(cp.tryGetPass(IntentionMode.S, "chassis1", "card2")));
+		}
+		assertTrue("Card not released", release(cp.tryGetPass(IntentionMode.X, "chassis1", "card1")));
+		assertTrue("Nodes not dropped", cp.getActiveNodes() == 0);
+	}
+
+	@Test
+	public void testHoldersLimit() throws InterruptedException {
+		IntentionLock lock = new IntentionLock();
+		for (int i = 0; i < IntentionLock.MAX_HOLDERS; i++) {
+			assertTrue("Shared mode not granted below the holders limit", lock.tryAcquire(IntentionMode.IS));
+		}
+		assertTrue("Shared mode granted over the holders limit", !lock.tryAcquire(IntentionMode.IS));
+		assertTrue("Holders counter overflowed", lock.getHolders(IntentionMode.IS) == IntentionLock.MAX_HOLDERS
+				&& lock.getHolders(IntentionMode.IX) == 0);
+		assertTrue("Compatible mode blocked by the full counter", lock.tryAcquire(IntentionMode.IX));
+		lock.release(IntentionMode.IX);
+		lock.release(IntentionMode.IS);
+		assertTrue("Shared mode not granted after holder left",
+				lock.acquire(IntentionMode.IS, true, TimeUnit.SECONDS.toNanos(1)));
+	}
+
+	@Test
+	public void testSubtreePass() throws InterruptedException {
+		try (HierarchicalPass p = cp.getPassRW("chassis1")) {
+			assertTrue("Port granted under chassis X pass",
+					cp.tryGetPass(IntentionMode.IS, "chassis1", "card1", "port1") == null);
+			assertTrue("Other chassis blocked", release(cp.tryGetPass(IntentionMode.X, "chassis2", "card1")));
+		}
+		try (HierarchicalPass p = cp.getPassRO("chassis1")) {
+			assertTrue("Port S pass blocked by chassis S pass",
+					release(cp.tryGetPass(IntentionMode.S, "chassis1", "card1", "port1")));
+			assertTrue("Port X pass granted under chassis S pass",
+					cp.tryGetPass(IntentionMode.X, "chassis1", "card1", "port1") == null);
+		}
+		assertTrue("Nodes not dropped", cp.getActiveNodes() == 0);
+	}
+
+	@Test
+	public void testWaitForSubtree() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicBoolean granted = new AtomicBoolean();
+		HierarchicalPass p = cp.getPass(IntentionMode.X, "chassis1", "card1", "port1");
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				started.countDown();
+				try (HierarchicalPass c = cp.getPassUninterruptibly(IntentionMode.X, "chassis1")) {
+					granted.set(true);
+				}
+			}
+		};
+		t.start();
+		started.await();
+		Object[] chassis = new Object[] { "chassis1" };
+		assertTrue("Chassis pass granted over port pass",
+				cp.tryGetPass(IntentionMode.X, chassis, 100, TimeUnit.MILLISECONDS) == null && !granted.get());
+		p.close();
+		t.join();
+		assertTrue("Waiting chassis pass not granted", granted.get());
+		assertTrue("Nodes not dropped", cp.getActiveNodes() == 0);
+	}
+
+	protected static boolean release(HierarchicalPass p) {
+		if ( p == null ) {
+			return false;
+		}
+		p.close();
+		return true;
+	}
+}
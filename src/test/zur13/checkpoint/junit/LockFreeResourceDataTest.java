@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.resource.RWPolicy;
+
+public class LockFreeResourceDataTest {
+	protected static final int MAX_PASSES = 3;
+	protected static final int THREADS = 8;
+	protected static final int ITERATIONS = 20000;
+
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(30); // 30 seconds max per method tested
+
+	protected AtomicInteger readers = new AtomicInteger(0);
+	protected AtomicInteger writers = new AtomicInteger(0);
+	protected volatile boolean violated = false;
+
+	@Test
+	public void testUnfairContention() throws InterruptedException {
+		runContention(CheckpointBuilder.newInst().setName("LockFreeUnfair").setMaxPassesPerResource(MAX_PASSES)
+				.setFair(false).build());
+	}
+
+	@Test
+	public void testFairContention() throws InterruptedException {
+		runContention(CheckpointBuilder.newInst().setName("LockFreeFair").setMaxPassesPerResource(MAX_PASSES)
+				.setFair(true).build());
+	}
+
+	@Test
+	public void testWriterPreferringContention() throws InterruptedException {
+		runContention(CheckpointBuilder.newInst().setName("LockFreeWriterPreferring")
+				.setMaxPassesPerResource(MAX_PASSES).setRWPolicy(RWPolicy.WRITER_PREFERRING).build());
+	}
+
+	@Test
+	public void testPhaseFairContention() throws InterruptedException {
+		runContention(CheckpointBuilder.newInst().setName("LockFreePhaseFair").setMaxPassesPerResource(MAX_PASSES)
+				.setRWPolicy(RWPolicy.PHASE_FAIR).build());
+	}
+
+	@Test
+	public void testPhaseFairWriterNotStarved() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("LockFreePhaseFairStorm")
+				.setMaxPassesPerResource(THREADS).setRWPolicy(RWPolicy.PHASE_FAIR).build();
+		final AtomicInteger stop = new AtomicInteger(0);
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		for (int i = 0; i < THREADS; i++) {
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					// RO passes always overlap so there is no moment without active RO pass
+					while (stop.get() == 0) {
+						try (Pass p = cp.getPassUninterruptibly("res")) {
+							Thread.sleep(1);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			});
+		}
+		Thread.sleep(100);
+		try (Pass p = cp.tryGetPassRW("res", 5, TimeUnit.SECONDS)) {
+			assertTrue("RW applicant starved by RO applicants", p != null);
+		} finally {
+			stop.set(1);
+			pool.shutdown();
+		}
+		assertTrue("Applicants deadlocked", pool.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testTimeout() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("LockFreeTimeout").setMaxPassesPerResource(2)
+				.build();
+		try (Pass p = cp.getPassRWUninterruptibly("res")) {
+			long start = System.nanoTime();
+			assertTrue("RO pass given while RW pass active", cp.tryGetPass("res", 100, TimeUnit.MILLISECONDS) == null);
+			assertTrue("Timeout ignored", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+		}
+		try (Pass p = cp.tryGetPass("res"); Pass p1 = cp.tryGetPass("res")) {
+			assertTrue("Passes were not returned after timeout", p != null && p1 != null);
+		}
+	}
+
+	protected void runContention(final ACheckpoint cp) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		for (int i = 0; i < THREADS; i++) {
+			final boolean rw = i % 4 == 0;
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < ITERATIONS; j++) {
+						if ( rw ) {
+							try (Pass p = cp.getPassRWUninterruptibly("res")) {
+								if ( writers.incrementAndGet() != 1 || readers.get() != 0 ) {
+									violated = true;
+								}
+								writers.decrementAndGet();
+							}
+						} else {
+							try (Pass p = cp.getPassUninterruptibly("res")) {
+								if ( readers.incrementAndGet() > MAX_PASSES || writers.get() != 0 ) {
+									violated = true;
+								}
+								readers.decrementAndGet();
+							}
+						}
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		assertTrue("Applicants deadlocked", pool.awaitTermination(25, TimeUnit.SECONDS));
+		assertTrue("Passes limit ignored", !violated);
+		try (Pass p = cp.tryGetPassRW("res")) {
+			assertTrue("Passes were not returned", p != null);
+		}
+	}
+}
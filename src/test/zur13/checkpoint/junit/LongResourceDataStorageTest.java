@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+
+public class LongResourceDataStorageTest {
+	protected static final int RESOURCES = 10000;
+	protected static final int THREADS = 8;
+
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(30); // 30 seconds max per method tested
+
+	ACheckpoint cp = CheckpointBuilder.newInst().setName("CheckpointLongIds").setMaxPassesPerResource(1)
+			.setGlobalPassesLimit(RESOURCES * 2).useLongDataStorage().build();
+
+	@Test
+	public void testManyResources() {
+		List<Pass> passes = new ArrayList<Pass>();
+		for (long id = -RESOURCES / 2; id < RESOURCES / 2; id++) {
+			Pass p = cp.tryGetPassRWL(id * 7919L);
+			assertTrue("Thread was not given access to resource " + id, p != null);
+			passes.add(p);
+		}
+		for (long id = -RESOURCES / 2; id < RESOURCES / 2; id++) {
+			assertTrue("Max resource passes limit ignored", cp.tryGetPassL(id * 7919L) == null);
+		}
+		for (Pass p : passes) {
+			p.close();
+		}
+		for (long id = -RESOURCES / 2; id < RESOURCES / 2; id++) {
+			try (Pass p = cp.tryGetPassRWL(id * 7919L)) {
+				assertTrue("Pass was not returned for resource " + id, p != null);
+			}
+		}
+	}
+
+	@Test
+	public void testIntAndLongIdsShareResource() {
+		try (Pass p = cp.tryGetPassRW(42)) {
+			assertTrue(p != null);
+			assertTrue("Integer and long ids refer to different resources", cp.tryGetPassL(42L) == null);
+			assertTrue("Integer and long ids refer to different resources", cp.tryGetPass(Integer.valueOf(42)) == null);
+		}
+	}
+
+	@Test
+	public void testIntIdsKeepTypeInDefaultStorages() {
+		ACheckpoint[] cps = new ACheckpoint[] {
+				CheckpointBuilder.newInst().setName("Default").setMaxPassesPerResource(1).build(),
+				CheckpointBuilder.newInst().setName("Unsafe").setMaxPassesPerResource(1)
+						.useUnsafeDataStorage().build() };
+		for (ACheckpoint c : cps) {
+			try (Pass p = c.tryGetPassRW(1000)) {
+				assertTrue("Int resource id is not kept as Integer in " + c.getName(),
+						p != null && p.getResourceId() instanceof Integer);
+				assertTrue("Integer id is taken by another resource", c.tryGetPassRW(Integer.valueOf(1000)) == null);
+			}
+		}
+	}
+
+	@Test
+	public void testContention() throws InterruptedException {
+		final AtomicIntegerArray active = new AtomicIntegerArray(16);
+		final AtomicIntegerArray violations = new AtomicIntegerArray(1);
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		for (int i = 0; i < THREADS; i++) {
+			final int seed = i;
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 50000; j++) {
+						int id = (j * 31 + seed) & 15;
+						try (Pass p = cp.getPassRWUninterruptibly(id)) {
+							if ( active.incrementAndGet(id) != 1 ) {
+								violations.incrementAndGet(0);
+							}
+							active.decrementAndGet(id);
+						}
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		assertTrue("Applicants deadlocked", pool.awaitTermination(25, TimeUnit.SECONDS));
+		assertTrue("RW pass given twice", violations.get(0) == 0);
+	}
+}
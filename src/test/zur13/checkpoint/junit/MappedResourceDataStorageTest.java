@@ -0,0 +1,279 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.SimpleCheckpoint;
+import zur13.checkpoint.resource.GroupPolicy;
+import zur13.checkpoint.resource.storage.MappedResourceDataStorage;
+
+public class MappedResourceDataStorageTest {
+	protected static final int GLOBAL_LIMIT = 3;
+
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(30); // 30 seconds max per method tested
+
+	protected Path file = newFile();
+	protected List<SimpleCheckpoint> checkpoints = new ArrayList<SimpleCheckpoint>();
+
+	@After
+	public void tearDown() throws IOException {
+		for (SimpleCheckpoint cp : checkpoints) {
+			((MappedResourceDataStorage) cp.getResourceDataStorage()).close();
+		}
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".groups"));
+	}
+
+	@Test
+	public void testSharedLimits() {
+		// checkpoints attached to the same file act as different processes
+		SimpleCheckpoint cp1 = open();
+		SimpleCheckpoint cp2 = open();
+		Pass rw = cp1.tryGetPassRW(1L);
+		assertTrue("RW pass not given", rw != null);
+		assertTrue("RW pass of the other process ignored", cp2.tryGetPass(1L) == null);
+		rw.close();
+		Pass ro = cp2.tryGetPass(1L);
+		assertTrue("Returned RW pass still blocks the resource", ro != null);
+
+		Pass p1 = cp1.tryGetPass(2L);
+		Pass p2 = cp2.tryGetPass(3L);
+		assertTrue("Passes within global limit not given", p1 != null && p2 != null);
+		assertTrue("Global limit is not shared", cp1.tryGetPass(4L) == null && cp2.tryGetPass(4L) == null);
+		ro.close();
+		p1.close();
+		p2.close();
+		assertTrue("Resource ids are not shared",
+				((MappedResourceDataStorage) cp2.getResourceDataStorage()).size() == 4);
+	}
+
+	@Test
+	public void testWaitForOtherProcess() throws InterruptedException {
+		final SimpleCheckpoint cp1 = open();
+		final SimpleCheckpoint cp2 = open();
+		final AtomicBoolean granted = new AtomicBoolean();
+		Pass rw = cp1.tryGetPassRW(7L);
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try (Pass p = cp2.tryGetPassRW(7L, 5, TimeUnit.SECONDS)) {
+					granted.set(p != null);
+				} catch (InterruptedException e) {
+					// not granted
+				}
+			}
+		};
+		t.start();
+		Thread.sleep(50);
+		assertTrue("RW pass given twice", !granted.get());
+		rw.close();
+		t.join();
+		assertTrue("Pass returned by other process not granted to the waiting applicant", granted.get());
+	}
+
+	@Test
+	public void testSharedGroupLimits() {
+		// hundreds of resource ids form the groups of a single pass
+		GroupPolicy hundreds = new GroupPolicy() {
+			@Override
+			public Object getGroupId(Object resourceId) {
+				return Long.valueOf(((Long) resourceId).longValue() / 100L);
+			}
+
+			@Override
+			public int getGroupLimit(Object groupId) {
+				return 1;
+			}
+		};
+		SimpleCheckpoint cp1 = open(hundreds);
+		SimpleCheckpoint cp2 = open(hundreds);
+		Pass p1 = cp1.tryGetPass(101L);
+		assertTrue("Pass within group limit not given", p1 != null);
+		assertTrue("Group limit is not shared", cp2.tryGetPass(102L) == null);
+		assertTrue("Group active passes of the other process", cp2.getGroupActivePasses(Long.valueOf(1L)) == 1);
+		Pass p2 = cp2.tryGetPass(201L);
+		assertTrue("Other group blocked by busy group", p2 != null);
+		p1.close();
+		p2.close();
+		try (Pass p = cp2.tryGetPass(102L)) {
+			assertTrue("Group permit returned by other process not shared", p != null);
+		}
+	}
+
+	@Test
+	public void testCrashedProcess() throws IOException, InterruptedException {
+		Process holder = start(Holder.class);
+		assertTrue("Holder process failed", holder.getInputStream().read() == 'H');
+		SimpleCheckpoint cp = open();
+		assertTrue("RW pass of the other process ignored", cp.tryGetPass(42L) == null);
+		holder.getOutputStream().close();
+		assertTrue("Holder process is alive", holder.waitFor() == 0);
+
+		((MappedResourceDataStorage) cp.getResourceDataStorage()).reclaim();
+		try (Pass p = cp.tryGetPassRW(42L)) {
+			assertTrue("Pass of the crashed process not returned", p != null);
+		}
+		Pass[] passes = new Pass[GLOBAL_LIMIT];
+		for (int i = 0; i < passes.length; i++) {
+			passes[i] = cp.tryGetPass(100L + i);
+			assertTrue("Global permit of the crashed process not returned", passes[i] != null);
+		}
+		for (Pass p : passes) {
+			p.close();
+		}
+	}
+
+	@Test
+	public void testCrashedProcessWaiters() throws IOException, InterruptedException {
+		Process waiter = start(Waiter.class);
+		assertTrue("Waiter process failed", waiter.getInputStream().read() == 'W');
+		SimpleCheckpoint cp = open();
+		waiter.getOutputStream().close();
+		assertTrue("Waiter process is alive", waiter.waitFor() == 0);
+
+		((MappedResourceDataStorage) cp.getResourceDataStorage()).reclaim();
+		try (Pass p = cp.tryGetPass(43L)) {
+			assertTrue("Waiter hints of the crashed process keep the idle resource closed", p != null);
+		}
+	}
+
+	@Test
+	public void testLiveProcessWaitersAfterReclaim() throws IOException, InterruptedException {
+		Process crashed = start(Waiter.class);
+		assertTrue("Waiter process failed", crashed.getInputStream().read() == 'W');
+		Process live = start(Waiter.class, "44");
+		try {
+			assertTrue("Waiter process failed", live.getInputStream().read() == 'W');
+			SimpleCheckpoint cp = open();
+			crashed.getOutputStream().close();
+			assertTrue("Waiter process is alive", crashed.waitFor() == 0);
+
+			((MappedResourceDataStorage) cp.getResourceDataStorage()).reclaim();
+			Thread.sleep(200);
+			Pass p = cp.tryGetPass(44L);
+			if ( p != null ) {
+				p.close();
+			}
+			assertTrue("Waiter hints of the live process not raised again", p == null);
+		} finally {
+			live.getOutputStream().close();
+			live.waitFor();
+		}
+	}
+
+	protected Process start(Class<?> main, String... args) throws IOException {
+		List<String> command = new ArrayList<String>(Arrays.asList(
+				Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-cp",
+				System.getProperty("java.class.path"), main.getName(), file.toString()));
+		command.addAll(Arrays.asList(args));
+		return new ProcessBuilder(command).redirectErrorStream(true).start();
+	}
+
+	protected SimpleCheckpoint open() {
+		return open(null);
+	}
+
+	protected SimpleCheckpoint open(GroupPolicy groupPolicy) {
+		SimpleCheckpoint cp = (SimpleCheckpoint) CheckpointBuilder.newInst().setName("CheckpointMapped")
+				.setMaxPassesPerResource(2).setGlobalPassesLimit(GLOBAL_LIMIT).useMappedDataStorage(file, 1024)
+				.setGroupPolicy(groupPolicy).build();
+		checkpoints.add(cp);
+		return cp;
+	}
+
+	protected static Path newFile() {
+		try {
+			return File.createTempFile("checkpoint", ".map").toPath();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Takes RW pass and exits without returning it when parent closes standard input.
+	 */
+	public static class Holder {
+		public static void main(String[] args) throws IOException {
+			SimpleCheckpoint cp = (SimpleCheckpoint) CheckpointBuilder.newInst().setMaxPassesPerResource(2)
+					.setGlobalPassesLimit(GLOBAL_LIMIT).useMappedDataStorage(Paths.get(args[0]), 1024).build();
+			if ( cp.tryGetPassRW(42L) == null ) {
+				System.exit(1);
+			}
+			System.out.print('H');
+			System.out.flush();
+			while (System.in.read() >= 0) {
+				// wait for parent
+			}
+			Runtime.getRuntime().halt(0);
+		}
+	}
+
+	/**
+	 * Leaves weighted RO applicant waiting for the resource and exits when parent closes standard input.
+	 */
+	public static class Waiter {
+		public static void main(String[] args) throws IOException, InterruptedException {
+			final SimpleCheckpoint cp = (SimpleCheckpoint) CheckpointBuilder.newInst().setMaxPassesPerResource(2)
+					.setGlobalPassesLimit(GLOBAL_LIMIT).useMappedDataStorage(Paths.get(args[0]), 1024).build();
+			final long id = args.length > 1 ? Long.parseLong(args[1]) : 43L;
+			if ( cp.tryGetPass(id) == null ) {
+				System.exit(1);
+			}
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						cp.getPass(id, 2);
+					} catch (InterruptedException e) {
+						// process exits
+					}
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+			while (t.getState() != Thread.State.WAITING) {
+				Thread.sleep(1);
+			}
+			System.out.print('W');
+			System.out.flush();
+			while (System.in.read() >= 0) {
+				// wait for parent
+			}
+			Runtime.getRuntime().halt(0);
+		}
+	}
+}
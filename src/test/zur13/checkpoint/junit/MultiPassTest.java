@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.MultiPass;
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.PassMode;
+
+public class MultiPassTest {
+	protected static final int THREADS = 8;
+
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(30); // 30 seconds max per method tested
+
+	ACheckpoint cp = CheckpointBuilder.newInst().setName("CheckpointMultiPass").setMaxPassesPerResource(1)
+			.setGlobalPassesLimit(1).build();
+
+	@Test
+	public void testOppositeOrderDoesNotDeadlock() throws InterruptedException {
+		final List<String> ab = Arrays.asList("a", "b", "c");
+		final List<String> ba = Arrays.asList("c", "b", "a");
+		final AtomicIntegerArray violations = new AtomicIntegerArray(1);
+		final ACheckpoint unlimited = CheckpointBuilder.newInst().setName("CheckpointMultiPassUnlimited").build();
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		for (int i = 0; i < THREADS; i++) {
+			final int seed = i;
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 20000; j++) {
+						try (MultiPass p = unlimited.getPassesUninterruptibly((j + seed) % 2 == 0 ? ab : ba,
+								PassMode.RW)) {
+							Pass pb = unlimited.tryGetPass("b");
+							if ( pb != null ) {
+								violations.incrementAndGet(0);
+								pb.close();
+							}
+						}
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		assertTrue("Applicants deadlocked", pool.awaitTermination(25, TimeUnit.SECONDS));
+		assertTrue("RW pass given twice", violations.get(0) == 0);
+	}
+
+	@Test
+	public void testIndistinguishableIdsDoNotDeadlock() throws InterruptedException {
+		/* distinct ids with the same class, hash code and string representation */
+		class Opaque {
+			@Override
+			public int hashCode() {
+				return 1;
+			}
+
+			@Override
+			public String toString() {
+				return "Opaque";
+			}
+		}
+		final List<Opaque> ab = Arrays.asList(new Opaque(), new Opaque(), new Opaque());
+		final List<Opaque> ba = Arrays.asList(ab.get(2), ab.get(1), ab.get(0));
+		final ACheckpoint unlimited = CheckpointBuilder.newInst().setName("CheckpointMultiPassOpaque").build();
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		for (int i = 0; i < THREADS; i++) {
+			final int seed = i;
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 20000; j++) {
+						unlimited.getPassesUninterruptibly((j + seed) % 2 == 0 ? ab : ba, PassMode.RW).close();
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		assertTrue("Applicants deadlocked", pool.awaitTermination(25, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testAllOrNothing() {
+		ACheckpoint unlimited = CheckpointBuilder.newInst().setName("CheckpointMultiPassUnlimited").build();
+		try (Pass pb = unlimited.tryGetPassRW("b")) {
+			assertTrue(unlimited.tryGetPasses(Arrays.asList("a", "b"), PassMode.RW) == null);
+			try (Pass pa = unlimited.tryGetPassRW("a")) {
+				assertTrue("Pass is held after failed request", pa != null);
+			}
+		}
+		try (MultiPass p = unlimited.tryGetPasses(Arrays.asList("a", "b"), PassMode.RW)) {
+			assertTrue(p != null);
+			assertTrue(p.getPasses().size() == 2);
+		}
+	}
+
+	@Test
+	public void testSingleGlobalPermit() {
+		try (MultiPass p = cp.tryGetPasses(Arrays.asList("a", "b", "c", "a"), PassMode.RO)) {
+			assertTrue("Composite pass took more than one global permit", p != null);
+			assertTrue("Duplicate resource ids are not merged", p.getPasses().size() == 3);
+			assertTrue("Global limit ignored", cp.tryGetPass("d") == null);
+		}
+		try (Pass p = cp.tryGetPassRW("a")) {
+			assertTrue("Passes were not returned", p != null);
+		}
+	}
+
+	@Test
+	public void testTimedWaitsForBusyResource() throws InterruptedException {
+		final ACheckpoint unlimited = CheckpointBuilder.newInst().setName("CheckpointMultiPassUnlimited").build();
+		final Pass pb = unlimited.tryGetPassRW("b");
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+				}
+				pb.close();
+			}
+		}.start();
+		try (MultiPass p = unlimited.tryGetPasses(Arrays.asList("a", "b"), PassMode.RW, 5, TimeUnit.SECONDS)) {
+			assertTrue("Passes were not granted after busy resource was released", p != null);
+		}
+		assertTrue(unlimited.tryGetPasses(Arrays.asList("a", "b"), PassMode.RW, 100, TimeUnit.MILLISECONDS) != null);
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+
+public class OffHeapResourceDataStorageTest {
+	protected static final int RESOURCES = 10000;
+	protected static final int THREADS = 8;
+
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(30); // 30 seconds max per method tested
+
+	ACheckpoint cp = CheckpointBuilder.newInst().setName("CheckpointOffHeap").setMaxPassesPerResource(1)
+			.setGlobalPassesLimit(RESOURCES * 2).useOffHeapDataStorage(RESOURCES * 2).build();
+
+	@Test
+	public void testManyResources() {
+		List<Pass> passes = new ArrayList<Pass>();
+		for (long id = -RESOURCES / 2; id < RESOURCES / 2; id++) {
+			Pass p = cp.tryGetPassRWL(id * 7919L);
+			assertTrue("Thread was not given access to resource " + id, p != null);
+			passes.add(p);
+		}
+		for (long id = -RESOURCES / 2; id < RESOURCES / 2; id++) {
+			assertTrue("Max resource passes limit ignored", cp.tryGetPassL(id * 7919L) == null);
+		}
+		for (Pass p : passes) {
+			p.close();
+		}
+		for (long id = -RESOURCES / 2; id < RESOURCES / 2; id++) {
+			try (Pass p = cp.tryGetPassRWL(id * 7919L)) {
+				assertTrue("Pass was not returned for resource " + id, p != null);
+			}
+		}
+	}
+
+	@Test
+	public void testCapacityLimit() {
+		ACheckpoint small = CheckpointBuilder.newInst().setName("CheckpointOffHeapSmall").useOffHeapDataStorage(4)
+				.build();
+		for (long id = 0; id < 4; id++) {
+			try (Pass p = small.tryGetPassRWL(id)) {
+				assertTrue(p != null);
+			}
+		}
+		try {
+			small.tryGetPassRWL(4L);
+			assertTrue("Table capacity ignored", false);
+		} catch (IllegalStateException e) {
+		}
+		try (Pass p = small.tryGetPassRWL(3L)) {
+			assertTrue("Stored resource id is not accessible when table is full", p != null);
+		}
+	}
+
+	@Test
+	public void testContention() throws InterruptedException {
+		final AtomicIntegerArray active = new AtomicIntegerArray(16);
+		final AtomicIntegerArray violations = new AtomicIntegerArray(1);
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		for (int i = 0; i < THREADS; i++) {
+			final int seed = i;
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 50000; j++) {
+						int id = (j * 31 + seed) & 15;
+						try (Pass p = cp.getPassRWUninterruptibly(id)) {
+							if ( active.incrementAndGet(id) != 1 ) {
+								violations.incrementAndGet(0);
+							}
+							active.decrementAndGet(id);
+						}
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		assertTrue("Applicants deadlocked", pool.awaitTermination(25, TimeUnit.SECONDS));
+		assertTrue("RW pass given twice", violations.get(0) == 0);
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.PassRejectedException;
+
+public class OverloadControlTest {
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(10); // 10 seconds max per method tested
+
+	protected List<String> served = new CopyOnWriteArrayList<String>();
+
+	@Test
+	public void testFailFast() throws Exception {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("Overload")
+				.setOverloadControl(20, 50, TimeUnit.MILLISECONDS, false).build();
+		Thread first;
+		try (Pass p = cp.getPassRW("res")) {
+			first = start(cp, "first");
+			Thread.sleep(100);
+
+			long start = System.nanoTime();
+			try {
+				cp.tryGetPass("res", 5, TimeUnit.SECONDS);
+				assertTrue("Applicant not rejected by overloaded queue", false);
+			} catch (PassRejectedException e) {
+				assertTrue("Shared rejection expected", e == PassRejectedException.OVERLOADED);
+			}
+			long elapsed = System.nanoTime() - start;
+			assertTrue("Rejected before target delay", elapsed >= TimeUnit.MILLISECONDS.toNanos(20));
+			assertTrue("Applicant waited for its own timeout", elapsed < TimeUnit.SECONDS.toNanos(2));
+
+			assertTrue("Shorter own timeout ignored", cp.tryGetPass("res", 5, TimeUnit.MILLISECONDS) == null);
+
+			CompletableFuture<Pass> f = cp.acquireAsync("res");
+			try {
+				f.get(1, TimeUnit.SECONDS).close();
+				assertTrue("Async applicant not rejected by overloaded queue", false);
+			} catch (ExecutionException e) {
+				assertTrue("Async applicant not rejected", e.getCause() instanceof PassRejectedException);
+			}
+		}
+		first.join();
+		assertTrue("Applicant queued before overload not served", served.contains("first"));
+		try (Pass p = cp.tryGetPassRW("res")) {
+			assertTrue("Passes were not returned after rejection", p != null);
+		}
+	}
+
+	@Test
+	public void testBusyQueueWithShortWaits() throws Exception {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("Overload")
+				.setOverloadControl(20, 50, TimeUnit.MILLISECONDS, false).build();
+		final AtomicBoolean stop = new AtomicBoolean();
+		Thread[] workers = new Thread[4];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (!stop.get()) {
+						try (Pass p = cp.getPassRWUninterruptibly("res")) {
+							Thread.sleep(1);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			});
+			workers[i].start();
+		}
+		try {
+			// queue is not empty for much longer than the interval, but every applicant waits a few ms only
+			Thread.sleep(200);
+			for (int i = 0; i < 20; i++) {
+				CompletableFuture<Pass> f = cp.acquireAsync("res");
+				try {
+					f.get(1, TimeUnit.SECONDS).close();
+				} catch (ExecutionException e) {
+					assertTrue("Busy queue with short waits rejected applicant " + e.getCause(), false);
+				}
+			}
+		} finally {
+			stop.set(true);
+			for (Thread t : workers) {
+				t.join();
+			}
+		}
+	}
+
+	@Test
+	public void testAdaptiveLifo() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("AdaptiveLifo").setFair(true)
+				.setOverloadControl(2, 50, TimeUnit.SECONDS, true).build();
+		Thread a;
+		Thread b;
+		Thread c;
+		try (Pass p = cp.getPassRW("res")) {
+			a = start(cp, "a");
+			b = start(cp, "b");
+			c = start(cp, "c");
+		}
+		a.join();
+		b.join();
+		c.join();
+		assertTrue("Arrival order broken without overload " + served, served.toString().equals("[a, b, c]"));
+
+		final ACheckpoint lifo = CheckpointBuilder.newInst().setName("AdaptiveLifo").setFair(true)
+				.setOverloadControl(2000, 50, TimeUnit.MILLISECONDS, true).build();
+		served.clear();
+		try (Pass p = lifo.getPassRW("res")) {
+			a = start(lifo, "a");
+			Thread.sleep(100);
+			b = start(lifo, "b");
+			c = start(lifo, "c");
+		}
+		a.join();
+		b.join();
+		c.join();
+		assertTrue("Overloaded queue is not LIFO " + served, served.toString().equals("[c, b, a]"));
+	}
+
+	/**
+	 * Starts RW applicant and waits until it is queued.
+	 */
+	protected Thread start(final ACheckpoint cp, final String name) throws InterruptedException {
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try (Pass p = cp.getPassRWUninterruptibly("res")) {
+					served.add(name);
+				} catch (PassRejectedException e) {
+					served.add("rejected " + name);
+				}
+			}
+		});
+		t.start();
+		Thread.sleep(30);
+		return t;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.resource.ALockFreeResourceData;
+import zur13.checkpoint.resource.limit.RateLimit;
+
+public class RateLimitTest {
+	protected static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(10); // 10 seconds max per method tested
+
+	@Test
+	public void testBucket() {
+		RateLimit rl = new RateLimit(10, 3);
+		long now = 1000L;
+		long tat = rl.initialState(now);
+		for (int i = 0; i < 3; i++) {
+			assertTrue("Burst not allowed", rl.delay(tat, now) == 0L);
+			tat = rl.next(tat, now);
+		}
+		assertTrue("Burst exceeded", rl.delay(tat, now) == INTERVAL);
+		assertTrue("Bucket not refilled", rl.delay(tat, now + INTERVAL) == 0L);
+		assertTrue("Idle time accumulated above burst", rl.next(tat, now + 10 * INTERVAL) == now + 11 * INTERVAL);
+	}
+
+	@Test
+	public void testTryGetPass() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("RateLimit").setMaxPassesPerResource(10)
+				.setRateLimit(10, 2).useUnsafeDataStorage().build();
+		try (Pass p = cp.tryGetPass("res"); Pass p1 = cp.tryGetPassRW("res1")) {
+			assertTrue("Passes not granted", p != null && p1 != null);
+		}
+		Pass p = cp.tryGetPass("res");
+		assertTrue("Burst not allowed", p != null);
+		p.close();
+		assertTrue("Rate limit ignored", cp.tryGetPass("res") == null);
+		assertTrue("Rate limit ignored for RW pass", cp.tryGetPassRW("res") == null);
+
+		long start = System.nanoTime();
+		try (Pass p2 = cp.tryGetPass("res", 1, TimeUnit.SECONDS)) {
+			assertTrue("Pass not granted within timeout", p2 != null);
+		}
+		assertTrue("Pass granted too early", System.nanoTime() - start >= INTERVAL / 2);
+		assertTrue("Pass granted without available token", cp.tryGetPass("res", 10, TimeUnit.MILLISECONDS) == null);
+
+		try (Pass p3 = cp.tryGetPassRW("res", 1, TimeUnit.SECONDS)) {
+			assertTrue("Pass was not returned after rate limit timeout", p3 != null);
+		}
+	}
+
+	@Test
+	public void testTokenAwaitedBeforePlace() throws Exception {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("RateLimitPlace").setMaxPassesPerResource(10)
+				.setRateLimit(2, 1).useUnsafeDataStorage().build();
+		Pass p = cp.tryGetPass("res");
+		ALockFreeResourceData ad = (ALockFreeResourceData) p.getResourceData();
+		p.close();
+		CompletableFuture<Pass> rw = CompletableFuture.supplyAsync(() -> cp.getPassRWUninterruptibly("res"));
+		Thread.sleep(100);
+		assertTrue("RW place held while waiting for the token", !ad.isActiveRW() && !rw.isDone());
+		try (Pass p1 = rw.get(2, TimeUnit.SECONDS)) {
+			assertTrue("RW pass not granted", ad.isActiveRW());
+		}
+	}
+
+	@Test
+	public void testTokenRefundedOnRollback() {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("RateLimitRollback").setGlobalPassesLimit(1)
+				.setRateLimit(1, 1).useUnsafeDataStorage().build();
+		try (Pass held = cp.tryGetPass("b")) {
+			assertTrue("Global limit ignored", held != null && cp.tryGetPass("a") == null);
+		}
+		try (Pass p = cp.tryGetPass("a")) {
+			assertTrue("Token taken by the pass rolled back on global limit", p != null);
+		}
+	}
+
+	@Test
+	public void testAsync() throws Exception {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("RateLimitAsync").setMaxPassesPerResource(10)
+				.setRateLimit(10, 1).useUnsafeDataStorage().build();
+		long start = System.nanoTime();
+		CompletableFuture<Pass> f = cp.acquireAsync("res");
+		CompletableFuture<Pass> f1 = cp.acquireAsync("res");
+		f.get().close();
+		f1.get(1, TimeUnit.SECONDS).close();
+		assertTrue("Async pass granted too early", System.nanoTime() - start >= INTERVAL / 2);
+
+		CompletableFuture<Pass> f2 = cp.acquireAsync("res");
+		assertTrue("Cancelled", f2.cancel(false));
+		try (Pass p = cp.tryGetPassRW("res", 1, TimeUnit.SECONDS)) {
+			assertTrue("Cancelled pass was not returned", p != null);
+		}
+	}
+}
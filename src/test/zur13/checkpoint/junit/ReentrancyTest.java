@@ -20,6 +20,10 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
@@ -30,6 +34,8 @@ import org.junit.rules.Timeout;
 import zur13.checkpoint.ACheckpoint;
 import zur13.checkpoint.CheckpointBuilder;
 import zur13.checkpoint.Pass;
+import zur13.checkpoint.PassOwner;
+import zur13.checkpoint.ReentrantCheckpoint;
 
 public class ReentrancyTest {
 	ACheckpoint cp = CheckpointBuilder.newInst().setName("CheckpointNoGlobalLimit").setMaxPassesPerResource(1)
@@ -135,8 +141,6 @@ public class ReentrancyTest {
 			}
 		} catch (InterruptedException e) {
 			fail("Test interrupted");
-		} catch (UnsupportedOperationException e) {
-			// Upgrade RO pass is not supported
 		}
 
 		try (Pass p = cp2.tryGetPassRW("cyan", 1, TimeUnit.SECONDS)) {
@@ -160,10 +164,110 @@ public class ReentrancyTest {
 		assertTrue(successSimple);
 		assertTrue(successMultiResource);
 		assertTrue(successDowngrade);
-		assertFalse(successUpgrade);
+		assertTrue(successUpgrade);
 
 		assertTrue(reentrancyGlobalLimitBypassed);
 		assertFalse(globalLimitIgnored);
 	}
 
+	@Test
+	public void testManyResources() throws InterruptedException {
+		final int resources = 100;
+		final Pass[] passes = new Pass[resources];
+		final Pass[] reentered = new Pass[resources];
+		for (int i = 0; i < resources; i++) {
+			passes[i] = cp.getPassRW(i);
+			reentered[i] = cp.getPassRW(i);
+			assertTrue("Pass not reentered", passes[i] == reentered[i]);
+		}
+		// leave sections out of order, every second resource is fully released
+		for (int i = 0; i < resources; i += 2) {
+			passes[i].close();
+			reentered[i].close();
+		}
+		for (int i = 1; i < resources; i += 2) {
+			assertTrue("Pass lost after other resources were released", cp.getPassRW(i) == passes[i]);
+			passes[i].close();
+		}
+		final boolean[] released = new boolean[1];
+		Thread other = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				boolean ok = true;
+				for (int i = 0; i < resources; i++) {
+					try (Pass p = cp.tryGetPassRW(i)) {
+						ok &= (p == null) == (i % 2 == 1);
+					}
+				}
+				released[0] = ok;
+			}
+		});
+		other.start();
+		other.join();
+		assertTrue("Reentrant passes returned too early or too late", released[0]);
+		for (int i = 1; i < resources; i += 2) {
+			passes[i].close();
+			passes[i].close();
+		}
+		try (Pass p = cp.tryGetPassRW(1)) {
+			assertTrue("Pass was not returned", p != null);
+		}
+	}
+
+	@Test
+	public void testOwnerAcrossThreads() throws Exception {
+		final ReentrantCheckpoint rcp = (ReentrantCheckpoint) cp;
+		final PassOwner owner = rcp.newOwner();
+		final ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			final Executor ownerPool = rcp.executor(owner, pool);
+			final Pass p = CompletableFuture.supplyAsync(() -> rcp.getPassRWUninterruptibly("blue"), ownerPool)
+					.get(5, TimeUnit.SECONDS);
+			// next stage of the task reenters the pass in another thread
+			Pass p1 = CompletableFuture.supplyAsync(() -> rcp.tryGetPassRW("blue"), ownerPool).get(5, TimeUnit.SECONDS);
+			assertTrue("Owner pass not reentered in another thread", p1 == p);
+			assertTrue("Owner pass given to the thread without owner", rcp.tryGetPassRW("blue") == null);
+			CompletableFuture.runAsync(() -> {
+				p1.close();
+				p.close();
+			}, ownerPool).get(5, TimeUnit.SECONDS);
+			assertTrue("Owner still holds passes", owner.getHeldResources() == 0);
+		} finally {
+			pool.shutdown();
+		}
+		try (Pass p = rcp.tryGetPassRW("blue")) {
+			assertTrue("Owner pass was not returned", p != null);
+		}
+	}
+
+	@Test
+	public void testForkedOwners() throws Exception {
+		final ReentrantCheckpoint rcp = (ReentrantCheckpoint) cp;
+		final PassOwner owner = rcp.newOwner();
+		final Pass parentPass = rcp.callAs(owner, () -> rcp.getPassRW("blue"));
+		final ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			CompletableFuture<?>[] children = new CompletableFuture<?>[2];
+			for (int i = 0; i < children.length; i++) {
+				final PassOwner child = owner.fork();
+				final String own = i == 0 ? "red" : "green";
+				children[i] = CompletableFuture.runAsync(() -> {
+					try (Pass p = rcp.getPassRWUninterruptibly("blue"); Pass p1 = rcp.getPassRWUninterruptibly(own)) {
+						assertTrue("Parent pass not reentered by the subtask", p == parentPass);
+					}
+				}, rcp.executor(child, pool));
+			}
+			CompletableFuture.allOf(children).get(5, TimeUnit.SECONDS);
+		} finally {
+			pool.shutdown();
+		}
+		assertTrue("Parent pass returned by the subtask", rcp.tryGetPassRW("blue") == null);
+		try (Pass p = rcp.tryGetPassRW("red")) {
+			assertTrue("Subtask pass was not returned", p != null);
+		}
+		rcp.runAs(owner, () -> parentPass.close());
+		try (Pass p = rcp.tryGetPassRW("blue")) {
+			assertTrue("Parent pass was not returned", p != null);
+		}
+	}
 }
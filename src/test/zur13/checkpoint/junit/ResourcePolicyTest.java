@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.resource.ResourceLimits;
+import zur13.checkpoint.resource.ResourcePolicy;
+import zur13.checkpoint.resource.limit.RateLimit;
+
+public class ResourcePolicyTest {
+	protected static final ResourceLimits CORE = new ResourceLimits(4, false);
+	protected static final ResourceLimits RATED = new ResourceLimits(2, true, new RateLimit(0.1, 1));
+
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(10); // 10 seconds max per method tested
+
+	protected AtomicInteger evaluated = new AtomicInteger(0);
+
+	protected ResourcePolicy policy = new ResourcePolicy() {
+		@Override
+		public ResourceLimits getLimits(Object resourceId) {
+			evaluated.incrementAndGet();
+			if ( resourceId.toString().startsWith("core") ) {
+				return CORE;
+			}
+			return resourceId.toString().startsWith("rated") ? RATED : null;
+		}
+	};
+
+	@Test
+	public void testPerResourceLimits() {
+		testPerResourceLimits(CheckpointBuilder.newInst().setName("ResourcePolicy").setMaxPassesPerResource(1)
+				.setResourcePolicy(policy).build());
+	}
+
+	@Test
+	public void testPerResourceLimitsSemaphore() {
+		testPerResourceLimits(CheckpointBuilder.newInst().setName("ResourcePolicySemaphore").useSemaphoreResourceData()
+				.setMaxPassesPerResource(1).setResourcePolicy(policy).build());
+	}
+
+	@Test
+	public void testPerResourceLimitsOffHeap() {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("ResourcePolicyOffHeap").useOffHeapDataStorage(16)
+				.setMaxPassesPerResource(1).setResourcePolicy(new ResourcePolicy() {
+					@Override
+					public ResourceLimits getLimits(Object resourceId) {
+						return ((Long) resourceId).longValue() < 8L ? CORE : null;
+					}
+				}).build();
+		assertTrue("Resource limits ignored", countPasses(cp, 1L) == 4 && countPasses(cp, 9L) == 1);
+	}
+
+	@Test
+	public void testRateLimit() {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("ResourcePolicyRate").setResourcePolicy(policy)
+				.build();
+		try (Pass p = cp.tryGetPass("rated")) {
+			assertTrue("Pass within burst not given", p != null);
+			// second pass is within max passes of the resource but exceeds its rate
+			assertTrue("Resource rate limit ignored", cp.tryGetPass("rated") == null);
+		}
+		assertTrue("Rate limit applied to the resource without it", countPasses(cp, "other") == 1
+				&& countPasses(cp, "other") == 1);
+	}
+
+	protected void testPerResourceLimits(ACheckpoint cp) {
+		try (Pass p = cp.tryGetPass("core1")) {
+			assertTrue("Resource limits ignored", countPasses(cp, "core1") == 3);
+			assertTrue("Policy evaluated for the existing resource data", evaluated.get() == 1);
+		}
+		assertTrue("Default limits ignored", countPasses(cp, "edge1") == 1);
+	}
+
+	/**
+	 * Takes as many RO passes as available and returns them.
+	 */
+	protected int countPasses(ACheckpoint cp, Object resourceId) {
+		Pass[] passes = new Pass[16];
+		int n = 0;
+		while (n < passes.length && (passes[n] = cp.tryGetPass(resourceId)) != null) {
+			n++;
+		}
+		for (int i = 0; i < n; i++) {
+			passes[i].close();
+		}
+		return n;
+	}
+}
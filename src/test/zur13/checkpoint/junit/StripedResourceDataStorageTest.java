@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+
+public class StripedResourceDataStorageTest {
+	protected static final int STRIPES = 4;
+
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(10); // 10 seconds max per method tested
+
+	@Test
+	public void testStripesShared() {
+		ACheckpoint cp = CheckpointBuilder.newInst().setName("CheckpointStriped").useStripedStorage(STRIPES).build();
+		Pass[] passes = new Pass[STRIPES];
+		int taken = 0;
+		for (int id = 0; taken < STRIPES && id < 1000; id++) {
+			Pass p = cp.tryGetPassRW(id);
+			if ( p != null ) {
+				passes[taken++] = p;
+			}
+		}
+		assertTrue("Not all stripes are used", taken == STRIPES);
+		for (int id = 0; id < 1000; id++) {
+			assertTrue("Resource id is not mapped to any stripe " + id, cp.tryGetPass(id) == null);
+		}
+		for (Pass p : passes) {
+			p.close();
+		}
+		for (int id = -1000; id < 1000; id++) {
+			try (Pass p = cp.tryGetPassRW(id)) {
+				assertTrue("Pass was not returned to the stripe " + id, p != null);
+			}
+		}
+	}
+
+	@Test
+	public void testReentrantSameStripe() {
+		ACheckpoint cp = CheckpointBuilder.newInst().setName("CheckpointStripedReentrant").useStripedStorage(1)
+				.setReentrant(true).build();
+		try (Pass p1 = cp.tryGetPassRW("a")) {
+			assertTrue(p1 != null);
+			try (Pass p2 = cp.tryGetPassRW("b")) {
+				assertTrue("Ids of the same stripe are not reentrant", p2 != null);
+			}
+		}
+		try (Pass p = cp.tryGetPassRW("c")) {
+			assertTrue("Reentrant pass was not returned", p != null);
+		}
+	}
+
+	@Test
+	public void testNegativeHashCode() {
+		ACheckpoint cp = CheckpointBuilder.newInst().setName("CheckpointNegativeHash").setConcurrencyLevel(3).build();
+		for (int id = -1000; id < 0; id++) {
+			try (Pass p = cp.tryGetPassRW(id)) {
+				assertTrue(p != null);
+			}
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.MultiPass;
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.PassMode;
+
+public class UpgradePassTest {
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(10); // 10 seconds max per method tested
+
+	protected AtomicInteger upgraded = new AtomicInteger(0);
+
+	@Test
+	public void testUpdatePassCoexistsWithReaders() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("UpdateWithReaders").setMaxPassesPerResource(3)
+				.build();
+		try (Pass u = cp.getPassForUpdate("res")) {
+			assertTrue("Update pass expected", u.isUpdate() && u.isReadOnly() && u.getMode() == PassMode.UPDATE);
+			try (Pass r = cp.tryGetPass("res")) {
+				assertTrue("RO pass not given while update pass active", r != null);
+				assertTrue("Second update pass given", cp.tryGetPassForUpdate("res") == null);
+				assertTrue("RW pass given while update pass active", cp.tryGetPassRW("res") == null);
+			}
+		}
+		try (Pass u = cp.tryGetPassForUpdate("res")) {
+			assertTrue("Update pass was not returned", u != null);
+		}
+	}
+
+	@Test
+	public void testUpgradeWaitsForReaders() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("UpgradeWaitsForReaders")
+				.setMaxPassesPerResource(3).build();
+		Thread updater;
+		try (Pass r = cp.getPass("res")) {
+			updater = startUpdater(cp, "res");
+			Thread.sleep(200);
+			assertTrue("Upgraded while RO pass active", upgraded.get() == 0);
+			assertTrue("RO pass given while pass is upgrading",
+					cp.tryGetPass("res", 50, TimeUnit.MILLISECONDS) == null);
+		}
+		updater.join();
+		assertTrue("Pass was not upgraded", upgraded.get() == 1);
+		try (Pass p = cp.tryGetPassRW("res")) {
+			assertTrue("Upgraded pass was not returned", p != null);
+		}
+	}
+
+	@Test
+	public void testInterruptedUpgrade() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("InterruptedUpgrade").setMaxPassesPerResource(3)
+				.build();
+		try (Pass r = cp.getPass("res")) {
+			Thread updater = startUpdater(cp, "res");
+			Thread.sleep(200);
+			updater.interrupt();
+			updater.join();
+			assertTrue("Interrupted pass upgraded", upgraded.get() == -1);
+			try (Pass r1 = cp.tryGetPass("res"); Pass u = cp.tryGetPassForUpdate("res")) {
+				assertTrue("Cancelled upgrade still blocks applicants", r1 != null && u != null);
+			}
+		}
+	}
+
+	@Test
+	public void testDowngrade() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("Downgrade").setMaxPassesPerResource(3).build();
+		try (Pass u = cp.getPassForUpdate("res")) {
+			u.upgrade();
+			assertTrue("Update pass without readers not upgraded", u.getMode() == PassMode.RW);
+			assertTrue("RO pass given while pass is upgraded", cp.tryGetPass("res") == null);
+			u.downgrade();
+			assertTrue("Update pass not downgraded", u.getMode() == PassMode.UPDATE);
+			try (Pass r = cp.tryGetPass("res")) {
+				assertTrue("RO pass not given after downgrade", r != null);
+			}
+			assertTrue("Second update pass given after downgrade", cp.tryGetPassForUpdate("res") == null);
+		}
+
+		final Pass w = cp.getPassRW("res");
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try (Pass r = cp.getPass("res")) {
+					upgraded.incrementAndGet();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		});
+		reader.start();
+		Thread.sleep(100);
+		w.downgrade();
+		// waiting RO applicant is let in while downgraded pass is still active
+		reader.join();
+		assertTrue("Waiting RO applicant not served after downgrade", upgraded.get() == 1 && w.isReadOnly());
+		w.close();
+		try (Pass p = cp.tryGetPassRW("res")) {
+			assertTrue("Downgraded pass was not returned", p != null);
+		}
+	}
+
+	@Test
+	public void testUpgradeRO() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("UpgradeRO").setMaxPassesPerResource(3).build();
+		try (Pass r = cp.getPass("res")) {
+			r.upgrade();
+			assertTrue("RO pass not upgraded", !r.isReadOnly() && !r.isUpdate());
+		}
+
+		final Pass r1 = cp.getPass("res");
+		final Pass r2 = cp.getPass("res");
+		Thread first = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					r1.upgrade();
+					upgraded.incrementAndGet();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		});
+		first.start();
+		Thread.sleep(200);
+		try {
+			r2.upgrade();
+			assertTrue("Concurrent upgrade of RO passes allowed", false);
+		} catch (IllegalStateException e) {
+			// expected, both passes would wait for each other
+		}
+		r2.close();
+		first.join();
+		assertTrue("RO pass not upgraded after other RO pass returned", upgraded.get() == 1 && !r1.isReadOnly());
+		r1.close();
+		try (Pass p = cp.tryGetPassForUpdate("res")) {
+			assertTrue("Upgraded RO pass was not returned", p != null);
+		}
+	}
+
+	@Test
+	public void testReentrantUpdatePass() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("ReentrantUpdate").setReentrant(true).build();
+		try (Pass u = cp.getPassForUpdate("res")) {
+			try (Pass u1 = cp.getPassForUpdate("res")) {
+				assertTrue("Update pass not reentered", u1 == u);
+				u1.upgrade();
+			}
+			try (Pass w = cp.getPassRW("res")) {
+				assertTrue("Upgraded pass not reentered", w == u);
+			}
+		}
+		try (Pass r = cp.getPass("res")) {
+			try (Pass u = cp.getPassForUpdate("res")) {
+				assertTrue("RO pass not reentered by update request", u == r && !u.isUpdate());
+			}
+		}
+	}
+
+	@Test
+	public void testReentrantUpgradeRO() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("ReentrantUpgradeRO").setReentrant(true)
+				.setMaxPassesPerResource(3).build();
+		Thread updater;
+		try (Pass r = cp.getPass("res")) {
+			try (Pass w = cp.getPassRW("res")) {
+				assertTrue("RO pass not upgraded by reentrant RW request", w == r && !w.isReadOnly());
+			}
+			assertTrue("Upgraded pass lost RW access before it was returned", !r.isReadOnly());
+			updater = startUpdater(cp, "res");
+			Thread.sleep(100);
+			assertTrue("Resource upgraded while reentered RW pass active", upgraded.get() == 0);
+		}
+		updater.join();
+		assertTrue("Update pass not upgraded after reentered RW pass returned", upgraded.get() == 1);
+
+		Pass other = cp.acquireAsync("res").join(); // async pass is not reentered by the thread
+		try (Pass r = cp.getPass("res")) {
+			assertTrue("RO pass upgraded while other RO pass active", cp.tryGetPassRW("res") == null);
+			other.close();
+			try (Pass w = cp.tryGetPassRW("res", 1, TimeUnit.SECONDS)) {
+				assertTrue("RO pass not upgraded after other RO pass returned", w == r && !w.isReadOnly());
+			}
+		}
+		try (Pass w = cp.tryGetPassRW("res")) {
+			assertTrue("Reentered RO pass was not returned", w != null);
+		}
+	}
+
+	@Test
+	public void testSemaphoreUpgrade() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("SemaphoreUpgrade").useSemaphoreResourceData()
+				.setMaxPassesPerResource(3).build();
+		Thread updater;
+		Pass r = cp.getPass("res");
+		try {
+			updater = startUpdater(cp, "res");
+			Thread.sleep(100);
+			assertTrue("Update pass upgraded while RO pass active", upgraded.get() == 0);
+			try {
+				r.upgrade();
+				assertTrue("RO pass upgraded while update pass active", false);
+			} catch (IllegalStateException e) {
+				// expected, only update pass may wait for the upgrade
+			}
+		} finally {
+			r.close();
+		}
+		updater.join();
+		assertTrue("Update pass not upgraded after RO pass returned", upgraded.get() == 1);
+
+		try (Pass u = cp.getPassForUpdate("res")) {
+			assertTrue("Second update pass given", cp.tryGetPassForUpdate("res") == null);
+			u.upgrade();
+			assertTrue("RO pass given while upgraded pass active", cp.tryGetPass("res") == null);
+			u.downgrade();
+			try (Pass r1 = cp.tryGetPass("res")) {
+				assertTrue("RO pass not given after downgrade", r1 != null && u.isReadOnly());
+			}
+		}
+		try (Pass w = cp.tryGetPassRW("res")) {
+			assertTrue("Permits of the update pass were not returned", w != null);
+		}
+	}
+
+	@Test
+	public void testMultiPassUpgrade() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("MultiPassUpgrade").setMaxPassesPerResource(3)
+				.build();
+		try (MultiPass mp = cp.getPasses(Arrays.asList("a", "b"), PassMode.RO)) {
+			Pass other = cp.getPass("b");
+			assertTrue("Passes upgraded while other RO pass active", !mp.tryUpgrade(50, TimeUnit.MILLISECONDS));
+			assertTrue("Upgraded passes not downgraded after failed upgrade",
+					mp.isReadOnly() && isAvailable(cp, "a"));
+			other.close();
+			mp.upgrade();
+			assertTrue("Passes not upgraded", !mp.isReadOnly() && !isAvailable(cp, "a") && !isAvailable(cp, "b"));
+			mp.downgrade();
+			try (Pass r = cp.tryGetPass("b")) {
+				assertTrue("Passes not downgraded", mp.isReadOnly() && r != null);
+			}
+		}
+		try (Pass w = cp.tryGetPassRW("a")) {
+			assertTrue("Passes were not returned", w != null);
+		}
+	}
+
+	protected static boolean isAvailable(ACheckpoint cp, Object resourceId) {
+		Pass p = cp.tryGetPass(resourceId);
+		if ( p != null ) {
+			p.close();
+		}
+		return p != null;
+	}
+
+	protected Thread startUpdater(final ACheckpoint cp, final Object resourceId) {
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try (Pass u = cp.getPassForUpdateUninterruptibly(resourceId)) {
+					try {
+						u.upgrade();
+						upgraded.incrementAndGet();
+					} catch (InterruptedException e) {
+						if ( u.isReadOnly() ) {
+							upgraded.decrementAndGet();
+						}
+					}
+				}
+			}
+		});
+		t.start();
+		return t;
+	}
+}
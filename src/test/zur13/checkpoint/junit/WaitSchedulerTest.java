@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.resource.SchedulingPolicy;
+import zur13.checkpoint.resource.WaitScheduler;
+
+public class WaitSchedulerTest {
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(10); // 10 seconds max per method tested
+
+	protected List<String> served = new CopyOnWriteArrayList<String>();
+
+	@Test
+	public void testPriority() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("Priority").setFair(true)
+				.setWaitScheduler(SchedulingPolicy.PRIORITY).build();
+		Thread low;
+		Thread normal;
+		Thread high;
+		try (Pass p = cp.getPassRW("res")) {
+			low = start(cp, "res", true, -5, "low");
+			normal = start(cp, "res", false, WaitScheduler.NORM_PRIORITY, "normal");
+			high = start(cp, "res", true, 5, "high");
+		}
+		low.join();
+		normal.join();
+		high.join();
+		assertTrue("Priority ignored " + served, served.toString().equals("[high, normal, low]"));
+	}
+
+	@Test
+	public void testPriorityIgnoredWithoutScheduler() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("Fifo").setFair(true).build();
+		Thread low;
+		Thread high;
+		try (Pass p = cp.getPassRW("res")) {
+			low = start(cp, "res", true, -5, "low");
+			high = start(cp, "res", true, 5, "high");
+		}
+		low.join();
+		high.join();
+		assertTrue("Arrival order broken " + served, served.toString().equals("[low, high]"));
+	}
+
+	@Test
+	public void testShortestHoldFirst() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("ShortestHoldFirst").setFair(true)
+				.setMaxPassesPerResource(2).setWaitScheduler(SchedulingPolicy.SHORTEST_HOLD_FIRST)
+				.useUnsafeDataStorage().build();
+		for (int i = 0; i < 3; i++) {
+			try (Pass p = cp.getPass("res")) {
+				Thread.sleep(30);
+			}
+			try (Pass p = cp.getPassRW("res")) {
+				// short RW section
+			}
+		}
+		Thread ro;
+		Thread rw;
+		try (Pass p = cp.getPassRW("res")) {
+			ro = start(cp, "res", true, WaitScheduler.NORM_PRIORITY, "ro");
+			rw = start(cp, "res", false, WaitScheduler.NORM_PRIORITY, "rw");
+		}
+		ro.join();
+		rw.join();
+		assertTrue("Longer RO section served first " + served, served.toString().equals("[rw, ro]"));
+	}
+
+	/**
+	 * Starts applicant and waits until it is queued.
+	 */
+	protected Thread start(final ACheckpoint cp, final Object resourceId, final boolean isRO, final int priority,
+			final String name) throws InterruptedException {
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try (Pass p = isRO ? cp.getPass(resourceId, 1, priority) : cp.getPassRW(resourceId, priority)) {
+					served.add(name);
+				} catch (InterruptedException e) {
+					served.add("interrupted");
+				}
+			}
+		});
+		t.start();
+		Thread.sleep(100);
+		return t;
+	}
+}
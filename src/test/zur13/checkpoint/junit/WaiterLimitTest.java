@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.PassRejectedException;
+
+public class WaiterLimitTest {
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(10); // 10 seconds max per method tested
+
+	protected AtomicInteger served = new AtomicInteger(0);
+
+	@Test
+	public void testMaxWaitersPerResource() throws Exception {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("MaxWaitersPerResource")
+				.setMaxWaitersPerResource(1).build();
+		Thread waiter;
+		try (Pass p = cp.getPassRW("res")) {
+			waiter = start(cp, "res");
+
+			try {
+				cp.getPass("res").close();
+				assertTrue("Waiters limit ignored", false);
+			} catch (PassRejectedException e) {
+				assertTrue("Shared rejection expected", e == PassRejectedException.QUEUE_FULL);
+			}
+			long start = System.nanoTime();
+			assertTrue("Waiters limit ignored by timed request", cp.tryGetPass("res", 5, TimeUnit.SECONDS) == null);
+			assertTrue("Rejected request waited", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+			CompletableFuture<Pass> f = cp.acquireRWAsync("res");
+			try {
+				f.get(1, TimeUnit.SECONDS).close();
+				assertTrue("Waiters limit ignored by async request", false);
+			} catch (ExecutionException e) {
+				assertTrue("Async request not rejected", e.getCause() == PassRejectedException.QUEUE_FULL);
+			}
+
+			// other resource has its own waiters limit
+			Pass p1 = cp.getPassRW("res1");
+			Thread other = start(cp, "res1");
+			p1.close();
+			other.join();
+		}
+		waiter.join();
+		assertTrue("Queued applicants not served", served.get() == 2);
+
+		try (Pass p = cp.getPassRW("res")) {
+			waiter = start(cp, "res");
+		}
+		waiter.join();
+		assertTrue("Waiter place not freed", served.get() == 3);
+	}
+
+	@Test
+	public void testMaxWaiters() throws Exception {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("MaxWaiters").setMaxWaiters(1).build();
+		Thread waiter;
+		try (Pass p = cp.getPassRW("res"); Pass p1 = cp.getPassRW("res1")) {
+			waiter = start(cp, "res");
+			assertTrue("Global waiters limit ignored", cp.tryGetPassRW("res1", 5, TimeUnit.SECONDS) == null);
+		}
+		waiter.join();
+		try (Pass p = cp.getPassRW("res1")) {
+			waiter = start(cp, "res1");
+		}
+		waiter.join();
+		assertTrue("Waiter place not freed", served.get() == 2);
+	}
+
+	/**
+	 * Starts RW applicant and waits until it is queued.
+	 */
+	protected Thread start(final ACheckpoint cp, final String resourceId) throws InterruptedException {
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try (Pass p = cp.getPassRWUninterruptibly(resourceId)) {
+					served.incrementAndGet();
+				}
+			}
+		});
+		t.start();
+		Thread.sleep(50);
+		return t;
+	}
+}
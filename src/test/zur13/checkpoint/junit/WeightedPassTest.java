@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.junit;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+
+public class WeightedPassTest {
+	protected static final int MAX_UNITS = 10;
+	protected static final int THREADS = 8;
+
+	@Rule
+	public Timeout globalTimeout = Timeout.seconds(30); // 30 seconds max per method tested
+
+	@Test
+	public void testResourceUnits() {
+		checkResourceUnits(CheckpointBuilder.newInst().setName("WeightedLockFree").setMaxPassesPerResource(MAX_UNITS)
+				.build());
+		checkResourceUnits(CheckpointBuilder.newInst().setName("WeightedSemaphore").setMaxPassesPerResource(MAX_UNITS)
+				.useSemaphoreResourceData().build());
+	}
+
+	protected void checkResourceUnits(ACheckpoint cp) {
+		try (Pass p = cp.tryGetPass("a", 6)) {
+			assertTrue(p != null && p.getWeight() == 6);
+			assertTrue("Resource units limit ignored", cp.tryGetPass("a", 5) == null);
+			try (Pass p1 = cp.tryGetPass("a", 4)) {
+				assertTrue("Free units not granted", p1 != null);
+				assertTrue("Resource units limit ignored", cp.tryGetPass("a") == null);
+			}
+			assertTrue("RW pass given while RO pass active", cp.tryGetPassRW("a") == null);
+		}
+		try (Pass p = cp.tryGetPass("a", MAX_UNITS)) {
+			assertTrue("Units were not returned", p != null);
+		}
+		try {
+			cp.tryGetPass("a", MAX_UNITS + 1);
+			assertTrue("Pass which can never be granted requested", false);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testGlobalUnits() {
+		ACheckpoint cp = CheckpointBuilder.newInst().setName("WeightedGlobal").setMaxPassesPerResource(MAX_UNITS)
+				.setGlobalPassesLimit(MAX_UNITS).build();
+		try (Pass p = cp.tryGetPass("a", 7)) {
+			assertTrue("Global units limit ignored", cp.tryGetPass("b", 4) == null);
+			try (Pass p1 = cp.tryGetPass("b", 3)) {
+				assertTrue("Free global units not granted", p1 != null);
+			}
+		}
+		try (Pass p = cp.tryGetPass("b", MAX_UNITS)) {
+			assertTrue("Global units were not returned", p != null);
+		}
+	}
+
+	@Test
+	public void testHeavyNotStarved() throws InterruptedException {
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("WeightedStorm").setMaxPassesPerResource(THREADS)
+				.setGlobalPassesLimit(THREADS).build();
+		final AtomicInteger stop = new AtomicInteger(0);
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		for (int i = 0; i < THREADS; i++) {
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					// light passes always overlap so there is no moment with all units free
+					while (stop.get() == 0) {
+						try (Pass p = cp.getPassUninterruptibly("res")) {
+							Thread.sleep(1);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			});
+		}
+		Thread.sleep(100);
+		try (Pass p = cp.tryGetPass("res", THREADS, 5, TimeUnit.SECONDS)) {
+			assertTrue("Heavy applicant starved by light applicants", p != null);
+		} finally {
+			stop.set(1);
+			pool.shutdown();
+		}
+		assertTrue("Applicants deadlocked", pool.awaitTermination(5, TimeUnit.SECONDS));
+	}
+}
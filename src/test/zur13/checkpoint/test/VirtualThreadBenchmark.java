@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package test.zur13.checkpoint.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.CheckpointBuilder;
+import zur13.checkpoint.Pass;
+
+/**
+ * Runs lots of virtual threads contending for the passes of a few thousand resources and counts
+ * jdk.VirtualThreadPinned events recorded by JFR meanwhile.
+ * <br/>
+ * <br/>
+ * Usage: VirtualThreadBenchmark [threads] [resources] [iterations per thread]
+ * <br/>
+ * Default is 100000 threads, 2000 resources, 10 iterations.
+ * <br/>
+ * <br/>
+ * Falls back to the limited number of platform threads if JVM does not support virtual threads.
+ */
+public class VirtualThreadBenchmark {
+	private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+	private static final int MAX_PLATFORM_THREADS = 2000;
+
+	public static void main(String[] args) throws Exception {
+		int threadsCnt = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		final int resources = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		final int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		ThreadFactory factory = virtualThreadFactory();
+		if ( factory == null ) {
+			System.out.println("Virtual threads are not supported, running on platform threads");
+			factory = Thread::new;
+			threadsCnt = Math.min(threadsCnt, MAX_PLATFORM_THREADS);
+		}
+
+		final ACheckpoint cp = CheckpointBuilder.newInst().setName("VirtualThreadBenchmark")
+				.setMaxPassesPerResource(4).build();
+		final AtomicLong passes = new AtomicLong(0);
+
+		Path jfrFile = Files.createTempFile("checkpoint-vt", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable(PINNED_EVENT).withThreshold(Duration.ZERO).withStackTrace();
+			recording.start();
+
+			long start = System.nanoTime();
+			Thread[] threads = new Thread[threadsCnt];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = factory.newThread(new Runnable() {
+					@Override
+					public void run() {
+						ThreadLocalRandom rnd = ThreadLocalRandom.current();
+						for (int j = 0; j < iterations; j++) {
+							Object resourceId = Integer.valueOf(rnd.nextInt(resources));
+							try (Pass p = rnd.nextInt(10) == 0 ? cp.getPassRWUninterruptibly(resourceId)
+									: cp.getPassUninterruptibly(resourceId)) {
+								// keep the pass long enough for the other threads to queue up
+								LockSupport.parkNanos(100000);
+								passes.incrementAndGet();
+							}
+						}
+					}
+				});
+				threads[i].start();
+			}
+			for (Thread t : threads) {
+				t.join();
+			}
+			long elapsed = System.nanoTime() - start;
+
+			recording.stop();
+			recording.dump(jfrFile);
+
+			long pinned = 0;
+			for (RecordedEvent e : RecordingFile.readAllEvents(jfrFile)) {
+				if ( PINNED_EVENT.equals(e.getEventType().getName()) ) {
+					pinned++;
+				}
+			}
+
+			System.out.println("Threads: " + threadsCnt + ", resources: " + resources + ", passes: " + passes.get());
+			System.out.println("Elapsed: " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms, "
+					+ (passes.get() * TimeUnit.SECONDS.toNanos(1) / Math.max(elapsed, 1)) + " passes/s");
+			System.out.println(PINNED_EVENT + " events: " + pinned);
+		} finally {
+			Files.deleteIfExists(jfrFile);
+		}
+	}
+
+	/**
+	 * Gets Thread.ofVirtual().factory() through reflection, so the benchmark compiles with the pre Loom JDKs.
+	 * 
+	 * @return virtual thread factory or null if not supported
+	 */
+	static ThreadFactory virtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+}
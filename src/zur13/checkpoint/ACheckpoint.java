@@ -16,7 +16,11 @@
 
 package zur13.checkpoint;
 
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Abstract checkpoint structure.
@@ -86,6 +90,56 @@ public abstract class ACheckpoint implements ICheckpoint {
 	@Override
 	public abstract Pass tryGetPass(Object resourceId, long timeout, TimeUnit unit) throws InterruptedException;
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#getPass(java.lang.Object, int)
+	 */
+	@Override
+	public abstract Pass getPass(Object resourceId, int weight) throws InterruptedException;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#getPassUninterruptibly(java.lang.Object, int)
+	 */
+	@Override
+	public abstract Pass getPassUninterruptibly(Object resourceId, int weight);
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#tryGetPass(java.lang.Object, int)
+	 */
+	@Override
+	public abstract Pass tryGetPass(Object resourceId, int weight);
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#tryGetPass(java.lang.Object, int, long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public abstract Pass tryGetPass(Object resourceId, int weight, long timeout, TimeUnit unit)
+			throws InterruptedException;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#getPass(java.lang.Object, int, int)
+	 */
+	@Override
+	public abstract Pass getPass(Object resourceId, int weight, int priority) throws InterruptedException;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#tryGetPass(java.lang.Object, int, int, long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public abstract Pass tryGetPass(Object resourceId, int weight, int priority, long timeout, TimeUnit unit)
+			throws InterruptedException;
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -118,6 +172,241 @@ public abstract class ACheckpoint implements ICheckpoint {
 	@Override
 	public abstract Pass tryGetPassRW(Object resourceId, long timeout, TimeUnit unit) throws InterruptedException;
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#getPassRW(java.lang.Object, int)
+	 */
+	@Override
+	public abstract Pass getPassRW(Object resourceId, int priority) throws InterruptedException;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#tryGetPassRW(java.lang.Object, int, long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public abstract Pass tryGetPassRW(Object resourceId, int priority, long timeout, TimeUnit unit)
+			throws InterruptedException;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#getPassForUpdate(java.lang.Object)
+	 */
+	@Override
+	public abstract Pass getPassForUpdate(Object resourceId) throws InterruptedException;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#getPassForUpdateUninterruptibly(java.lang.Object)
+	 */
+	@Override
+	public abstract Pass getPassForUpdateUninterruptibly(Object resourceId);
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#tryGetPassForUpdate(java.lang.Object)
+	 */
+	@Override
+	public abstract Pass tryGetPassForUpdate(Object resourceId);
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#tryGetPassForUpdate(java.lang.Object, long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public abstract Pass tryGetPassForUpdate(Object resourceId, long timeout, TimeUnit unit)
+			throws InterruptedException;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#getPassL(long)
+	 */
+	@Override
+	public abstract Pass getPassL(long resourceId) throws InterruptedException;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#getPassUninterruptiblyL(long)
+	 */
+	@Override
+	public abstract Pass getPassUninterruptiblyL(long resourceId);
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#tryGetPassL(long)
+	 */
+	@Override
+	public abstract Pass tryGetPassL(long resourceId);
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#tryGetPassL(long, long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public abstract Pass tryGetPassL(long resourceId, long timeout, TimeUnit unit) throws InterruptedException;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#getPassRWL(long)
+	 */
+	@Override
+	public abstract Pass getPassRWL(long resourceId) throws InterruptedException;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#getPassRWUninterruptiblyL(long)
+	 */
+	@Override
+	public abstract Pass getPassRWUninterruptiblyL(long resourceId);
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#tryGetPassRWL(long)
+	 */
+	@Override
+	public abstract Pass tryGetPassRWL(long resourceId);
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#tryGetPassRWL(long, long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public abstract Pass tryGetPassRWL(long resourceId, long timeout, TimeUnit unit) throws InterruptedException;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#getPasses(java.util.Collection, zur13.checkpoint.PassMode)
+	 */
+	@Override
+	public abstract MultiPass getPasses(Collection<?> resourceIds, PassMode mode) throws InterruptedException;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#getPassesUninterruptibly(java.util.Collection, zur13.checkpoint.PassMode)
+	 */
+	@Override
+	public abstract MultiPass getPassesUninterruptibly(Collection<?> resourceIds, PassMode mode);
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#tryGetPasses(java.util.Collection, zur13.checkpoint.PassMode)
+	 */
+	@Override
+	public abstract MultiPass tryGetPasses(Collection<?> resourceIds, PassMode mode);
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#tryGetPasses(java.util.Collection, zur13.checkpoint.PassMode, long,
+	 * java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public abstract MultiPass tryGetPasses(Collection<?> resourceIds, PassMode mode, long timeout, TimeUnit unit)
+			throws InterruptedException;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#acquireAsync(java.lang.Object)
+	 */
+	@Override
+	public abstract CompletableFuture<Pass> acquireAsync(Object resourceId);
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#acquireRWAsync(java.lang.Object)
+	 */
+	@Override
+	public abstract CompletableFuture<Pass> acquireRWAsync(Object resourceId);
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#withPassAsync(java.lang.Object, java.util.function.Function)
+	 */
+	@Override
+	public <T> CompletableFuture<T> withPassAsync(Object resourceId,
+			Function<? super Pass, ? extends CompletionStage<T>> action) {
+		return withPassAsync(acquireAsync(resourceId), action);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.checkpoint.ICheckpoint#withPassRWAsync(java.lang.Object, java.util.function.Function)
+	 */
+	@Override
+	public <T> CompletableFuture<T> withPassRWAsync(Object resourceId,
+			Function<? super Pass, ? extends CompletionStage<T>> action) {
+		return withPassAsync(acquireRWAsync(resourceId), action);
+	}
+
+	/**
+	 * Runs action once pass is granted and closes the pass when the stage returned by the action completes.
+	 * Cancelling the returned future withdraws the pass request, pass granted after cancellation is returned without
+	 * running the action.
+	 * 
+	 * @param passFuture
+	 * @param action
+	 * @return
+	 */
+	protected static <T> CompletableFuture<T> withPassAsync(final CompletableFuture<Pass> passFuture,
+			final Function<? super Pass, ? extends CompletionStage<T>> action) {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		passFuture.whenComplete((pass, e) -> {
+			if ( e != null ) {
+				result.completeExceptionally(e);
+				return;
+			}
+			if ( result.isDone() ) {
+				pass.close();
+				return;
+			}
+			CompletionStage<T> stage;
+			try {
+				stage = action.apply(pass);
+				if ( stage == null ) {
+					throw new NullPointerException("Action returned null stage");
+				}
+			} catch (Throwable e2) {
+				pass.close();
+				result.completeExceptionally(e2);
+				return;
+			}
+			stage.whenComplete((value, e2) -> {
+				pass.close();
+				if ( e2 != null ) {
+					result.completeExceptionally(e2);
+				} else {
+					result.complete(value);
+				}
+			});
+		});
+		result.whenComplete((value, e) -> {
+			if ( result.isCancelled() ) {
+				passFuture.cancel(false);
+			}
+		});
+		return result;
+	}
+
 	/**
 	 * Returns specified pass to this checkpoint.
 	 * 
@@ -126,6 +415,13 @@ public abstract class ACheckpoint implements ICheckpoint {
 	 */
 	protected abstract void returnPass(Pass pass);
 
+	/**
+	 * Returns all passes of the composite pass and its global pass permit.
+	 * 
+	 * @param multiPass
+	 */
+	protected abstract void returnPasses(MultiPass multiPass);
+
 	/**
 	 * Gets checkpoint name.
 	 * 
@@ -16,10 +16,28 @@
 
 package zur13.checkpoint;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import zur13.checkpoint.resource.GroupPolicy;
+import zur13.checkpoint.resource.RWPolicy;
 import zur13.checkpoint.resource.ResourceDataFactory;
+import zur13.checkpoint.resource.ResourcePolicy;
+import zur13.checkpoint.resource.WaitScheduler;
+import zur13.checkpoint.resource.limit.AdaptiveLimit;
+import zur13.checkpoint.resource.limit.OverloadControl;
+import zur13.checkpoint.resource.limit.RateLimit;
+import zur13.checkpoint.resource.limit.WaiterLimit;
 import zur13.checkpoint.resource.storage.AResourceDataStorage;
+import zur13.checkpoint.resource.storage.LongResourceDataStorage;
+import zur13.checkpoint.resource.storage.MappedResourceDataStorage;
+import zur13.checkpoint.resource.storage.OffHeapResourceDataStorage;
 import zur13.checkpoint.resource.storage.ResourceDataStorage;
 import zur13.checkpoint.resource.storage.ResourceDataStorageUnsafe;
+import zur13.checkpoint.resource.storage.StripedResourceDataStorage;
 
 /**
  * Helper class to provide easy way to configure checkpoint.
@@ -33,8 +51,23 @@ import zur13.checkpoint.resource.storage.ResourceDataStorageUnsafe;
 public class CheckpointBuilder {
 	private int globalPassesLimit = SimpleCheckpoint.UNLIMITED;
 	private boolean useUnsafeApplicationDataStorage = false;
+	private boolean useLongApplicationDataStorage = false;
+	private long offHeapCapacity = 0L;
+	private Path mappedFile = null;
+	private int stripes = 0;
+	private boolean useSemaphoreResourceData = false;
 	private int maxActivePassesPerResource = 1;
 	private boolean fair = false;
+	private RWPolicy rwPolicy = RWPolicy.READER_PREFERRING;
+	private boolean flyweightPasses = false;
+	private Supplier<? extends AdaptiveLimit> adaptiveLimits = null;
+	private RateLimit rateLimit = null;
+	private WaitScheduler scheduler = null;
+	private OverloadControl overload = null;
+	private int maxWaitersPerResource = WaiterLimit.UNLIMITED;
+	private int maxWaiters = WaiterLimit.UNLIMITED;
+	private ResourcePolicy resourcePolicy = null;
+	private GroupPolicy groupPolicy = null;
 	private int concurrencyLevel = 16;
 	private boolean reentrant = false;
 	private String name = null;
@@ -51,6 +84,8 @@ public class CheckpointBuilder {
 	/**
 	 * Sets global number of simultaneously active passes for checkpoint instance.
 	 * <p/>
+	 * Weighted RO pass takes as many units of the global limit as its weight.
+	 * <p/>
 	 * Default is Unlimited.
 	 * 
 	 * @param globalPassesLimit
@@ -82,8 +117,109 @@ public class CheckpointBuilder {
 		return this;
 	}
 
+	/**
+	 * Configure checkpoint instance with the data storage specialized for the primitive long resource ids.
+	 * <p/>
+	 * Long resource ids requested with getPassL(long) and other primitive versions of checkpoint methods are not boxed
+	 * and are looked up in open addressing hash tables without Object.hashCode() calls and map entries allocation.
+	 * <p/>
+	 * WARN: Checkpoint accepts only integral (Long, Integer, Short, Byte) resource ids in this mode.
+	 * 
+	 * @return
+	 * @see zur13.checkpoint.resource.storage.LongResourceDataStorage
+	 */
+	public CheckpointBuilder useLongDataStorage() {
+		this.useLongApplicationDataStorage = true;
+		return this;
+	}
+
+	/**
+	 * Configure checkpoint instance with the data storage which keeps resource states outside of the java heap, 16
+	 * bytes of direct memory per resource id.
+	 * <p/>
+	 * Heap usage does not grow with the number of resource ids, java objects are created only for the resources which
+	 * have waiting applicants and for the passes.
+	 * <p/>
+	 * WARN: Off heap data storage does not clear internal data and accepts only integral (Long, Integer, Short, Byte)
+	 * resource ids. Capacity should be enough for all resource ids checkpoint will ever see.
+	 * <p/>
+	 * Semaphore based resource data and flyweight passes are not used in this mode.
+	 * 
+	 * @param capacity
+	 *            max number of resource ids
+	 * @return
+	 * @see zur13.checkpoint.resource.storage.OffHeapResourceDataStorage
+	 */
+	public CheckpointBuilder useOffHeapDataStorage(long capacity) {
+		this.offHeapCapacity = capacity;
+		return this;
+	}
+
+	/**
+	 * Configure checkpoint instance with the data storage which keeps resource states and global passes counter in
+	 * the memory mapped file. Checkpoints of all processes of the host which use the same file share per resource and
+	 * global passes limits.
+	 * <p/>
+	 * Passes returned by other processes are noticed by the applicants waiting in this process within a millisecond.
+	 * Passes held by the process which is gone are returned by the other processes. Group passes limits are kept in
+	 * the sibling file with the ".groups" suffix, group ids should be integral.
+	 * <p/>
+	 * WARN: Same limitations as off heap data storage. Storage should be closed with
+	 * SimpleCheckpoint.getResourceDataStorage() when the checkpoint is not used anymore.
+	 * 
+	 * @param file
+	 *            file shared by the processes, created if necessary
+	 * @param capacity
+	 *            max number of resource ids, ignored if the file already exists
+	 * @return
+	 * @see zur13.checkpoint.resource.storage.MappedResourceDataStorage
+	 */
+	public CheckpointBuilder useMappedDataStorage(Path file, long capacity) {
+		this.mappedFile = file;
+		this.offHeapCapacity = capacity;
+		return this;
+	}
+
+	/**
+	 * Configure checkpoint instance with the fixed size striped data storage. Each resource id is hashed onto one of
+	 * the preallocated stripes, resource data is never created, cleared or reference counted.
+	 * <p/>
+	 * Memory usage is constant and does not depend on the number of resource ids.
+	 * <p/>
+	 * WARN: Different resource ids may share the same stripe, so applicant may wait for the pass of the other resource
+	 * id and max passes per resource limit is applied to the whole stripe. Passes report stripe index as the resource
+	 * id.
+	 * 
+	 * @param stripes
+	 *            number of stripes, rounded up to the power of two
+	 * @return
+	 * @see zur13.checkpoint.resource.storage.StripedResourceDataStorage
+	 */
+	public CheckpointBuilder useStripedStorage(int stripes) {
+		this.stripes = stripes;
+		return this;
+	}
+
+	/**
+	 * Configure checkpoint instance to control each resource with java.util.concurrent.Semaphore instead of the
+	 * default lock free resource data.
+	 * <p/>
+	 * Semaphore based resource data takes more memory per resource and is slower for uncontended passes, use it only
+	 * if you rely on exact Semaphore barging behavior.
+	 * 
+	 * @return
+	 * @see zur13.checkpoint.resource.LockFreeResourceData
+	 * @see zur13.checkpoint.resource.ResourceData
+	 */
+	public CheckpointBuilder useSemaphoreResourceData() {
+		this.useSemaphoreResourceData = true;
+		return this;
+	}
+
 	/**
 	 * Sets number of RO passes simultaneously available for each unique resource id.
+	 * <p/>
+	 * Weighted RO pass takes as many of them as its weight.
 	 * 
 	 * @param maxPasses
 	 * @return
@@ -104,6 +240,216 @@ public class CheckpointBuilder {
 		return this;
 	}
 
+	/**
+	 * Sets order of granting passes to waiting RO and RW applicants in unfair mode.
+	 * <p/>
+	 * Default is RWPolicy.READER_PREFERRING which gives the best RO throughput but may starve RW applicants under
+	 * steady stream of RO applicants. Use RWPolicy.PHASE_FAIR to bound RW applicants waiting time keeping RO
+	 * throughput close to the unfair mode.
+	 * <p/>
+	 * Policy is ignored by fair checkpoint and by Semaphore based resource data.
+	 * 
+	 * @param rwPolicy
+	 * @return
+	 * @see zur13.checkpoint.resource.RWPolicy
+	 */
+	public CheckpointBuilder setRWPolicy(RWPolicy rwPolicy) {
+		this.rwPolicy = rwPolicy;
+		return this;
+	}
+
+	/**
+	 * Configures checkpoint to give the same pass instance to all applicants which requested the same type of access
+	 * for the same resource id, so acquiring and closing of the pass do not allocate memory.
+	 * <p/>
+	 * Default is false.
+	 * <p/>
+	 * WARN: pass instance is shared, do not compare passes by reference and do not close the pass more than once.
+	 * Resource data is still allocated for the new resource ids. Default data storage keeps only the last idle
+	 * resource data per bucket, so the cycle over the hot resource id is allocation free while the cycle over many
+	 * idle resource ids allocates, use unsafe data storage to keep all known resource ids allocation free.
+	 * <p/>
+	 * WARN: flyweight RO and RW passes can't be upgraded or downgraded, use update passes which are never shared.
+	 * <p/>
+	 * Ignored by Semaphore based resource data, by reentrant checkpoint and if group policy is set.
+	 * 
+	 * @param flyweightPasses
+	 * @return
+	 */
+	public CheckpointBuilder setFlyweightPasses(boolean flyweightPasses) {
+		this.flyweightPasses = flyweightPasses;
+		return this;
+	}
+
+	/**
+	 * Configures checkpoint to adapt number of RO passes simultaneously available for each resource id to the time
+	 * passes are held. Every resource gets its own limit instance from the supplier and converges on its own
+	 * concurrency within the limit bounds, max passes per resource setting is replaced by the max bound of the limit.
+	 * <p/>
+	 * Time from the pass grant to Pass.close() is reported for RO passes only.
+	 * <p/>
+	 * WARN: Adapted limit is lost when resource data is cleared from the storage, use unsafe or striped data storage to
+	 * keep it for the idle resources.
+	 * <p/>
+	 * Flyweight passes are not used in this mode. Ignored by Semaphore based resource data and off heap data storage.
+	 * 
+	 * @param adaptiveLimits
+	 *            supplier of the new limit instances, e.g. () -> new AIMDLimit(1, 64, 4, 100, TimeUnit.MILLISECONDS,
+	 *            0.9)
+	 * @return
+	 * @see zur13.checkpoint.resource.limit.AIMDLimit
+	 * @see zur13.checkpoint.resource.limit.GradientLimit
+	 */
+	public CheckpointBuilder setAdaptiveLimit(Supplier<? extends AdaptiveLimit> adaptiveLimits) {
+		this.adaptiveLimits = adaptiveLimits;
+		return this;
+	}
+
+	/**
+	 * Configures checkpoint to limit rate of passes granted for each resource id in addition to the max passes per
+	 * resource limit. Every RO, RW or weighted pass awaits a single token of the resource token bucket before it
+	 * takes the place within the max passes limit, so applicants waiting for the token do not hold the places; tokens
+	 * are refilled lazily when passes are requested so no background thread is used.
+	 * <p/>
+	 * tryGetPass() without timeout fails if token is not available at once, timed requests fail if token is not
+	 * available within timeout.
+	 * <p/>
+	 * WARN: Bucket is lost when resource data is cleared from the storage, so idle resource gets full burst again; use
+	 * unsafe or striped data storage to keep it. Striped data storage limits rate of every stripe.
+	 * <p/>
+	 * Default is not limited. Ignored by Semaphore based resource data and off heap data storage.
+	 * 
+	 * @param permitsPerSecond
+	 *            max sustained rate of granted passes per resource
+	 * @param burst
+	 *            max number of passes granted at once after the resource was idle
+	 * @return
+	 */
+	public CheckpointBuilder setRateLimit(double permitsPerSecond, int burst) {
+		this.rateLimit = new RateLimit(permitsPerSecond, burst);
+		return this;
+	}
+
+	/**
+	 * Configures checkpoint to order applicants waiting for the same resource id with the given scheduler instead of
+	 * the arrival order, e.g. SchedulingPolicy.PRIORITY serves getPass(resourceId, weight, priority) requests with
+	 * higher priority first. Applicants waiting for the global passes limit are not reordered.
+	 * <p/>
+	 * Scheduler which tracks hold times disables flyweight passes. Hold times history is lost when resource data is
+	 * cleared from the storage, use unsafe or striped data storage to keep it for the idle resources.
+	 * <p/>
+	 * Default is first-in first-out order. Ignored by Semaphore based resource data and off heap data storage.
+	 * 
+	 * @param scheduler
+	 *            scheduler or null for first-in first-out order
+	 * @return
+	 * @see zur13.checkpoint.resource.SchedulingPolicy
+	 */
+	public CheckpointBuilder setWaitScheduler(WaitScheduler scheduler) {
+		this.scheduler = scheduler;
+		return this;
+	}
+
+	/**
+	 * Configures checkpoint to fail fast when resource wait queue is overloaded instead of letting applicants wait
+	 * until their timeouts. Queue is overloaded when the minimum time applicants waited in it over the interval
+	 * exceeds the target (CoDel), so busy queue which serves applicants within the target is not; applicant
+	 * which has to wait in the overloaded queue waits for at most target delay and gets PassRejectedException
+	 * afterwards (or null from tryGetPass() if its own timeout is shorter). Async requests are rejected at once.
+	 * <p/>
+	 * With adaptive LIFO applicants queued while the queue is overloaded are served last-in first-out, so the recent
+	 * requests are served while the stale ones are rejected.
+	 * <p/>
+	 * Default is no overload control. Ignored by Semaphore based resource data and off heap data storage.
+	 * 
+	 * @param target
+	 *            acceptable time to wait in the queue and max time to wait in the overloaded queue, e.g. 5 ms
+	 * @param interval
+	 *            queue where applicants waited longer than the target for this time is overloaded, e.g. 100 ms
+	 * @param unit
+	 * @param adaptiveLifo
+	 *            true to serve applicants queued while the queue is overloaded in last-in first-out order
+	 * @return
+	 * @see zur13.checkpoint.PassRejectedException
+	 */
+	public CheckpointBuilder setOverloadControl(long target, long interval, TimeUnit unit, boolean adaptiveLifo) {
+		this.overload = new OverloadControl(target, interval, unit, adaptiveLifo);
+		return this;
+	}
+
+	/**
+	 * Sets max number of applicants waiting for the same resource id. Applicant which has to wait when the limit is
+	 * reached is rejected at once: getPass() methods throw PassRejectedException.QUEUE_FULL, tryGetPass() methods
+	 * with timeout return null and async requests fail with it.
+	 * <p/>
+	 * Default is Unlimited. Ignored by Semaphore based resource data and off heap data storage.
+	 * 
+	 * @param maxWaitersPerResource
+	 *            max number of waiters, 0 to never wait for the busy resource
+	 * @return
+	 * @see zur13.checkpoint.PassRejectedException
+	 */
+	public CheckpointBuilder setMaxWaitersPerResource(int maxWaitersPerResource) {
+		this.maxWaitersPerResource = maxWaitersPerResource;
+		return this;
+	}
+
+	/**
+	 * Sets max number of applicants waiting for all resource ids of the checkpoint, rejected applicants are the same
+	 * as with setMaxWaitersPerResource(). Applicants waiting for the global passes limit are not counted.
+	 * <p/>
+	 * Default is Unlimited. Ignored by Semaphore based resource data and off heap data storage.
+	 * 
+	 * @param maxWaiters
+	 *            max number of waiters
+	 * @return
+	 */
+	public CheckpointBuilder setMaxWaiters(int maxWaiters) {
+		this.maxWaiters = maxWaiters;
+		return this;
+	}
+
+	/**
+	 * Configures checkpoint to take limits of every resource id from the policy, e.g. by the class of the device the
+	 * resource id refers to. Limits returned by the policy replace max passes per resource, fairness and rate limit
+	 * of the checkpoint, null limits keep them.
+	 * <p/>
+	 * Policy is evaluated when resource data is created. Striped data storage evaluates it with the stripe index as
+	 * resource id, off heap data storage evaluates it on every request and ignores rate limit.
+	 * <p/>
+	 * Default is the same limits for all resource ids.
+	 * 
+	 * @param resourcePolicy
+	 *            policy or null
+	 * @return
+	 * @see zur13.checkpoint.resource.ResourceLimits
+	 */
+	public CheckpointBuilder setResourcePolicy(ResourcePolicy resourcePolicy) {
+		this.resourcePolicy = resourcePolicy;
+		return this;
+	}
+
+	/**
+	 * Configures checkpoint to limit passes of the resource groups (sites, racks, tenants) given by the policy. Every
+	 * pass takes units of its resource, group and global passes limits, so a single busy group can't take the whole
+	 * global passes limit.
+	 * <p/>
+	 * Policy is evaluated on the requested resource id once per pass request, granted pass keeps the limits it has
+	 * taken. Flyweight passes are not used in this mode. Group limits are shared by the processes which use memory
+	 * mapped data storage over the same file.
+	 * <p/>
+	 * Default is no groups.
+	 * 
+	 * @param groupPolicy
+	 *            policy or null
+	 * @return
+	 * @see zur13.checkpoint.resource.GroupPolicy
+	 */
+	public CheckpointBuilder setGroupPolicy(GroupPolicy groupPolicy) {
+		this.groupPolicy = groupPolicy;
+		return this;
+	}
+
 	/**
 	 * Sets estimated number of concurrently updating threads.
 	 * Recommended default is 16.
@@ -124,8 +470,8 @@ public class CheckpointBuilder {
 	 * Reentrant request means that same thread may enter restricted section using same resource id unlimited number of
 	 * times (ignores resource max passes limit and global passes limit).
 	 * <p/>
-	 * WARN: Reentrant checkpoint does not allow reentrant upgrades from RO pass to RW pass for the same thread for the
-	 * same resource id.
+	 * Reentrant RW request of the thread which holds RO pass upgrades the held pass, it fails with
+	 * IllegalStateException if another pass holds the resource for update. Flyweight passes are not used in this mode.
 	 * WARN: Reentrant checkpoint does not allow to close the pass from the different thread. Pass should be closed by
 	 * the thread which requested it.
 	 * 
@@ -153,18 +499,37 @@ public class CheckpointBuilder {
 	 * @return checkpoint instance
 	 */
 	public ACheckpoint build() {
-		ResourceDataFactory adf = new ResourceDataFactory(maxActivePassesPerResource, fair);
+		ResourceDataFactory adf = new ResourceDataFactory(maxActivePassesPerResource, fair, !useSemaphoreResourceData)
+				.setRWPolicy(rwPolicy).setFlyweightPasses(flyweightPasses && groupPolicy == null && !reentrant)
+				.setAdaptiveLimit(adaptiveLimits)
+				.setRateLimit(rateLimit).setWaitScheduler(scheduler).setOverloadControl(overload)
+				.setResourcePolicy(resourcePolicy);
+		if ( maxWaitersPerResource != WaiterLimit.UNLIMITED || maxWaiters != WaiterLimit.UNLIMITED ) {
+			adf.setWaiterLimit(new WaiterLimit(maxWaitersPerResource, maxWaiters));
+		}
 		AResourceDataStorage ads;
-		if ( useUnsafeApplicationDataStorage ) {
+		if ( stripes > 0 ) {
+			ads = new StripedResourceDataStorage(adf, stripes);
+		} else if ( mappedFile != null ) {
+			try {
+				ads = new MappedResourceDataStorage(adf, mappedFile, offHeapCapacity);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		} else if ( offHeapCapacity > 0L ) {
+			ads = new OffHeapResourceDataStorage(adf, offHeapCapacity);
+		} else if ( useUnsafeApplicationDataStorage ) {
 			ads = new ResourceDataStorageUnsafe(adf, concurrencyLevel);
+		} else if ( useLongApplicationDataStorage ) {
+			ads = new LongResourceDataStorage(adf, concurrencyLevel);
 		} else {
 			ads = new ResourceDataStorage(adf, concurrencyLevel);
 		}
 		ACheckpoint cp;
 		if ( reentrant ) {
-			cp = new ReentrantCheckpoint(ads, globalPassesLimit);
+			cp = new ReentrantCheckpoint(ads, globalPassesLimit, groupPolicy);
 		} else {
-			cp = new SimpleCheckpoint(ads, globalPassesLimit);
+			cp = new SimpleCheckpoint(ads, globalPassesLimit, groupPolicy);
 		}
 		cp.setName(name);
 		return cp;
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import zur13.checkpoint.resource.IntentionLock;
+
+/**
+ * Checkpoint for the resources organized in a tree, e.g. chassis / card / port. <br/>
+ * <br/>
+ * Resource is identified by the path of keys from the top of the tree. Pass for the resource is granted in the
+ * requested mode for the last node of the path and in the matching intention mode for all its ancestors, so X pass
+ * for a port blocks only that port (and S or X passes of its card and chassis) while X pass for a chassis blocks its
+ * whole subtree. S and X passes are the same as RO and RW passes of the flat checkpoints. <br/>
+ * <br/>
+ * Nodes are created on demand and dropped when the last applicant leaves them. Every node has its own lock and
+ * children map, so acquiring the pass costs O(path length) and takes no global lock; nodes are always acquired from
+ * the top down, so the passes for different paths can't deadlock each other. <br/>
+ * <br/>
+ * WARN: Hierarchical checkpoint is not an ICheckpoint and its passes are not Pass instances. Nodes are guarded by
+ * IntentionLock instead of the resource data, since intention modes are compatible with each other in a way RO, RW
+ * and update passes are not, so per resource, global and group passes limits are not applied. Node is held by at most
+ * IntentionLock.MAX_HOLDERS applicants in every shared mode.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.IntentionMode
+ */
+public class HierarchicalCheckpoint {
+	/* virtual top of the tree, holds no lock, only the map of the top level nodes */
+	protected final Node root = new Node(null, null);
+
+	/**
+	 * Requests pass for the resource, waiting if necessary until it is available.
+	 * 
+	 * @param mode
+	 *            required access mode of the resource
+	 * @param path
+	 *            keys of the nodes from the top of the tree to the resource
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	public HierarchicalPass getPass(IntentionMode mode, Object... path) throws InterruptedException {
+		return acquire(mode, path, true, -1L);
+	}
+
+	/**
+	 * Requests pass for the resource, waiting uninterruptibly if necessary until it is available.
+	 * 
+	 * @param mode
+	 *            required access mode of the resource
+	 * @param path
+	 *            keys of the nodes from the top of the tree to the resource
+	 * @return resource pass
+	 */
+	public HierarchicalPass getPassUninterruptibly(IntentionMode mode, Object... path) {
+		try {
+			return acquire(mode, path, false, -1L);
+		} catch (InterruptedException e) {
+			// never thrown in uninterruptible mode
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Requests pass for the resource, returns pass only if it is available at the time of invocation.
+	 * 
+	 * @param mode
+	 *            required access mode of the resource
+	 * @param path
+	 *            keys of the nodes from the top of the tree to the resource
+	 * @return resource pass or null if resource or any of its ancestors is held in conflicting mode
+	 */
+	public HierarchicalPass tryGetPass(IntentionMode mode, Object... path) {
+		try {
+			return acquire(mode, path, false, 0L);
+		} catch (InterruptedException e) {
+			// never thrown without waiting
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Requests pass for the resource, waiting up to the specified wait time for the whole path.
+	 * 
+	 * @param mode
+	 *            required access mode of the resource
+	 * @param path
+	 *            keys of the nodes from the top of the tree to the resource
+	 * @param timeout
+	 *            the maximum time to wait for the pass
+	 * @param unit
+	 *            the time unit of the timeout argument
+	 * @return resource pass or null if the waiting time elapsed before the pass was granted
+	 * @throws InterruptedException
+	 */
+	public HierarchicalPass tryGetPass(IntentionMode mode, Object[] path, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return acquire(mode, path, true, Math.max(0L, unit.toNanos(timeout)));
+	}
+
+	/**
+	 * Requests RO pass for the resource, same as getPass(IntentionMode.S, path).
+	 * 
+	 * @param path
+	 *            keys of the nodes from the top of the tree to the resource
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	public HierarchicalPass getPassRO(Object... path) throws InterruptedException {
+		return getPass(IntentionMode.S, path);
+	}
+
+	/**
+	 * Requests RW pass for the resource, same as getPass(IntentionMode.X, path).
+	 * 
+	 * @param path
+	 *            keys of the nodes from the top of the tree to the resource
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	public HierarchicalPass getPassRW(Object... path) throws InterruptedException {
+		return getPass(IntentionMode.X, path);
+	}
+
+	/**
+	 * Returns the pass, nodes are released from the bottom up.
+	 * 
+	 * @param pass
+	 */
+	public void returnPass(HierarchicalPass pass) {
+		release(pass.nodes, pass.nodes.length, pass.getIntentionMode());
+	}
+
+	/**
+	 * Gets number of the tree nodes currently held or awaited by the applicants.
+	 * 
+	 * @return
+	 */
+	public int getActiveNodes() {
+		return count(root) - 1;
+	}
+
+	protected HierarchicalPass acquire(final IntentionMode mode, final Object[] path, final boolean interruptible,
+			final long nanosTimeout) throws InterruptedException {
+		if ( path.length == 0 ) {
+			throw new IllegalArgumentException("Resource path is empty");
+		}
+		final long deadline = nanosTimeout > 0L ? System.nanoTime() + nanosTimeout : 0L;
+		final Node[] nodes = new Node[path.length];
+		int taken = 0;
+		try {
+			Node parent = root;
+			for (int i = 0; i < path.length; i++) {
+				nodes[i] = ref(parent, path[i]);
+				long remaining = nanosTimeout;
+				if ( nanosTimeout > 0L ) {
+					// deadline is shared by the whole path, nodes below elapsed deadline are tried without waiting
+					remaining = Math.max(0L, deadline - System.nanoTime());
+				}
+				if ( !nodes[i].lock.acquire(modeAt(mode, i, path.length), interruptible, remaining) ) {
+					return null;
+				}
+				taken++;
+				parent = nodes[i];
+			}
+			return new HierarchicalPass(this, mode, path, nodes);
+		} finally {
+			if ( taken < path.length ) {
+				release(nodes, taken, mode);
+			}
+		}
+	}
+
+	/**
+	 * Releases locks of the first taken nodes and references to all not null nodes from the bottom up.
+	 */
+	protected void release(final Node[] nodes, final int taken, final IntentionMode mode) {
+		for (int i = nodes.length - 1; i >= 0; i--) {
+			if ( nodes[i] == null ) {
+				continue;
+			}
+			if ( i < taken ) {
+				nodes[i].lock.release(modeAt(mode, i, nodes.length));
+			}
+			unref(nodes[i]);
+		}
+	}
+
+	/**
+	 * Gets mode of the node at the given depth of the path accessed in the given mode.
+	 */
+	protected static IntentionMode modeAt(IntentionMode mode, int depth, int length) {
+		return depth == length - 1 ? mode : mode.intention();
+	}
+
+	/**
+	 * Gets child node, creating it if necessary, and takes reference to it so it won't be dropped until unref().
+	 */
+	protected Node ref(final Node parent, final Object key) {
+		return parent.children.compute(key, new BiFunction<Object, Node, Node>() {
+			@Override
+			public Node apply(Object k, Node n) {
+				if ( n == null ) {
+					n = new Node(k, parent);
+				}
+				n.refs++;
+				return n;
+			}
+		});
+	}
+
+	/**
+	 * Drops reference to the node, node is removed from its parent when nobody references it.
+	 */
+	protected void unref(final Node node) {
+		node.parent.children.computeIfPresent(node.key, new BiFunction<Object, Node, Node>() {
+			@Override
+			public Node apply(Object k, Node n) {
+				return --n.refs == 0 ? null : n;
+			}
+		});
+	}
+
+	private static int count(Node node) {
+		int cnt = 1;
+		for (Node n : node.children.values()) {
+			cnt += count(n);
+		}
+		return cnt;
+	}
+
+	@Override
+	public String toString() {
+		return "HierarchicalCheckpoint [activeNodes=" + getActiveNodes() + "]";
+	}
+
+	/**
+	 * Single node of the resource tree.
+	 */
+	protected static final class Node {
+		final Object key;
+		final Node parent;
+		final IntentionLock lock = new IntentionLock();
+		final ConcurrentHashMap<Object, Node> children = new ConcurrentHashMap<Object, Node>();
+		/* number of applicants which hold or await this node or its descendants, guarded by parent children map */
+		int refs;
+
+		Node(Object key, Node parent) {
+			this.key = key;
+			this.parent = parent;
+		}
+
+		@Override
+		public String toString() {
+			return "Node [key=" + key + ", refs=" + refs + ", lock=" + lock + "]";
+		}
+	}
+}
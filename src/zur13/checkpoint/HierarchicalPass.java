@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import zur13.checkpoint.HierarchicalCheckpoint.Node;
+
+/**
+ * Pass for the node of the resource tree granted by HierarchicalCheckpoint. <br/>
+ * <br/>
+ * Resource id of the pass is the unmodifiable list of the path keys. Pass holds the node in its mode and all the
+ * ancestors of the node in the matching intention mode, all of them are returned with a single close() call.
+ * <br/>
+ * <br/>
+ * Hierarchical pass is not a Pass of ICheckpoint: intention modes of the node and of its ancestors are fixed for the
+ * pass lifetime, so it can't be upgraded or downgraded.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.HierarchicalCheckpoint
+ */
+public class HierarchicalPass implements AutoCloseable {
+	/* unmodifiable list of the path keys */
+	protected final Object resourceId;
+	protected final boolean isReadOnly;
+	protected final HierarchicalCheckpoint hierarchicalCheckpoint;
+	protected final IntentionMode intentionMode;
+	/* nodes of the path from the top down */
+	protected final Node[] nodes;
+
+	HierarchicalPass(HierarchicalCheckpoint checkpoint, IntentionMode mode, Object[] path, Node[] nodes) {
+		this.resourceId = Collections.unmodifiableList(Arrays.asList(path.clone()));
+		this.isReadOnly = mode.isReadOnly();
+		this.hierarchicalCheckpoint = checkpoint;
+		this.intentionMode = mode;
+		this.nodes = nodes;
+	}
+
+	/**
+	 * Gets keys of the nodes from the top of the tree to the resource.
+	 * 
+	 * @return
+	 */
+	public List<?> getPath() {
+		return (List<?>) resourceId;
+	}
+
+	/**
+	 * Gets resource id of the pass.
+	 * 
+	 * @return unmodifiable list of the path keys
+	 */
+	public Object getResourceId() {
+		return this.resourceId;
+	}
+
+	/**
+	 * Checks if the pass has RO access to the resource node.
+	 * 
+	 * @return true if the node is held in S or IS mode
+	 */
+	public boolean isReadOnly() {
+		return this.isReadOnly;
+	}
+
+	/**
+	 * Gets access mode of the resource node.
+	 * 
+	 * @return
+	 */
+	public IntentionMode getIntentionMode() {
+		return this.intentionMode;
+	}
+
+	/**
+	 * Gets checkpoint which granted this pass.
+	 * 
+	 * @return
+	 */
+	public HierarchicalCheckpoint getHierarchicalCheckpoint() {
+		return this.hierarchicalCheckpoint;
+	}
+
+	/**
+	 * Notifies checkpoint that applicant leaves restricted section for the node.
+	 */
+	@Override
+	public void close() {
+		hierarchicalCheckpoint.returnPass(this);
+	}
+
+	@Override
+	public String toString() {
+		return "HierarchicalPass [path=" + this.resourceId + ", mode=" + this.intentionMode + "]";
+	}
+}
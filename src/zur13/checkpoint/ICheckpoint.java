@@ -16,7 +16,11 @@
 
 package zur13.checkpoint;
 
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Checkpoint interface.
@@ -78,8 +82,7 @@ public interface ICheckpoint {
 	 * the time of invocation.
 	 * <br/>
 	 * <br/>
-	 * WARN: timeout is not precise and may take double time until timeout happens in case of global pass limit used
-	 * (internally there are 2 consecutive places where it is used) <br/>
+	 * Timeout is a single deadline for both per resource and global passes limit. <br/>
 	 * 
 	 * @param resourceId
 	 *            unique resource identifier
@@ -88,6 +91,99 @@ public interface ICheckpoint {
 	 */
 	public Pass tryGetPass(Object resourceId, long timeout, TimeUnit unit) throws InterruptedException;
 
+	/**
+	 * Requests weighted RO pass for specified resource blocking until one is available, or the thread is interrupted.
+	 * <br/>
+	 * <br/>
+	 * Weighted RO pass takes weight units of the max passes per resource limit and of the global passes limit
+	 * instead of one, so limits may express bandwidth or memory instead of the number of applicants. Applicant
+	 * waiting for the weighted pass is not bypassed by the applicants requesting lighter RO passes.
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	public Pass getPass(Object resourceId, int weight) throws InterruptedException;
+
+	/**
+	 * Requests weighted RO pass for specified resource blocking until one is available, see getPass(Object, int).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @return resource pass
+	 */
+	public Pass getPassUninterruptibly(Object resourceId, int weight);
+
+	/**
+	 * Requests weighted RO pass for specified resource, returns pass only if one is available at the time of
+	 * invocation, see getPass(Object, int).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @return resource pass or null if not enough units available or RW pass active
+	 */
+	public Pass tryGetPass(Object resourceId, int weight);
+
+	/**
+	 * Requests weighted RO pass for specified resource, returns pass if one becomes available within the given
+	 * waiting time and the current thread has not been interrupted, see getPass(Object, int).
+	 * <br/>
+	 * <br/>
+	 * Timeout is a single deadline for both per resource and global passes limit. <br/>
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @return resource pass or null if not enough units available or RW pass active
+	 * @throws InterruptedException
+	 */
+	public Pass tryGetPass(Object resourceId, int weight, long timeout, TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * Requests weighted RO pass for specified resource blocking until one is available, or the thread is
+	 * interrupted, see getPass(Object, int).
+	 * <br/>
+	 * <br/>
+	 * While the applicant waits for the resource it is ordered by the wait scheduler of the checkpoint according to
+	 * the given priority, e.g. interactive requests may bypass waiting bulk requests. Priority is ignored if the
+	 * checkpoint has no wait scheduler.
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @param priority
+	 *            applicant priority, higher value is served first by the priority scheduler
+	 * @return resource pass
+	 * @throws InterruptedException
+	 * @see zur13.checkpoint.resource.SchedulingPolicy
+	 */
+	public Pass getPass(Object resourceId, int weight, int priority) throws InterruptedException;
+
+	/**
+	 * Requests weighted RO pass for specified resource, returns pass if one becomes available within the given
+	 * waiting time and the current thread has not been interrupted, see getPass(Object, int, int).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @param priority
+	 *            applicant priority, higher value is served first by the priority scheduler
+	 * @return resource pass or null if not enough units available or RW pass active
+	 * @throws InterruptedException
+	 */
+	public Pass tryGetPass(Object resourceId, int weight, int priority, long timeout, TimeUnit unit)
+			throws InterruptedException;
+
 	/**
 	 * Requests RW pass for specified resource blocking until one is available, or the thread is interrupted. <br/>
 	 * <br/>
@@ -133,8 +229,7 @@ public interface ICheckpoint {
 	 * Returns pass if no active RO and RW passes for specified resource at the time of invocation.
 	 * <br/>
 	 * <br/>
-	 * WARN: timeout is not precise and may take double time until timeout happens in case of global pass limit used
-	 * (internally there are 2 consecutive places where it is used) <br/>
+	 * Timeout is a single deadline for both per resource and global passes limit. <br/>
 	 * 
 	 * @param resourceId
 	 *            unique resource identifier
@@ -147,4 +242,340 @@ public interface ICheckpoint {
 	 */
 	public Pass tryGetPassRW(Object resourceId, long timeout, TimeUnit unit) throws InterruptedException;
 
+	/**
+	 * Requests RW pass for specified resource blocking until one is available, or the thread is interrupted, see
+	 * getPassRW(Object).
+	 * <br/>
+	 * <br/>
+	 * While the applicant waits for the resource it is ordered by the wait scheduler of the checkpoint according to
+	 * the given priority. Priority is ignored if the checkpoint has no wait scheduler.
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param priority
+	 *            applicant priority, higher value is served first by the priority scheduler
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	public Pass getPassRW(Object resourceId, int priority) throws InterruptedException;
+
+	/**
+	 * Requests RW pass for specified resource, returns pass if one becomes available within the given waiting time and
+	 * the current thread has not been interrupted, see getPassRW(Object, int).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param priority
+	 *            applicant priority, higher value is served first by the priority scheduler
+	 * @return resource pass or null if no passes available
+	 * @throws InterruptedException
+	 */
+	public Pass tryGetPassRW(Object resourceId, int priority, long timeout, TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * Requests update pass for specified resource blocking until one is available, or the thread is interrupted. <br/>
+	 * <br/>
+	 * Update pass gives RO access together with other RO passes, but single update pass available for each resource.
+	 * Update pass may be upgraded to RW access with Pass.upgrade() without deadlock, so read-modify-write section takes
+	 * single pass which is upgraded only if modification is needed.
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	public Pass getPassForUpdate(Object resourceId) throws InterruptedException;
+
+	/**
+	 * Requests update pass for specified resource blocking until one is available, see getPassForUpdate(Object).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @return resource pass
+	 */
+	public Pass getPassForUpdateUninterruptibly(Object resourceId);
+
+	/**
+	 * Requests update pass for specified resource, returns pass only if one is available at the time of invocation,
+	 * see getPassForUpdate(Object).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @return resource pass or null if update pass or RW pass active
+	 */
+	public Pass tryGetPassForUpdate(Object resourceId);
+
+	/**
+	 * Requests update pass for specified resource, returns pass if one becomes available within the given waiting
+	 * time and the current thread has not been interrupted, see getPassForUpdate(Object).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param timeout
+	 *            the maximum time to wait for a permit
+	 * @param unit
+	 *            the time unit of the timeout argument
+	 * @return resource pass or null if update pass or RW pass active
+	 * @throws InterruptedException
+	 */
+	public Pass tryGetPassForUpdate(Object resourceId, long timeout, TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * Requests RO pass for specified resource blocking until one is available, or the thread is interrupted. <br/>
+	 * <br/>
+	 * Multiple RO passes available for each resource but none can't be received while there is active RW pass. <br/>
+	 * Awaits for RW pass return if there is active for specified resource and awaits for any RO pass return if no RO
+	 * passes available for specified resource.
+	 * <br/>
+	 * <br/>
+	 * Same as the Object resource id version but does not box resource id when checkpoint uses long resource data
+	 * storage. Named apart from the Object version, so int resource ids keep binding to it and stay Integer.
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	public Pass getPassL(long resourceId) throws InterruptedException;
+
+	/**
+	 * Requests RO pass for specified resource blocking until one is available. <br/>
+	 * <br/>
+	 * Multiple RO passes available for each resource but none can't be received while there is active RW pass. <br/>
+	 * Awaits for RW pass return if there is active for specified resource and awaits for any RO pass return if no RO
+	 * passes available for specified resource.
+	 * <br/>
+	 * <br/>
+	 * Same as the Object resource id version but does not box resource id when checkpoint uses long resource data
+	 * storage.
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @return resource pass
+	 */
+	public Pass getPassUninterruptiblyL(long resourceId);
+
+	/**
+	 * Requests RO pass for specified resource, returns pass only if one is available at the time of invocation. <br/>
+	 * <br/>
+	 * Multiple RO passes available for each resource but none can't be received while there is active RW pass. <br/>
+	 * Returns pass if there is at least one available RO pass and there is no active RW pass for specified resource at
+	 * the time of invocation.
+	 * <br/>
+	 * <br/>
+	 * Same as the Object resource id version but does not box resource id when checkpoint uses long resource data
+	 * storage.
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @return resource pass or null if no RO passes available or RW pass active
+	 */
+	public Pass tryGetPassL(long resourceId);
+
+	/**
+	 * Requests RO pass for specified resource, returns pass if one becomes available within the given waiting time and
+	 * the current thread has not been interrupted. <br/>
+	 * <br/>
+	 * Multiple RO passes available for each resource but none can't be received while there is active RW pass. <br/>
+	 * Returns pass if there is at least one available RO pass and there is no active RW pass for specified resource at
+	 * the time of invocation.
+	 * <br/>
+	 * <br/>
+	 * Timeout is a single deadline for both per resource and global passes limit. <br/>
+	 * <br/>
+	 * Same as the Object resource id version but does not box resource id when checkpoint uses long resource data
+	 * storage.
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @return resource pass or null if no RO passes available or RW pass active
+	 * @throws InterruptedException
+	 */
+	public Pass tryGetPassL(long resourceId, long timeout, TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * Requests RW pass for specified resource blocking until one is available, or the thread is interrupted. <br/>
+	 * <br/>
+	 * Single RW pass available for each resource and it can't be received while there are active RO passes. <br/>
+	 * Awaits for all RO and RW pass return if there are active for specified resource.
+	 * <br/>
+	 * <br/>
+	 * Same as the Object resource id version but does not box resource id when checkpoint uses long resource data
+	 * storage.
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	public Pass getPassRWL(long resourceId) throws InterruptedException;
+
+	/**
+	 * Requests RW pass for specified resource blocking until one is available. <br/>
+	 * <br/>
+	 * Single RW pass available for each resource and it can't be received while there are active RO passes. <br/>
+	 * Awaits for all RO and RW pass return if there are active for specified resource.
+	 * <br/>
+	 * <br/>
+	 * Same as the Object resource id version but does not box resource id when checkpoint uses long resource data
+	 * storage.
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @return resource pass
+	 */
+	public Pass getPassRWUninterruptiblyL(long resourceId);
+
+	/**
+	 * Requests RW pass for specified resource, returns pass only if one is available at the time of invocation. <br/>
+	 * <br/>
+	 * Single RW pass available for each resource and it can't be received while there are active RO passes. <br/>
+	 * Returns pass if no active RO and RW passes for specified resource at the time of invocation.
+	 * <br/>
+	 * <br/>
+	 * Same as the Object resource id version but does not box resource id when checkpoint uses long resource data
+	 * storage.
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @return resource pass or null if no passes available
+	 */
+	public Pass tryGetPassRWL(long resourceId);
+
+	/**
+	 * Requests RW pass for specified resource, returns pass if one becomes available within the given waiting time and
+	 * the current thread has not been interrupted. <br/>
+	 * <br/>
+	 * Single RW pass available for each resource and it can't be received while there are active RO passes. <br/>
+	 * Returns pass if no active RO and RW passes for specified resource at the time of invocation.
+	 * <br/>
+	 * <br/>
+	 * Timeout is a single deadline for both per resource and global passes limit. <br/>
+	 * <br/>
+	 * Same as the Object resource id version but does not box resource id when checkpoint uses long resource data
+	 * storage.
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @param timeout
+	 *            the maximum time to wait for a permit
+	 * @param unit
+	 *            the time unit of the timeout argument
+	 * @return resource pass or null if no passes available
+	 * @throws InterruptedException
+	 */
+	public Pass tryGetPassRWL(long resourceId, long timeout, TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * Requests passes for several resources at once blocking until all are available, or the thread is interrupted.
+	 * <br/>
+	 * <br/>
+	 * Resources are acquired in the canonical order, so applicants requesting intersecting sets of resources do not
+	 * deadlock each other. Resource ids which refer to the same resource are granted a single pass. Composite pass
+	 * takes a single global pass permit.
+	 * 
+	 * @param resourceIds
+	 *            unique resource identifiers
+	 * @param mode
+	 *            access mode for all resources
+	 * @return composite pass
+	 * @throws InterruptedException
+	 */
+	public MultiPass getPasses(Collection<?> resourceIds, PassMode mode) throws InterruptedException;
+
+	/**
+	 * Requests passes for several resources at once blocking until all are available. <br/>
+	 * <br/>
+	 * Same as getPasses(Collection, PassMode) but ignores interrupts.
+	 * 
+	 * @param resourceIds
+	 *            unique resource identifiers
+	 * @param mode
+	 *            access mode for all resources
+	 * @return composite pass
+	 */
+	public MultiPass getPassesUninterruptibly(Collection<?> resourceIds, PassMode mode);
+
+	/**
+	 * Requests passes for several resources at once, returns composite pass only if passes for all resources are
+	 * available at the time of invocation. <br/>
+	 * <br/>
+	 * All or nothing: no passes are held if null is returned.
+	 * 
+	 * @param resourceIds
+	 *            unique resource identifiers
+	 * @param mode
+	 *            access mode for all resources
+	 * @return composite pass or null if pass for any resource is not available
+	 */
+	public MultiPass tryGetPasses(Collection<?> resourceIds, PassMode mode);
+
+	/**
+	 * Requests passes for several resources at once, returns composite pass if passes for all resources become
+	 * available within the given waiting time and the current thread has not been interrupted. <br/>
+	 * <br/>
+	 * All or nothing: applicant never waits for a resource while holding passes for the other resources. It waits
+	 * for the busy resource, then tries to take the rest without waiting and backs off releasing all passes if any
+	 * of them is not available.
+	 * 
+	 * @param resourceIds
+	 *            unique resource identifiers
+	 * @param mode
+	 *            access mode for all resources
+	 * @param timeout
+	 *            the maximum time to wait for all passes
+	 * @param unit
+	 *            the time unit of the timeout argument
+	 * @return composite pass or null if passes are not available
+	 * @throws InterruptedException
+	 */
+	public MultiPass tryGetPasses(Collection<?> resourceIds, PassMode mode, long timeout, TimeUnit unit)
+			throws InterruptedException;
+
+	/**
+	 * Requests RO pass for specified resource without blocking the calling thread. <br/>
+	 * <br/>
+	 * Returned future is completed with the pass when one becomes available, applicant waits as a queue node
+	 * instead of a parked thread. Cancel the future to withdraw the request.
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @return future completed with the resource pass
+	 */
+	public CompletableFuture<Pass> acquireAsync(Object resourceId);
+
+	/**
+	 * Requests RW pass for specified resource without blocking the calling thread, see acquireAsync(Object).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @return future completed with the resource pass
+	 */
+	public CompletableFuture<Pass> acquireRWAsync(Object resourceId);
+
+	/**
+	 * Runs async action with the RO pass for specified resource. Pass is closed when the stage returned by the action
+	 * completes.
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param action
+	 *            action to run once pass is granted
+	 * @return future completed with the result of the action stage
+	 */
+	public <T> CompletableFuture<T> withPassAsync(Object resourceId,
+			Function<? super Pass, ? extends CompletionStage<T>> action);
+
+	/**
+	 * Runs async action with the RW pass for specified resource, see withPassAsync(Object, Function).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param action
+	 *            action to run once pass is granted
+	 * @return future completed with the result of the action stage
+	 */
+	public <T> CompletableFuture<T> withPassRWAsync(Object resourceId,
+			Function<? super Pass, ? extends CompletionStage<T>> action);
+
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint;
+
+/**
+ * Access mode of the pass for a node of the resource hierarchy, see HierarchicalCheckpoint.
+ * <br/>
+ * <br/>
+ * Intention modes are taken on the ancestors of the node the applicant accesses, so the access to the node conflicts
+ * with the access to the whole subtree above it while the accesses to the different nodes of the subtree do not
+ * conflict. Compatibility of the modes held by different applicants for the same node:
+ * 
+ * <pre>
+ *       IS   IX   S    X
+ * IS    +    +    +    -
+ * IX    +    +    -    -
+ * S     +    -    +    -
+ * X     -    -    -    -
+ * </pre>
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.HierarchicalCheckpoint
+ */
+public enum IntentionMode {
+	/**
+	 * Intention shared, applicant is going to take S passes for some descendants of the node.
+	 */
+	IS,
+	/**
+	 * Intention exclusive, applicant is going to take X passes for some descendants of the node.
+	 */
+	IX,
+	/**
+	 * Shared access to the node and its whole subtree, same as RO pass.
+	 */
+	S,
+	/**
+	 * Exclusive access to the node and its whole subtree, same as RW pass.
+	 */
+	X;
+
+	/**
+	 * Gets mode which should be held on the ancestors of the node accessed in this mode.
+	 * 
+	 * @return IS or IX
+	 */
+	public IntentionMode intention() {
+		return this == IS || this == S ? IS : IX;
+	}
+
+	/**
+	 * Checks if the mode gives shared access only.
+	 * 
+	 * @return true if IS or S
+	 */
+	public boolean isReadOnly() {
+		return this == IS || this == S;
+	}
+
+	/**
+	 * Checks if the applicants may hold this mode and the given mode for the same node simultaneously.
+	 * 
+	 * @param other
+	 * @return
+	 */
+	public boolean isCompatible(IntentionMode other) {
+		switch (this) {
+		case IS:
+			return other != X;
+		case IX:
+			return other == IS || other == IX;
+		case S:
+			return other == IS || other == S;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Gets mode of the node access equal to the pass of the given mode.
+	 * 
+	 * @param mode
+	 * @return S for RO and UPDATE, X for RW
+	 */
+	public static IntentionMode of(PassMode mode) {
+		return mode.isReadOnly() ? S : X;
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zur13.checkpoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Composite pass for the several resources granted at once.
+ * <br/>
+ * <br/>
+ * Holds one pass per distinct resource and a single global pass permit. All of them are returned to the checkpoint
+ * with a single close() call. Upgrade and downgrade change the access of the passes of all resources.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ *
+ */
+public class MultiPass extends Pass {
+	protected final Pass[] passes;
+
+	/**
+	 * Instantiate a composite pass.
+	 * 
+	 * @param checkpoint
+	 * @param isRO
+	 * @param passes
+	 *            passes of the distinct resources in the order they were granted
+	 */
+	public MultiPass(ACheckpoint checkpoint, boolean isRO, Pass[] passes) {
+		super(resourceIds(passes), checkpoint, isRO);
+		this.passes = passes;
+	}
+
+	static List<Object> resourceIds(Pass[] passes) {
+		List<Object> ids = new ArrayList<Object>(passes.length);
+		for (Pass p : passes) {
+			ids.add(p.getResourceId());
+		}
+		return Collections.unmodifiableList(ids);
+	}
+
+	/**
+	 * Gets passes of the distinct resources in the order they were granted.
+	 * 
+	 * @return
+	 */
+	public List<Pass> getPasses() {
+		return Collections.unmodifiableList(Arrays.asList(passes));
+	}
+
+	/**
+	 * Upgrades passes of all resources in the order they were granted, see Pass.upgrade(). Passes already upgraded
+	 * are downgraded back if any of them fails to upgrade.
+	 */
+	@Override
+	public void upgrade() throws InterruptedException {
+		if ( !isReadOnly ) {
+			return;
+		}
+		int upgraded = 0;
+		try {
+			for (; upgraded < passes.length; upgraded++) {
+				passes[upgraded].upgrade();
+			}
+		} finally {
+			if ( upgraded < passes.length ) {
+				downgrade(upgraded);
+			}
+		}
+		isReadOnly = false;
+	}
+
+	/**
+	 * Upgrades passes of all resources within the given waiting time, see upgrade().
+	 */
+	@Override
+	public boolean tryUpgrade(long timeout, TimeUnit unit) throws InterruptedException {
+		if ( !isReadOnly ) {
+			return true;
+		}
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		int upgraded = 0;
+		try {
+			while (upgraded < passes.length
+					&& passes[upgraded].tryUpgrade(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				upgraded++;
+			}
+		} finally {
+			if ( upgraded < passes.length ) {
+				downgrade(upgraded);
+			}
+		}
+		if ( upgraded < passes.length ) {
+			return false;
+		}
+		isReadOnly = false;
+		return true;
+	}
+
+	/**
+	 * Downgrades passes of all resources.
+	 */
+	@Override
+	public void downgrade() {
+		if ( isReadOnly ) {
+			return;
+		}
+		downgrade(passes.length);
+		isReadOnly = true;
+	}
+
+	/**
+	 * Downgrades the first passes.
+	 */
+	private void downgrade(int count) {
+		for (int i = 0; i < count; i++) {
+			passes[i].downgrade();
+		}
+	}
+
+	/**
+	 * Notifies checkpoint that applicant leaves restricted section for all resources.
+	 */
+	@Override
+	public void close() {
+		checkpoint.returnPasses(this);
+	}
+
+	@Override
+	public String toString() {
+		return "MultiPass [resourceIds=" + this.resourceId + ", checkpoint=" + this.checkpoint + ", isReadOnly="
+				+ this.isReadOnly + "]";
+	}
+}
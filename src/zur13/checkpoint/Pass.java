@@ -16,6 +16,11 @@
 
 package zur13.checkpoint;
 
+import java.util.concurrent.TimeUnit;
+
+import zur13.checkpoint.resource.AResourceData;
+import zur13.checkpoint.resource.PassLimit;
+
 /**
  * Checkpoint instance gives passes to the applicant when it allowed to access restricted section for the required
  * resource. <br>
@@ -31,6 +36,16 @@ public class Pass implements AutoCloseable {
 	protected Object resourceId;
 	protected ACheckpoint checkpoint;
 	protected boolean isReadOnly = false;
+	/* pass was granted in update mode, it stays update pass when upgraded and downgraded */
+	protected boolean isUpdate = false;
+	/* resource data which granted this pass, allows to return pass without resource data storage lookup */
+	protected AResourceData resourceData;
+	/* number of RO pass units and global passes limit units taken by this pass */
+	protected int weight = 1;
+	/* System.nanoTime() when the pass was granted, 0 if not tracked */
+	protected long grantNanos;
+	/* group and global limits taken by this pass, set by the checkpoint with group limits only */
+	protected PassLimit[] limits;
 
 	public Pass(Object id, ACheckpoint checkpoint) {
 		super();
@@ -45,6 +60,27 @@ public class Pass implements AutoCloseable {
 		this.isReadOnly = isRO;
 	}
 
+	public Pass(Object id, ACheckpoint checkpoint, boolean isRO, AResourceData resourceData) {
+		this(id, checkpoint, isRO);
+		this.resourceData = resourceData;
+	}
+
+	public Pass(Object id, ACheckpoint checkpoint, boolean isRO, AResourceData resourceData, int weight) {
+		this(id, checkpoint, isRO, resourceData);
+		this.weight = weight;
+	}
+
+	public Pass(Object id, ACheckpoint checkpoint, boolean isRO, AResourceData resourceData, int weight,
+			long grantNanos) {
+		this(id, checkpoint, isRO, resourceData, weight);
+		this.grantNanos = grantNanos;
+	}
+
+	public Pass(Object id, ACheckpoint checkpoint, PassMode mode, AResourceData resourceData, long grantNanos) {
+		this(id, checkpoint, mode.isReadOnly(), resourceData, 1, grantNanos);
+		this.isUpdate = mode == PassMode.UPDATE;
+	}
+
 	/**
 	 * Gets id of resource.
 	 * 
@@ -63,6 +99,97 @@ public class Pass implements AutoCloseable {
 		return this.checkpoint;
 	}
 
+	/**
+	 * Gets resource data which granted this pass.
+	 * 
+	 * @return resource data or null if unknown
+	 */
+	public AResourceData getResourceData() {
+		return this.resourceData;
+	}
+
+	/**
+	 * Gets number of units of the per resource and global passes limits taken by this pass.
+	 * 
+	 * @return 1 unless weighted pass was requested
+	 */
+	public int getWeight() {
+		return this.weight;
+	}
+
+	/**
+	 * Gets System.nanoTime() when the pass was granted.
+	 * 
+	 * @return grant time or 0 if resource data does not track it
+	 */
+	public long getGrantNanos() {
+		return this.grantNanos;
+	}
+
+	/**
+	 * Exchanges RO access of this pass to RW access, blocking until other RO passes of the resource are returned. New
+	 * RO applicants wait while the pass is upgrading. <br/>
+	 * <br/>
+	 * Only one pass of the resource may be upgraded at a time, RO pass fails to upgrade with IllegalStateException if
+	 * another pass is upgrading or update pass is active. Update pass always upgrades without deadlock, so
+	 * read-modify-write sections should use update pass.
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting, pass keeps RO access
+	 */
+	public void upgrade() throws InterruptedException {
+		if ( !isReadOnly ) {
+			return;
+		}
+		checkResourceData();
+		resourceData.upgrade(this);
+		isReadOnly = false;
+	}
+
+	/**
+	 * Exchanges RO access of this pass to RW access if other RO passes of the resource are returned within the given
+	 * waiting time, see upgrade().
+	 * 
+	 * @param timeout
+	 * @param unit
+	 * @return true if the pass has RW access, false if it keeps RO access
+	 * @throws InterruptedException
+	 *             if interrupted while waiting, pass keeps RO access
+	 */
+	public boolean tryUpgrade(long timeout, TimeUnit unit) throws InterruptedException {
+		if ( !isReadOnly ) {
+			return true;
+		}
+		checkResourceData();
+		if ( !resourceData.tryUpgrade(this, timeout, unit) ) {
+			return false;
+		}
+		isReadOnly = false;
+		return true;
+	}
+
+	/**
+	 * Exchanges RW access of this pass to RO access without waiting, RO applicants waiting for the resource are let
+	 * in. Upgraded update pass becomes update pass again.
+	 */
+	public void downgrade() {
+		if ( isReadOnly ) {
+			return;
+		}
+		checkResourceData();
+		resourceData.downgrade(this);
+		isReadOnly = true;
+	}
+
+	/**
+	 * Checks that the access mode of the pass is controlled by the resource data which granted it.
+	 */
+	private void checkResourceData() {
+		if ( resourceData == null ) {
+			throw new IllegalStateException("Pass was not granted by the resource data: " + this);
+		}
+	}
+
 	/**
 	 * Notifies checkpoint that applicant leaves restricted section.
 	 */
@@ -80,6 +207,27 @@ public class Pass implements AutoCloseable {
 		return this.isReadOnly;
 	}
 
+	/**
+	 * Checks if the pass was granted in update mode.
+	 * 
+	 * @return true if update pass, either with RO access or upgraded
+	 */
+	public boolean isUpdate() {
+		return this.isUpdate;
+	}
+
+	/**
+	 * Gets current access mode of the pass.
+	 * 
+	 * @return RW if pass has RW access; UPDATE or RO otherwise
+	 */
+	public PassMode getMode() {
+		if ( !isReadOnly ) {
+			return PassMode.RW;
+		}
+		return isUpdate ? PassMode.UPDATE : PassMode.RO;
+	}
+
 	@Override
 	public String toString() {
 		return "Pass [resourceId=" + this.resourceId + ", checkpoint=" + this.checkpoint + ", isReadOnly="
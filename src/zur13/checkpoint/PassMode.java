@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zur13.checkpoint;
+
+/**
+ * Access mode of the pass.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ *
+ */
+public enum PassMode {
+	/**
+	 * Read only access, multiple RO passes may be active for the resource simultaneously.
+	 */
+	RO,
+	/**
+	 * Read write access, single RW pass may be active for the resource and only if there are no active RO passes.
+	 */
+	RW,
+	/**
+	 * Read only access which may be upgraded to RW access without deadlock, single update pass may be active for the
+	 * resource together with RO passes.
+	 */
+	UPDATE;
+
+	/**
+	 * Checks if the mode gives RO access.
+	 * 
+	 * @return true if RO or UPDATE; false if RW
+	 */
+	public boolean isReadOnly() {
+		return this != RW;
+	}
+}
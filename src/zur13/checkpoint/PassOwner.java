@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint;
+
+import zur13.checkpoint.ReentrantCheckpoint.ReentrancyTable;
+
+/**
+ * Owner of the reentrant passes which is not bound to the thread, e.g. logical task which moves between executors.
+ * <br/>
+ * <br/>
+ * Task runs with the owner token using ReentrantCheckpoint.runAs(), passes it requests are reentered by its nested
+ * sections in any thread which runs with the same token.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ *
+ */
+public final class PassOwner {
+	final ReentrantCheckpoint checkpoint;
+	/* passes held by the owner */
+	final ReentrancyTable table;
+
+	PassOwner(ReentrantCheckpoint checkpoint, ReentrancyTable parent) {
+		this.checkpoint = checkpoint;
+		this.table = new ReentrancyTable(parent);
+	}
+
+	/**
+	 * Creates owner token for the subtask which runs in parallel with other subtasks of this owner. <br/>
+	 * <br/>
+	 * Subtask reenters passes held by this owner without acquiring them and returns nothing of them, other passes are
+	 * owned by the subtask. This owner should not request or return passes until forked subtasks complete.
+	 * 
+	 * @return owner token
+	 */
+	public PassOwner fork() {
+		return new PassOwner(checkpoint, table);
+	}
+
+	/**
+	 * Gets checkpoint which created the owner token.
+	 * 
+	 * @return
+	 */
+	public ReentrantCheckpoint getCheckpoint() {
+		return this.checkpoint;
+	}
+
+	/**
+	 * Gets number of resources the owner holds passes for.
+	 * 
+	 * @return
+	 */
+	public int getHeldResources() {
+		return table.size();
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint;
+
+/**
+ * Thrown when the pass request is rejected without waiting for the pass, by the overload control of the resource
+ * wait queue or when too many applicants already wait.
+ * <br/>
+ * <br/>
+ * Rejection is expected to happen a lot under overload, so the shared instance without stack trace is thrown instead
+ * of allocating new exception for every rejected request.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.resource.limit.OverloadControl
+ */
+public class PassRejectedException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Rejection of the applicants which would wait in the overloaded wait queue.
+	 */
+	public static final PassRejectedException OVERLOADED = new PassRejectedException(
+			"Pass rejected, resource wait queue is overloaded", false);
+
+	/**
+	 * Rejection of the applicants which would exceed max number of waiters.
+	 */
+	public static final PassRejectedException QUEUE_FULL = new PassRejectedException(
+			"Pass rejected, too many applicants wait for the resource", false);
+
+	public PassRejectedException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Instantiate rejection.
+	 *
+	 * @param message
+	 * @param writableStackTrace
+	 *            false for the shared instances
+	 */
+	protected PassRejectedException(String message, boolean writableStackTrace) {
+		super(message, null, false, writableStackTrace);
+	}
+}
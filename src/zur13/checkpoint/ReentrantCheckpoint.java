@@ -16,22 +16,37 @@
 
 package zur13.checkpoint;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 
-import zur13.checkpoint.resource.AResourceData;
+import zur13.checkpoint.resource.GroupPolicy;
 import zur13.checkpoint.resource.storage.AResourceDataStorage;
 
 /**
  * Supports all features of Simple checkpoint and also supports reentrancy.
  * Reentrancy allows same thread to enter multiple restricted sections with the same resourceId without using
  * additional passes and without using global limit.
+ * Resource ids which share the same resource data in the resource data storage (e.g. ids of the same stripe in the
+ * striped storage) are treated as the same resource.
+ * Passes held by the thread are tracked in the thread local table, so reentrancy checks are not contended and do not
+ * allocate.
  * <p/>
- * WARN: Reentrant checkpoint does not allow reentrant upgrades from RO pass to RW pass for the same thread for the same
- * resource id.
+ * Logical task which moves between threads (e.g. stages of CompletableFuture) may own passes with the owner token
+ * instead of the thread, see newOwner() and runAs(). Owner token is bound to the thread only while the task runs
+ * with it.
+ * <p/>
+ * Reentrant RW request of the thread which holds RO pass for the resource upgrades the held pass, see Pass.upgrade(),
+ * and the pass keeps RW access until it is returned. Upgrade of RO pass fails with IllegalStateException if another
+ * pass holds the resource for update, thread which is going to modify the resource should request update pass.
+ * Flyweight passes are not used by the reentrant checkpoint, so the held pass may always be upgraded.
  * WARN: Reentrant checkpoint does not allow to close the pass from the different thread. Pass should be closed by the
- * thread which requested it.
+ * thread which requested it or by the task running with the owner token which requested it.
+ * WARN: Passes for several resources requested with getPasses() are not reentrant, thread should not request them
+ * for the resources it already holds passes for.
+ * WARN: Async passes are not reentrant, they are not bound to the thread and are granted the same way as by the simple
+ * checkpoint, so async request for the resource held by the calling thread waits until the thread returns it. Async
+ * pass may be closed by any thread.
  *
  * @author
  *         <ul>
@@ -40,10 +55,13 @@ import zur13.checkpoint.resource.storage.AResourceDataStorage;
  *
  */
 public class ReentrantCheckpoint extends SimpleCheckpoint {
-	protected static final String UPGRADING_RO_PASS_IS_NOT_SUPPORTED =
-			"Upgrading RO pass to the RW pass is not supported";
-	protected ConcurrentHashMap<TidResourceKey, ReentrantPass> rPassStor =
-			new ConcurrentHashMap<ReentrantCheckpoint.TidResourceKey, ReentrantPass>();
+	/* passes held by the current thread or by the owner token bound to it */
+	protected final ThreadLocal<ReentrancyTable> reentrancy = new ThreadLocal<ReentrancyTable>() {
+		@Override
+		protected ReentrancyTable initialValue() {
+			return new ReentrancyTable();
+		}
+	};
 
 	/**
 	 * Instantiate a reentrant checkpoint object.
@@ -58,6 +76,20 @@ public class ReentrantCheckpoint extends SimpleCheckpoint {
 
 	}
 
+	/**
+	 * Instantiate a reentrant checkpoint object with group passes limits.
+	 * 
+	 * @param ads
+	 * @param globalPassesLimit
+	 *            upper limit for global number of passes for all resources or use
+	 *            org.checkpoint.SimpleCheckpoint.UNLIMITED
+	 * @param groupPolicy
+	 *            maps resource ids to the groups with their own passes limits or null
+	 */
+	public ReentrantCheckpoint(AResourceDataStorage ads, int globalPassesLimit, GroupPolicy groupPolicy) {
+		super(ads, globalPassesLimit, groupPolicy);
+	}
+
 	/**
 	 * Requests RO pass for specified resource blocking until one is available, or the thread is interrupted. <br/>
 	 * <br/>
@@ -164,8 +196,7 @@ public class ReentrantCheckpoint extends SimpleCheckpoint {
 	 * the time of invocation.
 	 * <br/>
 	 * <br/>
-	 * WARN: timeout is not precise and may take double time until it happens (internally there are 2 consecutive places
-	 * where it is used) <br/>
+	 * Timeout is a single deadline for both per resource and global passes limit. <br/>
 	 * 
 	 * @param resourceId
 	 *            unique resource identifier
@@ -193,6 +224,205 @@ public class ReentrantCheckpoint extends SimpleCheckpoint {
 		return pass;
 	}
 
+	/**
+	 * Requests weighted RO pass for specified resource blocking until one is available, or the thread is interrupted.
+	 * <br/>
+	 * <br/>
+	 * Reentrant request returns the pass already held by the thread and does not take more units.
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass getPass(Object resourceId, int weight) throws InterruptedException {
+		ReentrantPass rPass = checkReenter(resourceId);
+		Pass pass = rPass.getPass();
+
+		if ( pass == null ) {
+			try {
+				pass = super.getPass(resourceId, weight);
+				if ( pass == null ) {
+					checkReenterExit(resourceId);
+				} else {
+					rPass.setPass(pass);
+				}
+			} catch (Exception e) {
+				checkReenterExit(resourceId);
+				throw e;
+			}
+		}
+		return pass;
+	}
+
+	/**
+	 * Requests weighted RO pass for specified resource blocking until one is available, see getPass(Object, int).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @return resource pass
+	 */
+	@Override
+	public Pass getPassUninterruptibly(Object resourceId, int weight) {
+		ReentrantPass rPass = checkReenter(resourceId);
+		Pass pass = rPass.getPass();
+
+		if ( pass == null ) {
+			try {
+				pass = super.getPassUninterruptibly(resourceId, weight);
+				if ( pass == null ) {
+					checkReenterExit(resourceId);
+				} else {
+					rPass.setPass(pass);
+				}
+			} catch (Exception e) {
+				checkReenterExit(resourceId);
+				throw e;
+			}
+		}
+		return pass;
+	}
+
+	/**
+	 * Requests weighted RO pass for specified resource, returns pass only if one is available at the time of
+	 * invocation, see getPass(Object, int).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @return resource pass or null if not enough units available or RW pass active
+	 */
+	@Override
+	public Pass tryGetPass(Object resourceId, int weight) {
+		ReentrantPass rPass = checkReenter(resourceId);
+		Pass pass = rPass.getPass();
+
+		if ( pass == null ) {
+			try {
+				pass = super.tryGetPass(resourceId, weight);
+				if ( pass == null ) {
+					checkReenterExit(resourceId);
+				} else {
+					rPass.setPass(pass);
+				}
+			} catch (Exception e) {
+				checkReenterExit(resourceId);
+				throw e;
+			}
+		}
+		return pass;
+	}
+
+	/**
+	 * Requests weighted RO pass for specified resource, returns pass if one becomes available within the given
+	 * waiting time and the current thread has not been interrupted, see getPass(Object, int).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @return resource pass or null if not enough units available or RW pass active
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass tryGetPass(Object resourceId, int weight, long timeout, TimeUnit unit) throws InterruptedException {
+		ReentrantPass rPass = checkReenter(resourceId);
+		Pass pass = rPass.getPass();
+
+		if ( pass == null ) {
+			try {
+				pass = super.tryGetPass(resourceId, weight, timeout, unit);
+				if ( pass == null ) {
+					checkReenterExit(resourceId);
+				} else {
+					rPass.setPass(pass);
+				}
+			} catch (Exception e) {
+				checkReenterExit(resourceId);
+				throw e;
+			}
+		}
+		return pass;
+	}
+
+	/**
+	 * Requests weighted RO pass for specified resource blocking until one is available, or the thread is
+	 * interrupted, see getPass(Object, int, int).
+	 * <br/>
+	 * <br/>
+	 * Reentrant request returns the pass already held by the thread and does not wait.
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @param priority
+	 *            applicant priority, higher value is served first by the priority scheduler
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass getPass(Object resourceId, int weight, int priority) throws InterruptedException {
+		ReentrantPass rPass = checkReenter(resourceId);
+		Pass pass = rPass.getPass();
+
+		if ( pass == null ) {
+			try {
+				pass = super.getPass(resourceId, weight, priority);
+				if ( pass == null ) {
+					checkReenterExit(resourceId);
+				} else {
+					rPass.setPass(pass);
+				}
+			} catch (Exception e) {
+				checkReenterExit(resourceId);
+				throw e;
+			}
+		}
+		return pass;
+	}
+
+	/**
+	 * Requests weighted RO pass for specified resource, returns pass if one becomes available within the given
+	 * waiting time and the current thread has not been interrupted, see getPass(Object, int, int).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @param priority
+	 *            applicant priority, higher value is served first by the priority scheduler
+	 * @return resource pass or null if not enough units available or RW pass active
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass tryGetPass(Object resourceId, int weight, int priority, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		ReentrantPass rPass = checkReenter(resourceId);
+		Pass pass = rPass.getPass();
+
+		if ( pass == null ) {
+			try {
+				pass = super.tryGetPass(resourceId, weight, priority, timeout, unit);
+				if ( pass == null ) {
+					checkReenterExit(resourceId);
+				} else {
+					rPass.setPass(pass);
+				}
+			} catch (Exception e) {
+				checkReenterExit(resourceId);
+				throw e;
+			}
+		}
+		return pass;
+	}
+
 	/**
 	 * Requests RW pass for specified resource blocking until one is available, or the thread is interrupted. <br/>
 	 * <br/>
@@ -222,7 +452,7 @@ public class ReentrantCheckpoint extends SimpleCheckpoint {
 				throw e;
 			}
 		} else if ( pass.isReadOnly ) {
-			throw new UnsupportedOperationException(UPGRADING_RO_PASS_IS_NOT_SUPPORTED);
+			upgradeReentered(resourceId, pass);
 		}
 		return pass;
 	}
@@ -255,7 +485,7 @@ public class ReentrantCheckpoint extends SimpleCheckpoint {
 				throw e;
 			}
 		} else if ( pass.isReadOnly ) {
-			throw new UnsupportedOperationException(UPGRADING_RO_PASS_IS_NOT_SUPPORTED);
+			upgradeReenteredUninterruptibly(resourceId, pass);
 		}
 		return pass;
 	}
@@ -288,7 +518,7 @@ public class ReentrantCheckpoint extends SimpleCheckpoint {
 				throw e;
 			}
 		} else if ( pass.isReadOnly ) {
-			throw new UnsupportedOperationException(UPGRADING_RO_PASS_IS_NOT_SUPPORTED);
+			pass = tryUpgradeReentered(resourceId, pass);
 		}
 		return pass;
 	}
@@ -301,8 +531,7 @@ public class ReentrantCheckpoint extends SimpleCheckpoint {
 	 * Returns pass if no active RO and RW passes for specified resource at the time of invocation.
 	 * <br/>
 	 * <br/>
-	 * WARN: timeout is not precise and may take double time until it happens (internally there are 2 consecutive places
-	 * where it is used) <br/>
+	 * Timeout is a single deadline for both per resource and global passes limit. <br/>
 	 * 
 	 * @param resourceId
 	 *            unique resource identifier
@@ -331,70 +560,511 @@ public class ReentrantCheckpoint extends SimpleCheckpoint {
 				throw e;
 			}
 		} else if ( pass.isReadOnly ) {
-			throw new UnsupportedOperationException(UPGRADING_RO_PASS_IS_NOT_SUPPORTED);
+			pass = tryUpgradeReentered(resourceId, pass, timeout, unit);
+		}
+		return pass;
+	}
+
+	/**
+	 * Requests RW pass for specified resource blocking until one is available, or the thread is interrupted, see
+	 * getPassRW(Object, int).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param priority
+	 *            applicant priority, higher value is served first by the priority scheduler
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass getPassRW(Object resourceId, int priority) throws InterruptedException {
+		ReentrantPass rPass = checkReenter(resourceId);
+		Pass pass = rPass.getPass();
+
+		if ( pass == null ) {
+			try {
+				pass = super.getPassRW(resourceId, priority);
+				if ( pass == null ) {
+					checkReenterExit(resourceId);
+				} else {
+					rPass.setPass(pass);
+				}
+			} catch (Exception e) {
+				checkReenterExit(resourceId);
+				throw e;
+			}
+		} else if ( pass.isReadOnly ) {
+			upgradeReentered(resourceId, pass);
+		}
+		return pass;
+	}
+
+	/**
+	 * Requests RW pass for specified resource, returns pass if one becomes available within the given waiting time and
+	 * the current thread has not been interrupted, see getPassRW(Object, int).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param priority
+	 *            applicant priority, higher value is served first by the priority scheduler
+	 * @return resource pass or null if no passes available
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass tryGetPassRW(Object resourceId, int priority, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		ReentrantPass rPass = checkReenter(resourceId);
+		Pass pass = rPass.getPass();
+
+		if ( pass == null ) {
+			try {
+				pass = super.tryGetPassRW(resourceId, priority, timeout, unit);
+				if ( pass == null ) {
+					checkReenterExit(resourceId);
+				} else {
+					rPass.setPass(pass);
+				}
+			} catch (Exception e) {
+				checkReenterExit(resourceId);
+				throw e;
+			}
+		} else if ( pass.isReadOnly ) {
+			pass = tryUpgradeReentered(resourceId, pass, timeout, unit);
+		}
+		return pass;
+	}
+
+	/**
+	 * Requests update pass for specified resource blocking until one is available, or the thread is interrupted. <br/>
+	 * <br/>
+	 * Pass already held by the thread is returned. RO pass held by the thread is not exclusive for update, its upgrade
+	 * fails with IllegalStateException if another pass holds the resource for update.
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass getPassForUpdate(Object resourceId) throws InterruptedException {
+		ReentrantPass rPass = checkReenter(resourceId);
+		Pass pass = rPass.getPass();
+
+		if ( pass == null ) {
+			try {
+				pass = super.getPassForUpdate(resourceId);
+				if ( pass == null ) {
+					checkReenterExit(resourceId);
+				} else {
+					rPass.setPass(pass);
+				}
+			} catch (Exception e) {
+				checkReenterExit(resourceId);
+				throw e;
+			}
+		}
+		return pass;
+	}
+
+	/**
+	 * Requests update pass for specified resource blocking until one is available, see getPassForUpdate(Object).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @return resource pass
+	 */
+	@Override
+	public Pass getPassForUpdateUninterruptibly(Object resourceId) {
+		ReentrantPass rPass = checkReenter(resourceId);
+		Pass pass = rPass.getPass();
+
+		if ( pass == null ) {
+			try {
+				pass = super.getPassForUpdateUninterruptibly(resourceId);
+				if ( pass == null ) {
+					checkReenterExit(resourceId);
+				} else {
+					rPass.setPass(pass);
+				}
+			} catch (Exception e) {
+				checkReenterExit(resourceId);
+				throw e;
+			}
+		}
+		return pass;
+	}
+
+	/**
+	 * Requests update pass for specified resource, returns pass only if one is available at the time of invocation,
+	 * see getPassForUpdate(Object).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @return resource pass or null if update pass or RW pass active
+	 */
+	@Override
+	public Pass tryGetPassForUpdate(Object resourceId) {
+		ReentrantPass rPass = checkReenter(resourceId);
+		Pass pass = rPass.getPass();
+
+		if ( pass == null ) {
+			try {
+				pass = super.tryGetPassForUpdate(resourceId);
+				if ( pass == null ) {
+					checkReenterExit(resourceId);
+				} else {
+					rPass.setPass(pass);
+				}
+			} catch (Exception e) {
+				checkReenterExit(resourceId);
+				throw e;
+			}
+		}
+		return pass;
+	}
+
+	/**
+	 * Requests update pass for specified resource, returns pass if one becomes available within the given waiting
+	 * time and the current thread has not been interrupted, see getPassForUpdate(Object).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param timeout
+	 *            the maximum time to wait for a permit
+	 * @param unit
+	 *            the time unit of the timeout argument
+	 * @return resource pass or null if update pass or RW pass active
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass tryGetPassForUpdate(Object resourceId, long timeout, TimeUnit unit) throws InterruptedException {
+		ReentrantPass rPass = checkReenter(resourceId);
+		Pass pass = rPass.getPass();
+
+		if ( pass == null ) {
+			try {
+				pass = super.tryGetPassForUpdate(resourceId, timeout, unit);
+				if ( pass == null ) {
+					checkReenterExit(resourceId);
+				} else {
+					rPass.setPass(pass);
+				}
+			} catch (Exception e) {
+				checkReenterExit(resourceId);
+				throw e;
+			}
 		}
 		return pass;
 	}
 
+	/**
+	 * Same as getPass(Object), reentrancy is tracked by the boxed resource id.
+	 * 
+	 * @see zur13.checkpoint.ICheckpoint#getPassL(long)
+	 */
+	@Override
+	public Pass getPassL(long resourceId) throws InterruptedException {
+		return getPass(Long.valueOf(resourceId));
+	}
+
+	/**
+	 * Same as getPassUninterruptibly(Object), reentrancy is tracked by the boxed resource id.
+	 * 
+	 * @see zur13.checkpoint.ICheckpoint#getPassUninterruptiblyL(long)
+	 */
+	@Override
+	public Pass getPassUninterruptiblyL(long resourceId) {
+		return getPassUninterruptibly(Long.valueOf(resourceId));
+	}
+
+	/**
+	 * Same as tryGetPass(Object), reentrancy is tracked by the boxed resource id.
+	 * 
+	 * @see zur13.checkpoint.ICheckpoint#tryGetPassL(long)
+	 */
+	@Override
+	public Pass tryGetPassL(long resourceId) {
+		return tryGetPass(Long.valueOf(resourceId));
+	}
+
+	/**
+	 * Same as tryGetPass(Object, long, TimeUnit), reentrancy is tracked by the boxed resource id.
+	 * 
+	 * @see zur13.checkpoint.ICheckpoint#tryGetPassL(long, long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public Pass tryGetPassL(long resourceId, long timeout, TimeUnit unit) throws InterruptedException {
+		return tryGetPass(Long.valueOf(resourceId), timeout, unit);
+	}
+
+	/**
+	 * Same as getPassRW(Object), reentrancy is tracked by the boxed resource id.
+	 * 
+	 * @see zur13.checkpoint.ICheckpoint#getPassRWL(long)
+	 */
+	@Override
+	public Pass getPassRWL(long resourceId) throws InterruptedException {
+		return getPassRW(Long.valueOf(resourceId));
+	}
+
+	/**
+	 * Same as getPassRWUninterruptibly(Object), reentrancy is tracked by the boxed resource id.
+	 * 
+	 * @see zur13.checkpoint.ICheckpoint#getPassRWUninterruptiblyL(long)
+	 */
+	@Override
+	public Pass getPassRWUninterruptiblyL(long resourceId) {
+		return getPassRWUninterruptibly(Long.valueOf(resourceId));
+	}
+
+	/**
+	 * Same as tryGetPassRW(Object), reentrancy is tracked by the boxed resource id.
+	 * 
+	 * @see zur13.checkpoint.ICheckpoint#tryGetPassRWL(long)
+	 */
+	@Override
+	public Pass tryGetPassRWL(long resourceId) {
+		return tryGetPassRW(Long.valueOf(resourceId));
+	}
+
+	/**
+	 * Same as tryGetPassRW(Object, long, TimeUnit), reentrancy is tracked by the boxed resource id.
+	 * 
+	 * @see zur13.checkpoint.ICheckpoint#tryGetPassRWL(long, long, java.util.concurrent.TimeUnit)
+	 */
+	@Override
+	public Pass tryGetPassRWL(long resourceId, long timeout, TimeUnit unit) throws InterruptedException {
+		return tryGetPassRW(Long.valueOf(resourceId), timeout, unit);
+	}
+
+	/**
+	 * Upgrades RO pass held by the thread for the reentrant RW request, leaves the resource if upgrade fails.
+	 * 
+	 * @param resourceId
+	 * @param pass
+	 *            RO pass held by the thread
+	 * @throws InterruptedException
+	 */
+	protected void upgradeReentered(Object resourceId, Pass pass) throws InterruptedException {
+		try {
+			pass.upgrade();
+		} catch (InterruptedException | RuntimeException e) {
+			checkReenterExit(resourceId);
+			throw e;
+		}
+	}
+
+	/**
+	 * Same as upgradeReentered() without interruption, interrupted status is restored after upgrade.
+	 * 
+	 * @param resourceId
+	 * @param pass
+	 *            RO pass held by the thread
+	 */
+	protected void upgradeReenteredUninterruptibly(Object resourceId, Pass pass) {
+		boolean interrupted = false;
+		try {
+			for (;;) {
+				try {
+					pass.upgrade();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} catch (RuntimeException e) {
+			checkReenterExit(resourceId);
+			throw e;
+		} finally {
+			if ( interrupted ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Upgrades RO pass held by the thread for the reentrant RW request if other RO passes are returned within the
+	 * given waiting time, leaves the resource otherwise.
+	 * 
+	 * @param resourceId
+	 * @param pass
+	 *            RO pass held by the thread
+	 * @param timeout
+	 * @param unit
+	 * @return upgraded pass or null
+	 * @throws InterruptedException
+	 */
+	protected Pass tryUpgradeReentered(Object resourceId, Pass pass, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		boolean upgraded = false;
+		try {
+			upgraded = pass.tryUpgrade(timeout, unit);
+		} finally {
+			if ( !upgraded ) {
+				checkReenterExit(resourceId);
+			}
+		}
+		return upgraded ? pass : null;
+	}
+
+	/**
+	 * Upgrades RO pass held by the thread for the reentrant RW request only if there are no other RO passes.
+	 * 
+	 * @param resourceId
+	 * @param pass
+	 *            RO pass held by the thread
+	 * @return upgraded pass or null
+	 */
+	protected Pass tryUpgradeReentered(Object resourceId, Pass pass) {
+		try {
+			return tryUpgradeReentered(resourceId, pass, 0L, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			// request without waiting keeps interrupted status for the caller
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the pass after the last exit of the thread from the resource, pass which is not held by the thread
+	 * (e.g. async pass) is returned at once.
+	 */
 	@Override
 	protected void returnPass(Pass pass) {
-		if ( checkReenterExit(pass.getResourceId()) ) {
-			if ( globalPassesSemaphore != null ) {
-				globalPassesSemaphore.release();
+		final ReentrancyTable table = reentrancy.get();
+		final Object key = pass.getResourceId();
+		if ( !table.holds(key, pass) || table.exit(key) ) {
+			super.returnPass(pass);
+		}
+	}
+
+	/**
+	 * Creates owner token for the logical task. Passes requested while the task runs with the token are owned by the
+	 * token instead of the thread, so nested sections of the task reenter them from any thread.
+	 * <br/>
+	 * <br/>
+	 * Token should be used by one thread at a time, e.g. by the sequential stages of the task. Tasks running in
+	 * parallel should use tokens forked from the owner token, see PassOwner.fork().
+	 * 
+	 * @return owner token
+	 */
+	public PassOwner newOwner() {
+		return new PassOwner(this, null);
+	}
+
+	/**
+	 * Runs the task with the owner token bound to the current thread. Previous owner of the thread is restored when
+	 * the task completes.
+	 * 
+	 * @param owner
+	 *            owner token created by this checkpoint
+	 * @param task
+	 */
+	public void runAs(PassOwner owner, Runnable task) {
+		final ReentrancyTable prev = bind(owner);
+		try {
+			task.run();
+		} finally {
+			reentrancy.set(prev);
+		}
+	}
+
+	/**
+	 * Calls the task with the owner token bound to the current thread, see runAs(PassOwner, Runnable).
+	 * 
+	 * @param owner
+	 *            owner token created by this checkpoint
+	 * @param task
+	 * @return task result
+	 * @throws Exception
+	 *             thrown by the task
+	 */
+	public <V> V callAs(PassOwner owner, Callable<V> task) throws Exception {
+		final ReentrancyTable prev = bind(owner);
+		try {
+			return task.call();
+		} finally {
+			reentrancy.set(prev);
+		}
+	}
+
+	/**
+	 * Wraps executor so its tasks run with the owner token, e.g. for the async stages of CompletableFuture.
+	 * 
+	 * @param owner
+	 *            owner token created by this checkpoint
+	 * @param executor
+	 * @return executor which runs tasks as the owner
+	 */
+	public Executor executor(final PassOwner owner, final Executor executor) {
+		checkOwner(owner);
+		return new Executor() {
+			@Override
+			public void execute(final Runnable command) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						runAs(owner, command);
+					}
+				});
 			}
+		};
+	}
 
-			AResourceData ad = ads.get(pass.getResourceId());
-			ad.returnPass(pass);
+	/**
+	 * Binds owner token to the current thread.
+	 * 
+	 * @param owner
+	 * @return passes table of the previous owner
+	 */
+	protected ReentrancyTable bind(PassOwner owner) {
+		checkOwner(owner);
+		final ReentrancyTable prev = reentrancy.get();
+		reentrancy.set(owner.table);
+		return prev;
+	}
 
-			ads.release(pass.getResourceId());
+	protected void checkOwner(PassOwner owner) {
+		if ( owner.checkpoint != this ) {
+			throw new IllegalArgumentException("Owner token was created by another checkpoint");
 		}
 	}
 
 	/**
-	 * Increments reenter counter for the specified thread for the specified resourceId.
+	 * Increments reenter counter for the current thread for the specified resourceId.
 	 * 
 	 * @param resourceId
 	 * @return ReenterPass object (ReenterPass.getPass()==null if entered for the first time)
 	 */
 	protected ReentrantPass checkReenter(Object resourceId) {
-		TidResourceKey key = buildKey(resourceId);
-		ReentrantPass reenterPass = rPassStor.get(key);
-		if ( reenterPass != null ) {
-			reenterPass.getCounter().incrementAndGet();
-			return reenterPass;
-		} else {
-			reenterPass = new ReentrantPass(null);
-			rPassStor.put(key, reenterPass);
-			return reenterPass;
-		}
+		return reentrancy.get().enter(ads.getResourceKey(resourceId));
 	}
 
 	/**
-	 * Decrements reenter counter and returns true if that was last reentry for that thread for specified resourceId
-	 * and pass release required.
+	 * Decrements reenter counter and returns true if that was last reentry for the current thread for specified
+	 * resourceId and pass release required.
 	 * 
 	 * @param resourceId
 	 * @return true if that was last reenter record and pass should be returned
 	 */
 	protected boolean checkReenterExit(Object resourceId) {
-		TidResourceKey key = buildKey(resourceId);
-		ReentrantPass rpass = rPassStor.get(key);
-		if ( rpass != null ) {
-			AtomicLong reenterCounter = rpass.getCounter();
-			if ( reenterCounter.decrementAndGet() == 0 ) {
-				rPassStor.remove(key);
-				return true;
-			}
-		}
-		return false;
+		return checkReenterExitKey(ads.getResourceKey(resourceId));
 	}
 
-	protected static TidResourceKey buildKey(Object resourceId) {
-		return new TidResourceKey(resourceId, Thread.currentThread().getId());
+	/**
+	 * Same as checkReenterExit(Object) for the resource key already mapped by the resource data storage. Resource ids
+	 * of the passes are the storage keys.
+	 * 
+	 * @param resourceKey
+	 * @return true if that was last reenter record and pass should be returned
+	 */
+	protected boolean checkReenterExitKey(Object resourceKey) {
+		return reentrancy.get().exit(resourceKey);
 	}
 
 	/**
-	 * Contains Pass and reenter counter for reentrant applicant thread.
+	 * Contains Pass and reenter counter for reentrant applicant thread. Entry is owned by the reentrancy table and
+	 * reused for other resources after the pass is returned.
 	 *
 	 * @author
 	 *         <ul>
@@ -403,15 +1073,14 @@ public class ReentrantCheckpoint extends SimpleCheckpoint {
 	 *
 	 */
 	protected static class ReentrantPass {
-		AtomicLong counter = new AtomicLong(1);
+		/* storage key of the resource or null if the entry is free */
+		Object resourceKey;
+		long counter;
 		Pass pass;
+		/* pass is held by the parent owner and should not be returned on the last exit */
+		boolean inherited;
 
-		public ReentrantPass(Pass pass) {
-			super();
-			this.pass = pass;
-		}
-
-		public AtomicLong getCounter() {
+		public long getCounter() {
 			return this.counter;
 		}
 
@@ -425,7 +1094,12 @@ public class ReentrantCheckpoint extends SimpleCheckpoint {
 	}
 
 	/**
-	 * Reentrant thread and resource id combination.
+	 * Passes held by a single thread or owner token. Open addressed table with linear probing, accessed by a single
+	 * thread at a time.
+	 * <br/>
+	 * <br/>
+	 * Entries are allocated only when the table grows and are reused afterwards, so entering and leaving restricted
+	 * sections does not allocate.
 	 *
 	 * @author
 	 *         <ul>
@@ -433,49 +1107,182 @@ public class ReentrantCheckpoint extends SimpleCheckpoint {
 	 *         </ul>
 	 *
 	 */
-	protected static class TidResourceKey {
-		Object resourceId;
-		long tid;
+	protected static final class ReentrancyTable {
+		/* stands for null resource key, free entries have null key */
+		private static final Object NULL_KEY = new Object();
+		private static final int INITIAL_CAPACITY = 8;
 
-		public TidResourceKey(Object resourceId, long tid) {
-			super();
-			this.resourceId = resourceId;
-			this.tid = tid;
+		/* passes of the parent owner, they are reentered without acquire or null */
+		private final ReentrancyTable parent;
+		private ReentrantPass[] entries = newEntries(new ReentrantPass[INITIAL_CAPACITY]);
+		private int size;
+
+		public ReentrancyTable() {
+			this(null);
 		}
 
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + ((this.resourceId == null) ? 0 : this.resourceId.hashCode());
-			result = prime * result + (int) (this.tid ^ (this.tid >>> 32));
-			return result;
+		/**
+		 * Creates table of the forked owner. Parent table is only read and should not change while the forked owner
+		 * is active.
+		 * 
+		 * @param parent
+		 */
+		public ReentrancyTable(ReentrancyTable parent) {
+			this.parent = parent;
 		}
 
-		@Override
-		public boolean equals(Object obj) {
-			if ( this == obj ) {
-				return true;
+		/**
+		 * Increments reenter counter of the resource or takes free entry for it.
+		 * 
+		 * @param resourceKey
+		 * @return entry of the resource, entry.getPass()==null if entered for the first time
+		 */
+		public ReentrantPass enter(Object resourceKey) {
+			final Object key = resourceKey == null ? NULL_KEY : resourceKey;
+			final int mask = entries.length - 1;
+			for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+				ReentrantPass e = entries[i];
+				if ( e.resourceKey == null ) {
+					if ( (size + 1) * 2 > entries.length ) {
+						grow();
+						return enter(resourceKey);
+					}
+					e.resourceKey = key;
+					e.counter = 1;
+					size++;
+					if ( parent != null ) {
+						ReentrantPass held = parent.find(key);
+						if ( held != null && held.pass != null ) {
+							e.pass = held.pass;
+							e.inherited = true;
+						}
+					}
+					return e;
+				}
+				if ( e.resourceKey.equals(key) ) {
+					e.counter++;
+					return e;
+				}
 			}
-			if ( obj == null ) {
-				return false;
+		}
+
+		/**
+		 * Decrements reenter counter of the resource and frees its entry after the last exit.
+		 * 
+		 * @param resourceKey
+		 * @return true if that was last reenter record and pass should be returned
+		 */
+		public boolean exit(Object resourceKey) {
+			final Object key = resourceKey == null ? NULL_KEY : resourceKey;
+			final int mask = entries.length - 1;
+			for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+				ReentrantPass e = entries[i];
+				if ( e.resourceKey == null ) {
+					// pass was not requested by this thread
+					return false;
+				}
+				if ( e.resourceKey.equals(key) ) {
+					if ( --e.counter != 0 ) {
+						return false;
+					}
+					final boolean inherited = e.inherited;
+					free(i);
+					return !inherited;
+				}
+			}
+		}
+
+		/**
+		 * Checks if the pass is held by the owner of this table or by its parent owners.
+		 * 
+		 * @param resourceKey
+		 * @param pass
+		 * @return
+		 */
+		public boolean holds(Object resourceKey, Pass pass) {
+			ReentrantPass e = find(resourceKey == null ? NULL_KEY : resourceKey);
+			return e != null && e.getPass() == pass;
+		}
+
+		/**
+		 * Finds entry of the resource in this table or in the tables of the parent owners.
+		 * 
+		 * @param key
+		 * @return entry or null if the resource is not held
+		 */
+		private ReentrantPass find(Object key) {
+			final int mask = entries.length - 1;
+			for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+				ReentrantPass e = entries[i];
+				if ( e.resourceKey == null ) {
+					return parent == null ? null : parent.find(key);
+				}
+				if ( e.resourceKey.equals(key) ) {
+					return e;
+				}
 			}
-			if ( !(obj instanceof TidResourceKey) ) {
-				return false;
+		}
+
+		/**
+		 * Gets number of resources the owner holds passes for.
+		 * 
+		 * @return
+		 */
+		public int size() {
+			return this.size;
+		}
+
+		/**
+		 * Frees entry and moves entries of the same probe sequence into the gap, so lookups never stop early.
+		 */
+		private void free(int i) {
+			final ReentrantPass gap = entries[i];
+			gap.resourceKey = null;
+			gap.pass = null;
+			gap.inherited = false;
+			size--;
+			final int mask = entries.length - 1;
+			for (int j = (i + 1) & mask;; j = (j + 1) & mask) {
+				ReentrantPass e = entries[j];
+				if ( e.resourceKey == null ) {
+					return;
+				}
+				// entry may fill the gap if the gap lies between its home slot and its current slot
+				if ( ((j - hash(e.resourceKey)) & mask) >= ((j - i) & mask) ) {
+					entries[i] = e;
+					entries[j] = gap;
+					i = j;
+				}
 			}
-			TidResourceKey other = (TidResourceKey) obj;
-			if ( this.resourceId == null ) {
-				if ( other.resourceId != null ) {
-					return false;
+		}
+
+		private void grow() {
+			final ReentrantPass[] grown = new ReentrantPass[entries.length * 2];
+			final int mask = grown.length - 1;
+			for (ReentrantPass e : entries) {
+				if ( e.resourceKey != null ) {
+					int i = hash(e.resourceKey) & mask;
+					while (grown[i] != null) {
+						i = (i + 1) & mask;
+					}
+					grown[i] = e;
 				}
-			} else if ( !this.resourceId.equals(other.resourceId) ) {
-				return false;
 			}
-			if ( this.tid != other.tid ) {
-				return false;
+			entries = newEntries(grown);
+		}
+
+		private static ReentrantPass[] newEntries(ReentrantPass[] entries) {
+			for (int i = 0; i < entries.length; i++) {
+				if ( entries[i] == null ) {
+					entries[i] = new ReentrantPass();
+				}
 			}
-			return true;
+			return entries;
 		}
 
+		private static int hash(Object key) {
+			int h = key.hashCode();
+			return h ^ (h >>> 16);
+		}
 	}
 }
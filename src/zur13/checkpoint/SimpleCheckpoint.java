@@ -16,14 +16,28 @@
 
 package zur13.checkpoint;
 
-import java.util.concurrent.Semaphore;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import zur13.checkpoint.resource.AResourceData;
+import zur13.checkpoint.resource.GroupPolicy;
+import zur13.checkpoint.resource.PassLimit;
+import zur13.checkpoint.resource.WaitScheduler;
 import zur13.checkpoint.resource.storage.AResourceDataStorage;
 
 /**
  * Simple checkpoint allows to limit number of passes per resource and to limit global number passes.
+ * <br/>
+ * <br/>
+ * Resources may also be mapped to the groups with their own passes limits between the per resource and global ones,
+ * see GroupPolicy. Pass is granted only when it fits all of its resource, group and global limits.
  *
  * @author
  *         <ul>
@@ -34,7 +48,13 @@ import zur13.checkpoint.resource.storage.AResourceDataStorage;
 public class SimpleCheckpoint extends ACheckpoint {
 	AResourceDataStorage ads;
 	int globalPassesLimit;
-	Semaphore globalPassesSemaphore;
+	PassLimit globalPasses;
+	/* maps resource ids to the groups, null if passes are not limited by groups */
+	final GroupPolicy groupPolicy;
+	/* shared limits taken by the pass of the resource out of any group, global limit if set */
+	final PassLimit[] defaultLimits;
+	/* shared limits taken by the pass of the group resource: group limit and global limit if set */
+	final ConcurrentHashMap<Object, PassLimit[]> groupLimits = new ConcurrentHashMap<Object, PassLimit[]>();
 	public static final int UNLIMITED = -1;
 
 	/**
@@ -46,14 +66,31 @@ public class SimpleCheckpoint extends ACheckpoint {
 	 *            org.checkpoint.SimpleCheckpoint.UNLIMITED
 	 */
 	public SimpleCheckpoint(AResourceDataStorage ads, int globalPassesLimit) {
+		this(ads, globalPassesLimit, null);
+	}
+
+	/**
+	 * Instantiate a simple checkpoint object with group passes limits.
+	 * 
+	 * @param ads
+	 * @param globalPassesLimit
+	 *            upper limit for global number of passes for all resources or use
+	 *            org.checkpoint.SimpleCheckpoint.UNLIMITED
+	 * @param groupPolicy
+	 *            maps resource ids to the groups with their own passes limits or null; passes keep the limits they
+	 *            have taken, so resource data should not give flyweight passes if policy is set
+	 */
+	public SimpleCheckpoint(AResourceDataStorage ads, int globalPassesLimit, GroupPolicy groupPolicy) {
 		super();
 		this.ads = ads;
 		this.globalPassesLimit = globalPassesLimit;
 		if ( UNLIMITED == globalPassesLimit ) {
-			globalPassesSemaphore = null;
+			globalPasses = null;
 		} else {
-			globalPassesSemaphore = new Semaphore(globalPassesLimit);
+			globalPasses = ads.newGlobalLimit(globalPassesLimit);
 		}
+		this.groupPolicy = groupPolicy;
+		this.defaultLimits = globalPasses == null ? new PassLimit[0] : new PassLimit[] { globalPasses };
 	}
 
 	/**
@@ -70,26 +107,7 @@ public class SimpleCheckpoint extends ACheckpoint {
 	 */
 	@Override
 	public Pass getPass(Object resourceId) throws InterruptedException {
-		AResourceData ad = ads.get(resourceId);
-		Pass pass = null;
-		try {
-			pass = ad.getPass(this); // TODO:
-		} finally {
-			if ( pass == null ) {
-				ads.release(resourceId);
-				return null;
-			}
-		}
-
-		try {
-			if ( globalPassesSemaphore != null ) {
-				globalPassesSemaphore.acquire();
-			}
-		} catch (Throwable e) {
-			pass.close();
-			throw e;
-		}
-		return pass;
+		return acquirePass(limits(resourceId), ads.get(resourceId));
 	}
 
 	/**
@@ -105,14 +123,7 @@ public class SimpleCheckpoint extends ACheckpoint {
 	 */
 	@Override
 	public Pass getPassUninterruptibly(Object resourceId) {
-		AResourceData ad = ads.get(resourceId);
-		Pass pass = ad.getPassUninterruptibly(this);
-
-		if ( globalPassesSemaphore != null ) {
-			globalPassesSemaphore.acquireUninterruptibly();
-		}
-
-		return pass;
+		return acquirePassUninterruptibly(limits(resourceId), ads.get(resourceId));
 	}
 
 	/**
@@ -128,27 +139,7 @@ public class SimpleCheckpoint extends ACheckpoint {
 	 */
 	@Override
 	public Pass tryGetPass(Object resourceId) {
-		AResourceData ad = ads.get(resourceId);
-		Pass pass = null;
-		try {
-			pass = ad.tryGetPass(this);
-		} finally {
-			if ( pass == null ) {
-				ads.release(resourceId);
-				return null;
-			}
-		}
-
-		if ( globalPassesSemaphore != null ) {
-			if ( globalPassesSemaphore.tryAcquire() ) {
-				return pass;
-			} else {
-				pass.close();
-				return null;
-			}
-		} else {
-			return pass;
-		}
+		return tryAcquirePass(limits(resourceId), ads.get(resourceId));
 	}
 
 	/**
@@ -160,8 +151,7 @@ public class SimpleCheckpoint extends ACheckpoint {
 	 * the time of invocation.
 	 * <br/>
 	 * <br/>
-	 * WARN: timeout is not precise and may take double time until it happens (internally there are 2 consecutive places
-	 * where it is used) <br/>
+	 * Timeout is a single deadline for both per resource and global passes limit. <br/>
 	 * 
 	 * @param resourceId
 	 *            unique resource identifier
@@ -170,27 +160,116 @@ public class SimpleCheckpoint extends ACheckpoint {
 	 */
 	@Override
 	public Pass tryGetPass(Object resourceId, long timeout, TimeUnit unit) throws InterruptedException {
-		AResourceData ad = ads.get(resourceId);
-		Pass pass = null;
-		try {
-			pass = ad.tryGetPass(this, timeout, unit); // TODO:
-		} finally {
-			if ( pass == null ) {
-				ads.release(resourceId);
-				return null;
-			}
-		}
+		return tryAcquirePass(limits(resourceId), ads.get(resourceId), timeout, unit);
+	}
 
-		if ( globalPassesSemaphore != null ) {
-			if ( globalPassesSemaphore.tryAcquire(timeout, unit) ) {
-				return pass;
-			} else {
-				pass.close();
-				return null;
-			}
-		} else {
-			return pass;
-		}
+	/**
+	 * Requests weighted RO pass for specified resource blocking until one is available, or the thread is interrupted.
+	 * <br/>
+	 * <br/>
+	 * Weighted RO pass takes weight units of both per resource and global passes limits. Applicant waiting for the
+	 * weighted pass is not bypassed by the applicants requesting lighter RO passes.
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass getPass(Object resourceId, int weight) throws InterruptedException {
+		return admit(limits(resourceId), ads.get(resourceId), true, weight, true, -1L);
+	}
+
+	/**
+	 * Requests weighted RO pass for specified resource blocking until one is available, see getPass(Object, int).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @return resource pass
+	 */
+	@Override
+	public Pass getPassUninterruptibly(Object resourceId, int weight) {
+		return admitUninterruptibly(limits(resourceId), ads.get(resourceId), true, weight);
+	}
+
+	/**
+	 * Requests weighted RO pass for specified resource, returns pass only if one is available at the time of
+	 * invocation, see getPass(Object, int).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @return resource pass or null if not enough units available or RW pass active
+	 */
+	@Override
+	public Pass tryGetPass(Object resourceId, int weight) {
+		return tryAdmit(limits(resourceId), ads.get(resourceId), true, weight);
+	}
+
+	/**
+	 * Requests weighted RO pass for specified resource, returns pass if one becomes available within the given
+	 * waiting time and the current thread has not been interrupted, see getPass(Object, int).
+	 * <br/>
+	 * <br/>
+	 * Timeout is a single deadline for both per resource and global passes limit. <br/>
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @return resource pass or null if not enough units available or RW pass active
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass tryGetPass(Object resourceId, int weight, long timeout, TimeUnit unit) throws InterruptedException {
+		return admit(limits(resourceId), ads.get(resourceId), true, weight, true, Math.max(0L, unit.toNanos(timeout)));
+	}
+
+	/**
+	 * Requests weighted RO pass for specified resource blocking until one is available, or the thread is
+	 * interrupted, see getPass(Object, int).
+	 * <br/>
+	 * <br/>
+	 * While the applicant waits for the resource it is ordered by the wait scheduler of the resource data according
+	 * to the given priority. Applicants waiting for the global passes limit are not reordered.
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @param priority
+	 *            applicant priority, higher value is served first by the priority scheduler
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass getPass(Object resourceId, int weight, int priority) throws InterruptedException {
+		return admit(limits(resourceId), ads.get(resourceId), true, weight, priority, true, -1L);
+	}
+
+	/**
+	 * Requests weighted RO pass for specified resource, returns pass if one becomes available within the given
+	 * waiting time and the current thread has not been interrupted, see getPass(Object, int, int).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource (and global passes limit if set)
+	 * @param priority
+	 *            applicant priority, higher value is served first by the priority scheduler
+	 * @return resource pass or null if not enough units available or RW pass active
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass tryGetPass(Object resourceId, int weight, int priority, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return admit(limits(resourceId), ads.get(resourceId), true, weight, priority, true,
+				Math.max(0L, unit.toNanos(timeout)));
 	}
 
 	/**
@@ -206,26 +285,7 @@ public class SimpleCheckpoint extends ACheckpoint {
 	 */
 	@Override
 	public Pass getPassRW(Object resourceId) throws InterruptedException {
-		AResourceData ad = ads.get(resourceId);
-		Pass pass = null;
-		try {
-			pass = ad.getPassRW(this); // TODO:
-		} finally {
-			if ( pass == null ) {
-				ads.release(resourceId);
-				return null;
-			}
-		}
-
-		try {
-			if ( globalPassesSemaphore != null ) {
-				globalPassesSemaphore.acquire();
-			}
-		} catch (Throwable e) {
-			pass.close();
-			throw e;
-		}
-		return pass;
+		return acquirePassRW(limits(resourceId), ads.get(resourceId));
 	}
 
 	/**
@@ -240,13 +300,7 @@ public class SimpleCheckpoint extends ACheckpoint {
 	 */
 	@Override
 	public Pass getPassRWUninterruptibly(Object resourceId) {
-		AResourceData ad = ads.get(resourceId);
-		Pass pass = ad.getPassRWUninterruptibly(this); // TODO:
-
-		if ( globalPassesSemaphore != null ) {
-			globalPassesSemaphore.acquireUninterruptibly();
-		}
-		return pass;
+		return acquirePassRWUninterruptibly(limits(resourceId), ads.get(resourceId));
 	}
 
 	/**
@@ -261,27 +315,7 @@ public class SimpleCheckpoint extends ACheckpoint {
 	 */
 	@Override
 	public Pass tryGetPassRW(Object resourceId) {
-		AResourceData ad = ads.get(resourceId);
-		Pass pass = null;
-		try {
-			pass = ad.tryGetPassRW(this); // TODO:
-		} finally {
-			if ( pass == null ) {
-				ads.release(resourceId);
-				return null;
-			}
-		}
-
-		if ( globalPassesSemaphore != null ) {
-			if ( globalPassesSemaphore.tryAcquire() ) {
-				return pass;
-			} else {
-				pass.close();
-				return null;
-			}
-		} else {
-			return pass;
-		}
+		return tryAcquirePassRW(limits(resourceId), ads.get(resourceId));
 	}
 
 	/**
@@ -292,8 +326,7 @@ public class SimpleCheckpoint extends ACheckpoint {
 	 * Returns pass if no active RO and RW passes for specified resource at the time of invocation.
 	 * <br/>
 	 * <br/>
-	 * WARN: timeout is not precise and may take double time until it happens (internally there are 2 consecutive places
-	 * where it is used) <br/>
+	 * Timeout is a single deadline for both per resource and global passes limit. <br/>
 	 * 
 	 * @param resourceId
 	 *            unique resource identifier
@@ -306,35 +339,1114 @@ public class SimpleCheckpoint extends ACheckpoint {
 	 */
 	@Override
 	public Pass tryGetPassRW(Object resourceId, long timeout, TimeUnit unit) throws InterruptedException {
-		AResourceData ad = ads.get(resourceId);
-		Pass pass = null;
+		return tryAcquirePassRW(limits(resourceId), ads.get(resourceId), timeout, unit);
+	}
+
+	/**
+	 * Requests RW pass for specified resource blocking until one is available, or the thread is interrupted, see
+	 * getPass(Object, int, int).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param priority
+	 *            applicant priority, higher value is served first by the priority scheduler
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass getPassRW(Object resourceId, int priority) throws InterruptedException {
+		return admit(limits(resourceId), ads.get(resourceId), false, 1, priority, true, -1L);
+	}
+
+	/**
+	 * Requests RW pass for specified resource, returns pass if one becomes available within the given waiting time and
+	 * the current thread has not been interrupted, see getPass(Object, int, int).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param priority
+	 *            applicant priority, higher value is served first by the priority scheduler
+	 * @return resource pass or null if no passes available
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass tryGetPassRW(Object resourceId, int priority, long timeout, TimeUnit unit) throws InterruptedException {
+		return admit(limits(resourceId), ads.get(resourceId), false, 1, priority, true,
+				Math.max(0L, unit.toNanos(timeout)));
+	}
+
+	/**
+	 * Requests update pass for specified resource blocking until one is available, or the thread is interrupted. <br/>
+	 * <br/>
+	 * Update pass gives RO access together with other RO passes, but single update pass available for each resource.
+	 * Update pass may be upgraded to RW access with Pass.upgrade() without deadlock.
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass getPassForUpdate(Object resourceId) throws InterruptedException {
+		return admit(limits(resourceId), ads.get(resourceId), PassMode.UPDATE, 1, WaitScheduler.NORM_PRIORITY, true,
+				-1L);
+	}
+
+	/**
+	 * Requests update pass for specified resource blocking until one is available, see getPassForUpdate(Object).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @return resource pass
+	 */
+	@Override
+	public Pass getPassForUpdateUninterruptibly(Object resourceId) {
 		try {
-			pass = ad.tryGetPassRW(this, timeout, unit); // TODO:
-		} finally {
-			if ( pass == null ) {
-				ads.release(resourceId);
-				return null;
-			}
-		}
-		if ( globalPassesSemaphore != null ) {
-			if ( !globalPassesSemaphore.tryAcquire(timeout, unit) ) {
-				pass.close();
-				return null;
-			}
+			return admit(limits(resourceId), ads.get(resourceId), PassMode.UPDATE, 1, WaitScheduler.NORM_PRIORITY,
+					false, -1L);
+		} catch (InterruptedException e) {
+			// never thrown in uninterruptible mode
+			throw new IllegalStateException(e);
 		}
-		return pass;
 	}
 
+	/**
+	 * Requests update pass for specified resource, returns pass only if one is available at the time of invocation,
+	 * see getPassForUpdate(Object).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @return resource pass or null if update pass or RW pass active
+	 */
 	@Override
-	protected void returnPass(Pass pass) {
-		if ( globalPassesSemaphore != null ) {
-			globalPassesSemaphore.release();
+	public Pass tryGetPassForUpdate(Object resourceId) {
+		try {
+			return admit(limits(resourceId), ads.get(resourceId), PassMode.UPDATE, 1, WaitScheduler.NORM_PRIORITY,
+					false, 0L);
+		} catch (InterruptedException e) {
+			// never thrown without waiting
+			throw new IllegalStateException(e);
 		}
+	}
 
-		AResourceData ad = ads.get(pass.getResourceId());
-		ad.returnPass(pass);
+	/**
+	 * Requests update pass for specified resource, returns pass if one becomes available within the given waiting
+	 * time and the current thread has not been interrupted, see getPassForUpdate(Object).
+	 * <br/>
+	 * <br/>
+	 * Timeout is a single deadline for both per resource and global passes limit. <br/>
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @param timeout
+	 *            the maximum time to wait for a permit
+	 * @param unit
+	 *            the time unit of the timeout argument
+	 * @return resource pass or null if update pass or RW pass active
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass tryGetPassForUpdate(Object resourceId, long timeout, TimeUnit unit) throws InterruptedException {
+		return admit(limits(resourceId), ads.get(resourceId), PassMode.UPDATE, 1, WaitScheduler.NORM_PRIORITY, true,
+				Math.max(0L, unit.toNanos(timeout)));
+	}
 
-		ads.release(pass.getResourceId());
+	/**
+	 * Requests RO pass for specified resource blocking until one is available, or the thread is interrupted. <br/>
+	 * <br/>
+	 * Multiple RO passes available for each resource but none can't be received while there is active RW pass. <br/>
+	 * Awaits for RW pass return if there is active for specified resource and awaits for any RO pass return if no RO
+	 * passes available for specified resource.
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass getPassL(long resourceId) throws InterruptedException {
+		return acquirePass(limits(resourceId), ads.getL(resourceId));
+	}
+
+	/**
+	 * Requests RO pass for specified resource blocking until one is available. <br/>
+	 * <br/>
+	 * Multiple RO passes available for each resource but none can't be received while there is active RW pass. <br/>
+	 * Awaits for RW pass return if there is active for specified resource and awaits for any RO pass return if no RO
+	 * passes available for specified resource.
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @return resource pass
+	 */
+	@Override
+	public Pass getPassUninterruptiblyL(long resourceId) {
+		return acquirePassUninterruptibly(limits(resourceId), ads.getL(resourceId));
+	}
+
+	/**
+	 * Requests RO pass for specified resource, returns pass only if one is available at the time of invocation. <br/>
+	 * <br/>
+	 * Multiple RO passes available for each resource but none can't be received while there is active RW pass. <br/>
+	 * Returns pass if there is at least one available RO pass and there is no active RW pass for specified resource at
+	 * the time of invocation.
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @return resource pass or null if no RO passes available or RW pass active
+	 */
+	@Override
+	public Pass tryGetPassL(long resourceId) {
+		return tryAcquirePass(limits(resourceId), ads.getL(resourceId));
+	}
 
+	/**
+	 * Requests RO pass for specified resource, returns pass if one becomes available within the given waiting time and
+	 * the current thread has not been interrupted. <br/>
+	 * <br/>
+	 * Multiple RO passes available for each resource but none can't be received while there is active RW pass. <br/>
+	 * Returns pass if there is at least one available RO pass and there is no active RW pass for specified resource at
+	 * the time of invocation.
+	 * <br/>
+	 * <br/>
+	 * Timeout is a single deadline for both per resource and global passes limit. <br/>
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @return resource pass or null if no RO passes available or RW pass active
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass tryGetPassL(long resourceId, long timeout, TimeUnit unit) throws InterruptedException {
+		return tryAcquirePass(limits(resourceId), ads.getL(resourceId), timeout, unit);
+	}
+
+	/**
+	 * Requests RW pass for specified resource blocking until one is available, or the thread is interrupted. <br/>
+	 * <br/>
+	 * Single RW pass available for each resource and it can't be received while there are active RO passes. <br/>
+	 * Awaits for all RO and RW pass return if there are active for specified resource.
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass getPassRWL(long resourceId) throws InterruptedException {
+		return acquirePassRW(limits(resourceId), ads.getL(resourceId));
+	}
+
+	/**
+	 * Requests RW pass for specified resource blocking until one is available. <br/>
+	 * <br/>
+	 * Single RW pass available for each resource and it can't be received while there are active RO passes. <br/>
+	 * Awaits for all RO and RW pass return if there are active for specified resource.
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @return resource pass
+	 */
+	@Override
+	public Pass getPassRWUninterruptiblyL(long resourceId) {
+		return acquirePassRWUninterruptibly(limits(resourceId), ads.getL(resourceId));
+	}
+
+	/**
+	 * Requests RW pass for specified resource, returns pass only if one is available at the time of invocation. <br/>
+	 * <br/>
+	 * Single RW pass available for each resource and it can't be received while there are active RO passes. <br/>
+	 * Returns pass if no active RO and RW passes for specified resource at the time of invocation.
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @return resource pass or null if no passes available
+	 */
+	@Override
+	public Pass tryGetPassRWL(long resourceId) {
+		return tryAcquirePassRW(limits(resourceId), ads.getL(resourceId));
+	}
+
+	/**
+	 * Requests RW pass for specified resource, returns pass if one becomes available within the given waiting time and
+	 * the current thread has not been interrupted. <br/>
+	 * <br/>
+	 * Single RW pass available for each resource and it can't be received while there are active RO passes. <br/>
+	 * Returns pass if no active RO and RW passes for specified resource at the time of invocation.
+	 * <br/>
+	 * <br/>
+	 * Timeout is a single deadline for both per resource and global passes limit. <br/>
+	 * 
+	 * @param resourceId
+	 *            unique primitive resource identifier
+	 * @param timeout
+	 *            the maximum time to wait for a permit
+	 * @param unit
+	 *            the time unit of the timeout argument
+	 * @return resource pass or null if no passes available
+	 * @throws InterruptedException
+	 */
+	@Override
+	public Pass tryGetPassRWL(long resourceId, long timeout, TimeUnit unit) throws InterruptedException {
+		return tryAcquirePassRW(limits(resourceId), ads.getL(resourceId), timeout, unit);
+	}
+
+	/**
+	 * Requests passes for several resources at once blocking until all are available, or the thread is interrupted.
+	 * <br/>
+	 * <br/>
+	 * Resources are acquired in the canonical order, see getPasses(Collection, PassMode) in ICheckpoint.
+	 * 
+	 * @param resourceIds
+	 *            unique resource identifiers
+	 * @param mode
+	 *            access mode for all resources
+	 * @return composite pass
+	 * @throws InterruptedException
+	 */
+	@Override
+	public MultiPass getPasses(Collection<?> resourceIds, PassMode mode) throws InterruptedException {
+		return admitAll(limits(resourceIds), resourceData(resourceIds), mode, true, -1L);
+	}
+
+	/**
+	 * Requests passes for several resources at once blocking until all are available. <br/>
+	 * <br/>
+	 * Resources are acquired in the canonical order, see getPasses(Collection, PassMode) in ICheckpoint.
+	 * 
+	 * @param resourceIds
+	 *            unique resource identifiers
+	 * @param mode
+	 *            access mode for all resources
+	 * @return composite pass
+	 */
+	@Override
+	public MultiPass getPassesUninterruptibly(Collection<?> resourceIds, PassMode mode) {
+		try {
+			return admitAll(limits(resourceIds), resourceData(resourceIds), mode, false, -1L);
+		} catch (InterruptedException e) {
+			// never thrown in uninterruptible mode
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Requests passes for several resources at once, returns composite pass only if passes for all resources are
+	 * available at the time of invocation.
+	 * 
+	 * @param resourceIds
+	 *            unique resource identifiers
+	 * @param mode
+	 *            access mode for all resources
+	 * @return composite pass or null if pass for any resource is not available
+	 */
+	@Override
+	public MultiPass tryGetPasses(Collection<?> resourceIds, PassMode mode) {
+		try {
+			return admitAll(limits(resourceIds), resourceData(resourceIds), mode, false, 0L);
+		} catch (InterruptedException e) {
+			// never thrown when passes are requested without waiting
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Requests passes for several resources at once, returns composite pass if passes for all resources become
+	 * available within the given waiting time and the current thread has not been interrupted.
+	 * <br/>
+	 * <br/>
+	 * Timeout is a single deadline for all resources and global passes limit. <br/>
+	 * 
+	 * @param resourceIds
+	 *            unique resource identifiers
+	 * @param mode
+	 *            access mode for all resources
+	 * @return composite pass or null if passes are not available
+	 * @throws InterruptedException
+	 */
+	@Override
+	public MultiPass tryGetPasses(Collection<?> resourceIds, PassMode mode, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return admitAll(limits(resourceIds), resourceData(resourceIds), mode, true,
+				Math.max(0L, unit.toNanos(timeout)));
+	}
+
+	/**
+	 * Requests RO pass for specified resource without blocking the calling thread.
+	 * <br/>
+	 * <br/>
+	 * Returned future is completed by the thread which returns the pass. Waiting applicant takes a small queue node
+	 * instead of a parked thread. Resource pass is never held while applicant waits for the global passes limit.
+	 * Cancel the future to withdraw the request.
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @return future completed with the resource pass
+	 */
+	@Override
+	public CompletableFuture<Pass> acquireAsync(Object resourceId) {
+		return admitAsync(limits(resourceId), ads.get(resourceId), true);
+	}
+
+	/**
+	 * Requests RW pass for specified resource without blocking the calling thread, see acquireAsync(Object).
+	 * 
+	 * @param resourceId
+	 *            unique resource identifier
+	 * @return future completed with the resource pass
+	 */
+	@Override
+	public CompletableFuture<Pass> acquireRWAsync(Object resourceId) {
+		return admitAsync(limits(resourceId), ads.get(resourceId), false);
+	}
+
+	/**
+	 * Requests pass from the given resource data, see getPass(Object).
+	 */
+	protected Pass acquirePass(PassLimit[] limits, AResourceData ad) throws InterruptedException {
+		return admit(limits, ad, true, true, -1L);
+	}
+
+	/**
+	 * Requests pass from the given resource data, see getPassUninterruptibly(Object).
+	 */
+	protected Pass acquirePassUninterruptibly(PassLimit[] limits, AResourceData ad) {
+		return admitUninterruptibly(limits, ad, true);
+	}
+
+	/**
+	 * Requests pass from the given resource data, see tryGetPass(Object).
+	 */
+	protected Pass tryAcquirePass(PassLimit[] limits, AResourceData ad) {
+		return tryAdmit(limits, ad, true);
+	}
+
+	/**
+	 * Requests pass from the given resource data, see tryGetPass(Object, long, TimeUnit).
+	 */
+	protected Pass tryAcquirePass(PassLimit[] limits, AResourceData ad, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return admit(limits, ad, true, true, Math.max(0L, unit.toNanos(timeout)));
+	}
+
+	/**
+	 * Requests pass from the given resource data, see getPassRW(Object).
+	 */
+	protected Pass acquirePassRW(PassLimit[] limits, AResourceData ad) throws InterruptedException {
+		return admit(limits, ad, false, true, -1L);
+	}
+
+	/**
+	 * Requests pass from the given resource data, see getPassRWUninterruptibly(Object).
+	 */
+	protected Pass acquirePassRWUninterruptibly(PassLimit[] limits, AResourceData ad) {
+		return admitUninterruptibly(limits, ad, false);
+	}
+
+	/**
+	 * Requests pass from the given resource data, see tryGetPassRW(Object).
+	 */
+	protected Pass tryAcquirePassRW(PassLimit[] limits, AResourceData ad) {
+		return tryAdmit(limits, ad, false);
+	}
+
+	/**
+	 * Requests pass from the given resource data, see tryGetPassRW(Object, long, TimeUnit).
+	 */
+	protected Pass tryAcquirePassRW(PassLimit[] limits, AResourceData ad, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return admit(limits, ad, false, true, Math.max(0L, unit.toNanos(timeout)));
+	}
+
+	/**
+	 * Takes per resource pass and group and global permits together.
+	 * <br/>
+	 * <br/>
+	 * Applicant never blocks on one limit while holding the other: it waits for the resource pass holding nothing,
+	 * then tries to take group and global permits without waiting. If any of them is exhausted the resource pass and
+	 * taken permits are returned at once and applicant waits for the exhausted limit, then tries to take the rest
+	 * without waiting, and so on until all are taken or deadline passes.
+	 * <br/>
+	 * <br/>
+	 * Releases resource data reference if pass is not granted. Granted pass keeps the shared limits, so they are
+	 * returned without evaluating the group policy again.
+	 * 
+	 * @param limits
+	 *            shared limits of the requested resource id, see limits(Object)
+	 * @param ad
+	 * @param isRO
+	 * @param interruptible
+	 * @param nanosTimeout
+	 *            -1 to wait without timeout, 0 to try once without waiting
+	 * @return pass or null if timed out
+	 * @throws InterruptedException
+	 */
+	protected Pass admit(PassLimit[] limits, AResourceData ad, boolean isRO, boolean interruptible, long nanosTimeout)
+			throws InterruptedException {
+		return admit(limits, ad, isRO, 1, interruptible, nanosTimeout);
+	}
+
+	/**
+	 * Takes weighted per resource pass and the same number of global permits together, see admit(PassLimit[],
+	 * AResourceData, boolean, boolean, long).
+	 * 
+	 * @param limits
+	 * @param ad
+	 * @param isRO
+	 * @param weight
+	 *            number of units, 1 for RW pass
+	 * @param interruptible
+	 * @param nanosTimeout
+	 *            -1 to wait without timeout, 0 to try once without waiting
+	 * @return pass or null if timed out
+	 * @throws InterruptedException
+	 */
+	protected Pass admit(PassLimit[] limits, AResourceData ad, boolean isRO, int weight, boolean interruptible,
+			long nanosTimeout) throws InterruptedException {
+		return admit(limits, ad, isRO, weight, WaitScheduler.NORM_PRIORITY, interruptible, nanosTimeout);
+	}
+
+	/**
+	 * Takes weighted per resource pass with the given wait priority and the same number of global permits together,
+	 * see admit(PassLimit[], AResourceData, boolean, boolean, long).
+	 * 
+	 * @param limits
+	 * @param ad
+	 * @param isRO
+	 * @param weight
+	 *            number of units, 1 for RW pass
+	 * @param priority
+	 *            priority of the applicant while it waits for the resource
+	 * @param interruptible
+	 * @param nanosTimeout
+	 *            -1 to wait without timeout, 0 to try once without waiting
+	 * @return pass or null if timed out
+	 * @throws InterruptedException
+	 */
+	protected Pass admit(PassLimit[] limits, AResourceData ad, boolean isRO, int weight, int priority,
+			boolean interruptible, long nanosTimeout) throws InterruptedException {
+		return admit(limits, ad, isRO ? PassMode.RO : PassMode.RW, weight, priority, interruptible, nanosTimeout);
+	}
+
+	/**
+	 * Takes per resource pass of the given mode and global permits together, see admit(PassLimit[], AResourceData,
+	 * boolean, int, int, boolean, long).
+	 * 
+	 * @param limits
+	 * @param ad
+	 * @param mode
+	 * @param weight
+	 *            number of units, 1 for RW and update pass
+	 * @param priority
+	 *            priority of the applicant while it waits for the resource, ignored for update pass
+	 * @param interruptible
+	 * @param nanosTimeout
+	 *            -1 to wait without timeout, 0 to try once without waiting
+	 * @return pass or null if timed out
+	 * @throws InterruptedException
+	 */
+	protected Pass admit(PassLimit[] limits, AResourceData ad, PassMode mode, int weight, int priority,
+			boolean interruptible, long nanosTimeout) throws InterruptedException {
+		final long deadline = nanosTimeout > 0L ? System.nanoTime() + nanosTimeout : 0L;
+		Pass pass = null;
+		try {
+			if ( limits.length == 0 ) {
+				return pass = resourcePass(ad, mode, weight, priority, interruptible, nanosTimeout);
+			}
+			checkWeight(limits, weight);
+			for (;;) {
+				pass = resourcePass(ad, mode, weight, priority, interruptible, remaining(nanosTimeout, deadline));
+				if ( pass == null ) {
+					return null;
+				}
+				PassLimit busy = tryPermits(limits, weight, null);
+				if ( busy == null ) {
+					return pass;
+				}
+				ad.rollbackPass(pass);
+				pass = null;
+
+				if ( !busy.acquirePermits(weight, interruptible, remaining(nanosTimeout, deadline)) ) {
+					return null;
+				}
+				if ( tryPermits(limits, weight, busy) == null ) {
+					pass = resourcePass(ad, mode, weight, WaitScheduler.NORM_PRIORITY, interruptible, 0L);
+					if ( pass != null ) {
+						return pass;
+					}
+					releasePermits(limits, weight, limits.length, busy);
+				}
+				busy.releasePermits(weight);
+
+				if ( nanosTimeout >= 0L && remaining(nanosTimeout, deadline) == 0L ) {
+					return null;
+				}
+			}
+		} finally {
+			if ( pass == null ) {
+				ads.release(ad.getResourceId());
+			} else if ( groupPolicy != null ) {
+				pass.limits = limits;
+			}
+		}
+	}
+
+	/**
+	 * Retrieves resource data for the distinct resources and sorts them in the canonical order.
+	 * <br/>
+	 * <br/>
+	 * Resource ids which refer to the same resource data are merged, storage references taken for the merged ids
+	 * are released at once.
+	 * 
+	 * @param resourceIds
+	 * @return
+	 */
+	protected AResourceData[] resourceData(Collection<?> resourceIds) {
+		if ( resourceIds.isEmpty() ) {
+			throw new IllegalArgumentException("No resource ids");
+		}
+		Set<AResourceData> data = new LinkedHashSet<AResourceData>();
+		try {
+			for (Object resourceId : resourceIds) {
+				AResourceData ad = ads.get(resourceId);
+				if ( !data.add(ad) ) {
+					ads.release(ad.getResourceId());
+				}
+			}
+		} catch (RuntimeException e) {
+			for (AResourceData ad : data) {
+				ads.release(ad.getResourceId());
+			}
+			throw e;
+		}
+		AResourceData[] sorted = data.toArray(new AResourceData[data.size()]);
+		Arrays.sort(sorted, CANONICAL_ORDER);
+		return sorted;
+	}
+
+	/**
+	 * Orders resource data by resource id hash code, then by natural order of comparable resource ids of the same
+	 * class, then by class name and string representation, then by identity hash code and lock order of the resource
+	 * data, so distinct resources are never equal.
+	 */
+	protected static final Comparator<AResourceData> CANONICAL_ORDER = new Comparator<AResourceData>() {
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		@Override
+		public int compare(AResourceData ad1, AResourceData ad2) {
+			Object id1 = ad1.getResourceId();
+			Object id2 = ad2.getResourceId();
+			int c = Integer.compare(id1.hashCode(), id2.hashCode());
+			if ( c != 0 ) {
+				return c;
+			}
+			if ( id1.getClass() == id2.getClass() ) {
+				if ( id1 instanceof Comparable ) {
+					return ((Comparable) id1).compareTo(id2);
+				}
+			} else {
+				c = id1.getClass().getName().compareTo(id2.getClass().getName());
+				if ( c != 0 ) {
+					return c;
+				}
+			}
+			c = id1.toString().compareTo(id2.toString());
+			if ( c != 0 || ad1 == ad2 ) {
+				return c;
+			}
+			c = Integer.compare(System.identityHashCode(ad1), System.identityHashCode(ad2));
+			if ( c != 0 ) {
+				return c;
+			}
+			return Long.compare(ad1.getLockOrder(), ad2.getLockOrder());
+		}
+	};
+
+	/**
+	 * Takes passes for all given resources, a single permit of every distinct group of the resources and a single
+	 * global permit, see admit().
+	 * <br/>
+	 * <br/>
+	 * Releases resource data references if passes are not granted.
+	 * 
+	 * @param limits
+	 * @param data
+	 *            distinct resource data in the canonical order
+	 * @param mode
+	 * @param interruptible
+	 * @param nanosTimeout
+	 *            -1 to wait without timeout, 0 to try once without waiting
+	 * @return composite pass or null if timed out
+	 * @throws InterruptedException
+	 */
+	protected MultiPass admitAll(PassLimit[] limits, AResourceData[] data, PassMode mode, boolean interruptible,
+			long nanosTimeout) throws InterruptedException {
+		if ( mode == PassMode.UPDATE ) {
+			throw new IllegalArgumentException("Update passes can't be requested for several resources");
+		}
+		final long deadline = nanosTimeout > 0L ? System.nanoTime() + nanosTimeout : 0L;
+		final boolean isRO = mode.isReadOnly();
+		Pass[] passes = null;
+		try {
+			for (;;) {
+				passes = resourcePasses(data, isRO, interruptible, remaining(nanosTimeout, deadline));
+				if ( passes == null ) {
+					return null;
+				}
+				PassLimit busy = tryPermits(limits, 1, null);
+				if ( busy == null ) {
+					return multiPass(limits, isRO, passes);
+				}
+				returnResourcePasses(data, passes);
+				passes = null;
+
+				if ( !busy.acquirePermit(interruptible, remaining(nanosTimeout, deadline)) ) {
+					return null;
+				}
+				if ( tryPermits(limits, 1, busy) == null ) {
+					passes = resourcePasses(data, isRO, interruptible, 0L);
+					if ( passes != null ) {
+						return multiPass(limits, isRO, passes);
+					}
+					releasePermits(limits, 1, limits.length, busy);
+				}
+				busy.releasePermit();
+
+				if ( nanosTimeout >= 0L && remaining(nanosTimeout, deadline) == 0L ) {
+					return null;
+				}
+			}
+		} finally {
+			if ( passes == null ) {
+				for (AResourceData ad : data) {
+					ads.release(ad.getResourceId());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates composite pass which keeps the shared limits it has taken.
+	 */
+	MultiPass multiPass(PassLimit[] limits, boolean isRO, Pass[] passes) {
+		MultiPass multiPass = new MultiPass(this, isRO, passes);
+		if ( groupPolicy != null ) {
+			multiPass.limits = limits;
+		}
+		return multiPass;
+	}
+
+	/**
+	 * Takes passes for all given resources.
+	 * <br/>
+	 * <br/>
+	 * Without timeout waits for the resources one by one in the canonical order. With timeout never waits while
+	 * holding passes: waits for the busy resource, then tries to take the rest without waiting and returns all taken
+	 * passes if any resource is busy.
+	 * 
+	 * @return passes or null if timed out, no passes are held if null is returned
+	 * @throws InterruptedException
+	 */
+	Pass[] resourcePasses(AResourceData[] data, boolean isRO, boolean interruptible, long nanosTimeout)
+			throws InterruptedException {
+		final long deadline = nanosTimeout > 0L ? System.nanoTime() + nanosTimeout : 0L;
+		final Pass[] passes = new Pass[data.length];
+		boolean granted = false;
+		try {
+			if ( nanosTimeout < 0L ) {
+				for (int i = 0; i < data.length; i++) {
+					passes[i] = resourcePass(data[i], isRO, interruptible, -1L);
+				}
+				granted = true;
+				return passes;
+			}
+			int busy = -1;
+			for (;;) {
+				if ( busy >= 0 ) {
+					passes[busy] = resourcePass(data[busy], isRO, interruptible, remaining(nanosTimeout, deadline));
+					if ( passes[busy] == null ) {
+						return null;
+					}
+				}
+				busy = -1;
+				for (int i = 0; i < data.length; i++) {
+					if ( passes[i] == null && (passes[i] = resourcePass(data[i], isRO, false, 0L)) == null ) {
+						busy = i;
+						break;
+					}
+				}
+				if ( busy < 0 ) {
+					granted = true;
+					return passes;
+				}
+				returnResourcePasses(data, passes);
+				if ( remaining(nanosTimeout, deadline) == 0L ) {
+					return null;
+				}
+			}
+		} finally {
+			if ( !granted ) {
+				returnResourcePasses(data, passes);
+			}
+		}
+	}
+
+	/**
+	 * Rolls back taken passes to the resource data keeping storage references.
+	 */
+	static void returnResourcePasses(AResourceData[] data, Pass[] passes) {
+		for (int i = 0; i < passes.length; i++) {
+			if ( passes[i] != null ) {
+				data[i].rollbackPass(passes[i]);
+				passes[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * Takes per resource pass and group and global permits without blocking the calling thread, same algorithm as
+	 * admit().
+	 * <br/>
+	 * <br/>
+	 * Releases resource data reference if pass is not granted.
+	 * 
+	 * @param limits
+	 * @param ad
+	 * @param isRO
+	 * @return future completed with the pass
+	 */
+	protected CompletableFuture<Pass> admitAsync(PassLimit[] limits, AResourceData ad, boolean isRO) {
+		CompletableFuture<Pass> result = new CompletableFuture<Pass>();
+		try {
+			admitAsync(limits, ad, isRO, result);
+		} catch (Throwable e) {
+			ads.release(ad.getResourceId());
+			throw e;
+		}
+		return result;
+	}
+
+	void admitAsync(final PassLimit[] limits, final AResourceData ad, final boolean isRO,
+			final CompletableFuture<Pass> result) {
+		CompletableFuture<Pass> resourcePass = isRO ? ad.getPassAsync(this) : ad.getPassRWAsync(this);
+		cancelWith(result, resourcePass);
+		resourcePass.whenComplete((pass, e) -> {
+			final PassLimit busy;
+			if ( e != null ) {
+				failAsync(ad, result, e);
+			} else if ( (busy = tryPermits(limits, 1, null)) == null ) {
+				completeAsync(ad, limits, result, pass);
+			} else {
+				ad.rollbackPass(pass);
+				CompletableFuture<Pass> permit = busy.acquirePermitAsync();
+				cancelWith(result, permit);
+				permit.whenComplete((p, e2) -> {
+					if ( e2 != null ) {
+						failAsync(ad, result, e2);
+						return;
+					}
+					if ( tryPermits(limits, 1, busy) == null ) {
+						Pass pass2 = isRO ? ad.tryGetPass(this) : ad.tryGetPassRW(this);
+						if ( pass2 != null ) {
+							completeAsync(ad, limits, result, pass2);
+							return;
+						}
+						releasePermits(limits, 1, limits.length, busy);
+					}
+					busy.releasePermit();
+					if ( result.isDone() ) {
+						ads.release(ad.getResourceId());
+					} else {
+						admitAsync(limits, ad, isRO, result);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Completes the async request, rolls back the pass and permits if request was cancelled.
+	 */
+	void completeAsync(AResourceData ad, PassLimit[] limits, CompletableFuture<Pass> result, Pass pass) {
+		if ( groupPolicy != null ) {
+			pass.limits = limits;
+		}
+		if ( !result.complete(pass) ) {
+			releasePermits(limits, 1, limits.length, null);
+			ad.rollbackPass(pass);
+			ads.release(ad.getResourceId());
+		}
+	}
+
+	void failAsync(AResourceData ad, CompletableFuture<Pass> result, Throwable e) {
+		ads.release(ad.getResourceId());
+		result.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+	}
+
+	/**
+	 * Withdraws the inner request if the outer request is cancelled.
+	 */
+	static void cancelWith(final CompletableFuture<Pass> outer, final CompletableFuture<Pass> inner) {
+		if ( !inner.isDone() ) {
+			outer.whenComplete((p, e) -> {
+				if ( outer.isCancelled() ) {
+					inner.cancel(false);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Same as admit() without waiting.
+	 */
+	protected Pass tryAdmit(PassLimit[] limits, AResourceData ad, boolean isRO) {
+		return tryAdmit(limits, ad, isRO, 1);
+	}
+
+	/**
+	 * Same as admit() without waiting.
+	 */
+	protected Pass tryAdmit(PassLimit[] limits, AResourceData ad, boolean isRO, int weight) {
+		try {
+			return admit(limits, ad, isRO, weight, false, 0L);
+		} catch (InterruptedException e) {
+			// never thrown when pass is requested without waiting
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Same as admit() ignoring interrupts.
+	 */
+	protected Pass admitUninterruptibly(PassLimit[] limits, AResourceData ad, boolean isRO) {
+		return admitUninterruptibly(limits, ad, isRO, 1);
+	}
+
+	/**
+	 * Same as admit() ignoring interrupts.
+	 */
+	protected Pass admitUninterruptibly(PassLimit[] limits, AResourceData ad, boolean isRO, int weight) {
+		try {
+			return admit(limits, ad, isRO, weight, false, -1L);
+		} catch (InterruptedException e) {
+			// never thrown in uninterruptible mode
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Gets time left to the deadline.
+	 * 
+	 * @return -1 if there is no timeout, 0 if deadline passed
+	 */
+	static long remaining(long nanosTimeout, long deadline) {
+		if ( nanosTimeout <= 0L ) {
+			return nanosTimeout;
+		}
+		return Math.max(0L, deadline - System.nanoTime());
+	}
+
+	Pass resourcePass(AResourceData ad, boolean isRO, boolean interruptible, long nanosTimeout)
+			throws InterruptedException {
+		if ( nanosTimeout == 0L ) {
+			return isRO ? ad.tryGetPass(this) : ad.tryGetPassRW(this);
+		} else if ( nanosTimeout > 0L ) {
+			return isRO ? ad.tryGetPass(this, nanosTimeout, TimeUnit.NANOSECONDS)
+					: ad.tryGetPassRW(this, nanosTimeout, TimeUnit.NANOSECONDS);
+		} else if ( interruptible ) {
+			return isRO ? ad.getPass(this) : ad.getPassRW(this);
+		} else {
+			return isRO ? ad.getPassUninterruptibly(this) : ad.getPassRWUninterruptibly(this);
+		}
+	}
+
+	Pass resourcePass(AResourceData ad, boolean isRO, int weight, boolean interruptible, long nanosTimeout)
+			throws InterruptedException {
+		if ( weight == 1 || !isRO ) {
+			return resourcePass(ad, isRO, interruptible, nanosTimeout);
+		} else if ( nanosTimeout == 0L ) {
+			return ad.tryGetPass(this, weight);
+		} else if ( nanosTimeout > 0L ) {
+			return ad.tryGetPass(this, weight, nanosTimeout, TimeUnit.NANOSECONDS);
+		} else if ( interruptible ) {
+			return ad.getPass(this, weight);
+		} else {
+			return ad.getPassUninterruptibly(this, weight);
+		}
+	}
+
+	Pass resourcePass(AResourceData ad, boolean isRO, int weight, int priority, boolean interruptible,
+			long nanosTimeout) throws InterruptedException {
+		if ( priority == WaitScheduler.NORM_PRIORITY || nanosTimeout == 0L ) {
+			return resourcePass(ad, isRO, weight, interruptible, nanosTimeout);
+		} else if ( nanosTimeout > 0L ) {
+			return isRO ? ad.tryGetPass(this, weight, priority, nanosTimeout, TimeUnit.NANOSECONDS)
+					: ad.tryGetPassRW(this, priority, nanosTimeout, TimeUnit.NANOSECONDS);
+		} else {
+			// prioritized requests are interruptible
+			return isRO ? ad.getPass(this, weight, priority) : ad.getPassRW(this, priority);
+		}
+	}
+
+	Pass resourcePass(AResourceData ad, PassMode mode, int weight, int priority, boolean interruptible,
+			long nanosTimeout) throws InterruptedException {
+		if ( mode != PassMode.UPDATE ) {
+			return resourcePass(ad, mode.isReadOnly(), weight, priority, interruptible, nanosTimeout);
+		} else if ( nanosTimeout == 0L ) {
+			return ad.tryGetPassForUpdate(this);
+		} else if ( nanosTimeout > 0L ) {
+			return ad.tryGetPassForUpdate(this, nanosTimeout, TimeUnit.NANOSECONDS);
+		} else if ( interruptible ) {
+			return ad.getPassForUpdate(this);
+		} else {
+			return ad.getPassForUpdateUninterruptibly(this);
+		}
+	}
+
+	/**
+	 * Gets shared limits taken by the pass of the resource besides its own limit.
+	 * 
+	 * @param resourceId
+	 * @return group limit if resource belongs to a group followed by global limit if set
+	 */
+	protected PassLimit[] limits(Object resourceId) {
+		final Object groupId;
+		if ( groupPolicy == null || (groupId = groupPolicy.getGroupId(resourceId)) == null ) {
+			return defaultLimits;
+		}
+		PassLimit[] limits = groupLimits.get(groupId);
+		if ( limits == null ) {
+			// storage may do I/O to create the limit, so it is not created under the map bin lock, limit of the
+			// racing applicant is dropped
+			PassLimit group = ads.newGroupLimit(groupId, groupPolicy.getGroupLimit(groupId));
+			limits = globalPasses == null ? new PassLimit[] { group } : new PassLimit[] { group, globalPasses };
+			PassLimit[] prev = groupLimits.putIfAbsent(groupId, limits);
+			if ( prev != null ) {
+				limits = prev;
+			}
+		}
+		return limits;
+	}
+
+	/**
+	 * Gets distinct shared limits taken by the composite pass of the resources.
+	 * 
+	 * @param resourceIds
+	 * @return
+	 */
+	protected PassLimit[] limits(Iterable<?> resourceIds) {
+		if ( groupPolicy == null ) {
+			return defaultLimits;
+		}
+		Set<PassLimit> limits = new LinkedHashSet<PassLimit>();
+		for (Object resourceId : resourceIds) {
+			limits.addAll(Arrays.asList(limits(resourceId)));
+		}
+		return limits.toArray(new PassLimit[limits.size()]);
+	}
+
+	/**
+	 * Gets shared limits taken by the pass of the primitive resource id, see limits(Object).
+	 * 
+	 * @param resourceId
+	 * @return
+	 */
+	protected PassLimit[] limits(long resourceId) {
+		// resource id is not boxed unless groups are used
+		return groupPolicy == null ? defaultLimits : limits(Long.valueOf(resourceId));
+	}
+
+	void checkWeight(PassLimit[] limits, int weight) {
+		for (PassLimit limit : limits) {
+			if ( weight > limit.getMaxActivePasses() ) {
+				throw new IllegalArgumentException("Pass weight exceeds "
+						+ (limit == globalPasses ? "global" : limit.getResourceId().toString()) + " passes limit "
+						+ limit.getMaxActivePasses() + ": " + weight);
+			}
+		}
+	}
+
+	/**
+	 * Takes permits of all given limits except the held one without waiting.
+	 * 
+	 * @param limits
+	 * @param weight
+	 * @param held
+	 *            limit which permits are already taken or null
+	 * @return null if permits taken; the first exhausted limit otherwise, no permits of the other limits are kept
+	 */
+	static PassLimit tryPermits(PassLimit[] limits, int weight, PassLimit held) {
+		for (int i = 0; i < limits.length; i++) {
+			if ( limits[i] != held && !limits[i].tryAcquirePermits(weight) ) {
+				releasePermits(limits, weight, i, held);
+				return limits[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns permits of the first given number of limits except the held one.
+	 */
+	static void releasePermits(PassLimit[] limits, int weight, int count, PassLimit held) {
+		for (int i = 0; i < count; i++) {
+			if ( limits[i] != held ) {
+				limits[i].releasePermits(weight);
+			}
+		}
+	}
+
+	/**
+	 * Gets storage of the resource data of this checkpoint.
+	 * 
+	 * @return
+	 */
+	public AResourceDataStorage getResourceDataStorage() {
+		return ads;
+	}
+
+	/**
+	 * Gets number of permits of the group passes limit taken at the moment.
+	 * 
+	 * @param groupId
+	 * @return number of permits or 0 if group was never requested
+	 */
+	public int getGroupActivePasses(Object groupId) {
+		PassLimit[] limits = groupLimits.get(groupId);
+		return limits == null ? 0 : limits[0].getActivePermits();
+	}
+
+	@Override
+	protected void returnPass(Pass pass) {
+		PassLimit[] limits = groupPolicy == null ? defaultLimits : pass.limits;
+		releasePermits(limits, pass.getWeight(), limits.length, null);
+
+		returnResourcePass(pass);
+	}
+
+	@Override
+	protected void returnPasses(MultiPass multiPass) {
+		PassLimit[] limits = groupPolicy == null ? defaultLimits : multiPass.limits;
+		releasePermits(limits, 1, limits.length, null);
+
+		for (Pass pass : multiPass.passes) {
+			returnResourcePass(pass);
+		}
+	}
+
+	/**
+	 * Returns pass to the resource data which granted it and releases resource data reference taken on pass
+	 * request.
+	 * 
+	 * @param pass
+	 */
+	protected void returnResourcePass(Pass pass) {
+		AResourceData ad = pass.getResourceData();
+		if ( ad == null ) {
+			ad = ads.get(pass.getResourceId());
+			ads.release(pass.getResourceId());
+		}
+		ad.returnPass(pass);
+
+		ads.release(pass.getResourceId());
 	}
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.cluster;
+
+import zur13.checkpoint.cluster.DistributedCheckpoint.Lease;
+
+/**
+ * Pass for the resource granted by DistributedCheckpoint from the permits leased by the local node.
+ * <br/>
+ * <br/>
+ * Cluster pass is not a Pass of ICheckpoint and can't be upgraded or downgraded: upgrade would need to recall the
+ * permits from the other nodes while holding one.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.cluster.DistributedCheckpoint
+ */
+public class ClusterPass implements AutoCloseable {
+	protected final Object resourceId;
+	protected final boolean isReadOnly;
+	protected final DistributedCheckpoint distributedCheckpoint;
+	protected final Lease lease;
+	/* number of the leased permits taken, all the permits of the resource for RW pass */
+	protected final int permits;
+
+	ClusterPass(DistributedCheckpoint checkpoint, Object resourceId, boolean isRO, Lease lease, int permits) {
+		this.resourceId = resourceId;
+		this.isReadOnly = isRO;
+		this.distributedCheckpoint = checkpoint;
+		this.lease = lease;
+		this.permits = permits;
+	}
+
+	/**
+	 * Gets checkpoint which granted this pass.
+	 * 
+	 * @return
+	 */
+	public DistributedCheckpoint getDistributedCheckpoint() {
+		return this.distributedCheckpoint;
+	}
+
+	public Object getResourceId() {
+		return this.resourceId;
+	}
+
+	/**
+	 * Checks if the pass has RO access.
+	 * 
+	 * @return true if RO; false if RW
+	 */
+	public boolean isReadOnly() {
+		return this.isReadOnly;
+	}
+
+	/**
+	 * Notifies checkpoint that applicant leaves restricted section.
+	 */
+	@Override
+	public void close() {
+		distributedCheckpoint.returnPass(this);
+	}
+
+	@Override
+	public String toString() {
+		return "ClusterPass [resourceId=" + this.resourceId + ", node=" + distributedCheckpoint.getNode()
+				+ ", isReadOnly=" + this.isReadOnly + "]";
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.cluster;
+
+/**
+ * Transport of the permit leasing messages between the nodes of the cluster, every node has its own transport
+ * instance. <br/>
+ * <br/>
+ * Transport delivers calls of the LeaseService to the remote node synchronously and throws NodeUnavailableException
+ * when the node can't be reached. Calls to the local node never go through the transport.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.cluster.InMemoryNetwork
+ */
+public interface ClusterTransport {
+
+	/**
+	 * Gets id of the local node.
+	 * 
+	 * @return
+	 */
+	String getNode();
+
+	/**
+	 * Starts serving requests of the remote nodes to the local node by the service.
+	 * 
+	 * @param service
+	 *            leasing service of the local node
+	 * @throws IllegalStateException
+	 *             if another service is already bound
+	 */
+	void bind(LeaseService service);
+
+	/**
+	 * Stops serving requests of the remote nodes, they fail with NodeUnavailableException.
+	 */
+	void unbind();
+
+	/**
+	 * Gets proxy of the leasing service of the remote node.
+	 * 
+	 * @param node
+	 *            id of the remote node
+	 * @return proxy which throws NodeUnavailableException from every call when the node can't be reached
+	 */
+	LeaseService connect(String node);
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.cluster;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of the resource ids to the nodes of the cluster. <br/>
+ * <br/>
+ * Every node is placed on the ring at the given number of virtual points, resource is owned by the node of the
+ * first point following the hash of the resource id. Adding or removing the node moves only about 1/N of the
+ * resources. The ring is immutable and safe for concurrent use.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ */
+public class ConsistentHashRing {
+	public static final int DEFAULT_VIRTUAL_NODES = 64;
+
+	protected final TreeMap<Integer, String> ring = new TreeMap<Integer, String>();
+	protected final Set<String> nodes;
+
+	public ConsistentHashRing(Collection<String> nodes) {
+		this(nodes, DEFAULT_VIRTUAL_NODES);
+	}
+
+	/**
+	 * Instantiate ring.
+	 * 
+	 * @param nodes
+	 *            ids of the cluster nodes
+	 * @param virtualNodes
+	 *            number of the points of every node on the ring, more points give more even distribution
+	 */
+	public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+		if ( nodes.isEmpty() ) {
+			throw new IllegalArgumentException("Cluster has no nodes");
+		}
+		if ( virtualNodes < 1 ) {
+			throw new IllegalArgumentException("Number of virtual nodes must be positive: " + virtualNodes);
+		}
+		this.nodes = Collections.unmodifiableSet(new LinkedHashSet<String>(nodes));
+		for (String node : this.nodes) {
+			for (int i = 0; i < virtualNodes; i++) {
+				// on collision of the points the smallest node id wins, so all the nodes build the same ring
+				Integer point = mix((node + "#" + i).hashCode());
+				String prev = ring.get(point);
+				if ( prev == null || prev.compareTo(node) > 0 ) {
+					ring.put(point, node);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets id of the node owning the resource.
+	 * 
+	 * @param resourceId
+	 * @return
+	 */
+	public String getOwner(Object resourceId) {
+		Map.Entry<Integer, String> e = ring.ceilingEntry(mix(resourceId.hashCode()));
+		if ( e == null ) {
+			e = ring.firstEntry();
+		}
+		return e.getValue();
+	}
+
+	/**
+	 * Gets ids of the cluster nodes.
+	 * 
+	 * @return
+	 */
+	public Set<String> getNodes() {
+		return this.nodes;
+	}
+
+	/**
+	 * Spreads hash codes over the ring, similar hash codes of the sequential ids would land on the same node.
+	 */
+	protected static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return "ConsistentHashRing [nodes=" + nodes + ", points=" + ring.size() + "]";
+	}
+}
@@ -0,0 +1,681 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Checkpoint enforcing the per resource passes limit across all the nodes of the cluster. <br/>
+ * <br/>
+ * Resource ids are partitioned across the nodes by the consistent hashing, node owning the resource keeps the
+ * authoritative number of its free permits. Other nodes lease blocks of permits from the owner and grant passes from
+ * them locally, leased permits stay cached on the node after the passes are returned, so most acquisitions never
+ * leave the process. When the owner can't satisfy a request it recalls unused permits from the other nodes. <br/>
+ * <br/>
+ * RO pass takes one permit of the resource, RW pass takes all of them and so excludes any other pass on every node.
+ * Applicant which can't get the permits retries with exponential backoff, it is woken earlier when a local pass of
+ * the resource is returned. Waiting applicants are not queued fairly across the nodes, but RW applicant which can't
+ * get the permits reserves the resource at the owner: while it retries, RO leases of the resource are refused and
+ * nodes which permits were recalled stop granting RO passes from the cached ones, so RO passes of the other nodes
+ * can't starve it. Reservation expires unless it is renewed by the retries within RESERVATION_NANOS, so RW
+ * applicant which gave up holds the RO applicants back for a short time only. <br/>
+ * <br/>
+ * Leases have no expiry: permits leased by the node which crashed or was partitioned away stay taken until it
+ * returns them, cluster membership is fixed for the lifetime of the ring. <br/>
+ * <br/>
+ * WARN: Distributed checkpoint is not an ICheckpoint and its passes are not Pass instances, they support neither
+ * upgrades nor the per resource policies of the local checkpoints.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.cluster.ClusterTransport
+ */
+public class DistributedCheckpoint implements AutoCloseable {
+	public static final int DEFAULT_LEASE_BLOCK = 4;
+	protected static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(100L);
+	protected static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(20L);
+	/* time the resource stays reserved for RW applicant after its last failed lease request */
+	protected static final long RESERVATION_NANOS = 4 * MAX_BACKOFF_NANOS;
+
+	protected final String node;
+	protected final ClusterTransport transport;
+	protected final ConsistentHashRing ring;
+	protected final int maxPassesPerResource;
+	/* number of permits leased at once for RO passes and kept cached when the passes are returned */
+	protected final int leaseBlock;
+	protected final LeaseService service = new Service();
+	/* free permits of the resources owned by this node, resources without leased permits have no entry */
+	protected final ConcurrentHashMap<Object, Grant> grants = new ConcurrentHashMap<Object, Grant>();
+	/* permits leased by this node */
+	protected final ConcurrentHashMap<Object, Lease> leases = new ConcurrentHashMap<Object, Lease>();
+
+	public DistributedCheckpoint(ClusterTransport transport, ConsistentHashRing ring, int maxPassesPerResource) {
+		this(transport, ring, maxPassesPerResource, DEFAULT_LEASE_BLOCK);
+	}
+
+	/**
+	 * Instantiate checkpoint of the local node and bind its leasing service to the transport.
+	 * 
+	 * @param transport
+	 *            transport of the local node
+	 * @param ring
+	 *            partitioning of the resources, must be the same on all the nodes
+	 * @param maxPassesPerResource
+	 *            max number of RO passes of the resource active on all the nodes together
+	 * @param leaseBlock
+	 *            number of permits leased at once, bigger blocks save messages but keep more permits idle
+	 */
+	public DistributedCheckpoint(ClusterTransport transport, ConsistentHashRing ring, int maxPassesPerResource,
+			int leaseBlock) {
+		if ( !ring.getNodes().contains(transport.getNode()) ) {
+			throw new IllegalArgumentException("Node " + transport.getNode() + " is not in the ring " + ring);
+		}
+		if ( maxPassesPerResource < 1 || leaseBlock < 1 ) {
+			throw new IllegalArgumentException(
+					"Invalid limits: maxPassesPerResource=" + maxPassesPerResource + ", leaseBlock=" + leaseBlock);
+		}
+		this.node = transport.getNode();
+		this.transport = transport;
+		this.ring = ring;
+		this.maxPassesPerResource = maxPassesPerResource;
+		this.leaseBlock = Math.min(leaseBlock, maxPassesPerResource);
+		transport.bind(service);
+	}
+
+	/**
+	 * Requests RO pass for the resource, waiting if necessary until it is available.
+	 * 
+	 * @param resourceId
+	 *            id of the resource
+	 * @return resource pass
+	 * @throws InterruptedException
+	 * @throws NodeUnavailableException
+	 *             if the node owning the resource can't be reached
+	 */
+	public ClusterPass getPass(Object resourceId) throws InterruptedException {
+		return acquire(resourceId, true, true, -1L);
+	}
+
+	/**
+	 * Requests RO pass for the resource, waiting uninterruptibly if necessary until it is available.
+	 * 
+	 * @param resourceId
+	 *            id of the resource
+	 * @return resource pass
+	 * @throws NodeUnavailableException
+	 *             if the node owning the resource can't be reached
+	 */
+	public ClusterPass getPassUninterruptibly(Object resourceId) {
+		try {
+			return acquire(resourceId, true, false, -1L);
+		} catch (InterruptedException e) {
+			// never thrown in uninterruptible mode
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Requests RO pass for the resource, returns pass only if it is available at the time of invocation. Permits may
+	 * still be leased from the owner node.
+	 * 
+	 * @param resourceId
+	 *            id of the resource
+	 * @return resource pass or null if all the permits of the resource are used
+	 * @throws NodeUnavailableException
+	 *             if the node owning the resource can't be reached
+	 */
+	public ClusterPass tryGetPass(Object resourceId) {
+		try {
+			return acquire(resourceId, true, false, 0L);
+		} catch (InterruptedException e) {
+			// never thrown without waiting
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Requests RO pass for the resource, waiting up to the specified wait time.
+	 * 
+	 * @param resourceId
+	 *            id of the resource
+	 * @param timeout
+	 *            the maximum time to wait for the pass
+	 * @param unit
+	 *            the time unit of the timeout argument
+	 * @return resource pass or null if the waiting time elapsed before the pass was granted
+	 * @throws InterruptedException
+	 * @throws NodeUnavailableException
+	 *             if the node owning the resource can't be reached
+	 */
+	public ClusterPass tryGetPass(Object resourceId, long timeout, TimeUnit unit) throws InterruptedException {
+		return acquire(resourceId, true, true, Math.max(0L, unit.toNanos(timeout)));
+	}
+
+	/**
+	 * Requests RW pass for the resource, waiting if necessary until all RO passes of the resource are returned on
+	 * every node.
+	 * 
+	 * @param resourceId
+	 *            id of the resource
+	 * @return resource pass
+	 * @throws InterruptedException
+	 * @throws NodeUnavailableException
+	 *             if the node owning the resource can't be reached
+	 */
+	public ClusterPass getPassRW(Object resourceId) throws InterruptedException {
+		return acquire(resourceId, false, true, -1L);
+	}
+
+	/**
+	 * Requests RW pass for the resource, returns pass only if it is available at the time of invocation.
+	 * 
+	 * @param resourceId
+	 *            id of the resource
+	 * @return resource pass or null if any pass of the resource is active
+	 * @throws NodeUnavailableException
+	 *             if the node owning the resource can't be reached
+	 */
+	public ClusterPass tryGetPassRW(Object resourceId) {
+		try {
+			return acquire(resourceId, false, false, 0L);
+		} catch (InterruptedException e) {
+			// never thrown without waiting
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Requests RW pass for the resource, waiting up to the specified wait time.
+	 * 
+	 * @param resourceId
+	 *            id of the resource
+	 * @param timeout
+	 *            the maximum time to wait for the pass
+	 * @param unit
+	 *            the time unit of the timeout argument
+	 * @return resource pass or null if the waiting time elapsed before the pass was granted
+	 * @throws InterruptedException
+	 * @throws NodeUnavailableException
+	 *             if the node owning the resource can't be reached
+	 */
+	public ClusterPass tryGetPassRW(Object resourceId, long timeout, TimeUnit unit) throws InterruptedException {
+		return acquire(resourceId, false, true, Math.max(0L, unit.toNanos(timeout)));
+	}
+
+	/**
+	 * Returns the pass, its permits stay leased by this node up to the lease block and the rest is returned to the
+	 * owner unless other local applicants wait for the resource.
+	 * 
+	 * @param pass
+	 */
+	public void returnPass(ClusterPass pass) {
+		final Lease l = pass.lease;
+		final int surplus;
+		l.lock.lock();
+		try {
+			l.used -= pass.permits;
+			if ( l.pending > 0 ) {
+				l.changed.signalAll();
+				return;
+			}
+			surplus = l.leased - l.used - leaseBlock;
+			if ( surplus <= 0 ) {
+				return;
+			}
+			l.leased -= surplus;
+		} finally {
+			l.lock.unlock();
+		}
+		giveBack(pass.getResourceId(), surplus);
+	}
+
+	/**
+	 * Gets id of the node owning the resource.
+	 * 
+	 * @param resourceId
+	 * @return
+	 */
+	public String getOwner(Object resourceId) {
+		return ring.getOwner(resourceId);
+	}
+
+	/**
+	 * Gets id of the local node.
+	 * 
+	 * @return
+	 */
+	public String getNode() {
+		return this.node;
+	}
+
+	/**
+	 * Gets number of the permits of the resource leased by this node, both used by the active passes and cached.
+	 * 
+	 * @param resourceId
+	 * @return
+	 */
+	public int getLeasedPermits(Object resourceId) {
+		Lease l = leases.get(resourceId);
+		if ( l == null ) {
+			return 0;
+		}
+		l.lock.lock();
+		try {
+			return l.leased;
+		} finally {
+			l.lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets number of the resources owned by this node which have permits leased to any node.
+	 * 
+	 * @return
+	 */
+	public int getGrantedResources() {
+		return grants.size();
+	}
+
+	/**
+	 * Returns all cached permits to their owners and stops serving the leasing requests of the other nodes. Passes
+	 * which are still active may be returned later.
+	 */
+	@Override
+	public void close() {
+		for (Object resourceId : leases.keySet()) {
+			int spare = service.recall(resourceId);
+			if ( spare > 0 ) {
+				giveBack(resourceId, spare);
+			}
+		}
+		transport.unbind();
+	}
+
+	protected ClusterPass acquire(final Object resourceId, final boolean isRO, final boolean interruptible,
+			final long nanosTimeout) throws InterruptedException {
+		final long deadline = nanosTimeout > 0L ? System.nanoTime() + nanosTimeout : 0L;
+		final int permits = isRO ? 1 : maxPassesPerResource;
+		long backoff = MIN_BACKOFF_NANOS;
+		boolean interrupted = false;
+		try {
+			for (;;) {
+				final Lease l = lease(resourceId);
+				final int request;
+				l.lock.lock();
+				try {
+					if ( l.dead ) {
+						continue;
+					}
+					if ( l.take(permits, isRO) ) {
+						return new ClusterPass(this, resourceId, isRO, l, permits);
+					}
+					if ( !isRO ) {
+						// keep permits returned by the local RO passes for the RW applicant
+						l.draining = true;
+					}
+					// RO pass leases the whole block, RW pass needs exactly all the permits
+					request = isRO ? leaseBlock : permits - (l.leased - l.used);
+					l.pending++;
+				} finally {
+					l.lock.unlock();
+				}
+
+				int granted = 0;
+				try {
+					granted = owner(resourceId).lease(node, resourceId, request, !isRO);
+				} finally {
+					l.lock.lock();
+					try {
+						l.pending--;
+						l.leased += granted;
+						if ( granted == 0 ) {
+							l.dropIfIdle(resourceId);
+						} else if ( isRO ) {
+							// owner leases RO permits again, resource is not reserved for RW applicant
+							l.draining = false;
+						}
+					} finally {
+						l.lock.unlock();
+					}
+				}
+
+				l.lock.lock();
+				try {
+					// dropped lease has no permits and is used only for the backoff below
+					if ( l.take(permits, isRO) ) {
+						return new ClusterPass(this, resourceId, isRO, l, permits);
+					}
+					if ( granted > 0 ) {
+						// other local applicants took the leased permits, lease more
+						continue;
+					}
+					long wait = backoff;
+					if ( nanosTimeout == 0L ) {
+						return null;
+					} else if ( nanosTimeout > 0L ) {
+						long remaining = deadline - System.nanoTime();
+						if ( remaining <= 0L ) {
+							return null;
+						}
+						wait = Math.min(wait, remaining);
+					}
+					backoff = Math.min(backoff << 1, MAX_BACKOFF_NANOS);
+					l.pending++;
+					try {
+						l.changed.awaitNanos(wait);
+					} catch (InterruptedException e) {
+						if ( interruptible ) {
+							throw e;
+						}
+						interrupted = true;
+					} finally {
+						l.pending--;
+						l.dropIfIdle(resourceId);
+					}
+				} finally {
+					l.lock.unlock();
+				}
+			}
+		} finally {
+			if ( interrupted ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Gets leasing service of the node owning the resource.
+	 */
+	protected LeaseService owner(Object resourceId) {
+		String owner = ring.getOwner(resourceId);
+		return owner.equals(node) ? service : transport.connect(owner);
+	}
+
+	/**
+	 * Gets local lease of the resource, creating it if necessary. Lease may be dropped concurrently, so it must be
+	 * checked under its lock.
+	 */
+	protected Lease lease(Object resourceId) {
+		return leases.computeIfAbsent(resourceId, new Function<Object, Lease>() {
+			@Override
+			public Lease apply(Object k) {
+				return new Lease(DistributedCheckpoint.this);
+			}
+		});
+	}
+
+	/**
+	 * Returns permits to the owner, keeps them leased if the owner can't be reached.
+	 */
+	protected void giveBack(Object resourceId, int permits) {
+		try {
+			owner(resourceId).release(node, resourceId, permits);
+		} catch (NodeUnavailableException e) {
+			for (;;) {
+				Lease l = lease(resourceId);
+				l.lock.lock();
+				try {
+					if ( !l.dead ) {
+						l.leased += permits;
+						l.changed.signalAll();
+						return;
+					}
+				} finally {
+					l.lock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Leases permits of the resource owned by this node, recalls unused permits from the other nodes if necessary.
+	 */
+	protected int grant(String requester, Object resourceId, int permits, boolean exact) {
+		if ( permits < 1 || (exact && permits > maxPassesPerResource) ) {
+			throw new IllegalArgumentException("Invalid number of permits: " + permits);
+		}
+		GrantCall call = new GrantCall(requester, Math.min(permits, maxPassesPerResource), exact);
+		grants.compute(resourceId, call);
+		if ( call.granted > 0 || call.holders.isEmpty() ) {
+			return call.granted;
+		}
+		for (String holder : call.holders) {
+			try {
+				int recalled = (holder.equals(node) ? service : transport.connect(holder)).recall(resourceId);
+				if ( recalled > 0 ) {
+					revoke(holder, resourceId, recalled);
+				}
+			} catch (NodeUnavailableException e) {
+				// permits of the unreachable node stay leased
+			}
+		}
+		grants.compute(resourceId, call);
+		return call.granted;
+	}
+
+	/**
+	 * Accounts permits of the resource owned by this node returned by the holder.
+	 */
+	protected void revoke(final String holder, Object resourceId, final int permits) {
+		grants.computeIfPresent(resourceId, new BiFunction<Object, Grant, Grant>() {
+			@Override
+			public Grant apply(Object k, Grant g) {
+				Integer leased = g.leased.get(holder);
+				if ( leased == null ) {
+					return g;
+				}
+				int returned = Math.min(permits, leased);
+				if ( returned == leased ) {
+					g.leased.remove(holder);
+				} else {
+					g.leased.put(holder, leased - returned);
+				}
+				g.free += returned;
+				return g.isIdle() ? null : g;
+			}
+		});
+	}
+
+	@Override
+	public String toString() {
+		return "DistributedCheckpoint [node=" + node + ", maxPassesPerResource=" + maxPassesPerResource
+				+ ", leaseBlock=" + leaseBlock + ", leases=" + leases.size() + ", grants=" + grants.size() + "]";
+	}
+
+	/**
+	 * Leasing service of this node served to the other nodes.
+	 */
+	protected class Service implements LeaseService {
+		@Override
+		public int lease(String requester, Object resourceId, int permits, boolean exact) {
+			return grant(requester, resourceId, permits, exact);
+		}
+
+		@Override
+		public void release(String requester, Object resourceId, int permits) {
+			revoke(requester, resourceId, permits);
+		}
+
+		@Override
+		public int recall(Object resourceId) {
+			Lease l = leases.get(resourceId);
+			if ( l == null ) {
+				return 0;
+			}
+			l.lock.lock();
+			try {
+				if ( l.dead ) {
+					return 0;
+				}
+				int spare = l.leased - l.used;
+				l.leased -= spare;
+				// permits in use are not cached for the local RO passes, they are recalled by the next request
+				l.draining = true;
+				l.dropIfIdle(resourceId);
+				return spare;
+			} finally {
+				l.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Permits of the resource owned by this node, guarded by the grants map.
+	 */
+	protected final class Grant {
+		int free;
+		final HashMap<String, Integer> leased = new HashMap<String, Integer>();
+		/* node of the RW applicant the resource is reserved for or null */
+		String writer;
+		/* time of the last failed lease request of the writer */
+		long writerNanos;
+
+		Grant(int free) {
+			this.free = free;
+		}
+
+		/**
+		 * Checks if the resource is reserved for the RW applicant of the other node, clears expired reservation.
+		 */
+		boolean isReserved(String requester, boolean exact, long now) {
+			if ( writer != null && now - writerNanos > RESERVATION_NANOS ) {
+				writer = null;
+			}
+			return writer != null && !(exact && writer.equals(requester));
+		}
+
+		/**
+		 * Checks if all permits are free and the resource is not reserved, so the grant may be dropped.
+		 */
+		boolean isIdle() {
+			return free == maxPassesPerResource
+					&& (writer == null || System.nanoTime() - writerNanos > RESERVATION_NANOS);
+		}
+
+		@Override
+		public String toString() {
+			return "Grant [free=" + free + ", leased=" + leased + ", writer=" + writer + "]";
+		}
+	}
+
+	/**
+	 * Takes permits from the grant of the resource, collects holders to recall from if none are free.
+	 */
+	protected final class GrantCall implements BiFunction<Object, Grant, Grant> {
+		final String requester;
+		final int permits;
+		final boolean exact;
+		int granted;
+		List<String> holders;
+
+		GrantCall(String requester, int permits, boolean exact) {
+			this.requester = requester;
+			this.permits = permits;
+			this.exact = exact;
+		}
+
+		@Override
+		public Grant apply(Object k, Grant g) {
+			if ( g == null ) {
+				g = new Grant(maxPassesPerResource);
+			}
+			final long now = System.nanoTime();
+			holders = new ArrayList<String>();
+			if ( g.isReserved(requester, exact, now) ) {
+				// recalled permits are kept for the RW applicant which reserved the resource
+				granted = 0;
+				return g;
+			}
+			granted = exact ? (g.free >= permits ? permits : 0) : Math.min(permits, g.free);
+			if ( granted > 0 ) {
+				g.free -= granted;
+				Integer leased = g.leased.get(requester);
+				g.leased.put(requester, leased == null ? granted : leased + granted);
+				if ( exact ) {
+					g.writer = null;
+				}
+			} else {
+				if ( exact ) {
+					g.writer = requester;
+					g.writerNanos = now;
+				}
+				for (String holder : g.leased.keySet()) {
+					if ( !holder.equals(requester) ) {
+						holders.add(holder);
+					}
+				}
+			}
+			return g.isIdle() ? null : g;
+		}
+	}
+
+	/**
+	 * Permits of the resource leased by this node.
+	 */
+	protected static final class Lease {
+		final DistributedCheckpoint checkpoint;
+		final ReentrantLock lock = new ReentrantLock();
+		/* signalled when local pass is returned or permits are leased while applicants wait */
+		final Condition changed = lock.newCondition();
+		int leased;
+		int used;
+		/* applicants leasing or waiting, lease is not dropped while they use it */
+		int pending;
+		/* lease was removed from the leases map, applicants must get the new one */
+		boolean dead;
+		/* permits are recalled or kept for the local RW applicant, RO passes are granted only from the new lease */
+		boolean draining;
+
+		Lease(DistributedCheckpoint checkpoint) {
+			this.checkpoint = checkpoint;
+		}
+
+		boolean take(int permits, boolean isRO) {
+			if ( leased - used < permits || (isRO && draining) ) {
+				return false;
+			}
+			used += permits;
+			if ( !isRO ) {
+				draining = false;
+			}
+			return true;
+		}
+
+		void dropIfIdle(Object resourceId) {
+			if ( leased == 0 && used == 0 && pending == 0 && !dead ) {
+				dead = true;
+				checkpoint.leases.remove(resourceId, this);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Lease [leased=" + leased + ", used=" + used + ", pending=" + pending + ", draining=" + draining
+					+ "]";
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.cluster;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulated network of the cluster nodes living in the same JVM, for tests and local development. <br/>
+ * <br/>
+ * Calls are delivered directly on the calling thread after the configured latency. Node may be taken down to
+ * simulate crash or partition, calls to and from the down node fail with NodeUnavailableException. Network counts
+ * delivered messages, so tests may check how many acquisitions left the node.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ */
+public class InMemoryNetwork {
+	protected final ConcurrentHashMap<String, LeaseService> services = new ConcurrentHashMap<String, LeaseService>();
+	protected final Set<String> down = ConcurrentHashMap.newKeySet();
+	protected final AtomicLong messages = new AtomicLong();
+	protected volatile long latencyNanos;
+
+	/**
+	 * Gets transport of the node attached to this network.
+	 * 
+	 * @param node
+	 *            id of the node
+	 * @return
+	 */
+	public ClusterTransport getTransport(final String node) {
+		return new ClusterTransport() {
+			@Override
+			public String getNode() {
+				return node;
+			}
+
+			@Override
+			public void bind(LeaseService service) {
+				if ( services.putIfAbsent(node, service) != null ) {
+					throw new IllegalStateException("Node " + node + " is already bound");
+				}
+			}
+
+			@Override
+			public void unbind() {
+				services.remove(node);
+			}
+
+			@Override
+			public LeaseService connect(String remote) {
+				return proxy(node, remote);
+			}
+		};
+	}
+
+	/**
+	 * Takes the node down or brings it back, calls to and from the down node fail.
+	 * 
+	 * @param node
+	 * @param available
+	 */
+	public void setAvailable(String node, boolean available) {
+		if ( available ) {
+			down.remove(node);
+		} else {
+			down.add(node);
+		}
+	}
+
+	/**
+	 * Sets delay of every delivered message.
+	 * 
+	 * @param latency
+	 * @param unit
+	 */
+	public void setLatency(long latency, TimeUnit unit) {
+		this.latencyNanos = unit.toNanos(latency);
+	}
+
+	/**
+	 * Gets number of messages delivered between the nodes.
+	 * 
+	 * @return
+	 */
+	public long getMessages() {
+		return messages.get();
+	}
+
+	protected LeaseService proxy(final String from, final String to) {
+		return new LeaseService() {
+			@Override
+			public int lease(String requester, Object resourceId, int permits, boolean exact) {
+				return deliver(from, to).lease(requester, resourceId, permits, exact);
+			}
+
+			@Override
+			public void release(String requester, Object resourceId, int permits) {
+				deliver(from, to).release(requester, resourceId, permits);
+			}
+
+			@Override
+			public int recall(Object resourceId) {
+				return deliver(from, to).recall(resourceId);
+			}
+		};
+	}
+
+	/**
+	 * Simulates delivery of the message, gets service of the destination node.
+	 */
+	protected LeaseService deliver(String from, String to) {
+		LeaseService service = services.get(to);
+		if ( service == null || down.contains(from) || down.contains(to) ) {
+			throw new NodeUnavailableException("Node " + to + " is unavailable from " + from);
+		}
+		long latency = latencyNanos;
+		if ( latency > 0L ) {
+			LockSupport.parkNanos(latency);
+		}
+		messages.incrementAndGet();
+		return service;
+	}
+
+	@Override
+	public String toString() {
+		return "InMemoryNetwork [nodes=" + services.keySet() + ", down=" + down + ", messages=" + messages + "]";
+	}
+}
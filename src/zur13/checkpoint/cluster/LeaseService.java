@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.cluster;
+
+/**
+ * Permit leasing service of the cluster node, served to the other nodes over the ClusterTransport. <br/>
+ * <br/>
+ * Node owning the resource keeps the authoritative number of its free permits and leases blocks of them to the
+ * nodes which grant passes for the resource; the owner recalls unused leased permits when it can't satisfy a request.
+ * Implementations must not block waiting for the permits, requester retries with backoff instead.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.cluster.DistributedCheckpoint
+ */
+public interface LeaseService {
+
+	/**
+	 * Leases permits of the resource owned by this node to the requester.
+	 * 
+	 * @param requester
+	 *            id of the node which leases the permits
+	 * @param resourceId
+	 *            id of the resource
+	 * @param permits
+	 *            number of requested permits
+	 * @param exact
+	 *            true to lease all requested permits or nothing; false to lease as many as available up to permits
+	 * @return number of leased permits, 0 if none are available even after recalling unused leases
+	 */
+	int lease(String requester, Object resourceId, int permits, boolean exact);
+
+	/**
+	 * Returns permits of the resource owned by this node leased earlier by the requester.
+	 * 
+	 * @param requester
+	 *            id of the node which returns the permits
+	 * @param resourceId
+	 *            id of the resource
+	 * @param permits
+	 *            number of returned permits
+	 */
+	void release(String requester, Object resourceId, int permits);
+
+	/**
+	 * Gives back to the owner all leased permits of the resource which are not used by the passes of this node.
+	 * 
+	 * @param resourceId
+	 *            id of the resource
+	 * @return number of permits given back, owner accounts them as returned
+	 */
+	int recall(Object resourceId);
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.cluster;
+
+/**
+ * Thrown when the remote node of the cluster can't be reached or does not serve permit leasing requests.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.cluster.ClusterTransport
+ */
+public class NodeUnavailableException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public NodeUnavailableException(String message) {
+		super(message);
+	}
+
+	public NodeUnavailableException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.flow;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.PassMode;
+
+/**
+ * Flow operator which passes stream elements downstream only after the checkpoint granted the pass for the resource id
+ * of the element.
+ * <br/>
+ * <br/>
+ * Passes are requested asynchronously, so elements waiting for the pass do not block the upstream thread and do not
+ * hold back elements of the other resources. Elements are emitted in the order passes were granted, not in the order
+ * they were received.
+ * <br/>
+ * <br/>
+ * Elements are requested from upstream only for the outstanding downstream demand and not more than maxPending at
+ * once, so slow pass granting slows down upstream instead of buffering elements without limit.
+ * <br/>
+ * <br/>
+ * Downstream receives PassedElement instances and should close them when done processing the element. Passes of the
+ * elements not delivered because of cancellation or error are closed by the processor.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ *
+ */
+public class CheckpointProcessor<T> implements Flow.Processor<T, PassedElement<T>> {
+	protected final ACheckpoint checkpoint;
+	protected final Function<? super T, ?> resourceIdFunction;
+	protected final PassMode mode;
+	protected final int maxPending;
+
+	protected final AtomicReference<Flow.Subscriber<? super PassedElement<T>>> downstream = //
+			new AtomicReference<Flow.Subscriber<? super PassedElement<T>>>();
+	protected final AtomicReference<Flow.Subscription> upstream = new AtomicReference<Flow.Subscription>();
+	/* elements waiting for the pass */
+	protected final Set<CompletableFuture<Pass>> waiting = ConcurrentHashMap.newKeySet();
+	/* elements granted the pass and waiting for the downstream demand */
+	protected final ConcurrentLinkedQueue<PassedElement<T>> ready = new ConcurrentLinkedQueue<PassedElement<T>>();
+	protected final AtomicLong demand = new AtomicLong();
+	protected final AtomicInteger wip = new AtomicInteger();
+	/* elements requested from upstream and not emitted yet, accessed by the drain loop only */
+	protected long outstanding;
+	protected volatile boolean done;
+	protected volatile boolean cancelled;
+	protected final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+	/**
+	 * Instantiate processor.
+	 * 
+	 * @param checkpoint
+	 *            checkpoint to request passes from
+	 * @param resourceIdFunction
+	 *            extracts resource id from the stream element
+	 * @param mode
+	 *            access mode of the requested passes
+	 * @param maxPending
+	 *            max number of elements requested from upstream and not emitted downstream yet
+	 */
+	public CheckpointProcessor(ACheckpoint checkpoint, Function<? super T, ?> resourceIdFunction, PassMode mode,
+			int maxPending) {
+		super();
+		if ( maxPending <= 0 ) {
+			throw new IllegalArgumentException("maxPending should be positive: " + maxPending);
+		}
+		if ( mode == PassMode.UPDATE ) {
+			throw new IllegalArgumentException("Async update passes are not supported");
+		}
+		this.checkpoint = checkpoint;
+		this.resourceIdFunction = resourceIdFunction;
+		this.mode = mode;
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * Gets number of elements waiting for the pass.
+	 * 
+	 * @return
+	 */
+	public int getWaitingCount() {
+		return waiting.size();
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super PassedElement<T>> subscriber) {
+		if ( !downstream.compareAndSet(null, subscriber) ) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("CheckpointProcessor supports single subscriber only"));
+			return;
+		}
+		subscriber.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+				if ( n <= 0 ) {
+					fail(new IllegalArgumentException("Non-positive request: " + n));
+					return;
+				}
+				for (;;) {
+					long d = demand.get();
+					long u = d + n;
+					if ( u < 0 ) {
+						u = Long.MAX_VALUE;
+					}
+					if ( demand.compareAndSet(d, u) ) {
+						break;
+					}
+				}
+				drain();
+			}
+
+			@Override
+			public void cancel() {
+				cancelled = true;
+				drain();
+			}
+		});
+		drain();
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if ( !upstream.compareAndSet(null, subscription) ) {
+			subscription.cancel();
+			return;
+		}
+		drain();
+	}
+
+	@Override
+	public void onNext(final T item) {
+		if ( done || cancelled ) {
+			return;
+		}
+		final CompletableFuture<Pass> future;
+		try {
+			Object resourceId = resourceIdFunction.apply(item);
+			future = mode.isReadOnly() ? checkpoint.acquireAsync(resourceId) : checkpoint.acquireRWAsync(resourceId);
+		} catch (RuntimeException e) {
+			fail(e);
+			return;
+		}
+		waiting.add(future);
+		future.whenComplete((pass, e) -> {
+			// element is queued before it is removed from the waiting ones so drain never sees it nowhere
+			if ( e == null ) {
+				ready.offer(new PassedElement<T>(item, pass));
+			} else if ( !(e instanceof CancellationException) ) {
+				fail(e);
+			}
+			waiting.remove(future);
+			drain();
+		});
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		fail(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		done = true;
+		drain();
+	}
+
+	/**
+	 * Cancels upstream and signals error downstream without waiting for the elements waiting for the pass.
+	 * 
+	 * @param e
+	 */
+	protected void fail(Throwable e) {
+		if ( error.compareAndSet(null, e) ) {
+			done = true;
+			Flow.Subscription s = upstream.get();
+			if ( s != null ) {
+				s.cancel();
+			}
+		}
+		drain();
+	}
+
+	/**
+	 * Emits ready elements, requests more elements from upstream and signals terminal events. Runs on a single thread
+	 * at a time, the other threads only mark that there is work to do.
+	 */
+	protected void drain() {
+		if ( wip.getAndIncrement() != 0 ) {
+			return;
+		}
+		int missed = 1;
+		for (;;) {
+			Flow.Subscriber<? super PassedElement<T>> subscriber = downstream.get();
+			if ( cancelled ) {
+				clear();
+			} else if ( subscriber != null ) {
+				Throwable e = error.get();
+				if ( e != null ) {
+					cancelled = true;
+					clear();
+					subscriber.onError(e);
+				} else {
+					long d = demand.get();
+					long emitted = 0;
+					PassedElement<T> pe;
+					while (emitted != d && !cancelled && (pe = ready.poll()) != null) {
+						subscriber.onNext(pe);
+						emitted++;
+					}
+					if ( emitted != 0 ) {
+						outstanding -= emitted;
+						if ( d != Long.MAX_VALUE ) {
+							demand.addAndGet(-emitted);
+						}
+					}
+					if ( cancelled ) {
+						continue;
+					}
+					if ( done ) {
+						if ( waiting.isEmpty() && ready.isEmpty() ) {
+							cancelled = true;
+							subscriber.onComplete();
+						}
+					} else {
+						Flow.Subscription s = upstream.get();
+						long r = Math.min(demand.get(), maxPending) - outstanding;
+						if ( s != null && r > 0 ) {
+							outstanding += r;
+							s.request(r);
+						}
+					}
+				}
+			}
+			missed = wip.addAndGet(-missed);
+			if ( missed == 0 ) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Cancels upstream, gives up waiting passes and closes passes of the elements which were not emitted.
+	 */
+	protected void clear() {
+		Flow.Subscription s = upstream.get();
+		if ( s != null ) {
+			s.cancel();
+		}
+		for (CompletableFuture<Pass> f : waiting) {
+			f.cancel(false);
+		}
+		PassedElement<T> pe;
+		while ((pe = ready.poll()) != null) {
+			pe.close();
+		}
+	}
+}
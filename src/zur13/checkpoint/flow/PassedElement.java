@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.flow;
+
+import zur13.checkpoint.Pass;
+
+/**
+ * Stream element which was granted the pass by CheckpointProcessor.
+ * <br/>
+ * <br/>
+ * Downstream stage should close it as soon as it has done processing the element.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ *
+ * @see zur13.checkpoint.flow.CheckpointProcessor
+ */
+public class PassedElement<T> implements AutoCloseable {
+	protected final T element;
+	protected final Pass pass;
+
+	public PassedElement(T element, Pass pass) {
+		super();
+		this.element = element;
+		this.pass = pass;
+	}
+
+	/**
+	 * Gets stream element.
+	 * 
+	 * @return
+	 */
+	public T getElement() {
+		return this.element;
+	}
+
+	/**
+	 * Gets pass granted for the element.
+	 * 
+	 * @return
+	 */
+	public Pass getPass() {
+		return this.pass;
+	}
+
+	/**
+	 * Closes pass granted for the element.
+	 */
+	@Override
+	public void close() {
+		pass.close();
+	}
+
+	@Override
+	public String toString() {
+		return "PassedElement [element=" + this.element + ", pass=" + this.pass + "]";
+	}
+}
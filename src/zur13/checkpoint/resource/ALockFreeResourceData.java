@@ -0,0 +1,1709 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.PassMode;
+import zur13.checkpoint.PassRejectedException;
+import zur13.checkpoint.resource.limit.AdaptiveLimit;
+import zur13.checkpoint.resource.limit.OverloadControl;
+import zur13.checkpoint.resource.limit.RateLimit;
+import zur13.checkpoint.resource.limit.WaiterLimit;
+
+/**
+ * Controls access for single resource without java.util.concurrent.Semaphore. Allows to limit max number of active
+ * passes per resource.
+ * <br/>
+ * <br/>
+ * Number of active RO passes, active RW pass flag and waiters flag are packed into a single long state word which is
+ * updated with CAS. Uncontended acquire and return are a single CAS each. Wait queue is created only when some
+ * applicant has to wait for the resource, waiting applicants are granted passes directly by the thread which returns
+ * the pass.
+ * <br/>
+ * <br/>
+ * RO pass may take several units of the max active passes limit (pass weight), e.g. to limit bandwidth or memory
+ * instead of the number of passes. RO applicant waiting for more than one unit stops new RO applicants from bypassing
+ * the wait queue, so heavy applicants are not starved by the stream of light ones.
+ * <br/>
+ * <br/>
+ * With adaptive limit the max active passes limit is an upper bound, effective limit is adjusted by the adaptive limit
+ * after every returned RO pass according to the time the pass was held.
+ * <br/>
+ * <br/>
+ * With rate limit every pass also takes a token of the resource token bucket before it takes the place within the
+ * max active passes limit, so applicant waiting for the token does not hold the resource. The token is given back if
+ * the applicant does not get the place or the pass is rolled back. The bucket is stored as a single long next to the
+ * state word and is refilled lazily. Async applicants waiting for the token are resumed by the
+ * CompletableFuture.delayedExecutor().
+ * <br/>
+ * <br/>
+ * With wait scheduler waiting applicants are ordered by the rank given by the scheduler instead of the arrival order.
+ * Average hold times of RO and RW passes are tracked for the scheduler if it needs them.
+ * <br/>
+ * <br/>
+ * With overload control time every applicant spent in the queue is measured when it is granted, applicants which have
+ * to wait in the queue where even the shortest wait exceeded the target over the interval are rejected after short
+ * target delay and may be served last-in first-out.
+ * <br/>
+ * <br/>
+ * With waiter limit applicants which would exceed max number of waiters are rejected at once.
+ * <br/>
+ * <br/>
+ * Update pass is RO pass which excludes other update passes, so it may always be upgraded to RW pass without
+ * deadlock. Upgrading pass stops new RO applicants and gets RW access as soon as other RO passes are returned. RW pass
+ * may be downgraded at once.
+ * <br/>
+ * <br/>
+ * Subclasses define where the state word and the wait queue are stored. Bits above UPGRADING are never changed
+ * by this class and may be used by the state word storage.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ *
+ */
+public abstract class ALockFreeResourceData extends AResourceData {
+	/* number of active RO pass units */
+	protected static final long READERS_MASK = 0xFFFFFFFFL;
+	/* RW pass is active */
+	protected static final long WRITER = 1L << 32;
+	/* wait queue is not empty, returning thread should grant passes to the waiters */
+	protected static final long WAITERS = 1L << 33;
+	/* wait queue contains RW applicant */
+	protected static final long WRITER_WAITING = 1L << 34;
+	/* wait queue contains RO applicant requesting more than one unit */
+	protected static final long HEAVY_WAITING = 1L << 35;
+	/* update pass is active, it takes one RO pass unit */
+	protected static final long UPDATER = 1L << 36;
+	/* pass waits for the upgrade to RW access, RO applicants should wait */
+	protected static final long UPGRADING = 1L << 37;
+
+	/* max number of threads with current resourceId allowed to access restricted section simultaneously */
+	protected final int maxActivePasses;
+	protected final boolean fair;
+	protected final RWPolicy policy;
+	/* new RO applicants should not bypass waiting applicants if any of these bits is set */
+	protected final long readersGate;
+	/* effective max active passes limit or null to use maxActivePasses */
+	protected final AdaptiveLimit adaptiveLimit;
+	/* rate of granted passes or null if not limited */
+	protected final RateLimit rateLimit;
+	/* order of the waiting applicants or null for first-in first-out order */
+	protected final WaitScheduler scheduler;
+	/* hold times are tracked for the scheduler */
+	protected final boolean trackHoldTime;
+	/* passes keep their grant time */
+	protected final boolean timedPasses;
+	/* overload control of the wait queue or null */
+	protected final OverloadControl overload;
+	/* max number of waiters or null */
+	protected final WaiterLimit waiterLimit;
+	/* moving average of the RO and RW pass hold times if tracked for the scheduler */
+	protected volatile long roHoldNanos;
+	protected volatile long rwHoldNanos;
+
+	/**
+	 * Instantiate a resource data object.
+	 *
+	 * @param resourceId
+	 * @param refCounted
+	 *            false if resource data storage does not count references to this resource data
+	 * @param maxActivePasses
+	 *            max number of threads with current resourceId allowed to access restricted section simultaneously
+	 * @param fair
+	 *            true to grant passes in first-in first-out order under contention
+	 * @param policy
+	 *            order of granting passes to waiting RO and RW applicants in unfair mode
+	 */
+	protected ALockFreeResourceData(final Object resourceId, final boolean refCounted, final int maxActivePasses,
+			final boolean fair, final RWPolicy policy) {
+		this(resourceId, refCounted, maxActivePasses, fair, policy, null, null, null, null, null);
+	}
+
+	/**
+	 * Instantiate a resource data object.
+	 *
+	 * @param resourceId
+	 * @param refCounted
+	 *            false if resource data storage does not count references to this resource data
+	 * @param maxActivePasses
+	 *            max number of threads with current resourceId allowed to access restricted section simultaneously
+	 * @param fair
+	 *            true to grant passes in first-in first-out order under contention
+	 * @param policy
+	 *            order of granting passes to waiting RO and RW applicants in unfair mode
+	 * @param adaptiveLimit
+	 *            effective limit within maxActivePasses or null to use fixed maxActivePasses limit
+	 * @param rateLimit
+	 *            rate of granted passes or null, subclass should store rate state if not null
+	 * @param scheduler
+	 *            order of the waiting applicants or null for first-in first-out order, subclass should create wait
+	 *            queue with newWaitQueue() if not null
+	 * @param overload
+	 *            overload control of the wait queue or null
+	 * @param waiterLimit
+	 *            max number of waiters or null, subclass should create wait queue with newWaitQueue() if not null
+	 */
+	protected ALockFreeResourceData(final Object resourceId, final boolean refCounted, final int maxActivePasses,
+			final boolean fair, final RWPolicy policy, final AdaptiveLimit adaptiveLimit, final RateLimit rateLimit,
+			final WaitScheduler scheduler, final OverloadControl overload, final WaiterLimit waiterLimit) {
+		super(resourceId, refCounted);
+		this.overload = overload;
+		this.waiterLimit = waiterLimit;
+		this.adaptiveLimit = adaptiveLimit;
+		this.rateLimit = rateLimit;
+		this.scheduler = scheduler;
+		this.trackHoldTime = scheduler != null && scheduler.tracksHoldTime();
+		this.timedPasses = adaptiveLimit != null || trackHoldTime;
+		this.maxActivePasses = maxActivePasses;
+		this.fair = fair;
+		this.policy = policy;
+		this.readersGate = policy == RWPolicy.READER_PREFERRING ? HEAVY_WAITING : WRITER_WAITING | HEAVY_WAITING;
+	}
+
+	@Override
+	public final Pass getPass(final ACheckpoint checkpoint) throws InterruptedException {
+		acquire(true, true, -1L);
+		return newPass(checkpoint, true);
+	}
+
+	@Override
+	public final Pass getPassUninterruptibly(final ACheckpoint checkpoint) {
+		acquireUninterruptibly(true);
+		return newPass(checkpoint, true);
+	}
+
+	@Override
+	public final Pass tryGetPass(final ACheckpoint checkpoint) {
+		if ( tryAcquirePass(true, 1) ) {
+			return newPass(checkpoint, true);
+		}
+		return null;
+	}
+
+	@Override
+	public final Pass tryGetPass(final ACheckpoint checkpoint, final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		if ( acquire(true, true, Math.max(0L, unit.toNanos(timeout))) ) {
+			return newPass(checkpoint, true);
+		}
+		return null;
+	}
+
+	@Override
+	public final Pass getPassRW(final ACheckpoint checkpoint) throws InterruptedException {
+		acquire(false, true, -1L);
+		return newPass(checkpoint, false);
+	}
+
+	@Override
+	public final Pass getPassRWUninterruptibly(final ACheckpoint checkpoint) {
+		acquireUninterruptibly(false);
+		return newPass(checkpoint, false);
+	}
+
+	@Override
+	public final Pass tryGetPassRW(final ACheckpoint checkpoint) {
+		if ( tryAcquirePass(false, 1) ) {
+			return newPass(checkpoint, false);
+		}
+		return null;
+	}
+
+	@Override
+	public final Pass tryGetPassRW(final ACheckpoint checkpoint, final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		if ( acquire(false, true, Math.max(0L, unit.toNanos(timeout))) ) {
+			return newPass(checkpoint, false);
+		}
+		return null;
+	}
+
+	@Override
+	public final Pass getPass(final ACheckpoint checkpoint, final int weight) throws InterruptedException {
+		acquire(true, checkWeight(weight), true, -1L);
+		return newPass(checkpoint, true, weight);
+	}
+
+	@Override
+	public final Pass getPassUninterruptibly(final ACheckpoint checkpoint, final int weight) {
+		try {
+			acquire(true, checkWeight(weight), false, -1L);
+		} catch (InterruptedException e) {
+			// not thrown in uninterruptible mode
+			throw new IllegalStateException(e);
+		}
+		return newPass(checkpoint, true, weight);
+	}
+
+	@Override
+	public final Pass tryGetPass(final ACheckpoint checkpoint, final int weight) {
+		if ( tryAcquirePass(true, checkWeight(weight)) ) {
+			return newPass(checkpoint, true, weight);
+		}
+		return null;
+	}
+
+	@Override
+	public final Pass tryGetPass(final ACheckpoint checkpoint, final int weight, final long timeout,
+			final TimeUnit unit) throws InterruptedException {
+		if ( acquire(true, checkWeight(weight), true, Math.max(0L, unit.toNanos(timeout))) ) {
+			return newPass(checkpoint, true, weight);
+		}
+		return null;
+	}
+
+	@Override
+	public final Pass getPass(final ACheckpoint checkpoint, final int weight, final int priority)
+			throws InterruptedException {
+		acquire(true, checkWeight(weight), priority, true, -1L);
+		return newPass(checkpoint, true, weight);
+	}
+
+	@Override
+	public final Pass tryGetPass(final ACheckpoint checkpoint, final int weight, final int priority,
+			final long timeout, final TimeUnit unit) throws InterruptedException {
+		if ( acquire(true, checkWeight(weight), priority, true, Math.max(0L, unit.toNanos(timeout))) ) {
+			return newPass(checkpoint, true, weight);
+		}
+		return null;
+	}
+
+	@Override
+	public final Pass getPassRW(final ACheckpoint checkpoint, final int priority) throws InterruptedException {
+		acquire(false, 1, priority, true, -1L);
+		return newPass(checkpoint, false);
+	}
+
+	@Override
+	public final Pass tryGetPassRW(final ACheckpoint checkpoint, final int priority, final long timeout,
+			final TimeUnit unit) throws InterruptedException {
+		if ( acquire(false, 1, priority, true, Math.max(0L, unit.toNanos(timeout))) ) {
+			return newPass(checkpoint, false);
+		}
+		return null;
+	}
+
+	@Override
+	public final Pass getPassForUpdate(final ACheckpoint checkpoint) throws InterruptedException {
+		acquire(true, true, 1, WaitScheduler.NORM_PRIORITY, true, -1L);
+		return newUpdatePass(checkpoint);
+	}
+
+	@Override
+	public final Pass getPassForUpdateUninterruptibly(final ACheckpoint checkpoint) {
+		try {
+			acquire(true, true, 1, WaitScheduler.NORM_PRIORITY, false, -1L);
+		} catch (InterruptedException e) {
+			// not thrown in uninterruptible mode
+			throw new IllegalStateException(e);
+		}
+		return newUpdatePass(checkpoint);
+	}
+
+	@Override
+	public final Pass tryGetPassForUpdate(final ACheckpoint checkpoint) {
+		if ( tryAcquirePass(true, true, 1) ) {
+			return newUpdatePass(checkpoint);
+		}
+		return null;
+	}
+
+	@Override
+	public final Pass tryGetPassForUpdate(final ACheckpoint checkpoint, final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		if ( acquire(true, true, 1, WaitScheduler.NORM_PRIORITY, true, Math.max(0L, unit.toNanos(timeout))) ) {
+			return newUpdatePass(checkpoint);
+		}
+		return null;
+	}
+
+	@Override
+	public void upgrade(final Pass pass) throws InterruptedException {
+		final boolean update = pass.isUpdate();
+		if ( !update && !tryLockUpdate() ) {
+			// two RO passes waiting for each other to upgrade would never get RW access
+			throw new IllegalStateException(UPDATE_LOCKED);
+		}
+		if ( !tryUpgrade(pass.getWeight()) ) {
+			awaitUpgrade(update, pass.getWeight(), -1L);
+		}
+	}
+
+	@Override
+	public boolean tryUpgrade(final Pass pass, final long timeout, final TimeUnit unit) throws InterruptedException {
+		final boolean update = pass.isUpdate();
+		if ( !update && !tryLockUpdate() ) {
+			throw new IllegalStateException(UPDATE_LOCKED);
+		}
+		return tryUpgrade(pass.getWeight())
+				|| awaitUpgrade(update, pass.getWeight(), Math.max(0L, unit.toNanos(timeout)));
+	}
+
+	@Override
+	public void downgrade(final Pass pass) {
+		long prev = getAndAddState(delta(true, pass.isUpdate(), pass.getWeight()) - WRITER);
+		dispatchIfWaiters(prev, true);
+	}
+
+	@Override
+	public final CompletableFuture<Pass> getPassAsync(final ACheckpoint checkpoint) {
+		return acquireAsync(checkpoint, true);
+	}
+
+	@Override
+	public final CompletableFuture<Pass> getPassRWAsync(final ACheckpoint checkpoint) {
+		return acquireAsync(checkpoint, false);
+	}
+
+	@Override
+	public final void returnPass(final Pass pass) {
+		if ( adaptiveLimit != null && pass.isReadOnly() ) {
+			// limit is updated before release so waiters are granted passes within the new limit
+			adaptiveLimit.onSample(System.nanoTime() - pass.getGrantNanos(), getActivePasses());
+		}
+		if ( trackHoldTime ) {
+			recordHoldTime(pass.isReadOnly(), System.nanoTime() - pass.getGrantNanos());
+		}
+		release(pass.isReadOnly(), pass.isUpdate() && pass.isReadOnly(), pass.getWeight());
+	}
+
+	/**
+	 * Returns the pass without sampling its hold time, passes held only while the applicant backs off from other
+	 * limits would feed the adaptive limit and the scheduler with near zero latencies under contention.
+	 */
+	@Override
+	public final void rollbackPass(final Pass pass) {
+		release(pass.isReadOnly(), pass.isUpdate() && pass.isReadOnly(), pass.getWeight());
+		if ( rateLimit != null ) {
+			refundRate();
+		}
+	}
+
+	/**
+	 * Updates moving average of the hold times. Concurrent updates may be lost, that only slows down the average.
+	 *
+	 * @param shared
+	 * @param holdNanos
+	 */
+	private void recordHoldTime(final boolean shared, final long holdNanos) {
+		long avg = shared ? roHoldNanos : rwHoldNanos;
+		avg = avg == 0L ? Math.max(1L, holdNanos) : avg + ((holdNanos - avg) >> 3);
+		if ( shared ) {
+			roHoldNanos = avg;
+		} else {
+			rwHoldNanos = avg;
+		}
+	}
+
+	/**
+	 * Gets average time RO or RW passes of this resource are held, tracked only if the scheduler needs it.
+	 *
+	 * @param shared
+	 *            true for RO passes
+	 * @return average hold time or 0 if unknown
+	 */
+	public long getAverageHoldNanos(final boolean shared) {
+		return shared ? roHoldNanos : rwHoldNanos;
+	}
+
+	/**
+	 * Gets max number of simultaneously active RO pass units.
+	 *
+	 * @return
+	 */
+	public int getMaxActivePasses() {
+		return this.maxActivePasses;
+	}
+
+	/**
+	 * Gets current effective limit of simultaneously active RO pass units.
+	 *
+	 * @return
+	 */
+	public int getLimit() {
+		return adaptiveLimit == null ? maxActivePasses : adaptiveLimit.getLimit();
+	}
+
+	/**
+	 * Gets number of currently active RO pass units.
+	 *
+	 * @return
+	 */
+	public int getActivePasses() {
+		return (int) (getState() & READERS_MASK);
+	}
+
+	/**
+	 * Checks if RW pass is currently active.
+	 *
+	 * @return
+	 */
+	public boolean isActiveRW() {
+		return (getState() & WRITER) != 0;
+	}
+
+	/**
+	 * Creates pass instance for the successful acquire. Releases acquired access if pass can't be created.
+	 *
+	 * @param checkpoint
+	 * @param isRO
+	 * @return
+	 */
+	protected Pass newPass(final ACheckpoint checkpoint, final boolean isRO) {
+		try {
+			return new Pass(resourceId, checkpoint, isRO, this, 1, grantNanos());
+		} catch (Throwable e) {
+			release(isRO);
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates weighted pass instance for the successful acquire. Releases acquired access if pass can't be created.
+	 *
+	 * @param checkpoint
+	 * @param isRO
+	 * @param weight
+	 * @return
+	 */
+	protected Pass newPass(final ACheckpoint checkpoint, final boolean isRO, final int weight) {
+		if ( weight == 1 ) {
+			return newPass(checkpoint, isRO);
+		}
+		try {
+			return new Pass(resourceId, checkpoint, isRO, this, weight, grantNanos());
+		} catch (Throwable e) {
+			release(isRO, weight);
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates update pass instance for the successful acquire. Releases acquired access if pass can't be created.
+	 *
+	 * @param checkpoint
+	 * @return
+	 */
+	protected Pass newUpdatePass(final ACheckpoint checkpoint) {
+		try {
+			return new Pass(resourceId, checkpoint, PassMode.UPDATE, this, grantNanos());
+		} catch (Throwable e) {
+			release(true, true, 1);
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets pass grant time if it is needed by the adaptive limit or the scheduler.
+	 *
+	 * @return
+	 */
+	private long grantNanos() {
+		return timedPasses ? System.nanoTime() : 0L;
+	}
+
+	/**
+	 * Checks that RO pass of the given weight may ever be granted.
+	 *
+	 * @param weight
+	 * @return weight
+	 */
+	protected final int checkWeight(final int weight) {
+		if ( weight < 1 || weight > maxActivePasses ) {
+			throw new IllegalArgumentException(
+					"Pass weight should be in range [1, " + maxActivePasses + "]: " + weight);
+		}
+		return weight;
+	}
+
+	/**
+	 * Checks if the access of requested type may be granted in the given state.
+	 *
+	 * @param s
+	 *            state word
+	 * @param shared
+	 *            true for RO access, false for RW access
+	 * @param weight
+	 *            number of RO pass units
+	 * @return
+	 */
+	protected boolean isAvailable(final long s, final boolean shared, final int weight) {
+		if ( (s & WRITER) != 0 || (shared && (s & UPGRADING) != 0) ) {
+			return false;
+		}
+		if ( shared ) {
+			long readers = s & READERS_MASK;
+			if ( adaptiveLimit == null ) {
+				return readers + weight <= maxActivePasses;
+			}
+			// pass heavier than the adapted limit is granted when there are no other RO passes
+			return readers + weight <= adaptiveLimit.getLimit() || readers == 0;
+		} else {
+			return (s & READERS_MASK) == 0;
+		}
+	}
+
+	/**
+	 * Tries to acquire access without waiting.
+	 *
+	 * @param shared
+	 *            true for RO access, false for RW access
+	 * @param barge
+	 *            true to ignore waiting applicants (waiting RW and heavy RO applicants are still respected by RO
+	 *            applicants if policy requires it)
+	 * @return true if access acquired
+	 */
+	protected final boolean tryAcquire(final boolean shared, final boolean barge) {
+		return tryAcquire(shared, 1, barge);
+	}
+
+	/**
+	 * Tries to acquire access without waiting.
+	 *
+	 * @param shared
+	 *            true for RO access, false for RW access
+	 * @param weight
+	 *            number of RO pass units, ignored for RW access
+	 * @param barge
+	 *            true to ignore waiting applicants (waiting RW and heavy RO applicants are still respected by RO
+	 *            applicants if policy requires it)
+	 * @return true if access acquired
+	 */
+	protected final boolean tryAcquire(final boolean shared, final int weight, final boolean barge) {
+		return tryAcquire(shared, false, weight, barge);
+	}
+
+	/**
+	 * Tries to acquire access without waiting.
+	 *
+	 * @param shared
+	 *            true for RO access, false for RW access
+	 * @param update
+	 *            true for update access, ignored for RW access
+	 * @param weight
+	 *            number of RO pass units, ignored for RW access
+	 * @param barge
+	 *            true to ignore waiting applicants (waiting RW and heavy RO applicants are still respected by RO
+	 *            applicants if policy requires it)
+	 * @return true if access acquired
+	 */
+	protected final boolean tryAcquire(final boolean shared, final boolean update, final int weight,
+			final boolean barge) {
+		for (;;) {
+			long s = getState();
+			if ( (!barge && (s & WAITERS) != 0) || (shared && (s & readersGate) != 0)
+					|| (shared && update && (s & UPDATER) != 0) || !isAvailable(s, shared, weight) ) {
+				return false;
+			}
+			if ( weakCompareAndSetState(s, s + delta(shared, update, weight)) ) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Gets the state word change made by the acquired access.
+	 *
+	 * @param shared
+	 *            true for RO access, false for RW access
+	 * @param update
+	 *            true for update access, ignored for RW access
+	 * @param weight
+	 *            number of RO pass units, ignored for RW access
+	 * @return
+	 */
+	private static long delta(final boolean shared, final boolean update, final int weight) {
+		if ( !shared ) {
+			return WRITER;
+		}
+		return update ? weight + UPDATER : weight;
+	}
+
+	/**
+	 * Tries to acquire access for the pass without waiting, ignoring waiting applicants.
+	 *
+	 * @param shared
+	 *            true for RO access, false for RW access
+	 * @param weight
+	 *            number of RO pass units, ignored for RW access
+	 * @return true if access and rate limit token acquired
+	 */
+	protected final boolean tryAcquirePass(final boolean shared, final int weight) {
+		return tryAcquirePass(shared, false, weight);
+	}
+
+	/**
+	 * Tries to acquire access for the pass without waiting, ignoring waiting applicants.
+	 *
+	 * @param shared
+	 *            true for RO access, false for RW access
+	 * @param update
+	 *            true for update access, ignored for RW access
+	 * @param weight
+	 *            number of RO pass units, ignored for RW access
+	 * @return true if access and rate limit token acquired
+	 */
+	protected final boolean tryAcquirePass(final boolean shared, final boolean update, final int weight) {
+		if ( rateLimit != null && reserveRate(0L) != 0L ) {
+			return false;
+		}
+		if ( tryAcquire(shared, update, weight, true) ) {
+			return true;
+		}
+		if ( rateLimit != null ) {
+			refundRate();
+		}
+		return false;
+	}
+
+	/**
+	 * Tries to acquire access on behalf of the waiting applicant.
+	 *
+	 * @return true if access acquired
+	 */
+	private boolean tryAcquireQueued(final Waiter w) {
+		for (;;) {
+			long s = getState();
+			if ( (w.update && (s & UPDATER) != 0) || !isAvailable(s, w.shared, w.weight) ) {
+				return false;
+			}
+			if ( weakCompareAndSetState(s, s + delta(w.shared, w.update, w.weight)) ) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Acquires access, waiting if necessary.
+	 *
+	 * @param shared
+	 *            true for RO access, false for RW access
+	 * @param interruptible
+	 * @param nanosTimeout
+	 *            max time to wait or negative value to wait without timeout
+	 * @return true if access acquired; false if timeout elapsed
+	 * @throws InterruptedException
+	 */
+	protected final boolean acquire(final boolean shared, final boolean interruptible, final long nanosTimeout)
+			throws InterruptedException {
+		return acquire(shared, 1, interruptible, nanosTimeout);
+	}
+
+	/**
+	 * Acquires access, waiting if necessary.
+	 *
+	 * @param shared
+	 *            true for RO access, false for RW access
+	 * @param weight
+	 *            number of RO pass units, ignored for RW access
+	 * @param interruptible
+	 * @param nanosTimeout
+	 *            max time to wait or negative value to wait without timeout
+	 * @return true if access acquired; false if timeout elapsed
+	 * @throws InterruptedException
+	 */
+	protected final boolean acquire(final boolean shared, final int weight, final boolean interruptible,
+			final long nanosTimeout) throws InterruptedException {
+		return acquire(shared, weight, WaitScheduler.NORM_PRIORITY, interruptible, nanosTimeout);
+	}
+
+	/**
+	 * Acquires access, waiting if necessary.
+	 *
+	 * @param shared
+	 *            true for RO access, false for RW access
+	 * @param weight
+	 *            number of RO pass units, ignored for RW access
+	 * @param priority
+	 *            priority of the applicant for the wait scheduler
+	 * @param interruptible
+	 * @param nanosTimeout
+	 *            max time to wait or negative value to wait without timeout
+	 * @return true if access acquired; false if timeout elapsed
+	 * @throws InterruptedException
+	 */
+	protected final boolean acquire(final boolean shared, final int weight, final int priority,
+			final boolean interruptible, final long nanosTimeout) throws InterruptedException {
+		return acquire(shared, false, weight, priority, interruptible, nanosTimeout);
+	}
+
+	/**
+	 * Acquires access, waiting if necessary.
+	 *
+	 * @param shared
+	 *            true for RO access, false for RW access
+	 * @param update
+	 *            true for update access, ignored for RW access
+	 * @param weight
+	 *            number of RO pass units, ignored for RW access
+	 * @param priority
+	 *            priority of the applicant for the wait scheduler
+	 * @param interruptible
+	 * @param nanosTimeout
+	 *            max time to wait or negative value to wait without timeout
+	 * @return true if access acquired; false if timeout elapsed
+	 * @throws InterruptedException
+	 */
+	protected final boolean acquire(final boolean shared, final boolean update, final int weight, final int priority,
+			final boolean interruptible, final long nanosTimeout) throws InterruptedException {
+		if ( interruptible && Thread.interrupted() ) {
+			throw new InterruptedException();
+		}
+		if ( rateLimit == null ) {
+			return acquireUnrated(shared, update, weight, priority, interruptible, nanosTimeout);
+		}
+		// the token is awaited first, so the applicant does not hold the place while the token is not due
+		final long start = nanosTimeout > 0L ? System.nanoTime() : 0L;
+		if ( !awaitRate(interruptible, nanosTimeout) ) {
+			return false;
+		}
+		boolean acquired = false;
+		try {
+			acquired = acquireUnrated(shared, update, weight, priority, interruptible,
+					nanosTimeout > 0L ? Math.max(0L, nanosTimeout - (System.nanoTime() - start)) : nanosTimeout);
+			return acquired;
+		} finally {
+			if ( !acquired ) {
+				refundRate();
+			}
+		}
+	}
+
+	private boolean acquireUnrated(final boolean shared, final boolean update, final int weight, final int priority,
+			final boolean interruptible, final long nanosTimeout) throws InterruptedException {
+		if ( tryAcquire(shared, update, weight, !fair) ) {
+			return true;
+		}
+		return nanosTimeout != 0L && await(shared, update, weight, priority, interruptible, nanosTimeout);
+	}
+
+	/**
+	 * Reserves rate limit token.
+	 *
+	 * @param maxWaitNanos
+	 *            max time to wait for the token, 0 to take it only if available at once or negative value to wait
+	 *            without timeout
+	 * @return time to wait until the reserved token is available or -1 if nothing reserved
+	 */
+	protected final long reserveRate(final long maxWaitNanos) {
+		for (;;) {
+			long tat = getRateState();
+			long now = System.nanoTime();
+			long delay = rateLimit.delay(tat, now);
+			if ( maxWaitNanos >= 0L && delay > maxWaitNanos ) {
+				return -1L;
+			}
+			if ( compareAndSetRateState(tat, rateLimit.next(tat, now + delay)) ) {
+				return delay;
+			}
+		}
+	}
+
+	/**
+	 * Gives back the token reserved by the applicant which did not get the pass or rolled it back.
+	 */
+	protected final void refundRate() {
+		for (;;) {
+			long tat = getRateState();
+			if ( compareAndSetRateState(tat, rateLimit.refund(tat)) ) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Reserves rate limit token and waits until it is available. Reserved token is given back if the thread is
+	 * interrupted while waiting in interruptible mode.
+	 *
+	 * @param interruptible
+	 * @param nanosTimeout
+	 *            max time to wait, 0 to take token only if available at once or negative value to wait without timeout
+	 * @return true if token taken; false if it is not available within timeout
+	 * @throws InterruptedException
+	 */
+	private boolean awaitRate(final boolean interruptible, final long nanosTimeout) throws InterruptedException {
+		long delay = reserveRate(nanosTimeout);
+		if ( delay <= 0L ) {
+			return delay == 0L;
+		}
+		final long deadline = System.nanoTime() + delay;
+		boolean interrupted = false;
+		for (long remaining = delay; remaining > 0L; remaining = deadline - System.nanoTime()) {
+			LockSupport.parkNanos(this, remaining);
+			if ( Thread.interrupted() ) {
+				if ( interruptible ) {
+					refundRate();
+					throw new InterruptedException();
+				}
+				interrupted = true;
+			}
+		}
+		if ( interrupted ) {
+			Thread.currentThread().interrupt();
+		}
+		return true;
+	}
+
+	protected final void acquireUninterruptibly(final boolean shared) {
+		try {
+			acquire(shared, false, -1L);
+		} catch (InterruptedException e) {
+			// not thrown in uninterruptible mode
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns previously acquired access and grants access to the waiters if any.
+	 *
+	 * @param shared
+	 *            true for RO access, false for RW access
+	 */
+	protected final void release(final boolean shared) {
+		release(shared, 1);
+	}
+
+	/**
+	 * Returns previously acquired access and grants access to the waiters if any.
+	 *
+	 * @param shared
+	 *            true for RO access, false for RW access
+	 * @param weight
+	 *            number of RO pass units, ignored for RW access
+	 */
+	protected final void release(final boolean shared, final int weight) {
+		release(shared, false, weight);
+	}
+
+	/**
+	 * Returns previously acquired access and grants access to the waiters if any.
+	 *
+	 * @param shared
+	 *            true for RO access, false for RW access
+	 * @param update
+	 *            true for update access, ignored for RW access
+	 * @param weight
+	 *            number of RO pass units, ignored for RW access
+	 */
+	protected final void release(final boolean shared, final boolean update, final int weight) {
+		dispatchIfWaiters(getAndAddState(-delta(shared, update, weight)), !shared);
+	}
+
+	/**
+	 * Grants access to the waiters if there were any before the access was returned.
+	 *
+	 * @param prev
+	 *            state word before the access was returned
+	 * @param afterRW
+	 *            true if RW access was returned
+	 */
+	private void dispatchIfWaiters(final long prev, final boolean afterRW) {
+		if ( (prev & WAITERS) != 0 ) {
+			WaitQueue q = getWaitQueue(false);
+			if ( q != null ) {
+				q.lock.lock();
+				try {
+					// dead queue was emptied after this pass was returned
+					if ( !q.dead ) {
+						dispatch(q, afterRW);
+					}
+				} finally {
+					unlock(q);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Grants access to the waiters of this resource data if it is available and raises the hints of the waiters left.
+	 * Should be called periodically when the state word may be changed by the releasers which do not see the wait
+	 * queue, e.g. by other processes sharing the state word.
+	 */
+	protected final void dispatchWaiters() {
+		WaitQueue q = getWaitQueue(false);
+		if ( q != null ) {
+			q.lock.lock();
+			try {
+				if ( !q.dead ) {
+					dispatch(q, false);
+					if ( !q.isEmpty() ) {
+						raiseWaiterHints(q);
+					}
+				}
+			} finally {
+				unlock(q);
+			}
+		}
+	}
+
+	/**
+	 * Sets the hints of the waiters left in the queue, they may be cleared by the releasers which do not see the wait
+	 * queue.
+	 */
+	private void raiseWaiterHints(final WaitQueue q) {
+		long hints = WAITERS | (q.writers != 0 ? WRITER_WAITING : 0L) | (q.heavy != 0 ? HEAVY_WAITING : 0L);
+		if ( (getState() & hints) != hints ) {
+			getAndBitwiseOrState(hints);
+		}
+	}
+
+	/**
+	 * Marks the resource as held for update on behalf of the RO pass which is going to upgrade.
+	 *
+	 * @return false if the resource is already held for update
+	 */
+	private boolean tryLockUpdate() {
+		for (;;) {
+			long s = getState();
+			if ( (s & UPDATER) != 0 ) {
+				return false;
+			}
+			if ( weakCompareAndSetState(s, s | UPDATER) ) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Exchanges RO pass units of the resource held for update to RW access if there are no other RO passes.
+	 *
+	 * @param weight
+	 *            number of RO pass units held by the upgrading pass
+	 * @return true if RW access acquired
+	 */
+	private boolean tryUpgrade(final int weight) {
+		for (;;) {
+			long s = getState();
+			if ( (s & READERS_MASK) != weight ) {
+				return false;
+			}
+			if ( weakCompareAndSetState(s, ((s - weight) & ~(UPDATER | UPGRADING)) | WRITER) ) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Waits until other RO passes are returned and exchanges RO pass units of the upgrading pass to RW access. New RO
+	 * applicants wait while the pass is upgrading. If interrupted the pass keeps its RO access.
+	 *
+	 * @param update
+	 *            true if update pass is upgrading
+	 * @param weight
+	 *            number of RO pass units held by the upgrading pass
+	 * @param nanosTimeout
+	 *            max time to wait or -1 to wait until upgraded
+	 * @return false if the waiting time elapsed
+	 * @throws InterruptedException
+	 */
+	private boolean awaitUpgrade(final boolean update, final int weight, final long nanosTimeout)
+			throws InterruptedException {
+		final Waiter w = new Waiter(Thread.currentThread(), true, update, weight, 0L);
+		WaitQueue q;
+		for (;;) {
+			q = getWaitQueue(true);
+			q.lock.lock();
+			try {
+				if ( q.dead ) {
+					continue;
+				}
+				// only the holder of the resource held for update may upgrade
+				q.upgrader = w;
+				getAndBitwiseOrState(WAITERS | UPGRADING);
+				// other RO passes might be returned before WAITERS flag set so nobody else will grant it
+				dispatch(q, false);
+				break;
+			} finally {
+				unlock(q);
+			}
+		}
+		final long deadline = nanosTimeout >= 0L ? System.nanoTime() + nanosTimeout : 0L;
+		boolean interrupted = false;
+		while (!w.granted) {
+			if ( nanosTimeout >= 0L ) {
+				long remaining = deadline - System.nanoTime();
+				if ( remaining <= 0L ) {
+					if ( cancelUpgrade(q, w) ) {
+						break;
+					}
+					return false;
+				}
+				LockSupport.parkNanos(this, remaining);
+			} else {
+				LockSupport.park(this);
+			}
+			if ( Thread.interrupted() ) {
+				if ( cancelUpgrade(q, w) ) {
+					// upgrade granted concurrently with interruption, keep it and restore interrupted status
+					interrupted = true;
+					break;
+				}
+				throw new InterruptedException();
+			}
+		}
+		if ( interrupted ) {
+			Thread.currentThread().interrupt();
+		}
+		return true;
+	}
+
+	/**
+	 * Stops waiting for the upgrade and lets RO applicants in.
+	 *
+	 * @return true if the upgrade was granted before it was cancelled
+	 */
+	private boolean cancelUpgrade(final WaitQueue q, final Waiter w) {
+		q.lock.lock();
+		try {
+			if ( w.granted ) {
+				return true;
+			}
+			q.upgrader = null;
+			// RO pass marked the resource as held for update only for the upgrade
+			getAndBitwiseAndState(w.update ? ~UPGRADING : ~(UPGRADING | UPDATER));
+			dispatch(q, false);
+			return false;
+		} finally {
+			unlock(q);
+		}
+	}
+
+	/**
+	 * Acquires access without blocking the calling thread. Applicant waits in the queue as a node which completes
+	 * the future when access is granted, cancelling the future removes applicant from the queue.
+	 *
+	 * @param checkpoint
+	 *            checkpoint for the pass created on grant
+	 * @param shared
+	 *            true for RO access, false for RW access
+	 * @return future completed with the pass
+	 */
+	protected final CompletableFuture<Pass> acquireAsync(final ACheckpoint checkpoint, final boolean shared) {
+		if ( rateLimit == null ) {
+			return acquireAsyncUnrated(checkpoint, shared);
+		}
+		final CompletableFuture<Pass> result = new CompletableFuture<Pass>();
+		final long delay = reserveRate(-1L);
+		final Executor executor = delay == 0L ? Runnable::run
+				: CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS);
+		// applicant queues for the place only when its token is due
+		executor.execute(() -> acquireAsyncRated(checkpoint, shared, result));
+		return result;
+	}
+
+	private void acquireAsyncRated(final ACheckpoint checkpoint, final boolean shared,
+			final CompletableFuture<Pass> result) {
+		if ( result.isDone() ) {
+			// request was cancelled while waiting for the rate limit token
+			refundRate();
+			return;
+		}
+		final CompletableFuture<Pass> granted;
+		try {
+			granted = acquireAsyncUnrated(checkpoint, shared);
+		} catch (RuntimeException | Error e) {
+			refundRate();
+			result.completeExceptionally(e);
+			return;
+		}
+		granted.whenComplete((pass, e) -> {
+			if ( e != null ) {
+				refundRate();
+				result.completeExceptionally(e);
+			} else if ( !result.complete(pass) ) {
+				rollbackPass(pass);
+			}
+		});
+		result.whenComplete((pass, e) -> {
+			if ( result.isCancelled() ) {
+				granted.cancel(false);
+			}
+		});
+	}
+
+	private CompletableFuture<Pass> acquireAsyncUnrated(final ACheckpoint checkpoint, final boolean shared) {
+		if ( tryAcquire(shared, !fair) ) {
+			return CompletableFuture.completedFuture(newPass(checkpoint, shared));
+		}
+		final CompletableFuture<Pass> future = new CompletableFuture<Pass>();
+		final Waiter w = new Waiter(future, checkpoint, shared, 1, rank(shared, 1, WaitScheduler.NORM_PRIORITY));
+		final WaitQueue q = enqueue(w);
+		if ( q == null ) {
+			return tryAcquire(shared, true) ? CompletableFuture.completedFuture(newPass(checkpoint, shared))
+					: CompletableFuture.failedFuture(PassRejectedException.QUEUE_FULL);
+		}
+		if ( w.overloaded && !cancel(q, w) ) {
+			// async applicant has no deadline to shorten, reject it at once
+			return CompletableFuture.failedFuture(PassRejectedException.OVERLOADED);
+		}
+		future.whenComplete((pass, e) -> {
+			if ( future.isCancelled() ) {
+				cancel(q, w);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Adds waiter to the wait queue and grants it access if access was returned before the waiter was added.
+	 *
+	 * @return queue the waiter was added to or null if waiter limit is exceeded
+	 */
+	private WaitQueue enqueue(final Waiter w) {
+		for (;;) {
+			WaitQueue q = getWaitQueue(true);
+			q.lock.lock();
+			try {
+				if ( q.dead ) {
+					continue;
+				}
+				if ( waiterLimit != null && !waiterLimit.tryAdd(q.waiters.size()) ) {
+					if ( q.isEmpty() ) {
+						onQueueEmpty(q);
+					}
+					return null;
+				}
+				if ( overload != null ) {
+					long now = System.nanoTime();
+					if ( q.waiters.isEmpty() ) {
+						q.grantedNanos = now;
+						q.aboveTarget = false;
+					}
+					w.enqueuedNanos = now;
+					w.overloaded = (q.aboveTarget && overload.isOverloaded(q.aboveSinceNanos, now))
+							|| overload.isOverloaded(q.grantedNanos, now);
+				}
+				q.add(w, w.overloaded && overload.isAdaptiveLifo());
+				if ( !w.shared ) {
+					getAndBitwiseOrState(WAITERS | WRITER_WAITING);
+				} else {
+					getAndBitwiseOrState(w.weight > 1 ? WAITERS | HEAVY_WAITING : WAITERS);
+				}
+				// pass might be returned before WAITERS flag set so nobody else will grant it
+				dispatch(q, false);
+				return q;
+			} finally {
+				unlock(q);
+			}
+		}
+	}
+
+	/**
+	 * Ranks new waiter.
+	 *
+	 * @return rank given by the scheduler or 0 if there is no scheduler
+	 */
+	private long rank(final boolean shared, final int weight, final int priority) {
+		if ( scheduler == null ) {
+			return 0L;
+		}
+		return scheduler.rank(shared, weight, priority, shared ? roHoldNanos : rwHoldNanos);
+	}
+
+	private boolean await(final boolean shared, final boolean update, final int weight, final int priority,
+			final boolean interruptible, final long nanosTimeout) throws InterruptedException {
+		Waiter w = new Waiter(Thread.currentThread(), shared, update, weight, rank(shared, weight, priority));
+		WaitQueue q = enqueue(w);
+		if ( q == null ) {
+			// pass might be returned while the applicant was rejected
+			if ( tryAcquire(shared, update, weight, true) ) {
+				return true;
+			}
+			if ( nanosTimeout < 0L ) {
+				throw PassRejectedException.QUEUE_FULL;
+			}
+			return false;
+		}
+
+		// applicant queued in the overloaded queue waits for at most target delay
+		final boolean reject = w.overloaded && (nanosTimeout < 0L || nanosTimeout > overload.getTargetNanos());
+		final long timeout = reject ? overload.getTargetNanos() : nanosTimeout;
+		final long deadline = timeout > 0L ? System.nanoTime() + timeout : 0L;
+		boolean interrupted = false;
+		while (!w.granted) {
+			if ( timeout > 0L ) {
+				long remaining = deadline - System.nanoTime();
+				if ( remaining <= 0L ) {
+					if ( cancel(q, w) ) {
+						break;
+					}
+					if ( reject ) {
+						if ( interrupted ) {
+							Thread.currentThread().interrupt();
+						}
+						throw PassRejectedException.OVERLOADED;
+					}
+					return false;
+				}
+				LockSupport.parkNanos(this, remaining);
+			} else {
+				LockSupport.park(this);
+			}
+			if ( Thread.interrupted() ) {
+				if ( !interruptible ) {
+					interrupted = true;
+				} else if ( cancel(q, w) ) {
+					// access granted concurrently with interruption, keep it and restore interrupted status
+					interrupted = true;
+					break;
+				} else {
+					throw new InterruptedException();
+				}
+			}
+		}
+		if ( interrupted ) {
+			Thread.currentThread().interrupt();
+		}
+		return true;
+	}
+
+	/**
+	 * Removes waiter from the queue.
+	 *
+	 * @return true if access was granted to the waiter before it was removed
+	 */
+	private boolean cancel(final WaitQueue q, final Waiter w) {
+		q.lock.lock();
+		try {
+			if ( w.granted ) {
+				return true;
+			}
+			q.remove(w);
+			// waiting RW applicant might block RO applicants behind it
+			dispatch(q, false);
+			return false;
+		} finally {
+			unlock(q);
+		}
+	}
+
+	/**
+	 * Releases the queue lock and completes futures of the async waiters granted under the lock, so pass consumers
+	 * never run under the queue lock.
+	 * <br/>
+	 * <br/>
+	 * Futures are completed by a single draining thread at a time. Passes returned by the consumers grant next async
+	 * waiters and leave them to the draining thread instead of completing them recursively.
+	 */
+	private void unlock(final WaitQueue q) {
+		if ( q.completions == null || q.draining ) {
+			q.lock.unlock();
+			return;
+		}
+		q.draining = true;
+		for (;;) {
+			Waiter granted = q.completions;
+			q.completions = null;
+			if ( granted == null ) {
+				q.draining = false;
+				q.lock.unlock();
+				return;
+			}
+			q.lock.unlock();
+			try {
+				complete(granted);
+			} finally {
+				q.lock.lock();
+			}
+		}
+	}
+
+	/**
+	 * Completes futures of the granted async waiters.
+	 */
+	private void complete(Waiter granted) {
+		while (granted != null) {
+			Waiter w = granted;
+			granted = w.next;
+			w.next = null;
+			Pass pass;
+			try {
+				pass = newPass(w.checkpoint, w.shared, w.weight);
+			} catch (Throwable e) {
+				w.future.completeExceptionally(e);
+				continue;
+			}
+			if ( !w.future.complete(pass) ) {
+				// future was cancelled concurrently with the grant
+				release(w.shared, w.weight);
+			}
+		}
+	}
+
+	/**
+	 * Grants access to the waiting applicants while it is available. Should be called under the queue lock.
+	 *
+	 * @param afterRW
+	 *            true if RW pass was just returned
+	 */
+	private void dispatch(final WaitQueue q, final boolean afterRW) {
+		final Waiter upgrader = q.upgrader;
+		if ( upgrader != null ) {
+			if ( !tryUpgrade(upgrader.weight) ) {
+				// other RO passes are still active, nothing else may be granted until they are returned
+				return;
+			}
+			q.upgrader = null;
+			upgrader.granted = true;
+			LockSupport.unpark(upgrader.thread);
+		}
+		if ( fair ) {
+			for (Iterator<Waiter> it = q.waiters.iterator(); it.hasNext();) {
+				Waiter w = it.next();
+				if ( !tryAcquireQueued(w) ) {
+					break;
+				}
+				it.remove();
+				q.grant(w);
+			}
+		} else if ( q.writers == 0 ) {
+			grantReaders(q);
+		} else {
+			switch (policy) {
+			case READER_PREFERRING:
+				for (Iterator<Waiter> it = q.waiters.iterator(); it.hasNext();) {
+					Waiter w = it.next();
+					if ( tryAcquireQueued(w) ) {
+						it.remove();
+						q.grant(w);
+					} else if ( isUpdateLocked(w) ) {
+						continue;
+					} else if ( w.shared || (getState() & WRITER) != 0 ) {
+						// no more RO passes available or RW pass is active
+						break;
+					}
+				}
+				break;
+			case WRITER_PREFERRING:
+				grantWriter(q);
+				break;
+			case PHASE_FAIR:
+				if ( !afterRW || !grantReaders(q) ) {
+					grantWriter(q);
+				}
+				break;
+			}
+		}
+		long clear = q.writers == 0 ? WRITER_WAITING : 0L;
+		if ( q.heavy == 0 ) {
+			clear |= HEAVY_WAITING;
+		}
+		if ( q.isEmpty() ) {
+			clear |= WAITERS;
+		}
+		if ( clear != 0L ) {
+			getAndBitwiseAndState(~clear);
+		}
+		if ( q.isEmpty() ) {
+			onQueueEmpty(q);
+		}
+	}
+
+	/**
+	 * Checks if the waiter can't be granted access only because another update pass is active, so RO applicants
+	 * behind it still may be granted.
+	 */
+	private boolean isUpdateLocked(final Waiter w) {
+		return w.update && (getState() & UPDATER) != 0;
+	}
+
+	/**
+	 * Grants RO access to the waiting RO applicants while it is available.
+	 *
+	 * @return true if any RO applicant was granted access
+	 */
+	private boolean grantReaders(final WaitQueue q) {
+		boolean granted = false;
+		for (Iterator<Waiter> it = q.waiters.iterator(); it.hasNext();) {
+			Waiter w = it.next();
+			if ( w.shared ) {
+				if ( !tryAcquireQueued(w) ) {
+					if ( isUpdateLocked(w) ) {
+						continue;
+					}
+					break;
+				}
+				it.remove();
+				q.grant(w);
+				granted = true;
+			}
+		}
+		return granted;
+	}
+
+	/**
+	 * Grants RW access to the first waiting RW applicant if it is available.
+	 */
+	private void grantWriter(final WaitQueue q) {
+		for (Iterator<Waiter> it = q.waiters.iterator(); it.hasNext();) {
+			Waiter w = it.next();
+			if ( !w.shared ) {
+				if ( tryAcquireQueued(w) ) {
+					it.remove();
+					q.grant(w);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Reads the state word.
+	 *
+	 * @return
+	 */
+	protected abstract long getState();
+
+	protected abstract boolean weakCompareAndSetState(long expect, long update);
+
+	protected abstract long getAndAddState(long delta);
+
+	protected abstract long getAndBitwiseOrState(long bits);
+
+	protected abstract long getAndBitwiseAndState(long bits);
+
+	/**
+	 * Reads theoretical arrival time of the next pass. Should be overridden by the subclasses which support rate
+	 * limit.
+	 *
+	 * @return
+	 */
+	protected long getRateState() {
+		throw new UnsupportedOperationException("Rate limit is not supported by " + getClass().getSimpleName());
+	}
+
+	protected boolean compareAndSetRateState(long expect, long update) {
+		throw new UnsupportedOperationException("Rate limit is not supported by " + getClass().getSimpleName());
+	}
+
+	/**
+	 * Gets wait queue of this resource.
+	 *
+	 * @param create
+	 *            true to create wait queue if there is none
+	 * @return wait queue or null if there is none and create is false
+	 */
+	protected abstract WaitQueue getWaitQueue(boolean create);
+
+	/**
+	 * Called under the queue lock when the last waiter left the queue. Queue storage may drop the queue, in that case
+	 * the queue should be marked dead.
+	 *
+	 * @param q
+	 */
+	protected void onQueueEmpty(final WaitQueue q) {
+	}
+
+	/**
+	 * Creates wait queue which keeps waiters in the order of the scheduler and counts them for the waiter limit.
+	 *
+	 * @return
+	 */
+	protected final WaitQueue newWaitQueue() {
+		return new WaitQueue(scheduler != null, waiterLimit, overload);
+	}
+
+	/**
+	 * Applicants waiting for the resource.
+	 */
+	protected static final class WaitQueue {
+		/* orders ranked waiters, waiters with equal rank are ordered by arrival */
+		static final Comparator<Waiter> RANK_ORDER = new Comparator<Waiter>() {
+			@Override
+			public int compare(Waiter w1, Waiter w2) {
+				int c = Long.compare(w1.rank, w2.rank);
+				return c != 0 ? c : Long.compare(w1.seq, w2.seq);
+			}
+		};
+
+		final ReentrantLock lock = new ReentrantLock();
+		final Collection<Waiter> waiters;
+		/* arrival number of the next ranked waiter */
+		long seq;
+		/* System.nanoTime() of the last grant or when the queue became not empty, tracked for the overload control */
+		long grantedNanos;
+		/* every waiter granted since aboveSinceNanos waited longer than the overload control target */
+		boolean aboveTarget;
+		long aboveSinceNanos;
+		/* waiter limit which counts waiters of this queue or null */
+		final WaiterLimit waiterLimit;
+		/* overload control which measures the wait of the granted waiters or null */
+		final OverloadControl overload;
+		/* number of waiting RW applicants */
+		int writers;
+		/* number of waiting RO applicants requesting more than one unit */
+		int heavy;
+		/* queue was dropped by the queue storage and should not be used */
+		boolean dead;
+		/* pass waiting for the upgrade, it is granted before the other waiters */
+		Waiter upgrader;
+		/* async waiters granted under the lock, their futures are completed after unlock */
+		Waiter completions;
+		/* some thread completes futures of the granted async waiters */
+		boolean draining;
+
+		/**
+		 * Creates first-in first-out wait queue.
+		 */
+		WaitQueue() {
+			this(false, null, null);
+		}
+
+		/**
+		 * Creates wait queue.
+		 *
+		 * @param ranked
+		 *            true to order waiters by rank, false for first-in first-out order
+		 * @param waiterLimit
+		 *            limit which counts waiters of this queue or null
+		 * @param overload
+		 *            overload control which measures the wait of the granted waiters or null
+		 */
+		WaitQueue(boolean ranked, WaiterLimit waiterLimit, OverloadControl overload) {
+			this.waiters = ranked ? new TreeSet<Waiter>(RANK_ORDER) : new ArrayDeque<Waiter>();
+			this.waiterLimit = waiterLimit;
+			this.overload = overload;
+		}
+
+		/**
+		 * Checks if there are no waiters including the upgrading pass.
+		 */
+		boolean isEmpty() {
+			return waiters.isEmpty() && upgrader == null;
+		}
+
+		/**
+		 * Adds waiter to the queue.
+		 *
+		 * @param w
+		 * @param lifo
+		 *            true to serve the waiter before the waiters with the same rank queued earlier
+		 */
+		void add(Waiter w, boolean lifo) {
+			w.seq = lifo ? -(++seq) : seq++;
+			if ( lifo && waiters instanceof ArrayDeque ) {
+				((ArrayDeque<Waiter>) waiters).addFirst(w);
+			} else {
+				waiters.add(w);
+			}
+			count(w, 1);
+		}
+
+		void remove(Waiter w) {
+			if ( waiters.remove(w) ) {
+				count(w, -1);
+				if ( waiterLimit != null ) {
+					waiterLimit.remove();
+				}
+			}
+		}
+
+		void count(Waiter w, int delta) {
+			if ( !w.shared ) {
+				writers += delta;
+			} else if ( w.weight > 1 ) {
+				heavy += delta;
+			}
+		}
+
+		/**
+		 * Marks waiter removed from the queue as granted and wakes it up.
+		 */
+		void grant(Waiter w) {
+			count(w, -1);
+			if ( waiterLimit != null ) {
+				waiterLimit.remove();
+			}
+			if ( overload != null ) {
+				// minimum wait over the interval exceeds the target only if no waiter met the target
+				grantedNanos = System.nanoTime();
+				if ( !overload.isAboveTarget(grantedNanos - w.enqueuedNanos) ) {
+					aboveTarget = false;
+				} else if ( !aboveTarget ) {
+					aboveTarget = true;
+					aboveSinceNanos = grantedNanos;
+				}
+			}
+			w.granted = true;
+			if ( w.thread != null ) {
+				LockSupport.unpark(w.thread);
+			} else {
+				w.next = completions;
+				completions = w;
+			}
+		}
+	}
+
+	/**
+	 * Single waiting applicant, either parked thread or async applicant waiting for the future completion.
+	 */
+	protected static final class Waiter {
+		final Thread thread;
+		final CompletableFuture<Pass> future;
+		final ACheckpoint checkpoint;
+		final boolean shared;
+		/* RO applicant requests update access */
+		final boolean update;
+		/* number of RO pass units */
+		final int weight;
+		/* rank given by the scheduler */
+		final long rank;
+		/* arrival number in the ranked queue */
+		long seq;
+		/* System.nanoTime() when the waiter was queued, tracked for the overload control */
+		long enqueuedNanos;
+		/* waiter was queued while the queue was overloaded */
+		boolean overloaded;
+		volatile boolean granted;
+		/* next granted async waiter */
+		Waiter next;
+
+		Waiter(Thread thread, boolean shared, boolean update, int weight, long rank) {
+			this.thread = thread;
+			this.future = null;
+			this.checkpoint = null;
+			this.shared = shared;
+			this.update = update;
+			this.weight = weight;
+			this.rank = rank;
+		}
+
+		Waiter(CompletableFuture<Pass> future, ACheckpoint checkpoint, boolean shared, int weight, long rank) {
+			this.thread = null;
+			this.future = future;
+			this.checkpoint = checkpoint;
+			this.shared = shared;
+			this.update = false;
+			this.weight = weight;
+			this.rank = rank;
+		}
+	}
+}
@@ -16,6 +16,13 @@
 
 package zur13.checkpoint.resource;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -32,13 +39,50 @@ import zur13.checkpoint.Pass;
  *
  */
 public abstract class AResourceData {
+	protected static final String UPDATE_LOCKED =
+			"Resource is held for update by another pass, use update pass to upgrade without deadlock";
+	/* source of the lock order tie-breakers */
+	private static final AtomicLong LOCK_ORDER_SEQUENCE = new AtomicLong();
+	/* threads waiting for the async passes of the resource data which can't queue async applicants */
+	private static final ExecutorService ASYNC_WAITERS = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "checkpoint-async-waiter");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private static final VarHandle LOCK_ORDER;
+
+	static {
+		try {
+			LOCK_ORDER = MethodHandles.lookup().findVarHandle(AResourceData.class, "lockOrder", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
 
 	protected final Object resourceId;
-	protected final AtomicLong refCounter = new AtomicLong(1);
+	protected final AtomicLong refCounter;
+	/* lock order tie-breaker, 0 until first requested */
+	private volatile long lockOrder;
 
 	public AResourceData(Object resourceId) {
+		this(resourceId, true);
+	}
+
+	/**
+	 * Instantiate a resource data object.
+	 * 
+	 * @param resourceId
+	 * @param refCounted
+	 *            false if resource data storage does not count references to this resource data (getRefCounter()
+	 *            returns null)
+	 */
+	protected AResourceData(Object resourceId, boolean refCounted) {
 		super();
 		this.resourceId = resourceId;
+		this.refCounter = refCounted ? new AtomicLong(1) : null;
 	}
 
 	public Object getResourceId() {
@@ -49,6 +93,24 @@ public abstract class AResourceData {
 		return this.refCounter;
 	}
 
+	/**
+	 * Gets unique sequence number of this resource data, assigned on the first call and stable afterwards. Orders
+	 * resource data whose resource ids can't be told apart otherwise.
+	 * 
+	 * @return positive number
+	 */
+	public long getLockOrder() {
+		long order = lockOrder;
+		if ( order == 0L ) {
+			long next = LOCK_ORDER_SEQUENCE.incrementAndGet();
+			order = (long) LOCK_ORDER.compareAndExchange(this, 0L, next);
+			if ( order == 0L ) {
+				order = next;
+			}
+		}
+		return order;
+	}
+
 	/**
 	 * Requests RO pass for this resource blocking until one is available, or the thread is interrupted. <br/>
 	 * <br/>
@@ -93,10 +155,6 @@ public abstract class AResourceData {
 	 * Multiple RO passes available for each resource but none can't be received while there is active RW pass. <br/>
 	 * Returns pass if there is at least one available RO pass and there is no active RW pass for specified resource at
 	 * the time of invocation.
-	 * <br/>
-	 * <br/>
-	 * WARN: timeout is not precise and may take double time until timeout happens in case of global pass limit used
-	 * (internally there are 2 consecutive places where it is used) <br/>
 	 * 
 	 * @param checkpoint
 	 * @return resource pass or null if no RO passes available or RW pass active
@@ -144,10 +202,6 @@ public abstract class AResourceData {
 	 * <br/>
 	 * Single RW pass available for each resource and it can't be received while there are active RO passes. <br/>
 	 * Returns pass if no active RO and RW passes for specified resource at the time of invocation.
-	 * <br/>
-	 * <br/>
-	 * WARN: timeout is not precise and may take double time until timeout happens in case of global pass limit used
-	 * (internally there are 2 consecutive places where it is used) <br/>
 	 * 
 	 * @param checkpoint
 	 * @param timeout
@@ -159,6 +213,250 @@ public abstract class AResourceData {
 	 */
 	public abstract Pass tryGetPassRW(ACheckpoint checkpoint, long timeout, TimeUnit unit) throws InterruptedException;
 
+	/**
+	 * Requests weighted RO pass for this resource blocking until one is available, or the thread is interrupted.
+	 * <br/>
+	 * <br/>
+	 * Weighted RO pass takes weight units of the max active passes limit of the resource instead of one.
+	 * 
+	 * @param checkpoint
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	public abstract Pass getPass(ACheckpoint checkpoint, int weight) throws InterruptedException;
+
+	/**
+	 * Requests weighted RO pass for this resource blocking until one is available, see getPass(ACheckpoint, int).
+	 * 
+	 * @param checkpoint
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource
+	 * @return resource pass
+	 */
+	public abstract Pass getPassUninterruptibly(ACheckpoint checkpoint, int weight);
+
+	/**
+	 * Requests weighted RO pass for this resource, returns pass only if one is available at the time of invocation,
+	 * see getPass(ACheckpoint, int).
+	 * 
+	 * @param checkpoint
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource
+	 * @return resource pass or null if not enough units available or RW pass active
+	 */
+	public abstract Pass tryGetPass(ACheckpoint checkpoint, int weight);
+
+	/**
+	 * Requests weighted RO pass for this resource, returns pass if one becomes available within the given waiting
+	 * time and the current thread has not been interrupted, see getPass(ACheckpoint, int).
+	 * 
+	 * @param checkpoint
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource
+	 * @return resource pass or null if not enough units available or RW pass active
+	 * @throws InterruptedException
+	 */
+	public abstract Pass tryGetPass(ACheckpoint checkpoint, int weight, long timeout, TimeUnit unit)
+			throws InterruptedException;
+
+	/**
+	 * Requests weighted RO pass for this resource blocking until one is available, or the thread is interrupted, see
+	 * getPass(ACheckpoint, int). <br/>
+	 * <br/>
+	 * Priority is used by the wait scheduler of the resource data, by default it is ignored.
+	 * 
+	 * @param checkpoint
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource
+	 * @param priority
+	 *            priority of the applicant while it waits for the pass
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	public Pass getPass(ACheckpoint checkpoint, int weight, int priority) throws InterruptedException {
+		return getPass(checkpoint, weight);
+	}
+
+	/**
+	 * Requests weighted RO pass for this resource, returns pass if one becomes available within the given waiting
+	 * time and the current thread has not been interrupted, see getPass(ACheckpoint, int, int).
+	 * 
+	 * @param checkpoint
+	 * @param weight
+	 *            number of units, from 1 to max passes per resource
+	 * @param priority
+	 *            priority of the applicant while it waits for the pass
+	 * @return resource pass or null if not enough units available or RW pass active
+	 * @throws InterruptedException
+	 */
+	public Pass tryGetPass(ACheckpoint checkpoint, int weight, int priority, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return tryGetPass(checkpoint, weight, timeout, unit);
+	}
+
+	/**
+	 * Requests RW pass for this resource blocking until one is available, or the thread is interrupted, see
+	 * getPassRW(ACheckpoint). <br/>
+	 * <br/>
+	 * Priority is used by the wait scheduler of the resource data, by default it is ignored.
+	 * 
+	 * @param checkpoint
+	 * @param priority
+	 *            priority of the applicant while it waits for the pass
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	public Pass getPassRW(ACheckpoint checkpoint, int priority) throws InterruptedException {
+		return getPassRW(checkpoint);
+	}
+
+	/**
+	 * Requests RW pass for this resource, returns pass if one becomes available within the given waiting time and
+	 * the current thread has not been interrupted, see getPassRW(ACheckpoint, int).
+	 * 
+	 * @param checkpoint
+	 * @param priority
+	 *            priority of the applicant while it waits for the pass
+	 * @return resource pass or null if no passes available
+	 * @throws InterruptedException
+	 */
+	public Pass tryGetPassRW(ACheckpoint checkpoint, int priority, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return tryGetPassRW(checkpoint, timeout, unit);
+	}
+
+	/**
+	 * Requests update pass for this resource blocking until one is available, or the thread is interrupted. <br/>
+	 * <br/>
+	 * Update pass gives RO access together with other RO passes but only one update pass may be active for the
+	 * resource, so it may be upgraded to RW access without deadlock.
+	 * 
+	 * @param checkpoint
+	 * @return resource pass
+	 * @throws InterruptedException
+	 */
+	public abstract Pass getPassForUpdate(ACheckpoint checkpoint) throws InterruptedException;
+
+	/**
+	 * Requests update pass for this resource blocking until one is available, see getPassForUpdate().
+	 * 
+	 * @param checkpoint
+	 * @return resource pass
+	 */
+	public abstract Pass getPassForUpdateUninterruptibly(ACheckpoint checkpoint);
+
+	/**
+	 * Requests update pass for this resource only if one is available at the time of invocation, see
+	 * getPassForUpdate().
+	 * 
+	 * @param checkpoint
+	 * @return resource pass or null if update pass or RW pass active
+	 */
+	public abstract Pass tryGetPassForUpdate(ACheckpoint checkpoint);
+
+	/**
+	 * Requests update pass for this resource, returns pass if one becomes available within the given waiting time and
+	 * the current thread has not been interrupted, see getPassForUpdate().
+	 * 
+	 * @param checkpoint
+	 * @return resource pass or null if update pass or RW pass active
+	 * @throws InterruptedException
+	 */
+	public abstract Pass tryGetPassForUpdate(ACheckpoint checkpoint, long timeout, TimeUnit unit)
+			throws InterruptedException;
+
+	/**
+	 * Exchanges RO access of the pass granted by this resource data to RW access, blocking until other RO passes are
+	 * returned. Called by Pass.upgrade().
+	 * 
+	 * @param pass
+	 *            active RO or update pass
+	 * @throws InterruptedException
+	 *             if interrupted while waiting, pass keeps RO access
+	 */
+	public abstract void upgrade(Pass pass) throws InterruptedException;
+
+	/**
+	 * Exchanges RO access of the pass granted by this resource data to RW access if other RO passes are returned
+	 * within the given waiting time. Called by Pass.tryUpgrade().
+	 * 
+	 * @param pass
+	 *            active RO or update pass
+	 * @param timeout
+	 * @param unit
+	 * @return true if upgraded, false if the pass keeps RO access
+	 * @throws InterruptedException
+	 *             if interrupted while waiting, pass keeps RO access
+	 */
+	public abstract boolean tryUpgrade(Pass pass, long timeout, TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * Exchanges RW access of the pass granted by this resource data to RO access without waiting. Called by
+	 * Pass.downgrade().
+	 * 
+	 * @param pass
+	 *            active RW pass
+	 */
+	public abstract void downgrade(Pass pass);
+
+	/**
+	 * Requests RO pass for this resource without blocking the calling thread. <br/>
+	 * <br/>
+	 * Returned future is completed with the pass when one becomes available. Cancelling the future withdraws the
+	 * request.
+	 * <br/>
+	 * <br/>
+	 * Default implementation waits for the pass in the thread of the shared daemon thread pool, so every waiting
+	 * applicant takes a thread. Lock free resource data queues async applicants without threads.
+	 * 
+	 * @param checkpoint
+	 * @return future completed with the resource pass
+	 */
+	public CompletableFuture<Pass> getPassAsync(ACheckpoint checkpoint) {
+		Pass pass = tryGetPass(checkpoint);
+		return pass != null ? CompletableFuture.completedFuture(pass) : awaitAsync(checkpoint, true);
+	}
+
+	/**
+	 * Requests RW pass for this resource without blocking the calling thread, see getPassAsync().
+	 * 
+	 * @param checkpoint
+	 * @return future completed with the resource pass
+	 */
+	public CompletableFuture<Pass> getPassRWAsync(ACheckpoint checkpoint) {
+		Pass pass = tryGetPassRW(checkpoint);
+		return pass != null ? CompletableFuture.completedFuture(pass) : awaitAsync(checkpoint, false);
+	}
+
+	/**
+	 * Waits for the pass in the thread of the shared thread pool. Cancelling the future interrupts the waiting thread,
+	 * pass granted after the cancel is rolled back.
+	 */
+	private CompletableFuture<Pass> awaitAsync(final ACheckpoint checkpoint, final boolean shared) {
+		final CompletableFuture<Pass> future = new CompletableFuture<Pass>();
+		final Future<?> task = ASYNC_WAITERS.submit(() -> {
+			try {
+				Pass pass = shared ? getPass(checkpoint) : getPassRW(checkpoint);
+				if ( !future.complete(pass) ) {
+					rollbackPass(pass);
+				}
+			} catch (InterruptedException e) {
+				// request was withdrawn
+				future.cancel(false);
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+		future.whenComplete((pass, e) -> {
+			if ( future.isCancelled() ) {
+				task.cancel(true);
+			}
+		});
+		return future;
+	}
+
 	/**
 	 * Return Pass instance allowing new Pass for the resourceId.
 	 * 
@@ -166,6 +464,19 @@ public abstract class AResourceData {
 	 */
 	public abstract void returnPass(Pass pass);
 
+	/**
+	 * Returns the pass which was never used by the applicant, e.g. taken and given back while the applicant waits for
+	 * other limits. Rolled back passes are not accounted as the resource usage.
+	 * <br/>
+	 * <br/>
+	 * Default implementation returns the pass the same way as returnPass().
+	 * 
+	 * @param pass
+	 */
+	public void rollbackPass(Pass pass) {
+		returnPass(pass);
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
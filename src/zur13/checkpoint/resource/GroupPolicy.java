@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource;
+
+/**
+ * Maps resource ids to the groups which share a common passes limit, e.g. the site, rack or tenant the device
+ * belongs to.
+ * <br/>
+ * <br/>
+ * Every pass for the resource of a group takes units of the resource, group and global passes limits, so the
+ * resources of a single busy group can't take the whole global passes limit. Policy is evaluated once per pass
+ * request with the requested resource id, also with striped data storage, and the limits it selected are kept on
+ * the pass and returned on its close, so it should be cheap but may change the group of the resource over time.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.CheckpointBuilder#setGroupPolicy(GroupPolicy)
+ */
+public interface GroupPolicy {
+	/**
+	 * Gets id of the group of the resource.
+	 *
+	 * @param resourceId
+	 * @return group id or null if the resource is limited by its own and global passes limits only
+	 */
+	public Object getGroupId(Object resourceId);
+
+	/**
+	 * Gets max number of active passes for all resources of the group. Evaluated once per group, may be evaluated
+	 * again if the first applicants of the group race.
+	 *
+	 * @param groupId
+	 * @return limit, at least 1
+	 */
+	public int getGroupLimit(Object groupId);
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import zur13.checkpoint.IntentionMode;
+
+/**
+ * Controls access to a single node of the resource hierarchy in IS, IX, S and X modes.
+ * <br/>
+ * <br/>
+ * Number of holders of every shared mode, X holder flag and waiters flag are packed into a single long state word
+ * which is updated with CAS, so uncontended acquire and release are a single CAS each. Applicants which have to wait
+ * are queued under the node lock and granted in first-in first-out order by the releasing thread; new applicants do
+ * not bypass waiting ones, so X applicants are not starved by the stream of intention applicants.
+ * <br/>
+ * <br/>
+ * Node is held by at most MAX_HOLDERS applicants in every shared mode, applicants beyond it wait the same way as
+ * conflicting ones until a holder of the mode leaves.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.IntentionMode
+ */
+public class IntentionLock {
+	private static final VarHandle STATE;
+	static {
+		try {
+			STATE = MethodHandles.lookup().findVarHandle(IntentionLock.class, "state", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/* bits of the holders counter of every shared mode */
+	protected static final int COUNT_BITS = 20;
+	protected static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+	/* max number of applicants holding the node in every shared mode */
+	public static final int MAX_HOLDERS = (int) COUNT_MASK;
+	protected static final long IS_MASK = COUNT_MASK;
+	protected static final long IX_MASK = COUNT_MASK << COUNT_BITS;
+	protected static final long S_MASK = COUNT_MASK << (2 * COUNT_BITS);
+	/* X pass is active */
+	protected static final long X = 1L << 60;
+	/* wait queue is not empty, releasing thread should grant access to the waiters */
+	protected static final long WAITERS = 1L << 61;
+
+	protected volatile long state;
+	protected final ReentrantLock lock = new ReentrantLock();
+	/* guarded by lock */
+	protected final ArrayDeque<Waiter> waiters = new ArrayDeque<Waiter>();
+
+	/**
+	 * Gets state word change made by the access in the given mode.
+	 * 
+	 * @param mode
+	 * @return
+	 */
+	protected static long unit(final IntentionMode mode) {
+		switch (mode) {
+		case IS:
+			return 1L;
+		case IX:
+			return 1L << COUNT_BITS;
+		case S:
+			return 1L << (2 * COUNT_BITS);
+		default:
+			return X;
+		}
+	}
+
+	/**
+	 * Gets state word bits of the modes which conflict with the given mode.
+	 * 
+	 * @param mode
+	 * @return
+	 */
+	protected static long conflicts(final IntentionMode mode) {
+		switch (mode) {
+		case IS:
+			return X;
+		case IX:
+			return X | S_MASK;
+		case S:
+			return X | IX_MASK;
+		default:
+			return X | IS_MASK | IX_MASK | S_MASK;
+		}
+	}
+
+	/**
+	 * Gets state word bits of the holders counter of the given mode, the counter which has all of them set is full.
+	 * 
+	 * @param mode
+	 * @return
+	 */
+	protected static long counter(final IntentionMode mode) {
+		return mode == IntentionMode.X ? 0L : COUNT_MASK * unit(mode);
+	}
+
+	/**
+	 * Tries to acquire access without waiting.
+	 * 
+	 * @param mode
+	 * @return true if access acquired
+	 */
+	public boolean tryAcquire(final IntentionMode mode) {
+		return tryAcquire(mode, false);
+	}
+
+	/**
+	 * Acquires access, waiting if necessary.
+	 * 
+	 * @param mode
+	 * @param interruptible
+	 * @param nanosTimeout
+	 *            max time to wait, 0 to try once without waiting or negative value to wait without timeout
+	 * @return true if access acquired; false if timeout elapsed
+	 * @throws InterruptedException
+	 */
+	public boolean acquire(final IntentionMode mode, final boolean interruptible, final long nanosTimeout)
+			throws InterruptedException {
+		if ( interruptible && Thread.interrupted() ) {
+			throw new InterruptedException();
+		}
+		if ( tryAcquire(mode, false) ) {
+			return true;
+		}
+		return nanosTimeout != 0L && await(mode, interruptible, nanosTimeout);
+	}
+
+	/**
+	 * Returns previously acquired access and grants access to the waiters if any.
+	 * 
+	 * @param mode
+	 */
+	public void release(final IntentionMode mode) {
+		long prev = (long) STATE.getAndAdd(this, -unit(mode));
+		if ( (prev & WAITERS) != 0 ) {
+			lock.lock();
+			try {
+				dispatch();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Gets number of applicants holding the node in the given mode.
+	 * 
+	 * @param mode
+	 * @return
+	 */
+	public int getHolders(final IntentionMode mode) {
+		long s = state;
+		if ( mode == IntentionMode.X ) {
+			return (s & X) != 0 ? 1 : 0;
+		}
+		return (int) ((s / unit(mode)) & COUNT_MASK);
+	}
+
+	/**
+	 * Checks if the node is not held and nobody waits for it.
+	 * 
+	 * @return
+	 */
+	public boolean isIdle() {
+		return state == 0L;
+	}
+
+	/**
+	 * Tries to acquire access without waiting.
+	 * 
+	 * @param mode
+	 * @param barge
+	 *            true to ignore waiting applicants
+	 * @return true if access acquired
+	 */
+	protected boolean tryAcquire(final IntentionMode mode, final boolean barge) {
+		final long conflicts = barge ? conflicts(mode) : conflicts(mode) | WAITERS;
+		final long unit = unit(mode);
+		final long counter = counter(mode);
+		for (;;) {
+			long s = state;
+			if ( (s & conflicts) != 0 ) {
+				return false;
+			}
+			if ( counter != 0L && (s & counter) == counter ) {
+				// one more holder would overflow into the counter of the next mode
+				return false;
+			}
+			if ( STATE.weakCompareAndSet(this, s, s + unit) ) {
+				return true;
+			}
+		}
+	}
+
+	private boolean await(final IntentionMode mode, final boolean interruptible, final long nanosTimeout)
+			throws InterruptedException {
+		final Waiter w = new Waiter(Thread.currentThread(), mode);
+		lock.lock();
+		try {
+			waiters.add(w);
+			STATE.getAndBitwiseOr(this, WAITERS);
+			// node might be released before WAITERS flag set so nobody else will grant it
+			dispatch();
+		} finally {
+			lock.unlock();
+		}
+
+		final long deadline = nanosTimeout > 0L ? System.nanoTime() + nanosTimeout : 0L;
+		boolean interrupted = false;
+		while (!w.granted) {
+			if ( nanosTimeout > 0L ) {
+				long remaining = deadline - System.nanoTime();
+				if ( remaining <= 0L ) {
+					if ( cancel(w) ) {
+						break;
+					}
+					return false;
+				}
+				LockSupport.parkNanos(this, remaining);
+			} else {
+				LockSupport.park(this);
+			}
+			if ( Thread.interrupted() ) {
+				if ( !interruptible ) {
+					interrupted = true;
+				} else if ( cancel(w) ) {
+					// access granted concurrently with interruption, keep it and restore interrupted status
+					interrupted = true;
+					break;
+				} else {
+					throw new InterruptedException();
+				}
+			}
+		}
+		if ( interrupted ) {
+			Thread.currentThread().interrupt();
+		}
+		return true;
+	}
+
+	/**
+	 * Removes waiter from the queue.
+	 * 
+	 * @return true if access was granted to the waiter before it was removed
+	 */
+	private boolean cancel(final Waiter w) {
+		lock.lock();
+		try {
+			if ( w.granted ) {
+				return true;
+			}
+			waiters.remove(w);
+			// waiting X applicant might block applicants behind it
+			dispatch();
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Grants access to the waiting applicants in arrival order while it is available. Should be called under the
+	 * lock.
+	 */
+	private void dispatch() {
+		for (Iterator<Waiter> it = waiters.iterator(); it.hasNext();) {
+			Waiter w = it.next();
+			if ( !tryAcquire(w.mode, true) ) {
+				break;
+			}
+			it.remove();
+			w.granted = true;
+			LockSupport.unpark(w.thread);
+		}
+		if ( waiters.isEmpty() ) {
+			STATE.getAndBitwiseAnd(this, ~WAITERS);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "IntentionLock [IS=" + getHolders(IntentionMode.IS) + ", IX=" + getHolders(IntentionMode.IX) + ", S="
+				+ getHolders(IntentionMode.S) + ", X=" + getHolders(IntentionMode.X) + "]";
+	}
+
+	/**
+	 * Single waiting applicant.
+	 */
+	protected static final class Waiter {
+		final Thread thread;
+		final IntentionMode mode;
+		volatile boolean granted;
+
+		Waiter(Thread thread, IntentionMode mode) {
+			this.thread = thread;
+			this.mode = mode;
+		}
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+
+import zur13.checkpoint.ACheckpoint;
+import zur13.checkpoint.Pass;
+import zur13.checkpoint.resource.limit.AdaptiveLimit;
+import zur13.checkpoint.resource.limit.OverloadControl;
+import zur13.checkpoint.resource.limit.RateLimit;
+import zur13.checkpoint.resource.limit.WaiterLimit;
+
+/**
+ * Controls access for single resource without java.util.concurrent.Semaphore. Allows to limit max number of active
+ * passes per resource.
+ * <br/>
+ * <br/>
+ * Number of active RO passes, active RW pass flag and waiters flag are packed into a single long state word which is
+ * updated with CAS. Uncontended acquire and return are a single CAS each. Wait queue is created only when some
+ * applicant has to wait for the resource, waiting applicants are granted passes directly by the thread which returns
+ * the pass.
+ * <br/>
+ * <br/>
+ * In flyweight passes mode single RO pass instance and single RW pass instance are given to all applicants, so
+ * acquire and return of the pass do not allocate memory.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ *
+ */
+public class LockFreeResourceData extends ALockFreeResourceData {
+	private static final VarHandle STATE;
+	private static final VarHandle QUEUE;
+	private static final VarHandle RATE_STATE;
+	static {
+		try {
+			MethodHandles.Lookup l = MethodHandles.lookup();
+			STATE = l.findVarHandle(LockFreeResourceData.class, "state", long.class);
+			QUEUE = l.findVarHandle(LockFreeResourceData.class, "queue", WaitQueue.class);
+			RATE_STATE = l.findVarHandle(LockFreeResourceData.class, "rateState", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	protected final boolean flyweightPasses;
+	protected volatile long state;
+	protected volatile WaitQueue queue;
+	/* theoretical arrival time of the next pass if rate is limited */
+	protected volatile long rateState;
+	/* flyweight passes shared by all applicants */
+	protected volatile Pass roPass;
+	protected volatile Pass rwPass;
+
+	/**
+	 * Instantiate a resource data object.
+	 *
+	 * @param resourceId
+	 * @param maxActivePasses
+	 *            max number of threads with current resourceId allowed to access restricted section simultaneously
+	 * @param fair
+	 *            true to grant passes in first-in first-out order under contention
+	 */
+	public LockFreeResourceData(final Object resourceId, final int maxActivePasses, final boolean fair) {
+		this(resourceId, maxActivePasses, fair, RWPolicy.READER_PREFERRING);
+	}
+
+	/**
+	 * Instantiate a resource data object.
+	 *
+	 * @param resourceId
+	 * @param maxActivePasses
+	 *            max number of threads with current resourceId allowed to access restricted section simultaneously
+	 * @param fair
+	 *            true to grant passes in first-in first-out order under contention
+	 * @param policy
+	 *            order of granting passes to waiting RO and RW applicants in unfair mode
+	 */
+	public LockFreeResourceData(final Object resourceId, final int maxActivePasses, final boolean fair,
+			final RWPolicy policy) {
+		this(resourceId, maxActivePasses, fair, policy, false);
+	}
+
+	/**
+	 * Instantiate a resource data object.
+	 *
+	 * @param resourceId
+	 * @param maxActivePasses
+	 *            max number of threads with current resourceId allowed to access restricted section simultaneously
+	 * @param fair
+	 *            true to grant passes in first-in first-out order under contention
+	 * @param policy
+	 *            order of granting passes to waiting RO and RW applicants in unfair mode
+	 * @param flyweightPasses
+	 *            true to give the same pass instance to all applicants of the same access type
+	 */
+	public LockFreeResourceData(final Object resourceId, final int maxActivePasses, final boolean fair,
+			final RWPolicy policy, final boolean flyweightPasses) {
+		super(resourceId, true, maxActivePasses, fair, policy);
+		this.flyweightPasses = flyweightPasses;
+	}
+
+	/**
+	 * Instantiate a resource data object with the adaptive max active passes limit. Flyweight passes are not used
+	 * since every pass keeps its own grant time.
+	 *
+	 * @param resourceId
+	 * @param adaptiveLimit
+	 *            limit of this resource data, should not be shared with the other resource data
+	 * @param fair
+	 *            true to grant passes in first-in first-out order under contention
+	 * @param policy
+	 *            order of granting passes to waiting RO and RW applicants in unfair mode
+	 */
+	public LockFreeResourceData(final Object resourceId, final AdaptiveLimit adaptiveLimit, final boolean fair,
+			final RWPolicy policy) {
+		this(resourceId, adaptiveLimit.getMaxLimit(), fair, policy, false, adaptiveLimit, null);
+	}
+
+	/**
+	 * Instantiate a resource data object.
+	 *
+	 * @param resourceId
+	 * @param maxActivePasses
+	 *            max number of threads with current resourceId allowed to access restricted section simultaneously,
+	 *            ignored if adaptive limit is set
+	 * @param fair
+	 *            true to grant passes in first-in first-out order under contention
+	 * @param policy
+	 *            order of granting passes to waiting RO and RW applicants in unfair mode
+	 * @param flyweightPasses
+	 *            true to give the same pass instance to all applicants of the same access type, ignored if adaptive
+	 *            limit is set
+	 * @param adaptiveLimit
+	 *            limit of this resource data or null, should not be shared with the other resource data
+	 * @param rateLimit
+	 *            rate of granted passes or null
+	 */
+	public LockFreeResourceData(final Object resourceId, final int maxActivePasses, final boolean fair,
+			final RWPolicy policy, final boolean flyweightPasses, final AdaptiveLimit adaptiveLimit,
+			final RateLimit rateLimit) {
+		this(resourceId, maxActivePasses, fair, policy, flyweightPasses, adaptiveLimit, rateLimit, null, null, null);
+	}
+
+	/**
+	 * Instantiate a resource data object.
+	 *
+	 * @param resourceId
+	 * @param maxActivePasses
+	 *            max number of threads with current resourceId allowed to access restricted section simultaneously,
+	 *            ignored if adaptive limit is set
+	 * @param fair
+	 *            true to grant passes in first-in first-out order under contention
+	 * @param policy
+	 *            order of granting passes to waiting RO and RW applicants in unfair mode
+	 * @param flyweightPasses
+	 *            true to give the same pass instance to all applicants of the same access type, ignored if adaptive
+	 *            limit is set or scheduler tracks hold times
+	 * @param adaptiveLimit
+	 *            limit of this resource data or null, should not be shared with the other resource data
+	 * @param rateLimit
+	 *            rate of granted passes or null
+	 * @param scheduler
+	 *            order of the waiting applicants or null for first-in first-out order
+	 * @param overload
+	 *            overload control of the wait queue or null
+	 * @param waiterLimit
+	 *            max number of waiters, shared by all resource data of the checkpoint, or null
+	 */
+	public LockFreeResourceData(final Object resourceId, final int maxActivePasses, final boolean fair,
+			final RWPolicy policy, final boolean flyweightPasses, final AdaptiveLimit adaptiveLimit,
+			final RateLimit rateLimit, final WaitScheduler scheduler, final OverloadControl overload,
+			final WaiterLimit waiterLimit) {
+		super(resourceId, true, adaptiveLimit == null ? maxActivePasses : adaptiveLimit.getMaxLimit(), fair, policy,
+				adaptiveLimit, rateLimit, scheduler, overload, waiterLimit);
+		this.flyweightPasses = flyweightPasses && !timedPasses;
+		if ( rateLimit != null ) {
+			this.rateState = rateLimit.initialState(System.nanoTime());
+		}
+	}
+
+	@Override
+	protected Pass newPass(final ACheckpoint checkpoint, final boolean isRO) {
+		if ( !flyweightPasses ) {
+			return super.newPass(checkpoint, isRO);
+		}
+		Pass pass = isRO ? roPass : rwPass;
+		if ( pass == null || pass.getCheckpoint() != checkpoint ) {
+			pass = super.newPass(checkpoint, isRO);
+			if ( isRO ) {
+				roPass = pass;
+			} else {
+				rwPass = pass;
+			}
+		}
+		return pass;
+	}
+
+	@Override
+	public void upgrade(final Pass pass) throws InterruptedException {
+		checkNotFlyweight(pass);
+		super.upgrade(pass);
+	}
+
+	@Override
+	public boolean tryUpgrade(final Pass pass, final long timeout, final TimeUnit unit) throws InterruptedException {
+		checkNotFlyweight(pass);
+		return super.tryUpgrade(pass, timeout, unit);
+	}
+
+	@Override
+	public void downgrade(final Pass pass) {
+		checkNotFlyweight(pass);
+		super.downgrade(pass);
+	}
+
+	/**
+	 * Checks that the pass is not shared by the applicants, so its access mode may be changed.
+	 *
+	 * @param pass
+	 */
+	private void checkNotFlyweight(final Pass pass) {
+		if ( pass == roPass || pass == rwPass ) {
+			throw new UnsupportedOperationException("Flyweight passes can't be upgraded or downgraded");
+		}
+	}
+
+	@Override
+	protected final long getState() {
+		return state;
+	}
+
+	@Override
+	protected final boolean weakCompareAndSetState(final long expect, final long update) {
+		return STATE.weakCompareAndSet(this, expect, update);
+	}
+
+	@Override
+	protected final long getAndAddState(final long delta) {
+		return (long) STATE.getAndAdd(this, delta);
+	}
+
+	@Override
+	protected final long getAndBitwiseOrState(final long bits) {
+		return (long) STATE.getAndBitwiseOr(this, bits);
+	}
+
+	@Override
+	protected final long getAndBitwiseAndState(final long bits) {
+		return (long) STATE.getAndBitwiseAnd(this, bits);
+	}
+
+	@Override
+	protected final long getRateState() {
+		return rateState;
+	}
+
+	@Override
+	protected final boolean compareAndSetRateState(final long expect, final long update) {
+		return RATE_STATE.compareAndSet(this, expect, update);
+	}
+
+	@Override
+	protected final WaitQueue getWaitQueue(final boolean create) {
+		WaitQueue q = queue;
+		if ( q == null && create ) {
+			q = newWaitQueue();
+			if ( !QUEUE.compareAndSet(this, null, q) ) {
+				q = queue;
+			}
+		}
+		return q;
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource;
+
+/**
+ * Passes limit which state word is stored in the state table mapped from the file shared by several processes, so
+ * passes of all processes are counted against the same limit. Global limit uses the global state word of the table,
+ * group limits use the table slots.
+ * <br/>
+ * <br/>
+ * Every process checks the counter against its own limit, processes sharing the file should use the same limit.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.resource.MappedStateTable
+ */
+public class MappedPassLimit extends PassLimit {
+	protected final MappedStateTable table;
+	protected final long slot;
+
+	/**
+	 * Instantiate a global pass limit.
+	 *
+	 * @param table
+	 *            table which stores the global passes state word
+	 * @param limit
+	 *            max number of permits taken simultaneously by all processes
+	 */
+	public MappedPassLimit(final MappedStateTable table, final int limit) {
+		this(table, MappedStateTable.GLOBAL, "MappedPassLimit", limit);
+	}
+
+	/**
+	 * Instantiate a pass limit stored in the given slot of the table.
+	 *
+	 * @param table
+	 *            table which stores the passes state word
+	 * @param slot
+	 *            slot of the limit in the table or MappedStateTable.GLOBAL
+	 * @param name
+	 *            name of the limit
+	 * @param limit
+	 *            max number of permits taken simultaneously by all processes
+	 */
+	public MappedPassLimit(final MappedStateTable table, final long slot, final Object name, final int limit) {
+		super(name, limit, false);
+		this.table = table;
+		this.slot = slot;
+	}
+
+	@Override
+	protected final long getState() {
+		return table.getSharedState(slot);
+	}
+
+	@Override
+	protected final boolean weakCompareAndSetState(final long expect, final long update) {
+		return table.weakCompareAndSetSharedState(slot, expect, update);
+	}
+
+	@Override
+	protected final long getAndAddState(final long delta) {
+		return table.getAndAddSharedState(slot, delta);
+	}
+
+	@Override
+	protected final long getAndBitwiseOrState(final long bits) {
+		return table.getAndBitwiseOrSharedState(slot, bits);
+	}
+
+	@Override
+	protected final long getAndBitwiseAndState(final long bits) {
+		return table.getAndBitwiseAndSharedState(slot, bits);
+	}
+
+	@Override
+	protected final WaitQueue getWaitQueue(final boolean create) {
+		WaitQueue q = super.getWaitQueue(create);
+		if ( create ) {
+			table.watch(slot, this);
+		}
+		return q;
+	}
+}
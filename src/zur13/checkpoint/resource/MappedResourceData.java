@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource;
+
+/**
+ * Lock free resource data which state word is stored in the state table mapped from the file shared by several
+ * processes.
+ * <br/>
+ * <br/>
+ * Instance is a short living view of the table slot like the off heap resource data. Every change of the access held
+ * by this process is recorded in the process journal, so the access is returned if the process is gone without
+ * returning it.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.resource.MappedStateTable
+ */
+public class MappedResourceData extends ALockFreeResourceData {
+	protected final MappedStateTable table;
+	protected final long slot;
+
+	/**
+	 * Instantiate a resource data view.
+	 *
+	 * @param resourceId
+	 * @param table
+	 *            table which stores resource state
+	 * @param slot
+	 *            slot of the resource id in the table
+	 * @param maxActivePasses
+	 *            max number of threads with current resourceId allowed to access restricted section simultaneously
+	 * @param fair
+	 *            true to grant passes in first-in first-out order under contention of the same process
+	 * @param policy
+	 *            order of granting passes to waiting RO and RW applicants in unfair mode
+	 */
+	public MappedResourceData(final Object resourceId, final MappedStateTable table, final long slot,
+			final int maxActivePasses, final boolean fair, final RWPolicy policy) {
+		super(resourceId, false, maxActivePasses, fair, policy);
+		this.table = table;
+		this.slot = slot;
+	}
+
+	@Override
+	protected final long getState() {
+		return table.getSharedState(slot);
+	}
+
+	@Override
+	protected final boolean weakCompareAndSetState(final long expect, final long update) {
+		return table.weakCompareAndSetSharedState(slot, expect, update);
+	}
+
+	@Override
+	protected final long getAndAddState(final long delta) {
+		return table.getAndAddSharedState(slot, delta);
+	}
+
+	@Override
+	protected final long getAndBitwiseOrState(final long bits) {
+		return table.getAndBitwiseOrSharedState(slot, bits);
+	}
+
+	@Override
+	protected final long getAndBitwiseAndState(final long bits) {
+		return table.getAndBitwiseAndSharedState(slot, bits);
+	}
+
+	@Override
+	protected final WaitQueue getWaitQueue(final boolean create) {
+		WaitQueue q = table.getWaitQueue(slot, create);
+		if ( create ) {
+			table.watch(slot, this);
+		}
+		return q;
+	}
+
+	@Override
+	protected final void onQueueEmpty(final WaitQueue q) {
+		table.dropWaitQueue(slot, q);
+	}
+}
@@ -0,0 +1,554 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * State table stored in the memory mapped file shared by all processes of the host which open the same file.
+ * <br/>
+ * <br/>
+ * File keeps the header with the global passes state word and the table of attached processes, per process journals
+ * and the slots of the off heap state table. State words are updated with the same atomic operations as in the off
+ * heap table, so passes of all processes are counted against the same per resource and global limits.
+ * <br/>
+ * <br/>
+ * Every process records the access it holds for every slot in its own journal. Process is identified by its pid and
+ * start time, journal of the process which is gone (e.g. crashed or killed) is reverted by the first process which
+ * notices it, so passes held by the crashed process are returned. Pass acquired right before the crash may leak if
+ * the process died between the state word update and the journal update. Waiter hints are not journaled, they are
+ * cleared from the words of the resources which have no waiters in the reclaiming process, live processes raise the
+ * hints of their waiters again on the next poll.
+ * <br/>
+ * <br/>
+ * Wait queues are local to the process. Waiting applicants are granted passes returned in the same process at once,
+ * passes returned by other processes are noticed by the poller thread which checks the resources with waiting
+ * applicants every poll interval. Fairness and RW policy are applied to the applicants of the same process only.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.resource.MappedResourceData
+ */
+public class MappedStateTable extends OffHeapStateTable implements AutoCloseable {
+	/* index of the global passes state word */
+	public static final long GLOBAL = -1L;
+	public static final int DEFAULT_PROCESSES = 16;
+	public static final long DEFAULT_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	protected static final long RECLAIM_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	static final long MAGIC = 0x5A75723133436B70L;
+	static final long VERSION = 1L;
+	static final int PAGE = 4096;
+	/* header layout */
+	static final int H_MAGIC = 0;
+	static final int H_VERSION = 8;
+	static final int H_CAPACITY = 16;
+	static final int H_PROCESSES = 24;
+	static final int H_SIZE = 32;
+	static final int H_GLOBAL = 40;
+	static final int H_PROCESS_TABLE = 64;
+	/* process table entry: pid (0 if free) and start time */
+	static final int PROCESS_BYTES = 16;
+	static final int MAX_PROCESSES = (PAGE - H_PROCESS_TABLE) / PROCESS_BYTES;
+	/* journal of every process takes 8 bytes per slot, so it fits a single buffer */
+	static final long MAX_SLOTS = 1L << 27;
+	/* state bits which belong to the holders of the access, other bits are per process waiter hints */
+	static final long HELD = ALockFreeResourceData.READERS_MASK | ALockFreeResourceData.WRITER
+			| ALockFreeResourceData.UPDATER | ALockFreeResourceData.UPGRADING;
+	static final long WAITER_HINTS = ALockFreeResourceData.WAITERS | ALockFreeResourceData.WRITER_WAITING
+			| ALockFreeResourceData.HEAVY_WAITING;
+	/* owner bits of the claimed slot state: process index + 1 */
+	static final long CLAIM_OWNER_MASK = 0xFFFFL;
+	/* file locks are held per JVM, so processes of this JVM take them one at a time */
+	private static final ReentrantLock FILE_LOCK = new ReentrantLock();
+
+	protected final Path file;
+	protected final FileChannel channel;
+	protected final ByteBuffer header;
+	protected final ByteBuffer[] journals;
+	protected final long slots;
+	protected final int processes;
+	/* index of this process in the process table */
+	protected final int process;
+	protected final long pollNanos;
+	/* resource data with waiting applicants of this process, polled for passes returned by other processes */
+	protected final ConcurrentHashMap<Long, ALockFreeResourceData> watched =
+			new ConcurrentHashMap<Long, ALockFreeResourceData>();
+	protected final Thread poller;
+	protected volatile boolean closed;
+
+	/**
+	 * Opens state table in the given file, creates the file if necessary.
+	 *
+	 * @param file
+	 * @param capacity
+	 *            max number of resource ids stored in the table, ignored if the file already exists
+	 * @throws IOException
+	 */
+	public MappedStateTable(Path file, long capacity) throws IOException {
+		this(file, capacity, DEFAULT_PROCESSES, DEFAULT_POLL_NANOS);
+	}
+
+	/**
+	 * Opens state table in the given file, creates the file if necessary.
+	 *
+	 * @param file
+	 * @param capacity
+	 *            max number of resource ids stored in the table, ignored if the file already exists
+	 * @param processes
+	 *            max number of processes attached to the file at a time, ignored if the file already exists
+	 * @param pollNanos
+	 *            interval of checking passes returned by other processes for the waiting applicants
+	 * @throws IOException
+	 */
+	public MappedStateTable(Path file, long capacity, int processes, long pollNanos) throws IOException {
+		this(Mapping.open(file, capacity, processes), file, pollNanos);
+	}
+
+	private MappedStateTable(Mapping m, Path file, long pollNanos) throws IOException {
+		super(m.capacity, m.chunks);
+		if ( pollNanos <= 0L ) {
+			m.channel.close();
+			throw new IllegalArgumentException("Poll interval should be positive: " + pollNanos);
+		}
+		this.file = file;
+		this.channel = m.channel;
+		this.header = m.header;
+		this.journals = m.journals;
+		this.slots = m.slots;
+		this.processes = m.processes;
+		this.pollNanos = pollNanos;
+		try {
+			this.process = attach();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		this.poller = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				poll();
+			}
+		}, "MappedStateTable poller " + file);
+		poller.setDaemon(true);
+		poller.start();
+	}
+
+	/**
+	 * Returns passes held by the processes which are gone.
+	 *
+	 * @return number of processes which passes were returned
+	 * @throws IOException
+	 */
+	public int reclaim() throws IOException {
+		FILE_LOCK.lock();
+		try {
+			FileLock lock = channel.lock();
+			try {
+				return reclaimDead();
+			} finally {
+				lock.release();
+			}
+		} finally {
+			FILE_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Detaches this process from the file. Passes which are not returned yet are returned, table should not be used
+	 * after it is closed.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		if ( closed ) {
+			return;
+		}
+		closed = true;
+		LockSupport.unpark(poller);
+		FILE_LOCK.lock();
+		try {
+			FileLock lock = channel.lock();
+			try {
+				revert(process);
+				LONGS.setVolatile(header, entry(process), 0L);
+			} finally {
+				lock.release();
+			}
+		} finally {
+			FILE_LOCK.unlock();
+		}
+		channel.close();
+	}
+
+	/**
+	 * Gets number of resource ids stored in the table by all processes.
+	 *
+	 * @return
+	 */
+	@Override
+	public long size() {
+		return (long) LONGS.getVolatile(header, H_SIZE);
+	}
+
+	/**
+	 * Gets file of the table.
+	 *
+	 * @return
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets max number of processes attached to the file at a time.
+	 *
+	 * @return
+	 */
+	public int getProcesses() {
+		return processes;
+	}
+
+	/**
+	 * Gets interval of checking passes returned by other processes for the waiting applicants.
+	 *
+	 * @return
+	 */
+	public long getPollNanos() {
+		return pollNanos;
+	}
+
+	@Override
+	protected boolean reserveSlot() {
+		for (;;) {
+			long size = (long) LONGS.getVolatile(header, H_SIZE);
+			if ( size >= capacity ) {
+				return false;
+			}
+			if ( LONGS.compareAndSet(header, H_SIZE, size, size + 1L) ) {
+				return true;
+			}
+		}
+	}
+
+	@Override
+	protected void unreserveSlot() {
+		LONGS.getAndAdd(header, H_SIZE, -1L);
+	}
+
+	@Override
+	protected long claimMark() {
+		return CLAIMED | (process + 1);
+	}
+
+	@Override
+	protected boolean isClaimAbandoned(long s) {
+		int owner = (int) (s & CLAIM_OWNER_MASK) - 1;
+		if ( owner < 0 || owner >= processes || owner == process ) {
+			return false;
+		}
+		long pid = (long) LONGS.getVolatile(header, entry(owner));
+		return pid == 0L || !isAlive(pid, (long) LONGS.getVolatile(header, entry(owner) + 8));
+	}
+
+	final long getSharedState(long index) {
+		return (long) LONGS.getVolatile(buffer(index), stateOffset(index));
+	}
+
+	final boolean weakCompareAndSetSharedState(long index, long expect, long update) {
+		if ( !LONGS.weakCompareAndSet(buffer(index), stateOffset(index), expect, update) ) {
+			return false;
+		}
+		journal(index, expect, update);
+		return true;
+	}
+
+	final long getAndAddSharedState(long index, long delta) {
+		long prev = (long) LONGS.getAndAdd(buffer(index), stateOffset(index), delta);
+		journal(index, prev, prev + delta);
+		return prev;
+	}
+
+	final long getAndBitwiseOrSharedState(long index, long bits) {
+		long prev = (long) LONGS.getAndBitwiseOr(buffer(index), stateOffset(index), bits);
+		journal(index, prev, prev | bits);
+		return prev;
+	}
+
+	final long getAndBitwiseAndSharedState(long index, long bits) {
+		long prev = (long) LONGS.getAndBitwiseAnd(buffer(index), stateOffset(index), bits);
+		journal(index, prev, prev & bits);
+		return prev;
+	}
+
+	/**
+	 * Registers resource data which has waiting applicants, so it is polled for passes returned by other processes.
+	 */
+	final void watch(long index, ALockFreeResourceData ad) {
+		watched.put(Long.valueOf(index), ad);
+	}
+
+	/**
+	 * Records the change of the access held by this process.
+	 */
+	private void journal(long index, long prev, long next) {
+		long held = (next & HELD) - (prev & HELD);
+		if ( held != 0L ) {
+			LONGS.getAndAdd(journals[process], journalOffset(index), held);
+		}
+	}
+
+	private ByteBuffer buffer(long index) {
+		return index == GLOBAL ? header : chunk(index);
+	}
+
+	private static int stateOffset(long index) {
+		return index == GLOBAL ? H_GLOBAL : offset(index) + 8;
+	}
+
+	private int journalOffset(long index) {
+		return (int) ((index == GLOBAL ? slots : index) * 8L);
+	}
+
+	private static int entry(int process) {
+		return H_PROCESS_TABLE + process * PROCESS_BYTES;
+	}
+
+	/**
+	 * Takes free entry of the process table, reclaims entries of the processes which are gone if there is none.
+	 */
+	private int attach() throws IOException {
+		ProcessHandle self = ProcessHandle.current();
+		FILE_LOCK.lock();
+		try {
+			FileLock lock = channel.lock();
+			try {
+				reclaimDead();
+				for (int i = 0; i < processes; i++) {
+					if ( (long) LONGS.getVolatile(header, entry(i)) == 0L ) {
+						LONGS.setVolatile(header, entry(i) + 8, startTime(self));
+						LONGS.setVolatile(header, entry(i), self.pid());
+						return i;
+					}
+				}
+			} finally {
+				lock.release();
+			}
+		} finally {
+			FILE_LOCK.unlock();
+		}
+		throw new IllegalStateException("All " + processes + " process entries of " + file + " are taken");
+	}
+
+	/**
+	 * Reverts journals of the processes which are gone and frees their entries. Called under the file lock.
+	 */
+	private int reclaimDead() {
+		int reclaimed = 0;
+		for (int i = 0; i < processes; i++) {
+			long pid = (long) LONGS.getVolatile(header, entry(i));
+			if ( pid != 0L && !isAlive(pid, (long) LONGS.getVolatile(header, entry(i) + 8)) ) {
+				revert(i);
+				LONGS.setVolatile(header, entry(i), 0L);
+				reclaimed++;
+			}
+		}
+		return reclaimed;
+	}
+
+	/**
+	 * Returns access recorded in the journal of the process, frees slots it claimed but did not fill and clears
+	 * waiter hints it might leave.
+	 */
+	private void revert(int owner) {
+		final ByteBuffer journal = journals[owner];
+		final long claim = CLAIMED | (owner + 1);
+		for (long i = 0; i < slots; i++) {
+			long held = (long) LONGS.getAndSet(journal, journalOffset(i), 0L);
+			if ( held != 0L ) {
+				LONGS.getAndAdd(buffer(i), stateOffset(i), -held);
+			}
+			if ( (long) LONGS.getVolatile(buffer(i), stateOffset(i)) == claim
+					&& LONGS.compareAndSet(buffer(i), stateOffset(i), claim, 0L) ) {
+				unreserveSlot();
+			}
+			clearWaiterHints(i);
+		}
+		long held = (long) LONGS.getAndSet(journal, journalOffset(GLOBAL), 0L);
+		if ( held != 0L ) {
+			LONGS.getAndAdd(header, H_GLOBAL, -held);
+		}
+		clearWaiterHints(GLOBAL);
+	}
+
+	/**
+	 * Clears waiter hints of the state word which has no waiters in this process. Hints left by the process which is
+	 * gone would keep the idle resource closed for the new applicants. Hints of the waiters of other live processes
+	 * are cleared as well, their poller raises them again on the next poll.
+	 */
+	private void clearWaiterHints(long index) {
+		long s = (long) LONGS.getVolatile(buffer(index), stateOffset(index));
+		if ( (s & WAITER_HINTS) != 0L && (index == GLOBAL || getWaitQueue(index, false) == null)
+				&& !watched.containsKey(Long.valueOf(index)) ) {
+			LONGS.compareAndSet(buffer(index), stateOffset(index), s, s & ~WAITER_HINTS);
+		}
+	}
+
+	/**
+	 * Grants passes returned by other processes to the waiting applicants, reclaims passes of the processes which
+	 * are gone.
+	 */
+	private void poll() {
+		long reclaimAt = System.nanoTime() + RECLAIM_NANOS;
+		while (!closed) {
+			LockSupport.parkNanos(this, pollNanos);
+			for (Map.Entry<Long, ALockFreeResourceData> e : watched.entrySet()) {
+				ALockFreeResourceData ad = e.getValue();
+				if ( ad.getWaitQueue(false) != null ) {
+					ad.dispatchWaiters();
+				} else if ( watched.remove(e.getKey(), ad) && ad.getWaitQueue(false) != null ) {
+					// queue was created again before the resource data was removed
+					watched.putIfAbsent(e.getKey(), ad);
+				}
+			}
+			if ( System.nanoTime() - reclaimAt >= 0L ) {
+				try {
+					reclaim();
+				} catch (IOException e) {
+					// channel is closed, next attempt is made on the next interval unless the table is closed
+				}
+				reclaimAt = System.nanoTime() + RECLAIM_NANOS;
+			}
+		}
+	}
+
+	/**
+	 * Checks if the process with the given pid and start time is running.
+	 */
+	static boolean isAlive(long pid, long startTime) {
+		Optional<ProcessHandle> h = ProcessHandle.of(pid);
+		return h.isPresent() && h.get().isAlive() && (startTime == 0L || startTime == startTime(h.get()));
+	}
+
+	/**
+	 * Gets process start time which distinguishes the process from the later process with the same pid.
+	 *
+	 * @return epoch millis or 0 if unknown
+	 */
+	static long startTime(ProcessHandle h) {
+		Optional<Instant> start = h.info().startInstant();
+		return start.isPresent() ? start.get().toEpochMilli() : 0L;
+	}
+
+	@Override
+	public String toString() {
+		return "MappedStateTable [file=" + file + ", process=" + process + ", size=" + size() + "]";
+	}
+
+	/**
+	 * Buffers mapped from the file.
+	 */
+	private static final class Mapping {
+		FileChannel channel;
+		ByteBuffer header;
+		ByteBuffer[] journals;
+		ByteBuffer[] chunks;
+		long capacity;
+		long slots;
+		int processes;
+
+		static Mapping open(Path file, long capacity, int processes) throws IOException {
+			if ( processes <= 0 || processes > MAX_PROCESSES ) {
+				throw new IllegalArgumentException("Processes should be from 1 to " + MAX_PROCESSES + ": " + processes);
+			}
+			Mapping m = new Mapping();
+			m.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			try {
+				FILE_LOCK.lock();
+				try {
+					FileLock lock = m.channel.lock();
+					try {
+						m.map(capacity, processes);
+					} finally {
+						lock.release();
+					}
+				} finally {
+					FILE_LOCK.unlock();
+				}
+			} catch (IOException | RuntimeException e) {
+				m.channel.close();
+				throw e;
+			}
+			return m;
+		}
+
+		private void map(long newCapacity, int newProcesses) throws IOException {
+			header = buffer(0L, PAGE);
+			if ( (long) LONGS.getVolatile(header, H_MAGIC) == 0L ) {
+				if ( slots(newCapacity) > MAX_SLOTS ) {
+					throw new IllegalArgumentException("Capacity is too large: " + newCapacity);
+				}
+				LONGS.setVolatile(header, H_VERSION, VERSION);
+				LONGS.setVolatile(header, H_CAPACITY, newCapacity);
+				LONGS.setVolatile(header, H_PROCESSES, (long) newProcesses);
+				LONGS.setVolatile(header, H_MAGIC, MAGIC);
+			} else if ( (long) LONGS.getVolatile(header, H_MAGIC) != MAGIC
+					|| (long) LONGS.getVolatile(header, H_VERSION) != VERSION ) {
+				throw new IllegalStateException("File is not a state table of version " + VERSION);
+			}
+			capacity = (long) LONGS.getVolatile(header, H_CAPACITY);
+			processes = (int) (long) LONGS.getVolatile(header, H_PROCESSES);
+			slots = slots(capacity);
+
+			long journalBytes = (slots + 1L) * 8L;
+			long offset = PAGE;
+			journals = new ByteBuffer[processes];
+			for (int i = 0; i < processes; i++) {
+				journals[i] = buffer(offset, journalBytes);
+				offset += journalBytes;
+			}
+			offset = (offset + PAGE - 1) / PAGE * PAGE;
+			int chunkSlots = chunkSlots(slots);
+			chunks = new ByteBuffer[(int) ((slots + chunkSlots - 1) / chunkSlots)];
+			for (int i = 0; i < chunks.length; i++) {
+				chunks[i] = buffer(offset, (long) chunkSlots * SLOT_BYTES);
+				offset += (long) chunkSlots * SLOT_BYTES;
+			}
+		}
+
+		private ByteBuffer buffer(long position, long size) throws IOException {
+			return channel.map(FileChannel.MapMode.READ_WRITE, position, size).order(ByteOrder.nativeOrder());
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource;
+
+/**
+ * Lock free resource data which state word is stored in the off heap state table.
+ * <br/>
+ * <br/>
+ * Instance is a short living view of the table slot, it is not reference counted and does not hold any resource state
+ * on heap, so views of the same resource may be created for every pass request.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.resource.OffHeapStateTable
+ */
+public class OffHeapResourceData extends ALockFreeResourceData {
+	protected final OffHeapStateTable table;
+	protected final long slot;
+
+	/**
+	 * Instantiate a resource data view.
+	 *
+	 * @param resourceId
+	 * @param table
+	 *            table which stores resource state
+	 * @param slot
+	 *            slot of the resource id in the table
+	 * @param maxActivePasses
+	 *            max number of threads with current resourceId allowed to access restricted section simultaneously
+	 * @param fair
+	 *            true to grant passes in first-in first-out order under contention
+	 * @param policy
+	 *            order of granting passes to waiting RO and RW applicants in unfair mode
+	 */
+	public OffHeapResourceData(final Object resourceId, final OffHeapStateTable table, final long slot,
+			final int maxActivePasses, final boolean fair, final RWPolicy policy) {
+		super(resourceId, false, maxActivePasses, fair, policy);
+		this.table = table;
+		this.slot = slot;
+	}
+
+	@Override
+	protected final long getState() {
+		return table.getState(slot);
+	}
+
+	@Override
+	protected final boolean weakCompareAndSetState(final long expect, final long update) {
+		return table.weakCompareAndSetState(slot, expect, update);
+	}
+
+	@Override
+	protected final long getAndAddState(final long delta) {
+		return table.getAndAddState(slot, delta);
+	}
+
+	@Override
+	protected final long getAndBitwiseOrState(final long bits) {
+		return table.getAndBitwiseOrState(slot, bits);
+	}
+
+	@Override
+	protected final long getAndBitwiseAndState(final long bits) {
+		return table.getAndBitwiseAndState(slot, bits);
+	}
+
+	@Override
+	protected final WaitQueue getWaitQueue(final boolean create) {
+		return table.getWaitQueue(slot, create);
+	}
+
+	@Override
+	protected final void onQueueEmpty(final WaitQueue q) {
+		table.dropWaitQueue(slot, q);
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import zur13.checkpoint.resource.ALockFreeResourceData.WaitQueue;
+
+/**
+ * Fixed capacity open addressing table of resource state words stored outside of the java heap.
+ * <br/>
+ * <br/>
+ * Each slot takes 16 bytes of direct memory: primitive long resource id and the state word of the lock free resource
+ * data. Slots are never cleared, so the table should be sized for all resource ids it will ever see. Wait queues are
+ * kept on heap only for the slots which have waiting applicants at the moment.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.resource.OffHeapResourceData
+ */
+public class OffHeapStateTable {
+	static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	/* slot contains valid resource id */
+	static final long OCCUPIED = 1L << 63;
+	/* slot is taken, resource id is being written */
+	static final long CLAIMED = 1L << 62;
+	static final int SLOT_BYTES = 16;
+	static final int CHUNK_BITS = 24; // 16M slots (256MB) per direct buffer
+	static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+	final ByteBuffer[] chunks;
+	final long mask;
+	final long capacity;
+	final AtomicLong size = new AtomicLong();
+	final ConcurrentHashMap<Long, WaitQueue> queues = new ConcurrentHashMap<Long, WaitQueue>();
+
+	/**
+	 * Instantiate a state table.
+	 *
+	 * @param capacity
+	 *            max number of resource ids stored in the table
+	 */
+	public OffHeapStateTable(long capacity) {
+		this(capacity, allocate(slots(capacity)));
+	}
+
+	/**
+	 * Instantiate a state table over the given buffers.
+	 *
+	 * @param capacity
+	 *            max number of resource ids stored in the table
+	 * @param chunks
+	 *            buffers of slots(capacity) slots in total, chunkSlots() slots per buffer
+	 */
+	protected OffHeapStateTable(long capacity, ByteBuffer[] chunks) {
+		super();
+		this.capacity = capacity;
+		this.mask = slots(capacity) - 1L;
+		this.chunks = chunks;
+	}
+
+	/**
+	 * Gets number of slots of the table for the given capacity.
+	 *
+	 * @param capacity
+	 * @return power of two
+	 */
+	protected static long slots(long capacity) {
+		if ( capacity <= 0 ) {
+			throw new IllegalArgumentException("Capacity should be positive: " + capacity);
+		}
+		return Long.highestOneBit(Math.max(2L, capacity + capacity / 3L) - 1L) << 1;
+	}
+
+	/**
+	 * Gets number of slots stored in a single buffer.
+	 *
+	 * @param slots
+	 * @return
+	 */
+	protected static int chunkSlots(long slots) {
+		return (int) Math.min(slots, 1L << CHUNK_BITS);
+	}
+
+	private static ByteBuffer[] allocate(long slots) {
+		int chunkSlots = chunkSlots(slots);
+		ByteBuffer[] chunks = new ByteBuffer[(int) ((slots + chunkSlots - 1) / chunkSlots)];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = ByteBuffer.allocateDirect(chunkSlots * SLOT_BYTES).order(ByteOrder.nativeOrder());
+		}
+		return chunks;
+	}
+
+	/**
+	 * Finds slot of the given resource id, takes free slot for the new resource id.
+	 *
+	 * @param resourceId
+	 * @return slot index
+	 * @throws IllegalStateException
+	 *             if there is no free slot for the new resource id
+	 */
+	public long slot(long resourceId) {
+		long h = resourceId * 0x9E3779B97F4A7C15L;
+		for (long i = (h ^ (h >>> 32)) & mask;; i = (i + 1) & mask) {
+			ByteBuffer chunk = chunk(i);
+			int offset = offset(i);
+			for (;;) {
+				long s = (long) LONGS.getVolatile(chunk, offset + 8);
+				if ( (s & OCCUPIED) != 0 ) {
+					if ( (long) LONGS.get(chunk, offset) == resourceId ) {
+						return i;
+					}
+					break;
+				} else if ( s == 0L ) {
+					if ( !reserveSlot() ) {
+						throw new IllegalStateException("Off heap state table is full, capacity " + capacity);
+					}
+					if ( LONGS.compareAndSet(chunk, offset + 8, 0L, claimMark()) ) {
+						LONGS.set(chunk, offset, resourceId);
+						LONGS.setRelease(chunk, offset + 8, OCCUPIED | CLAIMED);
+						return i;
+					}
+					unreserveSlot();
+				} else if ( isClaimAbandoned(s) && LONGS.compareAndSet(chunk, offset + 8, s, claimMark()) ) {
+					// slot reservation of the owner which is gone is taken over with the slot
+					LONGS.set(chunk, offset, resourceId);
+					LONGS.setRelease(chunk, offset + 8, OCCUPIED | CLAIMED);
+					return i;
+				} else {
+					// other thread is writing resource id to this slot
+					Thread.onSpinWait();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets number of resource ids stored in the table.
+	 *
+	 * @return
+	 */
+	public long size() {
+		return size.get();
+	}
+
+	/**
+	 * Counts new resource id in the table size.
+	 *
+	 * @return false if the table is full
+	 */
+	protected boolean reserveSlot() {
+		if ( size.incrementAndGet() > capacity ) {
+			size.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Withdraws reservation made by reserveSlot().
+	 */
+	protected void unreserveSlot() {
+		size.decrementAndGet();
+	}
+
+	/**
+	 * Gets state of the slot taken by the current applicant while resource id is being written.
+	 *
+	 * @return CLAIMED flag with optional owner bits
+	 */
+	protected long claimMark() {
+		return CLAIMED;
+	}
+
+	/**
+	 * Checks if the slot was taken by the owner which is gone before resource id was written.
+	 *
+	 * @param s
+	 *            claimed slot state
+	 * @return false in this implementation
+	 */
+	protected boolean isClaimAbandoned(long s) {
+		return false;
+	}
+
+	final ByteBuffer chunk(long slot) {
+		return chunks[(int) (slot >>> CHUNK_BITS)];
+	}
+
+	static final int offset(long slot) {
+		return (int) (slot & CHUNK_MASK) * SLOT_BYTES;
+	}
+
+	final long getState(long slot) {
+		return (long) LONGS.getVolatile(chunk(slot), offset(slot) + 8);
+	}
+
+	final boolean weakCompareAndSetState(long slot, long expect, long update) {
+		return LONGS.weakCompareAndSet(chunk(slot), offset(slot) + 8, expect, update);
+	}
+
+	final long getAndAddState(long slot, long delta) {
+		return (long) LONGS.getAndAdd(chunk(slot), offset(slot) + 8, delta);
+	}
+
+	final long getAndBitwiseOrState(long slot, long bits) {
+		return (long) LONGS.getAndBitwiseOr(chunk(slot), offset(slot) + 8, bits);
+	}
+
+	final long getAndBitwiseAndState(long slot, long bits) {
+		return (long) LONGS.getAndBitwiseAnd(chunk(slot), offset(slot) + 8, bits);
+	}
+
+	final WaitQueue getWaitQueue(long slot, boolean create) {
+		Long key = Long.valueOf(slot);
+		WaitQueue q = queues.get(key);
+		if ( q == null && create ) {
+			q = new WaitQueue();
+			WaitQueue prev = queues.putIfAbsent(key, q);
+			if ( prev != null ) {
+				q = prev;
+			}
+		}
+		return q;
+	}
+
+	/**
+	 * Drops empty wait queue. Called under the queue lock.
+	 */
+	final void dropWaitQueue(long slot, WaitQueue q) {
+		q.dead = true;
+		queues.remove(Long.valueOf(slot), q);
+	}
+}
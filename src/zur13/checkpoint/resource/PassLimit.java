@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zur13.checkpoint.resource;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.CompletableFuture;
+
+import zur13.checkpoint.Pass;
+
+/**
+ * Limits global number of active passes of the checkpoint.
+ * <br/>
+ * <br/>
+ * Works as a counting semaphore built on the lock free resource data where every permit is an RO pass, so waiting
+ * applicants may be either parked threads or async applicants waiting for the future completion.
+ * <br/>
+ * <br/>
+ * Several permits may be taken at once (weighted passes). Applicant waiting for several permits is not bypassed by the
+ * applicants requesting fewer permits.
+ * <br/>
+ * <br/>
+ * State word is kept in the field of this object, subclasses may keep it elsewhere (e.g. in the memory shared with
+ * other processes) by overriding state accessors.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ *
+ */
+public class PassLimit extends ALockFreeResourceData {
+	private static final VarHandle STATE;
+	private static final VarHandle QUEUE;
+	static {
+		try {
+			MethodHandles.Lookup l = MethodHandles.lookup();
+			STATE = l.findVarHandle(PassLimit.class, "state", long.class);
+			QUEUE = l.findVarHandle(PassLimit.class, "queue", WaitQueue.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	protected volatile long state;
+	protected volatile WaitQueue queue;
+
+	/**
+	 * Instantiate a pass limit.
+	 *
+	 * @param limit
+	 *            max number of permits taken simultaneously
+	 * @param fair
+	 *            true to grant permits in first-in first-out order under contention
+	 */
+	public PassLimit(final int limit, final boolean fair) {
+		this("PassLimit", limit, fair);
+	}
+
+	/**
+	 * Instantiate a named pass limit.
+	 *
+	 * @param name
+	 *            reported as the resource id of the limit
+	 * @param limit
+	 *            max number of permits taken simultaneously
+	 * @param fair
+	 *            true to grant permits in first-in first-out order under contention
+	 */
+	public PassLimit(final Object name, final int limit, final boolean fair) {
+		super(name, true, limit, fair, RWPolicy.READER_PREFERRING);
+	}
+
+	/**
+	 * Takes permit if one is available at the time of invocation.
+	 *
+	 * @return true if permit taken
+	 */
+	public boolean tryAcquirePermit() {
+		return tryAcquire(true, true);
+	}
+
+	/**
+	 * Takes given number of permits if they are available at the time of invocation.
+	 *
+	 * @param permits
+	 *            number of permits, from 1 to limit
+	 * @return true if permits taken
+	 */
+	public boolean tryAcquirePermits(final int permits) {
+		return tryAcquire(true, checkWeight(permits), true);
+	}
+
+	/**
+	 * Takes given number of permits, waiting if necessary.
+	 *
+	 * @param permits
+	 *            number of permits, from 1 to limit
+	 * @param interruptible
+	 * @param nanosTimeout
+	 *            max time to wait, 0 to try without waiting or negative value to wait without timeout
+	 * @return true if permits taken; false if timeout elapsed
+	 * @throws InterruptedException
+	 */
+	public boolean acquirePermits(final int permits, final boolean interruptible, final long nanosTimeout)
+			throws InterruptedException {
+		return acquire(true, checkWeight(permits), interruptible, nanosTimeout);
+	}
+
+	/**
+	 * Takes permit, waiting if necessary.
+	 *
+	 * @param interruptible
+	 * @param nanosTimeout
+	 *            max time to wait, 0 to try without waiting or negative value to wait without timeout
+	 * @return true if permit taken; false if timeout elapsed
+	 * @throws InterruptedException
+	 */
+	public boolean acquirePermit(final boolean interruptible, final long nanosTimeout) throws InterruptedException {
+		return acquire(true, interruptible, nanosTimeout);
+	}
+
+	/**
+	 * Takes permit without blocking the calling thread.
+	 *
+	 * @return future completed when permit is taken, cancel the future to withdraw the request
+	 */
+	public CompletableFuture<Pass> acquirePermitAsync() {
+		return acquireAsync(null, true);
+	}
+
+	/**
+	 * Returns previously taken permit.
+	 */
+	public void releasePermit() {
+		release(true);
+	}
+
+	/**
+	 * Returns previously taken permits.
+	 *
+	 * @param permits
+	 */
+	public void releasePermits(final int permits) {
+		release(true, permits);
+	}
+
+	/**
+	 * Gets number of permits taken at the moment.
+	 *
+	 * @return
+	 */
+	public int getActivePermits() {
+		return getActivePasses();
+	}
+
+	@Override
+	protected long getState() {
+		return state;
+	}
+
+	@Override
+	protected boolean weakCompareAndSetState(final long expect, final long update) {
+		return STATE.weakCompareAndSet(this, expect, update);
+	}
+
+	@Override
+	protected long getAndAddState(final long delta) {
+		return (long) STATE.getAndAdd(this, delta);
+	}
+
+	@Override
+	protected long getAndBitwiseOrState(final long bits) {
+		return (long) STATE.getAndBitwiseOr(this, bits);
+	}
+
+	@Override
+	protected long getAndBitwiseAndState(final long bits) {
+		return (long) STATE.getAndBitwiseAnd(this, bits);
+	}
+
+	@Override
+	protected WaitQueue getWaitQueue(final boolean create) {
+		WaitQueue q = queue;
+		if ( q == null && create ) {
+			q = newWaitQueue();
+			if ( !QUEUE.compareAndSet(this, null, q) ) {
+				q = queue;
+			}
+		}
+		return q;
+	}
+}
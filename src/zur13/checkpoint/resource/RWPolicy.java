@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource;
+
+/**
+ * Defines which applicants get the resource first when both RO and RW applicants are waiting for it.
+ * <br/>
+ * <br/>
+ * Policy is used by unfair lock free resource data only. Fair resource data grants passes in first-in first-out order.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.resource.LockFreeResourceData
+ */
+public enum RWPolicy {
+	/**
+	 * RO applicants get passes whenever RO passes are available even if RW applicants wait. Gives the best RO
+	 * throughput but steady stream of RO applicants may starve RW applicants forever.
+	 */
+	READER_PREFERRING,
+
+	/**
+	 * New RO applicants wait while there is waiting RW applicant. RW applicants are served before any waiting RO
+	 * applicant, steady stream of RW applicants may starve RO applicants.
+	 */
+	WRITER_PREFERRING,
+
+	/**
+	 * Alternates phases of RO and RW access. New RO applicants wait while there is waiting RW applicant, when RW pass
+	 * is returned all waiting RO applicants are served before next RW applicant.
+	 * <br/>
+	 * RW applicant waits at most for the RO passes active at the time of its arrival and single RO phase, RO applicant
+	 * waits at most for a single RW pass.
+	 */
+	PHASE_FAIR
+}
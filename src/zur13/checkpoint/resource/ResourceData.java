@@ -21,9 +21,15 @@ import java.util.concurrent.TimeUnit;
 
 import zur13.checkpoint.ACheckpoint;
 import zur13.checkpoint.Pass;
+import zur13.checkpoint.PassMode;
 
 /**
  * Controls access for single resource. Allows to limit max number of active passes per resource.
+ * <br/>
+ * <br/>
+ * RO pass takes a permit of the semaphore and RW pass takes all of them. Update pass additionally takes the single
+ * permit of the update semaphore, RO pass takes it only while it is upgrading, so two passes never wait for each other
+ * to upgrade.
  *
  * @author
  *         <ul>
@@ -35,6 +41,8 @@ public class ResourceData extends AResourceData {
 	/* max number of threads with current resourceId allowed to access restricted section simultaneously */
 	protected int maxActivePasses = 1; // max number of resource passes might be given simultaneously
 	protected Semaphore semaphore;
+	/* held by the update pass and by the RO pass while it is upgrading */
+	protected Semaphore updater;
 
 	private ResourceData(final Object resourceId) {
 		super(resourceId);
@@ -53,13 +61,14 @@ public class ResourceData extends AResourceData {
 		this(resourceId);
 		this.maxActivePasses = maxActivePasses;
 		semaphore = new Semaphore(maxActivePasses, fair);
+		updater = new Semaphore(1, fair);
 	}
 
 	@Override
 	public final Pass getPass(final ACheckpoint checkpoint) throws InterruptedException {
 		semaphore.acquire();
 		try {
-			return new Pass(resourceId, checkpoint, true);
+			return new Pass(resourceId, checkpoint, true, this);
 		} catch (Exception e) {
 			semaphore.release();
 			throw e;
@@ -70,7 +79,7 @@ public class ResourceData extends AResourceData {
 	public final Pass getPassUninterruptibly(final ACheckpoint checkpoint) {
 		semaphore.acquireUninterruptibly();
 		try {
-			return new Pass(resourceId, checkpoint, true);
+			return new Pass(resourceId, checkpoint, true, this);
 		} catch (Exception e) {
 			semaphore.release();
 			throw e;
@@ -81,7 +90,7 @@ public class ResourceData extends AResourceData {
 	public final Pass tryGetPass(final ACheckpoint checkpoint) {
 		if ( semaphore.tryAcquire() ) {
 			try {
-				return new Pass(resourceId, checkpoint, true);
+				return new Pass(resourceId, checkpoint, true, this);
 			} catch (Exception e) {
 				semaphore.release();
 				throw e;
@@ -95,7 +104,7 @@ public class ResourceData extends AResourceData {
 			throws InterruptedException {
 		if ( semaphore.tryAcquire(timeout, unit) ) {
 			try {
-				return new Pass(resourceId, checkpoint, true);
+				return new Pass(resourceId, checkpoint, true, this);
 			} catch (Exception e) {
 				semaphore.release();
 				throw e;
@@ -108,7 +117,7 @@ public class ResourceData extends AResourceData {
 	public final Pass getPassRW(final ACheckpoint checkpoint) throws InterruptedException {
 		semaphore.acquire(maxActivePasses);
 		try {
-			return new Pass(resourceId, checkpoint, false);
+			return new Pass(resourceId, checkpoint, false, this);
 		} catch (Exception e) {
 			semaphore.release();
 			throw e;
@@ -119,7 +128,7 @@ public class ResourceData extends AResourceData {
 	public final Pass getPassRWUninterruptibly(final ACheckpoint checkpoint) {
 		semaphore.acquireUninterruptibly(maxActivePasses);
 		try {
-			return new Pass(resourceId, checkpoint, false);
+			return new Pass(resourceId, checkpoint, false, this);
 		} catch (Exception e) {
 			semaphore.release();
 			throw e;
@@ -130,7 +139,7 @@ public class ResourceData extends AResourceData {
 	public final Pass tryGetPassRW(final ACheckpoint checkpoint) {
 		if ( semaphore.tryAcquire(maxActivePasses) ) {
 			try {
-				return new Pass(resourceId, checkpoint, false);
+				return new Pass(resourceId, checkpoint, false, this);
 			} catch (Exception e) {
 				semaphore.release();
 				throw e;
@@ -144,7 +153,7 @@ public class ResourceData extends AResourceData {
 			throws InterruptedException {
 		if ( semaphore.tryAcquire(maxActivePasses, timeout, unit) ) {
 			try {
-				return new Pass(resourceId, checkpoint, false);
+				return new Pass(resourceId, checkpoint, false, this);
 			} catch (Exception e) {
 				semaphore.release();
 				throw e;
@@ -153,13 +162,179 @@ public class ResourceData extends AResourceData {
 		return null;
 	}
 
+	@Override
+	public final Pass getPass(final ACheckpoint checkpoint, final int weight) throws InterruptedException {
+		semaphore.acquire(checkWeight(weight));
+		try {
+			return new Pass(resourceId, checkpoint, true, this, weight);
+		} catch (Exception e) {
+			semaphore.release(weight);
+			throw e;
+		}
+	}
+
+	@Override
+	public final Pass getPassUninterruptibly(final ACheckpoint checkpoint, final int weight) {
+		semaphore.acquireUninterruptibly(checkWeight(weight));
+		try {
+			return new Pass(resourceId, checkpoint, true, this, weight);
+		} catch (Exception e) {
+			semaphore.release(weight);
+			throw e;
+		}
+	}
+
+	@Override
+	public final Pass tryGetPass(final ACheckpoint checkpoint, final int weight) {
+		if ( semaphore.tryAcquire(checkWeight(weight)) ) {
+			try {
+				return new Pass(resourceId, checkpoint, true, this, weight);
+			} catch (Exception e) {
+				semaphore.release(weight);
+				throw e;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public final Pass tryGetPass(final ACheckpoint checkpoint, final int weight, final long timeout,
+			final TimeUnit unit) throws InterruptedException {
+		if ( semaphore.tryAcquire(checkWeight(weight), timeout, unit) ) {
+			try {
+				return new Pass(resourceId, checkpoint, true, this, weight);
+			} catch (Exception e) {
+				semaphore.release(weight);
+				throw e;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public final Pass getPassForUpdate(final ACheckpoint checkpoint) throws InterruptedException {
+		updater.acquire();
+		try {
+			semaphore.acquire();
+		} catch (InterruptedException e) {
+			updater.release();
+			throw e;
+		}
+		return newUpdatePass(checkpoint);
+	}
+
+	@Override
+	public final Pass getPassForUpdateUninterruptibly(final ACheckpoint checkpoint) {
+		updater.acquireUninterruptibly();
+		semaphore.acquireUninterruptibly();
+		return newUpdatePass(checkpoint);
+	}
+
+	@Override
+	public final Pass tryGetPassForUpdate(final ACheckpoint checkpoint) {
+		if ( updater.tryAcquire() ) {
+			if ( semaphore.tryAcquire() ) {
+				return newUpdatePass(checkpoint);
+			}
+			updater.release();
+		}
+		return null;
+	}
+
+	@Override
+	public final Pass tryGetPassForUpdate(final ACheckpoint checkpoint, final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		if ( updater.tryAcquire(timeout, unit) ) {
+			boolean acquired = false;
+			try {
+				acquired = semaphore.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			} finally {
+				if ( !acquired ) {
+					updater.release();
+				}
+			}
+			if ( acquired ) {
+				return newUpdatePass(checkpoint);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Creates update pass instance for the acquired permits. Releases the permits if pass can't be created.
+	 */
+	private Pass newUpdatePass(final ACheckpoint checkpoint) {
+		try {
+			return new Pass(resourceId, checkpoint, PassMode.UPDATE, this, 0L);
+		} catch (Throwable e) {
+			semaphore.release();
+			updater.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public final void upgrade(final Pass pass) throws InterruptedException {
+		final boolean update = pass.isUpdate();
+		if ( !update && !updater.tryAcquire() ) {
+			// two RO passes waiting for each other to upgrade would never get RW access
+			throw new IllegalStateException(UPDATE_LOCKED);
+		}
+		try {
+			semaphore.acquire(maxActivePasses - pass.getWeight());
+		} finally {
+			if ( !update ) {
+				updater.release();
+			}
+		}
+	}
+
+	@Override
+	public final boolean tryUpgrade(final Pass pass, final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		final boolean update = pass.isUpdate();
+		if ( !update && !updater.tryAcquire() ) {
+			throw new IllegalStateException(UPDATE_LOCKED);
+		}
+		try {
+			return semaphore.tryAcquire(maxActivePasses - pass.getWeight(), timeout, unit);
+		} finally {
+			if ( !update ) {
+				updater.release();
+			}
+		}
+	}
+
+	@Override
+	public final void downgrade(final Pass pass) {
+		semaphore.release(maxActivePasses - pass.getWeight());
+	}
+
+	/**
+	 * Checks that RO pass of the given weight may ever be granted.
+	 * 
+	 * @param weight
+	 * @return weight
+	 */
+	protected final int checkWeight(final int weight) {
+		if ( weight < 1 || weight > maxActivePasses ) {
+			throw new IllegalArgumentException(
+					"Pass weight should be in range [1, " + maxActivePasses + "]: " + weight);
+		}
+		return weight;
+	}
+
 	@Override
 	public final void returnPass(final Pass pass) {
 		if ( pass.isReadOnly() ) {
-			semaphore.release();
+			semaphore.release(pass.getWeight());
 		} else {
 			semaphore.release(maxActivePasses);
 		}
+		if ( pass.isUpdate() ) {
+			updater.release();
+		}
 	}
 
 }
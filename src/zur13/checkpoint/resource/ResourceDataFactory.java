@@ -16,9 +16,25 @@
 
 package zur13.checkpoint.resource;
 
+import java.util.function.Supplier;
+
+import zur13.checkpoint.resource.limit.AdaptiveLimit;
+import zur13.checkpoint.resource.limit.OverloadControl;
+import zur13.checkpoint.resource.limit.RateLimit;
+import zur13.checkpoint.resource.limit.WaiterLimit;
+
 public class ResourceDataFactory {
 	int maxActivePassesPerResource;
 	boolean fair;
+	boolean lockFree = true;
+	RWPolicy policy = RWPolicy.READER_PREFERRING;
+	boolean flyweightPasses = false;
+	Supplier<? extends AdaptiveLimit> adaptiveLimits;
+	RateLimit rateLimit;
+	WaitScheduler scheduler;
+	OverloadControl overload;
+	WaiterLimit waiterLimit;
+	ResourcePolicy resourcePolicy;
 
 	/**
 	 * Instantiate a resource data factory object.
@@ -34,7 +50,179 @@ public class ResourceDataFactory {
 		this.fair = fair;
 	}
 
+	/**
+	 * Instantiate a resource data factory object.
+	 * 
+	 * @param maxActivePassesPerResource
+	 *            max number of passes per resource
+	 * @param fair
+	 * @param lockFree
+	 *            true to create LockFreeResourceData instances; false to create Semaphore based ResourceData instances
+	 * @see zur13.checkpoint.resource.LockFreeResourceData
+	 */
+	public ResourceDataFactory(int maxActivePassesPerResource, boolean fair, boolean lockFree) {
+		this(maxActivePassesPerResource, fair);
+		this.lockFree = lockFree;
+	}
+
+	/**
+	 * Sets order of granting passes to waiting RO and RW applicants. Used by lock free resource data only.
+	 * 
+	 * @param policy
+	 * @return
+	 */
+	public ResourceDataFactory setRWPolicy(RWPolicy policy) {
+		this.policy = policy;
+		return this;
+	}
+
+	/**
+	 * Configures lock free resource data to give the same pass instance to all applicants of the same access type.
+	 * 
+	 * @param flyweightPasses
+	 * @return
+	 */
+	public ResourceDataFactory setFlyweightPasses(boolean flyweightPasses) {
+		this.flyweightPasses = flyweightPasses;
+		return this;
+	}
+
+	/**
+	 * Configures lock free resource data to adapt max active passes limit to the observed pass latency. Every
+	 * resource data gets its own limit from the supplier.
+	 * 
+	 * @param adaptiveLimits
+	 *            supplier of the new limit instances or null for the fixed limit
+	 * @return
+	 */
+	public ResourceDataFactory setAdaptiveLimit(Supplier<? extends AdaptiveLimit> adaptiveLimits) {
+		this.adaptiveLimits = adaptiveLimits;
+		return this;
+	}
+
+	/**
+	 * Configures lock free resource data to limit rate of granted passes of every resource.
+	 * 
+	 * @param rateLimit
+	 *            rate limit or null
+	 * @return
+	 */
+	public ResourceDataFactory setRateLimit(RateLimit rateLimit) {
+		this.rateLimit = rateLimit;
+		return this;
+	}
+
+	/**
+	 * Configures lock free resource data to order waiting applicants with the given scheduler.
+	 * 
+	 * @param scheduler
+	 *            scheduler or null for first-in first-out order
+	 * @return
+	 */
+	public ResourceDataFactory setWaitScheduler(WaitScheduler scheduler) {
+		this.scheduler = scheduler;
+		return this;
+	}
+
+	/**
+	 * Configures lock free resource data to reject applicants waiting in the overloaded wait queue.
+	 * 
+	 * @param overload
+	 *            overload control or null
+	 * @return
+	 */
+	public ResourceDataFactory setOverloadControl(OverloadControl overload) {
+		this.overload = overload;
+		return this;
+	}
+
+	/**
+	 * Configures lock free resource data to reject applicants which would exceed max number of waiters. Same limit
+	 * instance is given to all resource data created by this factory.
+	 * 
+	 * @param waiterLimit
+	 *            waiter limit or null
+	 * @return
+	 */
+	public ResourceDataFactory setWaiterLimit(WaiterLimit waiterLimit) {
+		this.waiterLimit = waiterLimit;
+		return this;
+	}
+
+	/**
+	 * Configures resource data to take limits of the resource from the policy instead of the limits given to this
+	 * factory. Limits returned by the policy replace max passes per resource, fairness and rate limit of the factory.
+	 * 
+	 * @param resourcePolicy
+	 *            policy or null to use the same limits for all resources
+	 * @return
+	 */
+	public ResourceDataFactory setResourcePolicy(ResourcePolicy resourcePolicy) {
+		this.resourcePolicy = resourcePolicy;
+		return this;
+	}
+
 	public AResourceData getResourceData(Object resourceId) {
-		return new ResourceData(resourceId, maxActivePassesPerResource, fair);
+		final ResourceLimits limits = getLimits(resourceId);
+		if ( limits != null ) {
+			return getResourceData(resourceId, limits.getMaxActivePasses(), limits.isFair(), limits.getRateLimit());
+		}
+		return getResourceData(resourceId, maxActivePassesPerResource, fair, rateLimit);
+	}
+
+	protected AResourceData getResourceData(Object resourceId, int maxActivePasses, boolean fair,
+			RateLimit rateLimit) {
+		if ( lockFree ) {
+			return new LockFreeResourceData(resourceId, maxActivePasses, fair, policy, flyweightPasses,
+					adaptiveLimits == null ? null : adaptiveLimits.get(), rateLimit, scheduler, overload,
+					waiterLimit);
+		}
+		return new ResourceData(resourceId, maxActivePasses, fair);
+	}
+
+	/**
+	 * Evaluates resource policy.
+	 * 
+	 * @param resourceId
+	 * @return limits of the resource or null to use the limits of this factory
+	 */
+	protected ResourceLimits getLimits(Object resourceId) {
+		return resourcePolicy == null ? null : resourcePolicy.getLimits(resourceId);
+	}
+
+	/**
+	 * Creates view of the resource data stored in the off heap state table.
+	 * 
+	 * @param resourceId
+	 * @param table
+	 * @param slot
+	 *            slot of the resource id in the table
+	 * @return
+	 */
+	public AResourceData getResourceData(Object resourceId, OffHeapStateTable table, long slot) {
+		final ResourceLimits limits = getLimits(resourceId);
+		if ( limits != null ) {
+			return new OffHeapResourceData(resourceId, table, slot, limits.getMaxActivePasses(), limits.isFair(),
+					policy);
+		}
+		return new OffHeapResourceData(resourceId, table, slot, maxActivePassesPerResource, fair, policy);
+	}
+
+	/**
+	 * Creates view of the resource data stored in the state table shared by several processes.
+	 * 
+	 * @param resourceId
+	 * @param table
+	 * @param slot
+	 *            slot of the resource id in the table
+	 * @return
+	 */
+	public AResourceData getResourceData(Object resourceId, MappedStateTable table, long slot) {
+		final ResourceLimits limits = getLimits(resourceId);
+		if ( limits != null ) {
+			return new MappedResourceData(resourceId, table, slot, limits.getMaxActivePasses(), limits.isFair(),
+					policy);
+		}
+		return new MappedResourceData(resourceId, table, slot, maxActivePassesPerResource, fair, policy);
 	}
 }
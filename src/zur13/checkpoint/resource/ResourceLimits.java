@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource;
+
+import zur13.checkpoint.resource.limit.RateLimit;
+
+/**
+ * Limits of a single resource or a class of resources given by the resource policy. Instance holds configuration only
+ * and may be shared by all resources of the same class.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.resource.ResourcePolicy
+ */
+public final class ResourceLimits {
+	private final int maxActivePasses;
+	private final boolean fair;
+	private final RateLimit rateLimit;
+
+	/**
+	 * Instantiate resource limits without rate limit.
+	 * 
+	 * @param maxActivePasses
+	 *            max number of RO pass units active for the resource simultaneously
+	 * @param fair
+	 *            true to grant passes in first-in first-out order under contention
+	 */
+	public ResourceLimits(int maxActivePasses, boolean fair) {
+		this(maxActivePasses, fair, null);
+	}
+
+	/**
+	 * Instantiate resource limits.
+	 * 
+	 * @param maxActivePasses
+	 *            max number of RO pass units active for the resource simultaneously
+	 * @param fair
+	 *            true to grant passes in first-in first-out order under contention
+	 * @param rateLimit
+	 *            rate of granted passes or null if not limited
+	 */
+	public ResourceLimits(int maxActivePasses, boolean fair, RateLimit rateLimit) {
+		super();
+		if ( maxActivePasses < 1 ) {
+			throw new IllegalArgumentException("Max active passes should be positive: " + maxActivePasses);
+		}
+		this.maxActivePasses = maxActivePasses;
+		this.fair = fair;
+		this.rateLimit = rateLimit;
+	}
+
+	public int getMaxActivePasses() {
+		return this.maxActivePasses;
+	}
+
+	public boolean isFair() {
+		return this.fair;
+	}
+
+	/**
+	 * Gets rate of granted passes.
+	 * 
+	 * @return rate limit or null if not limited
+	 */
+	public RateLimit getRateLimit() {
+		return this.rateLimit;
+	}
+
+	@Override
+	public String toString() {
+		return "ResourceLimits [maxActivePasses=" + this.maxActivePasses + ", fair=" + this.fair + ", rateLimit="
+				+ this.rateLimit + "]";
+	}
+}
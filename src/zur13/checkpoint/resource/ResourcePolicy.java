@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource;
+
+/**
+ * Gives limits of the resource by its id, so one checkpoint may serve resources of different capacity, e.g. core
+ * switches which take many parallel readers and small devices which take few.
+ * <br/>
+ * <br/>
+ * Policy is evaluated once when resource data is created by the resource data factory, limits are kept by the
+ * resource data until it is cleared from the storage. Off heap data storage does not keep resource data objects and
+ * evaluates policy on every request and ignores rate limit, so policy should be cheap and return the same limits
+ * for the same resource id.
+ * Striped data storage evaluates policy once per stripe with the stripe index as resource id.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.resource.ResourceLimits
+ */
+public interface ResourcePolicy {
+	/**
+	 * Gets limits of the resource.
+	 *
+	 * @param resourceId
+	 * @return limits of the resource or null to use the limits of the checkpoint
+	 */
+	public ResourceLimits getLimits(Object resourceId);
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource;
+
+/**
+ * Built-in wait schedulers.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.resource.WaitScheduler
+ */
+public enum SchedulingPolicy implements WaitScheduler {
+	/**
+	 * Waiting applicants with higher requested priority are granted passes first, applicants with the same priority
+	 * are served in arrival order. Steady stream of high priority applicants may starve low priority applicants.
+	 */
+	PRIORITY {
+		@Override
+		public long rank(boolean shared, int weight, int priority, long expectedHoldNanos) {
+			return -(long) priority;
+		}
+	},
+
+	/**
+	 * Waiting applicants expected to hold the pass for shorter time are granted passes first. Expected hold time is
+	 * the moving average of the hold times of the resource passes of the same access type, so for the resource with
+	 * short RO sections and long RW sections waiting RO applicants bypass waiting RW applicants in fair mode (or vice
+	 * versa). Applicants with the same expected hold time are served in arrival order, requested priority is ignored.
+	 */
+	SHORTEST_HOLD_FIRST {
+		@Override
+		public long rank(boolean shared, int weight, int priority, long expectedHoldNanos) {
+			return expectedHoldNanos;
+		}
+
+		@Override
+		public boolean tracksHoldTime() {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource;
+
+/**
+ * Orders applicants waiting for the resource in the lock free resource data.
+ * <br/>
+ * <br/>
+ * Every applicant which has to wait for the resource is ranked once when it is queued. Waiting applicants with lower
+ * rank are granted passes first, applicants with equal rank are granted passes in arrival order. RW policy still
+ * decides whether RO or RW applicants are served when both are waiting in unfair mode, ranks order applicants of the
+ * same access type. Applicants which get the pass without waiting are not ranked.
+ * <br/>
+ * <br/>
+ * Resource data without scheduler keeps first-in first-out order without ranking.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.resource.SchedulingPolicy
+ */
+public interface WaitScheduler {
+	/**
+	 * Priority of the requests which do not specify it.
+	 */
+	public static final int NORM_PRIORITY = 0;
+
+	/**
+	 * Ranks new waiting applicant.
+	 *
+	 * @param shared
+	 *            true for RO applicant, false for RW applicant
+	 * @param weight
+	 *            number of requested RO pass units, 1 for RW applicant
+	 * @param priority
+	 *            requested priority, NORM_PRIORITY if not specified
+	 * @param expectedHoldNanos
+	 *            average time passes of the same access type were held for this resource, 0 if unknown or hold times
+	 *            are not tracked
+	 * @return rank, lower rank is granted first
+	 */
+	public long rank(boolean shared, int weight, int priority, long expectedHoldNanos);
+
+	/**
+	 * Checks if the scheduler needs average hold times. Resource data tracks them only if requested, since every
+	 * pass has to keep its grant time.
+	 *
+	 * @return
+	 */
+	public default boolean tracksHoldTime() {
+		return false;
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource.limit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Additive increase multiplicative decrease limit.
+ * <br/>
+ * <br/>
+ * Limit grows by one for every pass returned within the latency threshold while at least half of the limit is in use,
+ * and is multiplied by the backoff ratio for every pass which took longer than the threshold.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ *
+ */
+public class AIMDLimit extends AdaptiveLimit {
+	protected final long latencyThresholdNanos;
+	protected final double backoffRatio;
+
+	/**
+	 * Instantiate AIMD limit.
+	 * 
+	 * @param minLimit
+	 * @param maxLimit
+	 * @param initialLimit
+	 * @param latencyThreshold
+	 *            pass held longer than this is treated as overload
+	 * @param unit
+	 * @param backoffRatio
+	 *            multiplier applied to the limit on overload, in (0, 1)
+	 */
+	public AIMDLimit(int minLimit, int maxLimit, int initialLimit, long latencyThreshold, TimeUnit unit,
+			double backoffRatio) {
+		super(minLimit, maxLimit, initialLimit);
+		if ( backoffRatio <= 0.0 || backoffRatio >= 1.0 ) {
+			throw new IllegalArgumentException("Backoff ratio should be in range (0, 1): " + backoffRatio);
+		}
+		this.latencyThresholdNanos = unit.toNanos(latencyThreshold);
+		this.backoffRatio = backoffRatio;
+	}
+
+	@Override
+	protected int update(int limit, long latencyNanos, int inFlight) {
+		if ( latencyNanos > latencyThresholdNanos ) {
+			return Math.min(limit - 1, (int) (limit * backoffRatio));
+		}
+		if ( inFlight * 2 >= limit ) {
+			return limit + 1;
+		}
+		return limit;
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource.limit;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Max active passes limit of a single resource which adapts to the observed pass latency.
+ * <br/>
+ * <br/>
+ * Resource data reports time from the pass grant to the pass return of every RO pass together with the number of RO
+ * pass units active at that moment, implementation computes new limit within [minLimit, maxLimit] bounds.
+ * <br/>
+ * <br/>
+ * Samples are processed by a single thread at a time, samples which arrive while other sample is processed are
+ * dropped, so reporting never blocks returning thread.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ *
+ */
+public abstract class AdaptiveLimit {
+	protected final int minLimit;
+	protected final int maxLimit;
+	protected volatile int limit;
+	private final ReentrantLock sampleLock = new ReentrantLock();
+
+	/**
+	 * Instantiate adaptive limit.
+	 * 
+	 * @param minLimit
+	 *            lower bound of the limit, at least 1
+	 * @param maxLimit
+	 *            upper bound of the limit
+	 * @param initialLimit
+	 */
+	protected AdaptiveLimit(int minLimit, int maxLimit, int initialLimit) {
+		super();
+		if ( minLimit < 1 || maxLimit < minLimit ) {
+			throw new IllegalArgumentException("Invalid limit bounds [" + minLimit + ", " + maxLimit + "]");
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = clamp(initialLimit);
+	}
+
+	/**
+	 * Gets current limit.
+	 * 
+	 * @return
+	 */
+	public final int getLimit() {
+		return this.limit;
+	}
+
+	public final int getMinLimit() {
+		return this.minLimit;
+	}
+
+	public final int getMaxLimit() {
+		return this.maxLimit;
+	}
+
+	/**
+	 * Reports returned pass.
+	 * 
+	 * @param latencyNanos
+	 *            time from the pass grant to the pass return
+	 * @param inFlight
+	 *            number of RO pass units active before the pass was returned
+	 */
+	public final void onSample(long latencyNanos, int inFlight) {
+		if ( sampleLock.tryLock() ) {
+			try {
+				limit = clamp(update(limit, latencyNanos, inFlight));
+			} finally {
+				sampleLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Computes new limit. Called by a single thread at a time.
+	 * 
+	 * @param limit
+	 *            current limit
+	 * @param latencyNanos
+	 *            time from the pass grant to the pass return
+	 * @param inFlight
+	 *            number of RO pass units active before the pass was returned
+	 * @return new limit, clamped to the bounds by the caller
+	 */
+	protected abstract int update(int limit, long latencyNanos, int inFlight);
+
+	protected final int clamp(int l) {
+		return Math.max(minLimit, Math.min(maxLimit, l));
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [limit=" + limit + ", minLimit=" + minLimit + ", maxLimit=" + maxLimit
+				+ "]";
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource.limit;
+
+/**
+ * Limit driven by the gradient between long term and current pass latency.
+ * <br/>
+ * <br/>
+ * Long term latency is an exponential moving average over longWindow samples and stands for the latency of the
+ * unloaded resource. While current latency stays close to it the limit grows by about sqrt(limit) per sample, when
+ * current latency grows the limit is scaled down by longLatency / latency (at most twice per sample). New limit is
+ * smoothed with the previous one.
+ * <br/>
+ * <br/>
+ * Limit does not grow while less than half of it is in use.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ *
+ */
+public class GradientLimit extends AdaptiveLimit {
+	protected final int longWindow;
+	protected final double smoothing;
+	/* guarded by the sample lock */
+	protected double estimatedLimit;
+	protected double longLatency = -1.0;
+
+	/**
+	 * Instantiate gradient limit with long window of 100 samples and smoothing 0.2.
+	 * 
+	 * @param minLimit
+	 * @param maxLimit
+	 * @param initialLimit
+	 */
+	public GradientLimit(int minLimit, int maxLimit, int initialLimit) {
+		this(minLimit, maxLimit, initialLimit, 100, 0.2);
+	}
+
+	/**
+	 * Instantiate gradient limit.
+	 * 
+	 * @param minLimit
+	 * @param maxLimit
+	 * @param initialLimit
+	 * @param longWindow
+	 *            number of samples averaged by the long term latency
+	 * @param smoothing
+	 *            weight of the new limit, in (0, 1]
+	 */
+	public GradientLimit(int minLimit, int maxLimit, int initialLimit, int longWindow, double smoothing) {
+		super(minLimit, maxLimit, initialLimit);
+		if ( longWindow < 1 || smoothing <= 0.0 || smoothing > 1.0 ) {
+			throw new IllegalArgumentException("Invalid long window or smoothing");
+		}
+		this.longWindow = longWindow;
+		this.smoothing = smoothing;
+		this.estimatedLimit = getLimit();
+	}
+
+	@Override
+	protected int update(int limit, long latencyNanos, int inFlight) {
+		double latency = Math.max(1L, latencyNanos);
+		if ( longLatency < 0.0 ) {
+			longLatency = latency;
+		} else {
+			longLatency += (latency - longLatency) / longWindow;
+		}
+		if ( longLatency / latency > 2.0 ) {
+			// latency dropped a lot, long term average is stale
+			longLatency = latency * 2.0;
+		}
+		if ( inFlight * 2 < estimatedLimit ) {
+			return limit;
+		}
+		double gradient = Math.max(0.5, Math.min(1.0, longLatency / latency));
+		double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+		newLimit = estimatedLimit * (1.0 - smoothing) + newLimit * smoothing;
+		estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+		return (int) estimatedLimit;
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource.limit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overload control of the resource wait queue, controlled delay (CoDel) adapted to the applicants waiting for the
+ * pass.
+ * <br/>
+ * <br/>
+ * Time every applicant spent in the queue (sojourn time) is measured when it is granted the pass. Queue is overloaded
+ * when the minimum sojourn time over the interval exceeds the target, i.e. every applicant granted for the interval
+ * waited longer than the target, or when no applicant was granted for the interval at all because the resource
+ * stalled. Queue which is never empty but serves its applicants within the target is not overloaded, the measurement
+ * starts over when the queue becomes empty. Applicants which have to wait in the overloaded queue wait for at most
+ * target delay and are rejected with PassRejectedException afterwards, so they fail fast instead of waiting until
+ * their own timeout without doing useful work.
+ * <br/>
+ * <br/>
+ * With adaptive LIFO applicants queued while the queue is overloaded are served last-in first-out, so the recent
+ * requests which still may meet their deadlines get passes first and the stale ones are rejected.
+ * <br/>
+ * <br/>
+ * Instance holds configuration only and may be shared by all resources, queue state is kept by the wait queue.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.PassRejectedException
+ */
+public final class OverloadControl {
+	/* acceptable time to wait in the queue and max time to wait in the overloaded queue */
+	private final long targetNanos;
+	/* queue where applicants waited longer than the target for this time is overloaded */
+	private final long intervalNanos;
+	private final boolean adaptiveLifo;
+
+	/**
+	 * Instantiate overload control.
+	 *
+	 * @param target
+	 *            acceptable time to wait in the queue and max time to wait in the overloaded queue, e.g. 5 ms
+	 * @param interval
+	 *            queue where applicants waited longer than the target for this time is overloaded, e.g. 100 ms
+	 * @param unit
+	 * @param adaptiveLifo
+	 *            true to serve applicants queued while the queue is overloaded in last-in first-out order
+	 */
+	public OverloadControl(long target, long interval, TimeUnit unit, boolean adaptiveLifo) {
+		super();
+		if ( target <= 0L || interval <= 0L ) {
+			throw new IllegalArgumentException("Invalid target " + target + " or interval " + interval);
+		}
+		this.targetNanos = unit.toNanos(target);
+		this.intervalNanos = unit.toNanos(interval);
+		this.adaptiveLifo = adaptiveLifo;
+	}
+
+	public long getTargetNanos() {
+		return this.targetNanos;
+	}
+
+	public long getIntervalNanos() {
+		return this.intervalNanos;
+	}
+
+	public boolean isAdaptiveLifo() {
+		return this.adaptiveLifo;
+	}
+
+	/**
+	 * Checks if the applicant granted the pass waited in the queue longer than the target.
+	 *
+	 * @param sojournNanos
+	 *            time from queueing of the applicant to the grant
+	 * @return
+	 */
+	public boolean isAboveTarget(long sojournNanos) {
+		return sojournNanos > targetNanos;
+	}
+
+	/**
+	 * Checks if the queue is overloaded.
+	 *
+	 * @param sinceNanos
+	 *            System.nanoTime() since which every granted applicant waited longer than the target or since which no
+	 *            applicant was granted while the queue was not empty
+	 * @param now
+	 *            System.nanoTime()
+	 * @return
+	 */
+	public boolean isOverloaded(long sinceNanos, long now) {
+		return now - sinceNanos > intervalNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "OverloadControl [targetNanos=" + targetNanos + ", intervalNanos=" + intervalNanos + ", adaptiveLifo="
+				+ adaptiveLifo + "]";
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource.limit;
+
+/**
+ * Limits rate of passes granted for a single resource, token bucket with the given rate and burst size.
+ * <br/>
+ * <br/>
+ * Implemented as generic cell rate algorithm: the only per resource state is the theoretical arrival time of the next
+ * pass, a single long updated with CAS. Bucket is refilled lazily by comparing it with the current time, there is no
+ * background refill thread. Instance holds configuration only and may be shared by all resources.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ *
+ */
+public final class RateLimit {
+	/* time between passes at the steady rate */
+	private final long intervalNanos;
+	/* how far the theoretical arrival time may be ahead of the current time, burst - 1 intervals */
+	private final long toleranceNanos;
+
+	/**
+	 * Instantiate rate limit.
+	 * 
+	 * @param permitsPerSecond
+	 *            steady rate of passes
+	 * @param burst
+	 *            max number of passes granted at once after the resource was idle, at least 1
+	 */
+	public RateLimit(double permitsPerSecond, int burst) {
+		super();
+		if ( !(permitsPerSecond > 0.0) || burst < 1 ) {
+			throw new IllegalArgumentException("Invalid rate " + permitsPerSecond + " or burst " + burst);
+		}
+		this.intervalNanos = Math.max(1L, (long) (1e9 / permitsPerSecond));
+		this.toleranceNanos = intervalNanos * (burst - 1);
+	}
+
+	public long getIntervalNanos() {
+		return this.intervalNanos;
+	}
+
+	public long getToleranceNanos() {
+		return this.toleranceNanos;
+	}
+
+	/**
+	 * Gets initial theoretical arrival time which allows full burst.
+	 * 
+	 * @param now
+	 *            System.nanoTime()
+	 * @return
+	 */
+	public long initialState(long now) {
+		return now;
+	}
+
+	/**
+	 * Gets time to wait before the pass may be granted.
+	 * 
+	 * @param tat
+	 *            theoretical arrival time
+	 * @param now
+	 *            System.nanoTime()
+	 * @return 0 if pass may be granted at once
+	 */
+	public long delay(long tat, long now) {
+		return Math.max(0L, tat - toleranceNanos - now);
+	}
+
+	/**
+	 * Gets theoretical arrival time after the pass is granted.
+	 * 
+	 * @param tat
+	 *            theoretical arrival time
+	 * @param start
+	 *            time the pass is granted at
+	 * @return
+	 */
+	public long next(long tat, long start) {
+		return (tat - start > 0L ? tat : start) + intervalNanos;
+	}
+
+	/**
+	 * Gets theoretical arrival time after the reserved token is given back unused. Refunds never raise the burst above
+	 * its size, next() and delay() treat arrival time in the past as the current time.
+	 * 
+	 * @param tat
+	 *            theoretical arrival time
+	 * @return
+	 */
+	public long refund(long tat) {
+		return tat - intervalNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimit [permitsPerSecond=" + (1e9 / intervalNanos) + ", burst="
+				+ (toleranceNanos / intervalNanos + 1) + "]";
+	}
+}
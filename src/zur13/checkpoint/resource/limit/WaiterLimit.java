@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource.limit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits number of applicants waiting in the resource wait queues, per resource and for all resources of the
+ * checkpoint.
+ * <br/>
+ * <br/>
+ * Applicant which would exceed the limit is rejected at once instead of waiting, so single hot resource can't take
+ * all threads of the application and memory taken by the waiters stays bounded under overload. Instance is shared by
+ * all resource data of the checkpoint and counts their waiters.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.PassRejectedException
+ */
+public final class WaiterLimit {
+	public static final int UNLIMITED = -1;
+
+	private final int maxWaitersPerResource;
+	private final int maxWaiters;
+	/* number of waiters of all resources, counted only if limited */
+	private final AtomicInteger waiters = new AtomicInteger();
+
+	/**
+	 * Instantiate waiter limit.
+	 *
+	 * @param maxWaitersPerResource
+	 *            max number of applicants waiting for the same resource or UNLIMITED
+	 * @param maxWaiters
+	 *            max number of applicants waiting for all resources or UNLIMITED
+	 */
+	public WaiterLimit(int maxWaitersPerResource, int maxWaiters) {
+		super();
+		if ( maxWaitersPerResource < UNLIMITED || maxWaiters < UNLIMITED ) {
+			throw new IllegalArgumentException("Invalid max waiters " + maxWaitersPerResource + ", " + maxWaiters);
+		}
+		this.maxWaitersPerResource = maxWaitersPerResource;
+		this.maxWaiters = maxWaiters;
+	}
+
+	/**
+	 * Takes place for the new waiter.
+	 *
+	 * @param queued
+	 *            number of applicants already waiting for the resource
+	 * @return true if waiter may be queued, it should be removed with remove() when it leaves the queue
+	 */
+	public boolean tryAdd(int queued) {
+		if ( maxWaitersPerResource != UNLIMITED && queued >= maxWaitersPerResource ) {
+			return false;
+		}
+		if ( maxWaiters == UNLIMITED ) {
+			return true;
+		}
+		for (;;) {
+			int n = waiters.get();
+			if ( n >= maxWaiters ) {
+				return false;
+			}
+			if ( waiters.compareAndSet(n, n + 1) ) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Frees place of the waiter which left the queue.
+	 */
+	public void remove() {
+		if ( maxWaiters != UNLIMITED ) {
+			waiters.decrementAndGet();
+		}
+	}
+
+	public int getMaxWaitersPerResource() {
+		return this.maxWaitersPerResource;
+	}
+
+	public int getMaxWaiters() {
+		return this.maxWaiters;
+	}
+
+	/**
+	 * Gets number of applicants waiting for all resources.
+	 *
+	 * @return number of waiters or 0 if global number of waiters is not limited
+	 */
+	public int getWaiters() {
+		return waiters.get();
+	}
+
+	@Override
+	public String toString() {
+		return "WaiterLimit [maxWaitersPerResource=" + maxWaitersPerResource + ", maxWaiters=" + maxWaiters
+				+ ", waiters=" + waiters.get() + "]";
+	}
+}
@@ -17,6 +17,7 @@
 package zur13.checkpoint.resource.storage;
 
 import zur13.checkpoint.resource.AResourceData;
+import zur13.checkpoint.resource.PassLimit;
 
 /**
  * Provides fast thread safe operations to manage resources data.
@@ -28,6 +29,8 @@ import zur13.checkpoint.resource.AResourceData;
  *
  */
 public abstract class AResourceDataStorage {
+	/* reference counter value of the resource data cleared from the storage, stays negative after stale increments */
+	protected static final long REMOVED = Long.MIN_VALUE / 2;
 
 	public AResourceDataStorage() {
 		super();
@@ -48,4 +51,65 @@ public abstract class AResourceDataStorage {
 	 */
 	public abstract void release(Object resourceId);
 
+	/**
+	 * Retrieves ResourceAccessController instance for the given primitive resource id.
+	 * <p/>
+	 * Default implementation boxes resource id, storages specialized for the primitive ids override it. Named apart
+	 * from get(Object), so int resource ids keep binding to the Object version and stay Integer.
+	 * 
+	 * @return
+	 */
+	public AResourceData getL(long resourceId) {
+		return get(Long.valueOf(resourceId));
+	}
+
+	/**
+	 * Release ResourceAccessController instance for the given primitive resource id.
+	 * 
+	 * @param resourceId
+	 */
+	public void releaseL(long resourceId) {
+		release(Long.valueOf(resourceId));
+	}
+
+	/**
+	 * Gets the key which identifies resource data of the given resource id in this storage. Resource ids with equal
+	 * keys share the same resource data.
+	 * <p/>
+	 * Default implementation returns resource id itself.
+	 * 
+	 * @param resourceId
+	 * @return
+	 */
+	public Object getResourceKey(Object resourceId) {
+		return resourceId;
+	}
+
+	/**
+	 * Creates global passes limit of the checkpoint which uses this storage.
+	 * <p/>
+	 * Default implementation creates limit local to the checkpoint, storages shared by several processes override it.
+	 * 
+	 * @param limit
+	 *            max number of active passes for all resources
+	 * @return
+	 */
+	public PassLimit newGlobalLimit(int limit) {
+		return new PassLimit(limit, false);
+	}
+
+	/**
+	 * Creates passes limit of the resource group of the checkpoint which uses this storage, see GroupPolicy.
+	 * <p/>
+	 * Default implementation creates limit local to the checkpoint, storages shared by several processes override it.
+	 * 
+	 * @param groupId
+	 * @param limit
+	 *            max number of active passes for all resources of the group
+	 * @return
+	 */
+	public PassLimit newGroupLimit(Object groupId, int limit) {
+		return new PassLimit("Group " + groupId, limit, false);
+	}
+
 }
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource.storage;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.ReentrantLock;
+
+import zur13.checkpoint.resource.AResourceData;
+import zur13.checkpoint.resource.ResourceDataFactory;
+
+/**
+ * Provides thread safe operations to store, create and release Resource Data objects for the primitive long resource
+ * ids.
+ * <br/>
+ * <br/>
+ * Resource data is stored in open addressing hash tables keyed by primitive longs, so lookup does not box resource
+ * id, does not call Object.hashCode() and does not allocate map entries. Lookup is lock free, there are critical
+ * sections only when resource data is created or cleared.
+ * <br/>
+ * <br/>
+ * Synchronously clears internal records for resource if no references left on release().
+ * <br/>
+ * <br/>
+ * Accepts only integral resource ids (Long, Integer, Short, Byte) when used through the Object API, Integer and Long
+ * ids with the same value refer to the same resource.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ *
+ */
+public class LongResourceDataStorage extends AResourceDataStorage {
+	static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+	/* marks cleared slot, cleared slots are reclaimed on rehash */
+	static final Object TOMBSTONE = new Object();
+	static final int INITIAL_CAPACITY = 16;
+
+	final Segment[] segments;
+	final int segmentShift;
+	final ResourceDataFactory adf;
+
+	public LongResourceDataStorage(ResourceDataFactory adf, int concurrencyLevel) {
+		super();
+		this.adf = adf;
+		int segmentBits = 0;
+		while ((1 << segmentBits) < concurrencyLevel && segmentBits < 16) {
+			segmentBits++;
+		}
+		segmentShift = 32 - segmentBits;
+		segments = new Segment[1 << segmentBits];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	/**
+	 * Retrieve ResourceData instance for the given resource.
+	 * Create new instance of the ResourceData if no instance stored for the given resource.
+	 * <p/>
+	 * Release ResourceData after the passes it supplied is returned or you have done working with it.
+	 *
+	 * @return
+	 */
+	@Override
+	public AResourceData getL(long resourceId) {
+		int h = hash(resourceId);
+		Segment segment = segmentFor(h);
+
+		AResourceData ad = segment.table.find(resourceId, h);
+		if ( ad == null || ad.getRefCounter().getAndIncrement() <= 0 ) {
+			AResourceData adPrev = ad;
+			segment.lock();
+			try {
+				ad = segment.table.find(resourceId, h);
+				if ( ad == null ) {
+					ad = adf.getResourceData(Long.valueOf(resourceId)); // default refCounter == 1
+					segment.insert(resourceId, h, ad);
+				} else if ( ad != adPrev ) {
+					// ResourceData was recreated after refCounter.getAndIncrement() but before segment was locked
+					ad.getRefCounter().getAndIncrement();
+				}
+			} finally {
+				segment.unlock();
+			}
+		}
+		return ad;
+	}
+
+	/**
+	 * Release ResourceData instance and clear it from the storage if no references left.
+	 *
+	 * @param resourceId
+	 */
+	@Override
+	public void releaseL(long resourceId) {
+		int h = hash(resourceId);
+		Segment segment = segmentFor(h);
+
+		AResourceData ad = segment.table.find(resourceId, h);
+		if ( ad != null && ad.getRefCounter().decrementAndGet() <= 0 ) {
+			segment.lock();
+			try {
+				// mark removed resource data so stale get() calls do not resurrect it
+				if ( ad.getRefCounter().compareAndSet(0, REMOVED) ) {
+					segment.remove(h, ad);
+				}
+			} finally {
+				segment.unlock();
+			}
+		}
+	}
+
+	@Override
+	public AResourceData get(Object resourceId) {
+		return getL(toLong(resourceId));
+	}
+
+	@Override
+	public void release(Object resourceId) {
+		releaseL(toLong(resourceId));
+	}
+
+	/**
+	 * Gets Long resource id with the same value, Integer and Long ids with the same value share the same resource data.
+	 * 
+	 * @return
+	 */
+	@Override
+	public Object getResourceKey(Object resourceId) {
+		return Long.valueOf(toLong(resourceId));
+	}
+
+	static long toLong(Object resourceId) {
+		if ( resourceId instanceof Long || resourceId instanceof Integer || resourceId instanceof Short
+				|| resourceId instanceof Byte ) {
+			return ((Number) resourceId).longValue();
+		}
+		throw new IllegalArgumentException("Integral resource id expected: " + resourceId);
+	}
+
+	/**
+	 * Mixes bits of the resource id, high bits are used to select segment, low bits to select slot.
+	 *
+	 * @param resourceId
+	 * @return
+	 */
+	static final int hash(long resourceId) {
+		long h = resourceId * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	final Segment segmentFor(int h) {
+		return segments.length == 1 ? segments[0] : segments[h >>> segmentShift];
+	}
+
+	/**
+	 * Open addressing table with linear probing. Keys are written before values, values are published with release
+	 * semantic so lock free readers never see value with foreign key.
+	 */
+	static final class Table {
+		final long[] keys;
+		final Object[] values;
+		final int mask;
+
+		Table(int capacity) {
+			keys = new long[capacity];
+			values = new Object[capacity];
+			mask = capacity - 1;
+		}
+
+		AResourceData find(long resourceId, int h) {
+			for (int i = h & mask;; i = (i + 1) & mask) {
+				Object v = VALUES.getAcquire(values, i);
+				if ( v == null ) {
+					return null;
+				}
+				if ( v != TOMBSTONE && keys[i] == resourceId ) {
+					return (AResourceData) v;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Part of the storage with its own table, modified while segment lock is held. ReentrantLock is used instead of
+	 * the object monitor so virtual threads waiting for the segment do not pin their carrier threads.
+	 */
+	@SuppressWarnings("serial")
+	static final class Segment extends ReentrantLock {
+		volatile Table table = new Table(INITIAL_CAPACITY);
+		/* number of live and cleared slots */
+		int used;
+		int live;
+
+		void insert(long resourceId, int h, AResourceData ad) {
+			Table t = table;
+			if ( (used + 1) * 4 > t.keys.length * 3 ) {
+				t = rehash(t);
+			}
+			for (int i = h & t.mask;; i = (i + 1) & t.mask) {
+				if ( t.values[i] == null ) {
+					t.keys[i] = resourceId;
+					VALUES.setRelease(t.values, i, ad);
+					used++;
+					live++;
+					return;
+				}
+			}
+		}
+
+		void remove(int h, AResourceData ad) {
+			Table t = table;
+			for (int i = h & t.mask;; i = (i + 1) & t.mask) {
+				Object v = t.values[i];
+				if ( v == null ) {
+					return;
+				}
+				if ( v == ad ) {
+					VALUES.setRelease(t.values, i, TOMBSTONE);
+					live--;
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Copies live records to the new table sized for the current number of live records.
+		 */
+		Table rehash(Table old) {
+			int capacity = INITIAL_CAPACITY;
+			while (capacity < (live + 1) * 2) {
+				capacity <<= 1;
+			}
+			Table t = new Table(capacity);
+			for (int j = 0; j < old.values.length; j++) {
+				Object v = old.values[j];
+				if ( v != null && v != TOMBSTONE ) {
+					long key = old.keys[j];
+					for (int i = hash(key) & t.mask;; i = (i + 1) & t.mask) {
+						if ( t.values[i] == null ) {
+							t.keys[i] = key;
+							t.values[i] = v;
+							break;
+						}
+					}
+				}
+			}
+			used = live;
+			table = t;
+			return t;
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.locks.ReentrantLock;
+
+import zur13.checkpoint.resource.AResourceData;
+import zur13.checkpoint.resource.MappedPassLimit;
+import zur13.checkpoint.resource.MappedStateTable;
+import zur13.checkpoint.resource.PassLimit;
+import zur13.checkpoint.resource.ResourceDataFactory;
+
+/**
+ * Provides thread safe operations to store and create Resource Data objects for the primitive long resource ids in
+ * the file shared by the processes of the host.
+ * <br/><br/>
+ * Checkpoints of all processes which use the storage over the same file share per resource and global passes limits,
+ * so limits are applied to the whole host without any network communication. Passes held by the process which is
+ * gone without returning them are returned by the other processes.
+ * <br/><br/>
+ * This storage DOES NOT clear internal data! Table capacity should be enough for all resource ids checkpoints will
+ * ever see, IllegalStateException is thrown when table is full. Storage should be closed when the checkpoint is not
+ * used anymore to detach the process from the file.
+ * <br/><br/>
+ * Accepts only integral resource ids (Long, Integer, Short, Byte) when used through the Object API.
+ * <br/><br/>
+ * Group passes limits are shared by the processes as well, they are stored in the table of the sibling file with the
+ * ".groups" suffix which is opened when the first group limit is created. Accepts only integral group ids.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ * @see zur13.checkpoint.resource.MappedStateTable
+ */
+public class MappedResourceDataStorage extends AResourceDataStorage implements AutoCloseable {
+	/* max number of group ids stored in the groups table, ignored if the file already exists */
+	public static final long GROUPS_CAPACITY = 1024L;
+
+	final MappedStateTable table;
+	final ResourceDataFactory adf;
+	/* table of the group passes limits, null until the first group limit is created */
+	/* guards groups and closed, table is opened under it, so it is not taken under the map bin locks */
+	final ReentrantLock groupsLock = new ReentrantLock();
+	MappedStateTable groups;
+	boolean closed;
+
+	/**
+	 * Instantiate a storage over the given file, creates the file if necessary.
+	 * 
+	 * @param adf
+	 * @param file
+	 * @param capacity
+	 *            max number of resource ids, ignored if the file already exists
+	 * @throws IOException
+	 */
+	public MappedResourceDataStorage(ResourceDataFactory adf, Path file, long capacity) throws IOException {
+		this(adf, new MappedStateTable(file, capacity));
+	}
+
+	/**
+	 * Instantiate a storage over the given table.
+	 * 
+	 * @param adf
+	 * @param table
+	 */
+	public MappedResourceDataStorage(ResourceDataFactory adf, MappedStateTable table) {
+		super();
+		this.adf = adf;
+		this.table = table;
+	}
+
+	/**
+	 * Creates short living view of the resource data stored in the shared table.
+	 * 
+	 * @return
+	 */
+	@Override
+	public AResourceData getL(long resourceId) {
+		return adf.getResourceData(Long.valueOf(resourceId), table, table.slot(resourceId));
+	}
+
+	/**
+	 * Do nothing in this implementation.
+	 *
+	 * @param resourceId
+	 */
+	@Override
+	public void releaseL(long resourceId) {
+	}
+
+	@Override
+	public AResourceData get(Object resourceId) {
+		long id = LongResourceDataStorage.toLong(resourceId);
+		return adf.getResourceData(Long.valueOf(id), table, table.slot(id));
+	}
+
+	/**
+	 * Do nothing in this implementation.
+	 *
+	 * @param resourceId
+	 */
+	@Override
+	public void release(Object resourceId) {
+	}
+
+	/**
+	 * Gets Long resource id with the same value, Integer and Long ids with the same value share the same resource data.
+	 * 
+	 * @return
+	 */
+	@Override
+	public Object getResourceKey(Object resourceId) {
+		return Long.valueOf(LongResourceDataStorage.toLong(resourceId));
+	}
+
+	/**
+	 * Creates global passes limit shared by all processes which use the file.
+	 * 
+	 * @return
+	 */
+	@Override
+	public PassLimit newGlobalLimit(int limit) {
+		return new MappedPassLimit(table, limit);
+	}
+
+	/**
+	 * Creates group passes limit shared by all processes which use the file.
+	 * 
+	 * @param groupId
+	 *            integral group id
+	 * @param limit
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if group id is not integral
+	 * @throws UncheckedIOException
+	 *             if the groups table can't be opened
+	 */
+	@Override
+	public PassLimit newGroupLimit(Object groupId, int limit) {
+		long id = LongResourceDataStorage.toLong(groupId);
+		MappedStateTable g = groups();
+		return new MappedPassLimit(g, g.slot(id), "Group " + groupId, limit);
+	}
+
+	/**
+	 * Opens the groups table in the sibling file if it is not opened yet.
+	 */
+	MappedStateTable groups() {
+		groupsLock.lock();
+		try {
+			if ( closed ) {
+				throw new IllegalStateException("Storage is closed");
+			}
+			if ( groups == null ) {
+				Path file = table.getFile();
+				try {
+					groups = new MappedStateTable(file.resolveSibling(file.getFileName() + ".groups"),
+							GROUPS_CAPACITY, table.getProcesses(), table.getPollNanos());
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			return groups;
+		} finally {
+			groupsLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns passes held by the processes which are gone. Storage does it in the background every second.
+	 * 
+	 * @return number of processes which passes were returned
+	 * @throws IOException
+	 */
+	public int reclaim() throws IOException {
+		MappedStateTable g;
+		groupsLock.lock();
+		try {
+			g = groups;
+		} finally {
+			groupsLock.unlock();
+		}
+		int reclaimed = table.reclaim();
+		if ( g != null ) {
+			g.reclaim();
+		}
+		return reclaimed;
+	}
+
+	/**
+	 * Gets number of resource ids stored in the table by all processes.
+	 * 
+	 * @return
+	 */
+	public long size() {
+		return table.size();
+	}
+
+	/**
+	 * Detaches this process from the file, passes which are not returned yet are returned.
+	 * 
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		MappedStateTable g;
+		groupsLock.lock();
+		try {
+			closed = true;
+			g = groups;
+		} finally {
+			groupsLock.unlock();
+		}
+		try {
+			table.close();
+		} finally {
+			if ( g != null ) {
+				g.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource.storage;
+
+import zur13.checkpoint.resource.AResourceData;
+import zur13.checkpoint.resource.OffHeapStateTable;
+import zur13.checkpoint.resource.ResourceDataFactory;
+
+/**
+ * Provides thread safe operations to store and create Resource Data objects for the primitive long resource ids.
+ * <br/><br/>
+ * Resource states are stored outside of the java heap in the fixed capacity table, 16 bytes per resource id. Java
+ * objects are created only for the resources which have waiting applicants at the moment, so heap usage and GC time
+ * do not depend on the number of resource ids.
+ * <br/><br/>
+ * This storage DOES NOT clear internal data! Table capacity should be enough for all resource ids checkpoint will
+ * ever see, IllegalStateException is thrown when table is full.
+ * <br/><br/>
+ * Accepts only integral resource ids (Long, Integer, Short, Byte) when used through the Object API.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ *
+ */
+public class OffHeapResourceDataStorage extends AResourceDataStorage {
+	final OffHeapStateTable table;
+	final ResourceDataFactory adf;
+
+	/**
+	 * Instantiate an off heap storage.
+	 * 
+	 * @param adf
+	 * @param capacity
+	 *            max number of resource ids
+	 */
+	public OffHeapResourceDataStorage(ResourceDataFactory adf, long capacity) {
+		super();
+		this.adf = adf;
+		this.table = new OffHeapStateTable(capacity);
+	}
+
+	/**
+	 * Creates short living view of the resource data stored in the off heap table.
+	 * 
+	 * @return
+	 */
+	@Override
+	public AResourceData getL(long resourceId) {
+		return adf.getResourceData(Long.valueOf(resourceId), table, table.slot(resourceId));
+	}
+
+	/**
+	 * Do nothing in this implementation.
+	 *
+	 * @param resourceId
+	 */
+	@Override
+	public void releaseL(long resourceId) {
+	}
+
+	@Override
+	public AResourceData get(Object resourceId) {
+		long id = LongResourceDataStorage.toLong(resourceId);
+		return adf.getResourceData(Long.valueOf(id), table, table.slot(id));
+	}
+
+	/**
+	 * Do nothing in this implementation.
+	 *
+	 * @param resourceId
+	 */
+	@Override
+	public void release(Object resourceId) {
+	}
+
+	/**
+	 * Gets Long resource id with the same value, Integer and Long ids with the same value share the same resource data.
+	 * 
+	 * @return
+	 */
+	@Override
+	public Object getResourceKey(Object resourceId) {
+		return Long.valueOf(LongResourceDataStorage.toLong(resourceId));
+	}
+
+	/**
+	 * Gets number of resource ids stored in the table.
+	 * 
+	 * @return
+	 */
+	public long size() {
+		return table.size();
+	}
+}
@@ -17,14 +17,18 @@
 package zur13.checkpoint.resource.storage;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import zur13.checkpoint.resource.AResourceData;
 import zur13.checkpoint.resource.ResourceDataFactory;
 
 /**
  * Provides thread safe operations to store, create and release Resource Data objects.
- * Has critical sections at get() and release() operations.
- * Synchronously clears internal records for resource if no references left on release().
+ * Has critical sections at get() and release() operations, guarded by per bucket ReentrantLock instead of the object
+ * monitor so waiting virtual threads do not pin their carrier threads.
+ * Synchronously clears internal records for resource if no references left on release(), except the last released
+ * resource data of every bucket which is kept for the next get(), so acquire and return cycle of the hot resource id
+ * does not allocate.
  *
  * @author
  *         <ul>
@@ -34,6 +38,9 @@ import zur13.checkpoint.resource.ResourceDataFactory;
  */
 public class ResourceDataStorage extends AResourceDataStorage {
 	final ConcurrentHashMap<Object, AResourceData>[] dataBuckets;
+	final ReentrantLock[] bucketLocks;
+	/* last resource data of the bucket released with no references left, guarded by the bucket lock */
+	final AResourceData[] idle;
 	final ResourceDataFactory adf;
 
 	@SuppressWarnings("unchecked")
@@ -41,8 +48,11 @@ public class ResourceDataStorage extends AResourceDataStorage {
 		super();
 		this.adf = adf;
 		dataBuckets = new ConcurrentHashMap[concurrencyLevel];
+		bucketLocks = new ReentrantLock[concurrencyLevel];
+		idle = new AResourceData[concurrencyLevel];
 		for (int i = 0; i < dataBuckets.length; i++) {
 			dataBuckets[i] = new ConcurrentHashMap<Object, AResourceData>();
+			bucketLocks[i] = new ReentrantLock();
 		}
 	}
 
@@ -59,23 +69,28 @@ public class ResourceDataStorage extends AResourceDataStorage {
 		AResourceData ad = null;
 		AResourceData adPrev = null;
 
-		int bucketIdx = spread(resourceId.hashCode()) % dataBuckets.length;
+		int bucketIdx = (spread(resourceId.hashCode()) & 0x7FFFFFFF) % dataBuckets.length;
 		ConcurrentHashMap<Object, AResourceData> resourcesDataBucket = dataBuckets[bucketIdx];
 
 		ad = resourcesDataBucket.get(resourceId);
 
-		if ( ad == null || ad.getRefCounter().getAndIncrement() <= 0 ) {
+		// idle resource data has no references but is still stored, only removed one is recreated
+		if ( ad == null || ad.getRefCounter().getAndIncrement() < 0 ) {
 			adPrev = ad;
-			synchronized (resourcesDataBucket) {
+			ReentrantLock lock = bucketLocks[bucketIdx];
+			lock.lock();
+			try {
 				ad = resourcesDataBucket.get(resourceId);
 				if ( ad == null ) {
 					ad = adf.getResourceData(resourceId); // default refCounter == 1
 					resourcesDataBucket.put(resourceId, ad);
 				} else if ( ad != adPrev ) {
 					// ResourceData was recreated and put to Hash Map after refCounter.getAndIncrement()
-					// but before synchronized() block
+					// but before bucket lock was acquired
 					ad.getRefCounter().getAndIncrement();
 				}
+			} finally {
+				lock.unlock();
 			}
 		}
 
@@ -83,22 +98,30 @@ public class ResourceDataStorage extends AResourceDataStorage {
 	}
 
 	/**
-	 * Release ResourceAccessController instance and clear it from the storage if no references left.
+	 * Release ResourceAccessController instance. If no references left it becomes the idle resource data of the
+	 * bucket and the previous idle resource data is cleared from the storage unless it was requested again.
 	 *
 	 * @param resourceId
 	 */
 	@Override
 	public void release(Object resourceId) {
-		int bucketIdx = spread(resourceId.hashCode()) % dataBuckets.length;
+		int bucketIdx = (spread(resourceId.hashCode()) & 0x7FFFFFFF) % dataBuckets.length;
 		ConcurrentHashMap<Object, AResourceData> resourcesDataBucket = dataBuckets[bucketIdx];
 
 		AResourceData ad = resourcesDataBucket.get(resourceId);
 
 		if ( ad != null && ad.getRefCounter().decrementAndGet() <= 0 ) {
-			synchronized (resourcesDataBucket) {
-				if ( ad.getRefCounter().get() <= 0 ) {
-					resourcesDataBucket.remove(ad.getResourceId());
+			ReentrantLock lock = bucketLocks[bucketIdx];
+			lock.lock();
+			try {
+				AResourceData prev = idle[bucketIdx];
+				idle[bucketIdx] = ad;
+				// mark removed resource data so stale get() calls do not resurrect it
+				if ( prev != null && prev != ad && prev.getRefCounter().compareAndSet(0, REMOVED) ) {
+					resourcesDataBucket.remove(prev.getResourceId());
 				}
+			} finally {
+				lock.unlock();
 			}
 		}
 	}
@@ -17,6 +17,7 @@
 package zur13.checkpoint.resource.storage;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import zur13.checkpoint.resource.AResourceData;
 import zur13.checkpoint.resource.ResourceDataFactory;
@@ -43,6 +44,7 @@ import zur13.checkpoint.resource.ResourceDataFactory;
  */
 public class ResourceDataStorageUnsafe extends AResourceDataStorage {
 	ConcurrentHashMap<Object, AResourceData>[] dataBuckets;
+	ReentrantLock[] bucketLocks;
 	ResourceDataFactory adf;
 
 	@SuppressWarnings("unchecked")
@@ -50,8 +52,10 @@ public class ResourceDataStorageUnsafe extends AResourceDataStorage {
 		super();
 		this.adf = adf;
 		dataBuckets = new ConcurrentHashMap[concurrencyLevel];
+		bucketLocks = new ReentrantLock[concurrencyLevel];
 		for (int i = 0; i < dataBuckets.length; i++) {
 			dataBuckets[i] = new ConcurrentHashMap<Object, AResourceData>();
+			bucketLocks[i] = new ReentrantLock();
 		}
 	}
 
@@ -67,18 +71,22 @@ public class ResourceDataStorageUnsafe extends AResourceDataStorage {
 	public AResourceData get(Object resourceId) {
 		AResourceData ad = null;
 
-		int bucketIdx = spread(resourceId.hashCode()) % dataBuckets.length;
+		int bucketIdx = (spread(resourceId.hashCode()) & 0x7FFFFFFF) % dataBuckets.length;
 		ConcurrentHashMap<Object, AResourceData> resourcesDataBucket = dataBuckets[bucketIdx];
 
 		ad = resourcesDataBucket.get(resourceId);
 
 		if ( ad == null ) {
-			synchronized (resourcesDataBucket) {
+			ReentrantLock lock = bucketLocks[bucketIdx];
+			lock.lock();
+			try {
 				ad = resourcesDataBucket.get(resourceId);
 				if ( ad == null ) {
 					ad = adf.getResourceData(resourceId); // default refCounter == 1
 					resourcesDataBucket.put(resourceId, ad);
 				}
+			} finally {
+				lock.unlock();
 			}
 		}
 
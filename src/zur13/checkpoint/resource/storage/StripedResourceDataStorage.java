@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018 Yurii Polianytsia (coolio-iglesias@yandex.ru)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zur13.checkpoint.resource.storage;
+
+import zur13.checkpoint.resource.AResourceData;
+import zur13.checkpoint.resource.ResourceDataFactory;
+
+/**
+ * Provides thread safe operations to retrieve Resource Data objects from the fixed size table of stripes.
+ * <br/><br/>
+ * Each resource id is hashed onto one of the preallocated stripes, different resource ids may share the same stripe
+ * and therefore the same passes limit. Storage never creates, clears or counts references to the resource data, so
+ * memory usage is constant and lookup is a single hash and index operation.
+ * <br/><br/>
+ * Resource data and passes report stripe index (Integer) as the resource id.
+ *
+ * @author
+ *         <ul>
+ *         <li>Yurii Polianytsia (coolio-iglesias@yandex.ru)</li>
+ *         </ul>
+ *
+ */
+public class StripedResourceDataStorage extends AResourceDataStorage {
+	final AResourceData[] stripes;
+	final int mask;
+
+	/**
+	 * Instantiate a striped storage.
+	 * 
+	 * @param adf
+	 * @param stripes
+	 *            number of stripes, rounded up to the power of two
+	 */
+	public StripedResourceDataStorage(ResourceDataFactory adf, int stripes) {
+		super();
+		if ( stripes <= 0 || stripes > 1 << 30 ) {
+			throw new IllegalArgumentException("Invalid number of stripes: " + stripes);
+		}
+		int size = Integer.highestOneBit(stripes);
+		if ( size < stripes ) {
+			size <<= 1;
+		}
+		this.stripes = new AResourceData[size];
+		this.mask = size - 1;
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = adf.getResourceData(Integer.valueOf(i));
+		}
+	}
+
+	/**
+	 * Retrieves resource data of the stripe for the given resource id.
+	 * 
+	 * @return
+	 */
+	@Override
+	public AResourceData get(Object resourceId) {
+		return stripes[index(resourceId.hashCode())];
+	}
+
+	/**
+	 * Retrieves resource data of the stripe for the given primitive resource id, Long and long resource ids with the
+	 * same value share the same stripe.
+	 * 
+	 * @return
+	 */
+	@Override
+	public AResourceData getL(long resourceId) {
+		return stripes[index(Long.hashCode(resourceId))];
+	}
+
+	/**
+	 * Do nothing in this implementation.
+	 *
+	 * @param resourceId
+	 */
+	@Override
+	public void release(Object resourceId) {
+	}
+
+	/**
+	 * Do nothing in this implementation.
+	 *
+	 * @param resourceId
+	 */
+	@Override
+	public void releaseL(long resourceId) {
+	}
+
+	/**
+	 * Gets stripe index of the given resource id.
+	 * 
+	 * @return
+	 */
+	@Override
+	public Object getResourceKey(Object resourceId) {
+		return stripes[index(resourceId.hashCode())].getResourceId();
+	}
+
+	/**
+	 * Gets number of stripes.
+	 * 
+	 * @return
+	 */
+	public int getStripes() {
+		return stripes.length;
+	}
+
+	/**
+	 * Mixes bits of the hash code so ids which differ only in high bits do not share a stripe.
+	 * 
+	 * @param h
+	 * @return non negative stripe index
+	 */
+	final int index(int h) {
+		h *= 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}